@@ -24,6 +24,7 @@
 package oap.etl;
 
 import oap.io.IoStreams;
+import oap.tsv.Batch;
 
 import java.nio.file.Path;
 import java.util.List;
@@ -39,5 +40,9 @@ public interface Export {
 
     void line( List<?> list );
 
+    default void batch( Batch batch ) {
+        for( int row = 0; row < batch.size(); row++ ) line( batch.row( row ) );
+    }
+
     void close();
 }
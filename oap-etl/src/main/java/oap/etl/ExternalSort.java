@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.etl;
+
+import oap.util.Stream;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Stable external merge sort: rows are sorted in runs of at most {@code rows}, runs are spilled to
+ * {@code directory} and merged back with a k-way merge when the sorted stream is consumed. At most
+ * {@link #FAN_IN} runs are merged at once, more runs are first merged in passes into intermediate runs,
+ * a run is opened only when its pass starts.
+ */
+final class ExternalSort implements Iterator<List<Object>> {
+   static final int FAN_IN = 64;
+
+   private final Iterator<List<Object>> input;
+   private final Comparator<List<Object>> comparator;
+   private final int rows;
+   private final Path directory;
+   private final int fanIn;
+   private Merge merge;
+
+   private ExternalSort( Iterator<List<Object>> input, Comparator<List<Object>> comparator, int rows,
+                         Path directory, int fanIn ) {
+      this.input = input;
+      this.comparator = comparator;
+      this.rows = rows;
+      this.directory = directory;
+      this.fanIn = fanIn;
+   }
+
+   static Stream<List<Object>> sort( Stream<List<Object>> lines, Comparator<List<Object>> comparator, int rows,
+                                     Path directory ) {
+      return sort( lines, comparator, rows, directory, FAN_IN );
+   }
+
+   static Stream<List<Object>> sort( Stream<List<Object>> lines, Comparator<List<Object>> comparator, int rows,
+                                     Path directory, int fanIn ) {
+      final ExternalSort sort = new ExternalSort( lines.iterator(), comparator, rows, directory, fanIn );
+      return Stream.of( sort ).onClose( sort::close );
+   }
+
+   private void init() {
+      if( merge != null ) return;
+
+      List<Path> files = new ArrayList<>();
+      final ArrayList<List<Object>> buffer = new ArrayList<>();
+      while( input.hasNext() ) {
+         buffer.add( input.next() );
+         if( buffer.size() >= rows ) {
+            buffer.sort( comparator );
+            files.add( write( buffer.iterator() ) );
+            buffer.clear();
+         }
+      }
+      buffer.sort( comparator );
+
+      while( files.size() > fanIn ) {
+         final List<Path> merged = new ArrayList<>();
+         for( int from = 0; from < files.size(); from += fanIn ) {
+            final List<Path> pass = files.subList( from, Math.min( from + fanIn, files.size() ) );
+            if( pass.size() == 1 ) merged.add( pass.get( 0 ) );
+            else {
+               final Merge runs = new Merge( pass, Collections.emptyIterator() );
+               try {
+                  merged.add( write( runs ) );
+               } finally {
+                  runs.close();
+               }
+            }
+         }
+         files = merged;
+      }
+
+      merge = new Merge( files, buffer.iterator() );
+   }
+
+   private Path write( Iterator<List<Object>> sorted ) {
+      final Rows.Writer writer = Rows.writer( directory, "sort" );
+      try {
+         while( sorted.hasNext() ) writer.write( sorted.next() );
+      } finally {
+         writer.close();
+      }
+      return writer.path;
+   }
+
+   @Override
+   public boolean hasNext() {
+      init();
+      return merge.hasNext();
+   }
+
+   @Override
+   public List<Object> next() {
+      if( !hasNext() ) throw new NoSuchElementException();
+
+      return merge.next();
+   }
+
+   private void close() {
+      if( merge != null ) merge.close();
+   }
+
+   /**
+     * K-way merge of consecutive runs, rows of equal keys keep the order of their runs.
+    */
+   private final class Merge implements Iterator<List<Object>> {
+      private final PriorityQueue<Run> runs = new PriorityQueue<>( ( r1, r2 ) -> {
+         final int result = comparator.compare( r1.head, r2.head );
+         return result != 0 ? result : Integer.compare( r1.index, r2.index );
+      } );
+
+      Merge( List<Path> files, Iterator<List<Object>> last ) {
+         int index = 0;
+         for( Path file : files ) add( new Run( index++, Rows.reader( file ) ) );
+         add( new Run( index, last ) );
+      }
+
+      private void add( Run run ) {
+         if( run.advance() ) runs.add( run );
+      }
+
+      @Override
+      public boolean hasNext() {
+         return !runs.isEmpty();
+      }
+
+      @Override
+      public List<Object> next() {
+         if( !hasNext() ) throw new NoSuchElementException();
+
+         final Run run = runs.poll();
+         final List<Object> row = run.head;
+         add( run );
+         return row;
+      }
+
+      void close() {
+         runs.forEach( Run::close );
+      }
+   }
+
+   private static final class Run {
+      final int index;
+      final Iterator<List<Object>> rows;
+      List<Object> head;
+
+      Run( int index, Iterator<List<Object>> rows ) {
+         this.index = index;
+         this.rows = rows;
+      }
+
+      boolean advance() {
+         if( !rows.hasNext() ) return false;
+         head = rows.next();
+         return true;
+      }
+
+      void close() {
+         if( rows instanceof Rows.Reader ) ( ( Rows.Reader ) rows ).close();
+      }
+   }
+}
@@ -23,6 +23,7 @@
  */
 package oap.etl;
 
+import oap.tsv.Batch;
 import oap.tsv.Tsv;
 
 import java.io.IOException;
@@ -46,6 +47,17 @@ public class OutputStreamExport<Out extends OutputStream> implements Export {
         }
     }
 
+    @Override
+    public void batch( Batch batch ) {
+        final StringBuilder lines = new StringBuilder( batch.size() * 64 );
+        for( int row = 0; row < batch.size(); row++ ) batch.print( row, lines );
+        try {
+            out.write( lines.toString().getBytes() );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
     @Override
     public void close() {
         try {
@@ -0,0 +1,253 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.etl;
+
+import oap.tsv.Batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.io.IoStreams.DEFAULT_BUFFER;
+
+/**
+ * Binary spill files of rows holding the {@link oap.tsv.Model} column types. A file is read once, it is deleted
+ * when its last row has been read.
+ */
+final class Rows {
+   private static final int END = -1;
+   private static final byte NULL = 0;
+   private static final byte STRING = 1;
+   private static final byte INT = 2;
+   private static final byte LONG = 3;
+   private static final byte DOUBLE = 4;
+   private static final byte BOOLEAN = 5;
+
+   private Rows() {
+   }
+
+   static Writer writer( Path directory, String prefix ) {
+      try {
+         Files.createDirectories( directory );
+         final Path path = Files.createTempFile( directory, prefix, ".rows" );
+         return new Writer( path,
+            new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( path ), DEFAULT_BUFFER ) ) );
+      } catch( IOException e ) {
+         throw new UncheckedIOException( e );
+      }
+   }
+
+   static Reader reader( Path path ) {
+      try {
+         return new Reader( path,
+            new DataInputStream( new BufferedInputStream( Files.newInputStream( path ), DEFAULT_BUFFER ) ) );
+      } catch( IOException e ) {
+         throw new UncheckedIOException( e );
+      }
+   }
+
+   static final class Writer implements Closeable {
+      final Path path;
+      private final DataOutputStream out;
+      private boolean closed;
+
+      private Writer( Path path, DataOutputStream out ) {
+         this.path = path;
+         this.out = out;
+      }
+
+      void write( List<Object> row ) {
+         try {
+            out.writeInt( row.size() );
+            for( Object value : row ) write( value );
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+
+      /**
+       * Writes the row straight from the columns, it is read back as {@link Batch#row(int)}.
+       */
+      void write( Batch batch, int row ) {
+         try {
+            out.writeInt( batch.columns() );
+            for( int column = 0; column < batch.columns(); column++ )
+               switch( batch.type( column ) ) {
+                  case BOOLEAN:
+                     out.writeByte( BOOLEAN );
+                     out.writeBoolean( batch.getBoolean( column, row ) );
+                     break;
+                  case STRING:
+                     write( batch.getString( column, row ) );
+                     break;
+                  case INT:
+                     out.writeByte( INT );
+                     out.writeInt( batch.getInt( column, row ) );
+                     break;
+                  case LONG:
+                     out.writeByte( LONG );
+                     out.writeLong( batch.getLong( column, row ) );
+                     break;
+                  case DOUBLE:
+                     out.writeByte( DOUBLE );
+                     out.writeDouble( batch.getDouble( column, row ) );
+                     break;
+                  default:
+                     throw new IllegalStateException( "Unknown column type " + batch.type( column ) );
+               }
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+
+      private void write( String value ) throws IOException {
+         if( value == null ) out.writeByte( NULL );
+         else {
+            final byte[] bytes = value.getBytes( UTF_8 );
+            out.writeByte( STRING );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+         }
+      }
+
+      private void write( Object value ) throws IOException {
+         if( value == null ) out.writeByte( NULL );
+         else if( value instanceof String ) write( ( String ) value );
+         else if( value instanceof Integer ) {
+            out.writeByte( INT );
+            out.writeInt( ( Integer ) value );
+         } else if( value instanceof Long ) {
+            out.writeByte( LONG );
+            out.writeLong( ( Long ) value );
+         } else if( value instanceof Double ) {
+            out.writeByte( DOUBLE );
+            out.writeDouble( ( Double ) value );
+         } else if( value instanceof Boolean ) {
+            out.writeByte( BOOLEAN );
+            out.writeBoolean( ( Boolean ) value );
+         } else throw new IllegalArgumentException( "cannot spill " + value.getClass().getName() + ": " + value );
+      }
+
+      @Override
+      public void close() {
+         if( closed ) return;
+         closed = true;
+         try {
+            out.writeInt( END );
+            out.close();
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+   }
+
+   static final class Reader implements Iterator<List<Object>>, Closeable {
+      private final Path path;
+      private final DataInputStream in;
+      private int size;
+      private boolean closed;
+
+      private Reader( Path path, DataInputStream in ) {
+         this.path = path;
+         this.in = in;
+         this.size = readSize();
+      }
+
+      private int readSize() {
+         try {
+            final int size = in.readInt();
+            if( size == END ) close();
+            return size;
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+
+      @Override
+      public boolean hasNext() {
+         return size != END;
+      }
+
+      @Override
+      public List<Object> next() {
+         if( size == END ) throw new NoSuchElementException( path.toString() );
+
+         try {
+            final ArrayList<Object> row = new ArrayList<>( size );
+            for( int i = 0; i < size; i++ ) row.add( read() );
+            size = readSize();
+            return row;
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+
+      private Object read() throws IOException {
+         final byte type = in.readByte();
+         switch( type ) {
+            case NULL:
+               return null;
+            case STRING:
+               final byte[] bytes = new byte[in.readInt()];
+               in.readFully( bytes );
+               return new String( bytes, UTF_8 );
+            case INT:
+               return in.readInt();
+            case LONG:
+               return in.readLong();
+            case DOUBLE:
+               return in.readDouble();
+            case BOOLEAN:
+               return in.readBoolean();
+            default:
+               throw new IOException( path + ": unknown type " + type );
+         }
+      }
+
+      @Override
+      public void close() {
+         if( closed ) return;
+         closed = true;
+         size = END;
+         try {
+            in.close();
+            Files.deleteIfExists( path );
+         } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+         }
+      }
+   }
+}
@@ -24,32 +24,42 @@
 package oap.etl;
 
 import oap.etl.accumulator.Accumulator;
+import oap.tsv.Batch;
 import oap.tsv.Model;
+import oap.tsv.ParallelReader;
 import oap.tsv.Tsv;
 import oap.util.Pair;
 import oap.util.Stream;
+import oap.util.Throwables;
 
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import static oap.util.Pair.__;
 
 public class Table {
    private Stream<List<Object>> lines;
+   private Stream<Batch> batches;
    private List<Runnable> closeHandlers = new ArrayList<>();
+   private int memoryBudget = Integer.MAX_VALUE;
+   private Path spillDirectory;
 
    private Table( Stream<List<Object>> lines ) {
       this.lines = lines;
@@ -79,33 +89,92 @@ public class Table {
       return new Table( Tsv.fromPaths( paths, model ) );
    }
 
+   /**
+    * Files are read concurrently by {@code reader}, see {@link Tsv#parallel(int)}.
+    */
+   public static Table fromPaths( List<Path> paths, Model model, ParallelReader reader ) {
+      return new Table( reader.fromPaths( paths, model ) );
+   }
+
+   public static Table fromPaths( List<Path> paths, Model.Complex complexModel, ParallelReader reader ) {
+      return new Table( reader.fromPaths( paths, complexModel ) );
+   }
+
+   /**
+    * Columnar table, see {@link Tsv#batchesFromPaths(List, Model)}. Group by, export and progress consume the
+    * batches directly, other operations switch the table to boxed rows.
+    */
+   public static Table fromBatches( Stream<Batch> batches ) {
+      final Table table = new Table( null );
+      table.batches = batches;
+      return table;
+   }
+
+   private Stream<List<Object>> lines() {
+      if( batches != null ) {
+         lines = batches.flatMap( Batch::rows );
+         batches = null;
+      }
+      return lines;
+   }
+
+   /**
+    * Bounds the memory of the following {@link #sort(int[])} and group by: sort keeps at most {@code rows} rows in
+    * memory and merges sorted runs spilled to {@code directory}, group by keeps at most {@code rows} keys per group
+    * in memory and spills rows of other keys to hash partitions of {@code directory} aggregated one at a time.
+    * Tables of the resulting {@link GroupByStream} inherit the budget.
+    */
+   public Table withMemoryBudget( Path directory, int rows ) {
+      this.spillDirectory = directory;
+      this.memoryBudget = rows;
+      return this;
+   }
+
    @SuppressWarnings( "unchecked" )
    public Table sort( int[] fields ) {
-      this.lines = lines.sorted( ( l1, l2 ) -> {
+      final Comparator<List<Object>> comparator = ( l1, l2 ) -> {
          for( int field : fields ) {
             int result = ( ( Comparable ) l1.get( field ) ).compareTo( l2.get( field ) );
             if( result != 0 ) return result;
          }
          return 0;
-      } );
+      };
+      this.lines = spillDirectory == null ? lines().sorted( comparator )
+         : ExternalSort.sort( lines(), comparator, memoryBudget, spillDirectory );
       return this;
    }
 
    public Table export( Export export ) {
       closeHandlers.add( export::close );
+      if( batches != null ) {
+         this.batches = batches.map( b -> {
+            export.batch( b );
+            return b;
+         } );
+         return this;
+      }
       return transform( export::line );
    }
 
    public Table progress( long step, LongConsumer report ) {
       AtomicLong total = new AtomicLong( 0 );
       closeHandlers.add( () -> report.accept( total.get() ) );
+      if( batches != null ) {
+         this.batches = batches.map( b -> {
+            final long before = total.getAndAdd( b.size() );
+            for( long reported = ( before / step + 1 ) * step; reported <= before + b.size(); reported += step )
+               report.accept( reported );
+            return b;
+         } );
+         return this;
+      }
       return transform( l -> {
          if( total.incrementAndGet() % step == 0 ) report.accept( total.get() );
       } );
    }
 
    public Table transform( Consumer<List<Object>> consumer ) {
-      this.lines = this.lines.map( l -> {
+      this.lines = lines().map( l -> {
          consumer.accept( l );
          return l;
       } );
@@ -113,77 +182,357 @@ public class Table {
    }
 
    public GroupByStream groupBy( GroupBy... groups ) {
-      final AggregatorData[] agg = new AggregatorData[groups.length];
-      final Object[][] keys = new Object[groups.length][];
-      final HashCodeCache[] hashCodeCache = new HashCodeCache[groups.length];
+      final Partial partial = new Partial( groups, memoryBudget, spillDirectory, 0 );
+
+      if( batches != null ) {
+         final Iterator<Batch> iterator = batches.iterator();
+         while( iterator.hasNext() ) partial.accumulate( iterator.next() );
+      } else {
+         final Iterator<List<Object>> iterator = lines.iterator();
+         while( iterator.hasNext() ) partial.accumulate( iterator.next() );
+      }
 
-      for( int i = 0; i < groups.length; i++ ) {
-         final GroupBy gb = groups[i];
+      return partial.toStream();
+   }
 
-         agg[i] = new AggregatorData( gb.name );
-         keys[i] = new Object[gb.fields.length];
-         hashCodeCache[i] = new HashCodeCache();
+   /**
+    * Group by on {@code threads} threads of a dedicated fork join pool. Rows are split the way the underlying
+    * stream splits, by file for {@link #fromPaths(List, Model)}, each split is aggregated into its own maps and
+    * the maps are merged with {@link Accumulator#merge(Accumulator)}.
+    * <p>
+    * Transforms added before run concurrently, so they and the joins must be thread safe, an {@link Export} is not.
+    * With {@link #withMemoryBudget(Path, int)} the budget applies to each split and to the merged maps, keys of a
+    * merged split that do not fit are spilled with the partial state of their accumulators. Spilled groups of a key
+    * kept in memory are merged into the in memory one when the spill is aggregated.
+    */
+   public GroupByStream groupBy( int threads, GroupBy... groups ) {
+      if( threads <= 1 ) return groupBy( groups );
+
+      final ForkJoinPool pool = new ForkJoinPool( threads );
+      try {
+         final Supplier<Partial> partial = () -> new Partial( groups, memoryBudget, spillDirectory, 0 );
+         return pool.submit( () -> batches != null
+            ? batches.parallel().collect( partial, ( p, batch ) -> p.accumulate( batch ), Partial::merge )
+            : lines.parallel().collect( partial, ( p, row ) -> p.accumulate( row ), Partial::merge ) )
+            .get()
+            .toStream();
+      } catch( InterruptedException e ) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException( e );
+      } catch( ExecutionException e ) {
+         throw Throwables.propagate( e.getCause() );
+      } finally {
+         pool.shutdown();
       }
+   }
+
+   public Table join( int keyPos, List<Join> joins ) {
+      return transform( line -> {
+         for( Join join : joins ) line.addAll( join.on( ( String ) line.get( keyPos ) ) );
+      } );
+   }
+
+   public Table join( int keyPos, Join... joins ) {
+      return join( keyPos, Arrays.asList( joins ) );
+   }
+
+   public void compute() {
+      if( batches != null ) batches.drain();
+      else lines.drain();
+      closeHandlers.forEach( Runnable::run );
+   }
 
-      final Iterator<List<Object>> iterator = lines.iterator();
-      while( iterator.hasNext() ) {
-         final List<Object> row = iterator.next();
+   private static class Partial {
+      private final GroupBy[] groups;
+      private final int budget;
+      private final Path directory;
+      private final int level;
+      private final AggregatorData[] agg;
+      private final Object[][] keys;
+      private final HashCodeCache[] hashCodeCache;
+      private final HashMap<BatchKey, BatchGroup>[] batchGroups;
+      private final BatchKey[] batchKeys;
+
+      @SuppressWarnings( "unchecked" )
+      Partial( GroupBy[] groups, int budget, Path directory, int level ) {
+         this.groups = groups;
+         this.budget = budget;
+         this.directory = directory;
+         this.level = level;
+         this.agg = new AggregatorData[groups.length];
+         this.keys = new Object[groups.length][];
+         this.hashCodeCache = new HashCodeCache[groups.length];
+         this.batchGroups = new HashMap[groups.length];
+         this.batchKeys = new BatchKey[groups.length];
 
          for( int i = 0; i < groups.length; i++ ) {
             final GroupBy gb = groups[i];
-            final int[] fields = gb.fields;
-            final Accumulator[] accumulators = gb.accumulators;
 
-            final HashCodeCache gHashCodeCache = hashCodeCache[i];
+            agg[i] = new AggregatorData( gb.name );
+            keys[i] = new Object[gb.fields.length];
+            hashCodeCache[i] = new HashCodeCache();
+            batchGroups[i] = new HashMap<>();
+            batchKeys[i] = new BatchKey( gb.fields.length );
+         }
+      }
+
+      private static void fillKey( int[] fields, List<Object> row, Object[] key ) {
+         for( int i = 0; i < fields.length; i++ ) {
+            key[i] = row.get( fields[i] );
+         }
+      }
+
+      void accumulate( List<Object> row ) {
+         for( int i = 0; i < groups.length; i++ ) {
             final Object[] gkeys = keys[i];
-            fillKey( fields, row, gkeys );
-            gHashCodeCache.reset( gkeys );
-
-            final HashMap<HashCodeCache, Data> map = agg[i];
-            Data d = map.get( gHashCodeCache );
-            if( d == null ) {
-               d = new Data( gkeys, accumulators );
-               map.put( gHashCodeCache, d );
-               hashCodeCache[i] = new HashCodeCache();
-               keys[i] = new Object[fields.length];
-            }
+            fillKey( groups[i].fields, row, gkeys );
 
-            for( Accumulator accumulator : d.accumulators )
+            final Data d = data( i );
+            if( d == null ) agg[i].spill.write( hashCodeCache[i].hashCode(), row );
+            else for( Accumulator accumulator : d.accumulators )
                accumulator.accumulate( row );
          }
+      }
 
+      void accumulate( Batch batch ) {
+         for( HashMap<BatchKey, BatchGroup> cache : batchGroups ) cache.clear();
+
+         for( int row = 0; row < batch.size(); row++ )
+            for( int i = 0; i < groups.length; i++ ) {
+               final BatchGroup g = batchGroup( i, batch, row );
+               if( g.data == null ) agg[i].spill.write( g.hashCode, batch, row );
+               else for( Accumulator accumulator : g.data.accumulators )
+                  accumulator.accumulate( batch, row );
+            }
       }
 
-      return new GroupByStream( agg, Stream.of( groups ).map( g -> g.fields ).toArray( int[][]::new ) );
-   }
+      /**
+       * Looks the row up by its {@link BatchKey}, the key is boxed and looked up with {@link #data(int)} once per
+       * distinct key of the batch.
+       */
+      private BatchGroup batchGroup( int group, Batch batch, int row ) {
+         final int[] fields = groups[group].fields;
+         final BatchKey key = batchKeys[group];
+         key.reset( batch, fields, row );
+
+         BatchGroup g = batchGroups[group].get( key );
+         if( g == null ) {
+            final Object[] gkeys = keys[group];
+            for( int f = 0; f < fields.length; f++ ) gkeys[f] = batch.get( fields[f], row );
+
+            final HashCodeCache gHashCodeCache = hashCodeCache[group];
+            final Data d = data( group );
+            g = new BatchGroup( d, gHashCodeCache.hashCode() );
+            batchGroups[group].put( key, g );
+            batchKeys[group] = new BatchKey( fields.length );
+         }
 
-   private void fillKey( int[] fields, List<Object> row, Object[] key ) {
-      for( int i = 0; i < fields.length; i++ ) {
-         key[i] = row.get( fields[i] );
+         return g;
       }
-   }
 
-   public Table join( int keyPos, List<Join> joins ) {
-      return transform( line -> {
-         for( Join join : joins ) line.addAll( join.on( ( String ) line.get( keyPos ) ) );
-      } );
-   }
+      /**
+       * @return data of the key filled in {@code keys[group]} or null if the key goes to the spill
+       */
+      private Data data( int group ) {
+         final HashCodeCache gHashCodeCache = hashCodeCache[group];
+         final Object[] gkeys = keys[group];
+         gHashCodeCache.reset( gkeys );
+
+         final AggregatorData map = agg[group];
+         Data d = map.get( gHashCodeCache );
+         if( d == null ) {
+            final GroupBy gb = groups[group];
+            if( map.size() >= budget ) {
+               if( map.spill == null ) map.spill = new Spill( gb, budget, directory, level );
+               return null;
+            }
+            d = new Data( gkeys, gb.accumulators );
+            map.put( gHashCodeCache, d );
+            hashCodeCache[group] = new HashCodeCache();
+            keys[group] = new Object[gb.fields.length];
+         }
 
-   public Table join( int keyPos, Join... joins ) {
-      return join( keyPos, Arrays.asList( joins ) );
-   }
+         return d;
+      }
 
-   public void compute() {
-      lines.drain();
-      closeHandlers.forEach( Runnable::run );
+      /**
+       * Merges the groups of another split, new keys that do not fit the budget are spilled with their state.
+       */
+      void merge( Partial other ) {
+         for( int i = 0; i < agg.length; i++ ) {
+            final AggregatorData map = agg[i];
+            final Spill spill = other.agg[i].spill;
+            if( spill != null ) {
+               if( map.spill == null ) map.spill = spill;
+               else map.spill.merge( spill );
+            }
+
+            final int group = i;
+            other.agg[i].forEach( ( key, data ) -> add( group, key, data ) );
+         }
+      }
+
+      /**
+       * Adds a state spilled by {@link Spill#write(int, Data)} to the only group of a spill partition.
+       */
+      void restore( List<Object> state ) {
+         final GroupBy gb = groups[0];
+         final Data data = new Data( state.subList( 0, gb.fields.length ).toArray(), gb.accumulators );
+         final Iterator<Object> values = state.listIterator( gb.fields.length );
+         for( Accumulator accumulator : data.accumulators ) accumulator.restore( values );
+
+         final HashCodeCache key = new HashCodeCache();
+         key.reset( data.keys );
+         add( 0, key, data );
+      }
+
+      private void add( int group, HashCodeCache key, Data data ) {
+         final AggregatorData map = agg[group];
+         final Data d = map.get( key );
+         if( d != null ) d.merge( data );
+         else if( map.size() < budget ) map.put( key, data );
+         else {
+            if( map.spill == null ) map.spill = new Spill( groups[group], budget, directory, level );
+            map.spill.write( key.hashCode(), data );
+         }
+      }
+
+      GroupByStream toStream() {
+         return new GroupByStream( agg, Stream.of( groups ).map( g -> g.fields ).toArray( int[][]::new ),
+            budget, directory );
+      }
    }
 
    private static class AggregatorData extends HashMap<HashCodeCache, Data> {
       private final String name;
+      private Spill spill;
 
       public AggregatorData( String name ) {
          this.name = name;
       }
+
+      /**
+       * Spilled groups, aggregated partition by partition, followed by the in memory ones. Merged splits may have
+       * spilled rows of a key kept in memory by another split, such a group is merged into the in memory one.
+       */
+      Stream<Data> data() {
+         if( spill == null ) return Stream.of( values() );
+
+         final HashCodeCache key = new HashCodeCache();
+         return spill.data()
+            .filter( d -> {
+               key.reset( d.keys );
+               final Data inMemory = get( key );
+               if( inMemory == null ) return true;
+               inMemory.merge( d );
+               return false;
+            } )
+            .concat( Stream.of( values() ) );
+      }
+   }
+
+   /**
+    * Rows of a group by whose keys did not fit the memory budget, hash partitioned into spill files, and partial
+    * states of merged keys that did not fit, partitioned the same way into separate files.
+    * A partition is aggregated with the same budget, spilling again with other hash bits if it still does not fit,
+    * up to {@link #MAX_LEVEL} where the budget is lifted.
+    */
+   private static class Spill {
+      private static final int PARTITIONS = 16;
+      private static final int MAX_LEVEL = 7;
+
+      private final GroupBy group;
+      private final int budget;
+      private final Path directory;
+      private final int level;
+      private final List<List<Path>> files = new ArrayList<>( PARTITIONS );
+      private final List<List<Path>> states = new ArrayList<>( PARTITIONS );
+      private final Rows.Writer[] writers = new Rows.Writer[PARTITIONS];
+      private final Rows.Writer[] stateWriters = new Rows.Writer[PARTITIONS];
+
+      Spill( GroupBy group, int budget, Path directory, int level ) {
+         this.group = group;
+         this.budget = budget;
+         this.directory = directory;
+         this.level = level;
+         for( int i = 0; i < PARTITIONS; i++ ) {
+            files.add( new ArrayList<>() );
+            states.add( new ArrayList<>() );
+         }
+      }
+
+      void write( int hashCode, List<Object> row ) {
+         writer( writers, files, hashCode ).write( row );
+      }
+
+      void write( int hashCode, Batch batch, int row ) {
+         writer( writers, files, hashCode ).write( batch, row );
+      }
+
+      /**
+       * Spills the keys followed by the state of the accumulators.
+       */
+      void write( int hashCode, Data data ) {
+         final List<Object> state = new ArrayList<>();
+         Collections.addAll( state, data.keys );
+         for( Accumulator accumulator : data.accumulators ) accumulator.state( state );
+         writer( stateWriters, states, hashCode ).write( state );
+      }
+
+      private Rows.Writer writer( Rows.Writer[] writers, List<List<Path>> files, int hashCode ) {
+         final int partition = ( ( hashCode * 0x9E3779B9 ) >>> ( 28 - 4 * level ) ) & ( PARTITIONS - 1 );
+
+         Rows.Writer writer = writers[partition];
+         if( writer == null ) {
+            writer = writers[partition] = Rows.writer( directory, "groupby" );
+            files.get( partition ).add( writer.path );
+         }
+         return writer;
+      }
+
+      void merge( Spill other ) {
+         other.close();
+         close();
+         for( int i = 0; i < PARTITIONS; i++ ) {
+            files.get( i ).addAll( other.files.get( i ) );
+            states.get( i ).addAll( other.states.get( i ) );
+         }
+      }
+
+      private void close() {
+         for( int i = 0; i < PARTITIONS; i++ ) {
+            if( writers[i] != null ) {
+               writers[i].close();
+               writers[i] = null;
+            }
+            if( stateWriters[i] != null ) {
+               stateWriters[i].close();
+               stateWriters[i] = null;
+            }
+         }
+      }
+
+      Stream<Data> data() {
+         close();
+         return Stream.of( IntStream.range( 0, PARTITIONS ).boxed() ).flatMap( partition -> {
+            if( files.get( partition ).isEmpty() && states.get( partition ).isEmpty() ) return Stream.empty();
+
+            final Partial partial = new Partial( new GroupBy[] { group },
+               level + 1 < MAX_LEVEL ? budget : Integer.MAX_VALUE, directory, level + 1 );
+            for( Path path : files.get( partition ) ) {
+               final Rows.Reader reader = Rows.reader( path );
+               while( reader.hasNext() ) partial.accumulate( reader.next() );
+            }
+            for( Path path : states.get( partition ) ) {
+               final Rows.Reader reader = Rows.reader( path );
+               while( reader.hasNext() ) partial.restore( reader.next() );
+            }
+            files.get( partition ).clear();
+            states.get( partition ).clear();
+
+            return partial.agg[0].data();
+         } );
+      }
    }
 
    public static class GroupBy {
@@ -232,6 +581,66 @@ public class Table {
       }
    }
 
+   /**
+    * Group key of a batch row without boxing: longs of INT, LONG and BOOLEAN cells, bits of DOUBLE ones and
+    * dictionary codes of STRING ones, so it is only valid within its batch.
+    */
+   private static class BatchKey {
+      private final long[] values;
+      private int hashCode;
+
+      BatchKey( int length ) {
+         this.values = new long[length];
+      }
+
+      void reset( Batch batch, int[] fields, int row ) {
+         int result = 1;
+
+         for( int f = 0; f < fields.length; f++ ) {
+            final int column = fields[f];
+            final long value;
+            switch( batch.type( column ) ) {
+               case STRING:
+                  value = batch.code( column, row );
+                  break;
+               case DOUBLE:
+                  value = Double.doubleToLongBits( batch.getDouble( column, row ) );
+                  break;
+               default:
+                  value = batch.getLong( column, row );
+            }
+            values[f] = value;
+            result = 31 * result + Long.hashCode( value );
+         }
+
+         hashCode = result;
+      }
+
+      @Override
+      public boolean equals( Object obj ) {
+         return Arrays.equals( values, ( ( BatchKey ) obj ).values );
+      }
+
+      @Override
+      public int hashCode() {
+         return hashCode;
+      }
+   }
+
+   /**
+    * Group of a {@link BatchKey}, the data or null if its rows go to the spill, and the hash code of the boxed key
+    * partitioning the spill the same way across batches.
+    */
+   private static class BatchGroup {
+      final Data data;
+      final int hashCode;
+
+      BatchGroup( Data data, int hashCode ) {
+         this.data = data;
+         this.hashCode = hashCode;
+      }
+   }
+
    private static class Data {
       final Object[] keys;
       final Accumulator[] accumulators;
@@ -244,6 +653,10 @@ public class Table {
          }
       }
 
+      public void merge( Data other ) {
+         for( int i = 0; i < accumulators.length; i++ ) accumulators[i].merge( other.accumulators[i] );
+      }
+
       public List<Object> values() {
          final ArrayList<Object> result = new ArrayList<>( keys.length + accumulators.length );
          Collections.addAll( result, keys );
@@ -262,10 +675,21 @@ public class Table {
    public static class GroupByStream {
       public final int[][] fields;
       private final AggregatorData[] agg;
+      private final int memoryBudget;
+      private final Path spillDirectory;
 
-      public GroupByStream( AggregatorData[] agg, int[][] fields ) {
+      private GroupByStream( AggregatorData[] agg, int[][] fields, int memoryBudget, Path spillDirectory ) {
          this.agg = agg;
          this.fields = fields;
+         this.memoryBudget = memoryBudget;
+         this.spillDirectory = spillDirectory;
+      }
+
+      /**
+       * @return number of keys of the group kept in memory
+       */
+      int inMemory( int group ) {
+         return agg[group].size();
       }
 
       public List<Pair<String, Table>> getTables() {
@@ -273,8 +697,10 @@ public class Table {
 
          for( int i = 0; i < agg.length; i++ ) {
             final AggregatorData aggregatorData = agg[i];
-            final Collection<Data> values = aggregatorData.values();
-            result.add( __( aggregatorData.name, new Table( Stream.of( values.stream().map( Data::values ) ) ) ) );
+            final Table table = new Table( aggregatorData.data().map( Data::values ) );
+            table.memoryBudget = memoryBudget;
+            table.spillDirectory = spillDirectory;
+            result.add( __( aggregatorData.name, table ) );
          }
 
          return result;
@@ -288,7 +714,7 @@ public class Table {
             final HashMap<String, List<Object>> map = new HashMap<>();
             maps[i] = map;
 
-            agg[i].forEach( ( hc, value ) -> map.put( str.apply( hc.values ), value.calculatedValues() ) );
+            agg[i].data().forEach( value -> map.put( str.apply( value.keys ), value.calculatedValues() ) );
          }
 
 
@@ -24,8 +24,10 @@
 
 package oap.etl.accumulator;
 
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -57,10 +59,34 @@ public interface Accumulator {
 
    void accumulate( List<Object> values );
 
+   /**
+    * Accumulates a row of a columnar batch, implementations read the cells with the typed getters.
+    */
+   default void accumulate( Batch batch, int row ) {
+      accumulate( batch.row( row ) );
+   }
+
    void reset();
 
    Object result();
 
+   /**
+    * Adds the state of {@code other}, a {@link #clone()} of this accumulator, to this one.
+    * Partial results of a parallel group by are combined this way.
+    */
+   void merge( Accumulator other );
+
+   /**
+    * Appends the partial state to {@code state}, a group by spills it when a merged key does not fit its memory
+    * budget. Values are String, Integer, Long, Double or Boolean.
+    */
+   void state( List<Object> state );
+
+   /**
+    * Reads the state appended by {@link #state(List)} into a {@link #clone()} of this accumulator.
+    */
+   void restore( Iterator<Object> state );
+
    Accumulator clone();
 
    Model.ColumnType getModelType();
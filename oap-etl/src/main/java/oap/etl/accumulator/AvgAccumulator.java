@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 
 @ToString
@@ -47,6 +49,12 @@ public class AvgAccumulator implements Accumulator {
       this.count++;
    }
 
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      this.sum += batch.getDouble( this.field, row );
+      this.count++;
+   }
+
    @Override
    public void reset() {
       this.sum = 0;
@@ -58,6 +66,24 @@ public class AvgAccumulator implements Accumulator {
       return this.count > 0 ? this.sum / this.count : 0.0;
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      state.add( sum );
+      state.add( count );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      this.sum = ( Double ) state.next();
+      this.count = ( Integer ) state.next();
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      this.sum += ( ( AvgAccumulator ) other ).sum;
+      this.count += ( ( AvgAccumulator ) other ).count;
+   }
+
    @Override
    public AvgAccumulator clone() {
       return new AvgAccumulator( field );
@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 
 @ToString
@@ -49,6 +51,12 @@ public class CostAccumulator implements Accumulator {
       this.events += ( ( Number ) values.get( this.eventField ) ).longValue();
    }
 
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      this.money += batch.getLong( this.moneyField, row );
+      this.events += batch.getLong( this.eventField, row );
+   }
+
    @Override
    public void reset() {
       this.money = 0;
@@ -60,6 +68,24 @@ public class CostAccumulator implements Accumulator {
       return this.events > 0 ? this.money / this.events : 0.0;
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      state.add( money );
+      state.add( events );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      this.money = ( Long ) state.next();
+      this.events = ( Integer ) state.next();
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      this.money += ( ( CostAccumulator ) other ).money;
+      this.events += ( ( CostAccumulator ) other ).events;
+   }
+
    @Override
    public CostAccumulator clone() {
       return new CostAccumulator( moneyField, eventField );
@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 
 @ToString
@@ -40,6 +42,11 @@ public class CountAccumulator implements Accumulator {
       this.count++;
    }
 
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      this.count++;
+   }
+
    @Override
    public void reset() {
       this.count = 0;
@@ -50,6 +57,21 @@ public class CountAccumulator implements Accumulator {
       return this.count;
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      state.add( count );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      this.count = ( Long ) state.next();
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      this.count += ( ( CountAccumulator ) other ).count;
+   }
+
    @Override
    public CountAccumulator clone() {
       return new CountAccumulator();
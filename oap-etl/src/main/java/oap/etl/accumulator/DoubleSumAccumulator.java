@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 
 @ToString
@@ -45,6 +47,11 @@ public class DoubleSumAccumulator implements Accumulator {
       this.sum += ( ( Number ) values.get( this.field ) ).doubleValue();
    }
 
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      this.sum += batch.getDouble( this.field, row );
+   }
+
    @Override
    public void reset() {
       this.sum = 0;
@@ -55,6 +62,21 @@ public class DoubleSumAccumulator implements Accumulator {
       return this.sum;
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      state.add( sum );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      this.sum = ( Double ) state.next();
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      this.sum += ( ( DoubleSumAccumulator ) other ).sum;
+   }
+
    @Override
    public DoubleSumAccumulator clone() {
       return new DoubleSumAccumulator( field );
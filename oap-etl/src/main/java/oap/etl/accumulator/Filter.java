@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -50,6 +52,12 @@ public class Filter<T> implements Accumulator {
       if( filter.test( ( T ) values.get( field ) ) ) accumulator.accumulate( values );
    }
 
+   @SuppressWarnings( "unchecked" )
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      if( filter.test( ( T ) batch.get( field, row ) ) ) accumulator.accumulate( batch, row );
+   }
+
    @Override
    public void reset() {
       accumulator.reset();
@@ -60,6 +68,21 @@ public class Filter<T> implements Accumulator {
       return accumulator.result();
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      accumulator.state( state );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      accumulator.restore( state );
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      accumulator.merge( ( ( Filter<?> ) other ).accumulator );
+   }
+
    @Override
    public Filter<T> clone() {
       return new Filter<>( accumulator.clone(), field, filter );
@@ -26,8 +26,10 @@ package oap.etl.accumulator;
 
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import oap.tsv.Batch;
 import oap.tsv.Model;
 
+import java.util.Iterator;
 import java.util.List;
 
 @ToString
@@ -45,6 +47,11 @@ public class IntegerSumAccumulator implements Accumulator {
       this.sum += ( ( Number ) values.get( this.field ) ).intValue();
    }
 
+   @Override
+   public void accumulate( Batch batch, int row ) {
+      this.sum += batch.getInt( this.field, row );
+   }
+
    @Override
    public void reset() {
       this.sum = 0;
@@ -55,6 +62,21 @@ public class IntegerSumAccumulator implements Accumulator {
       return this.sum;
    }
 
+   @Override
+   public void state( List<Object> state ) {
+      state.add( sum );
+   }
+
+   @Override
+   public void restore( Iterator<Object> state ) {
+      this.sum = ( Integer ) state.next();
+   }
+
+   @Override
+   public void merge( Accumulator other ) {
+      this.sum += ( ( IntegerSumAccumulator ) other ).sum;
+   }
+
    @Override
    public IntegerSumAccumulator clone() {
       return new IntegerSumAccumulator( field );
@@ -25,18 +25,31 @@
 package oap.etl;
 
 import oap.etl.accumulator.Accumulator;
+import oap.io.Resources;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
 import oap.tsv.Model;
+import oap.tsv.Tsv;
 import oap.util.Lists;
+import oap.util.Stream;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.testng.Asserts.assertString;
 import static oap.testng.Asserts.contentOfTestResource;
 import static org.assertj.core.api.Assertions.assertThat;
 
-public class TableTest {
+public class TableTest extends AbstractTest {
    @Test
    public void testSorted() {
       CountingKeyJoin join = CountingKeyJoin.fromResource( getClass(),
@@ -91,4 +104,177 @@ public class TableTest {
          .compute();
       assertString( export.toString() ).isEqualTo( contentOfTestResource( getClass(), "joined.tsv" ) );
    }
+
+   @Test
+   public void testParallelGroupBy() {
+      Path path = Resources.filePath( getClass(), getClass().getSimpleName() + "/3.tsv" ).get();
+      List<Path> paths = Lists.of( path, path, path, path, path );
+      Model model = Model.withoutHeader().s( "c0", 1 ).s( "c1", 2 ).i( "c2", 3 );
+      Supplier<Table.GroupBy[]> groups = () -> new Table.GroupBy[]{
+         new Table.GroupBy( "agg1", new int[]{ 0, 1 }, Accumulator.count(),
+            Accumulator.<Integer>filter( Accumulator.intSum( 2 ), 2, i -> i == 2 ),
+            Accumulator.avg( 2 ) ),
+         new Table.GroupBy( "agg2", new int[]{ 1 }, Accumulator.longSum( 2 ) )
+      };
+
+      StringExport sequential = new StringExport();
+      Table.fromPaths( paths, model ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0 } ).export( sequential ).compute() );
+
+      StringExport parallel = new StringExport();
+      Table.fromPaths( paths, model ).groupBy( 4, groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0 } ).export( parallel ).compute() );
+
+      assertString( parallel.toString() ).isEqualTo( sequential.toString() );
+      assertThat( parallel.toString() ).startsWith( "A\tY\t20\t" );
+   }
+
+   @Test
+   public void testParallelRead() {
+      Path path = Resources.filePath( getClass(), getClass().getSimpleName() + "/3.tsv" ).get();
+      List<Path> paths = Lists.of( path, path, path, path, path );
+      Model model = Model.withoutHeader().s( "c0", 1 ).s( "c1", 2 ).i( "c2", 3 );
+
+      StringExport sequential = new StringExport();
+      Table.fromPaths( paths, model ).export( sequential ).compute();
+      StringExport ordered = new StringExport();
+      Table.fromPaths( paths, model, Tsv.parallel( 3 ) ).export( ordered ).compute();
+
+      assertString( ordered.toString() ).isEqualTo( sequential.toString() );
+
+      StringExport grouped = new StringExport();
+      Table.fromPaths( paths, model ).groupBy( new Table.GroupBy( "agg", new int[]{ 0 }, Accumulator.count() ) )
+         .getTables().forEach( t -> t._2.sort( new int[]{ 0 } ).export( grouped ).compute() );
+      StringExport unordered = new StringExport();
+      Table.fromPaths( paths, model, Tsv.parallel( 3 ).ordered( false ) )
+         .groupBy( new Table.GroupBy( "agg", new int[]{ 0 }, Accumulator.count() ) )
+         .getTables().forEach( t -> t._2.sort( new int[]{ 0 } ).export( unordered ).compute() );
+
+      assertString( unordered.toString() ).isEqualTo( grouped.toString() );
+   }
+
+   @Test
+   public void testMemoryBudget() {
+      Random random = new Random( 1 );
+      StringBuilder tsv = new StringBuilder();
+      for( int i = 0; i < 2000; i++ )
+         tsv.append( "k" ).append( random.nextInt( 300 ) ).append( '\t' )
+            .append( "s" ).append( random.nextInt( 3 ) ).append( '\t' )
+            .append( random.nextInt( 100 ) ).append( '\n' );
+      Model model = Model.withoutHeader().s( "c0", 0 ).s( "c1", 1 ).i( "c2", 2 );
+      Supplier<Table.GroupBy[]> groups = () -> new Table.GroupBy[]{
+         new Table.GroupBy( "agg1", new int[]{ 0, 1 }, Accumulator.count(), Accumulator.avg( 2 ) ),
+         new Table.GroupBy( "agg2", new int[]{ 1 }, Accumulator.intSum( 2 ) )
+      };
+      Path spill = Env.tmpPath( "spill" );
+
+      StringExport sorted = new StringExport();
+      Table.fromString( tsv.toString(), model ).sort( new int[]{ 0, 2 } ).export( sorted ).compute();
+      StringExport externalSorted = new StringExport();
+      Table.fromString( tsv.toString(), model ).withMemoryBudget( spill, 64 )
+         .sort( new int[]{ 0, 2 } ).export( externalSorted ).compute();
+      assertString( externalSorted.toString() ).isEqualTo( sorted.toString() );
+
+      StringExport inMemory = new StringExport();
+      Table.fromString( tsv.toString(), model ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0, 1 } ).export( inMemory ).compute() );
+      StringExport spilled = new StringExport();
+      Table.fromString( tsv.toString(), model ).withMemoryBudget( spill, 16 ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0, 1 } ).export( spilled ).compute() );
+      assertString( spilled.toString() ).isEqualTo( inMemory.toString() );
+
+      assertThat( spill.toFile().list() ).isEmpty();
+   }
+
+   @Test
+   public void testExternalSortFanIn() {
+      Random random = new Random( 1 );
+      List<List<Object>> rows = new ArrayList<>();
+      for( int i = 0; i < 2000; i++ ) rows.add( Lists.of( "k" + random.nextInt( 300 ), i ) );
+      Comparator<List<Object>> comparator = Comparator.comparing( l -> ( String ) l.get( 0 ) );
+      Path spill = Env.tmpPath( "spill" );
+
+      Iterator<List<Object>> sorted = ExternalSort.sort( Stream.of( rows ), comparator, 16, spill, 4 ).iterator();
+      assertThat( sorted.hasNext() ).isTrue();
+      assertThat( spill.toFile().list() ).hasSize( 2 );
+
+      List<List<Object>> result = new ArrayList<>();
+      sorted.forEachRemaining( result::add );
+      assertThat( result ).isEqualTo( Stream.of( rows ).sorted( comparator ).toList() );
+      assertThat( spill.toFile().list() ).isEmpty();
+   }
+
+   @Test
+   public void testParallelMemoryBudget() throws IOException {
+      Random random = new Random( 1 );
+      List<Path> paths = new ArrayList<>();
+      for( int f = 0; f < 8; f++ ) {
+         StringBuilder tsv = new StringBuilder();
+         if( f % 2 == 1 ) for( int i = 0; i < 40; i++ ) tsv.append( "cold" ).append( f ).append( '_' ).append( i )
+            .append( '\t' ).append( random.nextInt( 100 ) ).append( '\n' );
+         for( int i = 0; i < 500; i++ )
+            tsv.append( "hot" ).append( random.nextInt( 8 ) ).append( '\t' ).append( random.nextInt( 100 ) ).append( '\n' );
+         Path path = Env.tmpPath( "skewed/" + f + ".tsv" );
+         Files.createDirectories( path.getParent() );
+         Files.write( path, tsv.toString().getBytes( UTF_8 ) );
+         paths.add( path );
+      }
+      Model model = Model.withoutHeader().s( "c0", 0 ).i( "c1", 1 );
+      Supplier<Table.GroupBy[]> groups = () -> new Table.GroupBy[]{
+         new Table.GroupBy( "agg", new int[]{ 0 }, Accumulator.count(), Accumulator.intSum( 1 ),
+            Accumulator.avg( 1 ), Accumulator.<Integer>filter( Accumulator.longSum( 1 ), 1, i -> i > 50 ) )
+      };
+      Path spill = Env.tmpPath( "spill" );
+
+      StringExport inMemory = new StringExport();
+      Table.fromPaths( paths, model ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0 } ).export( inMemory ).compute() );
+      StringExport spilled = new StringExport();
+      Table.GroupByStream parallel = Table.fromPaths( paths, model ).withMemoryBudget( spill, 16 )
+         .groupBy( 4, groups.get() );
+      assertThat( parallel.inMemory( 0 ) ).isLessThanOrEqualTo( 16 );
+      parallel.getTables().forEach( t -> t._2.sort( new int[]{ 0 } ).export( spilled ).compute() );
+      assertString( spilled.toString() ).isEqualTo( inMemory.toString() );
+
+      assertThat( spill.toFile().list() ).isEmpty();
+   }
+
+   @Test
+   public void testBatches() {
+      Random random = new Random( 1 );
+      StringBuilder tsv = new StringBuilder();
+      for( int i = 0; i < 10000; i++ )
+         tsv.append( "k" ).append( random.nextInt( 50 ) ).append( '\t' )
+            .append( random.nextInt( 3 ) ).append( '\t' )
+            .append( random.nextInt( 100 ) ).append( '\t' )
+            .append( random.nextDouble() ).append( '\n' );
+      Model model = Model.withoutHeader().s( "c0", 0 ).i( "c1", 1 ).l( "c2", 2 ).d( "c3", 3 );
+      Supplier<Table.GroupBy[]> groups = () -> new Table.GroupBy[]{
+         new Table.GroupBy( "agg1", new int[]{ 0, 1 }, Accumulator.count(), Accumulator.avg( 2 ),
+            Accumulator.longSum( 2 ), Accumulator.<Integer>filter( Accumulator.intSum( 2 ), 1, i -> i == 2 ) ),
+         new Table.GroupBy( "agg2", new int[]{ 1 }, Accumulator.cost( 2, 1 ), Accumulator.avg( 3 ) )
+      };
+
+      StringExport rows = new StringExport();
+      Table.fromString( tsv.toString(), model ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0, 1 } ).export( rows ).compute() );
+      StringExport batches = new StringExport();
+      Table.fromBatches( Tsv.batchesFromString( tsv.toString(), model ) ).groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0, 1 } ).export( batches ).compute() );
+      assertString( batches.toString() ).isEqualTo( rows.toString() );
+      StringExport spilled = new StringExport();
+      Table.fromBatches( Tsv.batchesFromString( tsv.toString(), model ) ).withMemoryBudget( Env.tmpPath( "spill" ), 16 )
+         .groupBy( groups.get() ).getTables()
+         .forEach( t -> t._2.sort( new int[]{ 0, 1 } ).export( spilled ).compute() );
+      assertString( spilled.toString() ).isEqualTo( rows.toString() );
+
+      StringExport export = new StringExport();
+      List<Long> progress = new ArrayList<>();
+      Table.fromBatches( Tsv.batchesFromString( tsv.toString(), model ) )
+         .progress( 3000, progress::add )
+         .export( export )
+         .compute();
+      assertString( export.toString() ).isEqualTo( tsv.toString() );
+      assertThat( progress ).containsExactly( 3000L, 6000L, 9000L, 10000L );
+   }
 }
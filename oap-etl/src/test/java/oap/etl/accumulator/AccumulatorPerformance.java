@@ -30,6 +30,7 @@ import oap.io.IoStreams;
 import oap.testng.AbstractPerformance;
 import oap.testng.Env;
 import oap.tsv.Model;
+import oap.tsv.Tsv;
 import oap.util.Pair;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
@@ -38,14 +39,18 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static oap.util.Functions.empty.consume;
+
 /**
  * Created by Igor Petrenko on 27.04.2016.
  */
@@ -54,6 +59,7 @@ public class AccumulatorPerformance extends AbstractPerformance {
 
     public static final int SAMPLES = 200;
     public static final int EXPERIMENTS = 5;
+    private static final int ROWS = 10000;
     private Path path1;
     private Path path2;
     private Random random;
@@ -76,8 +82,12 @@ public class AccumulatorPerformance extends AbstractPerformance {
     }
 
     private void writeFile( Path path ) {
-        try( OutputStream out = IoStreams.out( path, IoStreams.Encoding.GZIP ) ) {
-            for( int y = 0; y < 10000; y++ ) {
+        writeFile( path, IoStreams.Encoding.GZIP );
+    }
+
+    private void writeFile( Path path, IoStreams.Encoding encoding ) {
+        try( OutputStream out = IoStreams.out( path, encoding ) ) {
+            for( int y = 0; y < ROWS; y++ ) {
                 random = new Random();
                 final String row = IntStream
                     .range( 0, 6 )
@@ -112,4 +122,69 @@ public class AccumulatorPerformance extends AbstractPerformance {
             }
         } );
     }
+
+    @DataProvider( name = "threads" )
+    public Object[][] threads() {
+        return new Object[][] { { 1 }, { 4 }, { 16 }, { 32 } };
+    }
+
+    @Test( dataProvider = "threads" )
+    public void testParallelGroupBy( int threads ) {
+        final List<Path> paths = IntStream.range( 0, 32 )
+            .mapToObj( x -> {
+                final Path path = Env.tmpPath( "parallel/" + x + ".tsv.gz" );
+                writeFile( path );
+                return path;
+            } )
+            .collect( Collectors.toList() );
+
+        benchmark( "accumulator.parallel-" + threads, SAMPLES / 10, EXPERIMENTS, ( i ) -> {
+            Table.fromPaths( paths,
+                Model.withoutHeader().s( "c0", 0 ).s( "c1", 1 ).s( "c2", 2 ).i( "c3", 3 ).i( "c4", 4 ).i( "c5", 5 ) )
+                .groupBy( threads,
+                    new Table.GroupBy( "agg_name", new int[] { 0, 1, 2 }, Accumulator.count(),
+                        Accumulator.intSum( 3 ), Accumulator.intSum( 4 ) ),
+                    new Table.GroupBy( "agg_name2", new int[] { 0 }, Accumulator.longSum( 5 ) ) );
+        } );
+    }
+
+    @Test
+    public void testColumnar() {
+        final List<Path> paths = IntStream.range( 0, 8 )
+            .mapToObj( x -> {
+                final Path path = Env.tmpPath( "columnar/" + x + ".tsv" );
+                writeFile( path, IoStreams.Encoding.PLAIN );
+                return path;
+            } )
+            .collect( Collectors.toList() );
+        final Model model = Model.withoutHeader()
+            .s( "c0", 0 ).s( "c1", 1 ).s( "c2", 2 ).i( "c3", 3 ).i( "c4", 4 ).l( "c5", 5 );
+        final Supplier<Table.GroupBy[]> groups = () -> new Table.GroupBy[] {
+            new Table.GroupBy( "agg_name", new int[] { 0, 1 }, Accumulator.count(),
+                Accumulator.intSum( 3 ), Accumulator.avg( 4 ), Accumulator.longSum( 5 ) )
+        };
+
+        allocation( "accumulator.rows", SAMPLES / 10, () ->
+            Table.fromPaths( paths, model ).groupBy( groups.get() ) );
+        allocation( "accumulator.batches", SAMPLES / 10, () ->
+            Table.fromBatches( Tsv.batchesFromPaths( paths, model ) ).groupBy( groups.get() ) );
+    }
+
+    /**
+     * Benchmarks the rows rate and reports bytes allocated per row by this thread, the GC pressure of the path.
+     */
+    private void allocation( String name, int samples, Runnable code ) {
+        final com.sun.management.ThreadMXBean threads =
+            ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long rows = 8L * ROWS;
+
+        code.run();
+        final long allocated = threads.getThreadAllocatedBytes( thread );
+        benchmark( name, samples, EXPERIMENTS, ( i ) -> code.run(), consume(), consume(),
+            rate -> rate * rows + " rows/s" );
+        final long bytes = threads.getThreadAllocatedBytes( thread ) - allocated;
+
+        System.out.println( name + ": " + bytes / ( rows * samples * EXPERIMENTS ) + " bytes allocated/row" );
+    }
 }
@@ -23,12 +23,14 @@
  */
 package oap.http.nio;
 
+import oap.http.AsyncHandler;
 import oap.http.Context;
 import oap.http.Handler;
 import oap.http.Protocol;
 import oap.http.Request;
 import oap.http.Response;
 import oap.http.cors.CorsPolicy;
+import oap.http.cors.RequestCors;
 import oap.net.Inet;
 import org.apache.http.HttpException;
 import org.apache.http.HttpInetConnection;
@@ -44,10 +46,20 @@ import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static oap.http.HttpResponse.HTTP_FORBIDDEN;
+import static oap.http.HttpResponse.NO_CONTENT;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Runs handlers on {@code workers}, never on the I/O reactor. The exchange is submitted when the handler
+ * returns or, for an {@link AsyncHandler}, when its future completes, so the worker is free meanwhile.
+ */
 public class NioHandlerAdapter implements HttpAsyncRequestHandler<HttpRequest> {
 
    private static final Logger LOGGER = getLogger( NioHandlerAdapter.class );
@@ -56,13 +68,20 @@ public class NioHandlerAdapter implements HttpAsyncRequestHandler<HttpRequest> {
    private final String location;
    private final Handler handler;
    private final CorsPolicy corsPolicy;
+   private final Executor workers;
 
    public NioHandlerAdapter( final String location, final Handler handler, final CorsPolicy corsPolicy,
                              final Protocol protocol ) {
+      this( location, handler, corsPolicy, protocol, Runnable::run );
+   }
+
+   public NioHandlerAdapter( final String location, final Handler handler, final CorsPolicy corsPolicy,
+                             final Protocol protocol, final Executor workers ) {
       this.location = location;
       this.handler = handler;
       this.corsPolicy = corsPolicy;
       this.protocol = protocol;
+      this.workers = workers;
    }
 
    @Override
@@ -82,17 +101,49 @@ public class NioHandlerAdapter implements HttpAsyncRequestHandler<HttpRequest> {
       final HttpInetConnection connection = ( HttpInetConnection ) httpContext
          .getAttribute( HttpCoreContext.HTTP_CONNECTION );
       final InetAddress remoteAddress = connection.getRemoteAddress();
-      final HttpResponse response = httpAsyncExchange.getResponse();
+      final HttpResponse httpResponse = httpAsyncExchange.getResponse();
 
-      final String httpContextProtocol = String.valueOf( httpContext.getAttribute( "protocol" ) );
+      final Protocol httpContextProtocol = Inet.isLocalAddress( remoteAddress ) ? Protocol.HTTP : Protocol.LOCAL;
+      final Request request = new Request( httpRequest,
+         new Context( location, remoteAddress, httpContextProtocol.name() ) );
+
+      final RequestCors cors = corsPolicy.getCors( request );
+      final Response response = new Response( httpResponse, cors );
 
       if( Protocol.LOCAL.equals( this.protocol ) && !Inet.isLocalAddress( remoteAddress ) ) {
-         response.setStatusCode( HTTP_FORBIDDEN );
-      } else {
-         Request request = new Request( httpRequest, new Context( location, remoteAddress, httpContextProtocol ) );
-         handler.handle( request, new Response( response, corsPolicy.getCors( request ) ) );
+         response.respond( HTTP_FORBIDDEN );
+         httpAsyncExchange.submitResponse();
+      } else if( cors.autoOptions && request.httpMethod == Request.HttpMethod.OPTIONS ) {
+         response.respond( NO_CONTENT );
+         httpAsyncExchange.submitResponse();
+      } else try {
+         workers.execute( () -> handle( request, response, httpAsyncExchange ) );
+      } catch( RejectedExecutionException e ) {
+         LOGGER.warn( "no workers left for [{}]", httpRequest.getRequestLine() );
+         httpResponse.setStatusCode( HTTP_UNAVAILABLE );
+         httpAsyncExchange.submitResponse();
+      }
+   }
+
+   private void handle( final Request request, final Response response, final HttpAsyncExchange exchange ) {
+      CompletableFuture<Void> done;
+      try {
+         if( handler instanceof AsyncHandler ) done = ( ( AsyncHandler ) handler ).handleAsync( request, response );
+         else {
+            handler.handle( request, response );
+            done = CompletableFuture.completedFuture( null );
+         }
+      } catch( Throwable e ) {
+         done = new CompletableFuture<>();
+         done.completeExceptionally( e );
       }
 
-      httpAsyncExchange.submitResponse();
+      done.whenComplete( ( result, e ) -> {
+         if( e != null ) {
+            LOGGER.error( e.getMessage(), e );
+            exchange.getResponse().setStatusCode( HTTP_INTERNAL_ERROR );
+         }
+         if( !exchange.isCompleted() ) exchange.submitResponse();
+      } );
    }
 }
@@ -23,10 +23,15 @@
  */
 package oap.http.nio;
 
-import oap.http.cors.CorsPolicy;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import oap.concurrent.ThreadPoolExecutor;
 import oap.http.Handler;
 import oap.http.Protocol;
 import oap.http.Server;
+import oap.http.cors.CorsPolicy;
+import oap.io.Closeables;
+import oap.metrics.Metrics;
+import oap.metrics.Name;
 import org.apache.http.ExceptionLogger;
 import org.apache.http.impl.nio.bootstrap.HttpServer;
 import org.apache.http.impl.nio.bootstrap.ServerBootstrap;
@@ -36,20 +41,46 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Non-blocking server: connections are multiplexed over a reactor thread per processor, so idle keep-alive
+ * connections cost no threads. Handlers run on a pool of {@code workers} with a queue of {@code queue}
+ * requests, a request arriving when both are full is answered with 503. Listens on its own {@code port},
+ * listeners are not needed.
+ *
+ * @see oap.http.AsyncHandler
+ */
 public class NioServer implements oap.http.HttpServer {
 
+    public static final int DEFAULT_WORKERS = 500;
     private static Logger logger = LoggerFactory.getLogger( Server.class );
     private UriHttpAsyncRequestHandlerMapper mapper = new UriHttpAsyncRequestHandlerMapper();
     private final int port;
+    private final ThreadPoolExecutor workers;
     private HttpServer server;
+    private Name queueMetric;
 
     public NioServer( int port ) {
+        this( port, DEFAULT_WORKERS );
+    }
+
+    public NioServer( int port, int workers ) {
+        this( port, workers, workers * 16 );
+    }
+
+    public NioServer( int port, int workers, int queue ) {
         this.port = port;
+        this.workers = new ThreadPoolExecutor( workers, workers, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>( queue ), new ThreadFactoryBuilder().setNameFormat( "nio-http-%d" ).build() );
+        this.workers.allowCoreThreadTimeOut( true );
         this.mapper.register( "/static/*", new NioClasspathResourceHandler( "/static", "/WEB-INF" ) );
 
         IOReactorConfig config = IOReactorConfig.custom()
+            .setIoThreadCount( Runtime.getRuntime().availableProcessors() )
+            .setSoReuseAddress( true )
+            .setBacklogSize( 1024 )
             .setTcpNoDelay( true )
             .setSoKeepAlive( true )
             .build();
@@ -66,7 +97,8 @@ public class NioServer implements oap.http.HttpServer {
     @Override
     public void bind( String context, CorsPolicy corsPolicy, Handler handler, Protocol protocol ) {
         String location = "/" + context + "/*";
-        this.mapper.register( location, new NioHandlerAdapter( "/" + context, handler, corsPolicy, protocol ) );
+        this.mapper.register( location,
+            new NioHandlerAdapter( "/" + context, handler, corsPolicy, protocol, workers ) );
         logger.info( handler + " bound to " + location );
 
     }
@@ -78,17 +110,24 @@ public class NioServer implements oap.http.HttpServer {
 
     @Override
     public void accepted( Socket socket ) {
-        throw new UnsupportedOperationException("NioServer is not yet supported");
+        throw new UnsupportedOperationException( "NioServer listens on its own port" );
     }
 
+    /**
+     * Returns once the server listens.
+     */
     public void start() {
         try {
             logger.info( "starting [localhost:" + port + "]..." );
 
             server.start();
+            server.getEndpoint().waitFor();
+            if( server.getEndpoint().getException() != null ) throw server.getEndpoint().getException();
 
+            queueMetric = Metrics.measureGauge( Metrics.name( "nio_http_queue" ).tag( "port", String.valueOf( port ) ),
+                () -> workers.getQueue().size() );
         } catch( Exception e ) {
-            logger.error( e.getMessage() + " [" + server.getEndpoint().getAddress() + ":" + port + "]", e );
+            logger.error( e.getMessage() + " [localhost:" + port + "]", e );
             throw new RuntimeException( e.getMessage(), e );
         }
     }
@@ -100,6 +139,8 @@ public class NioServer implements oap.http.HttpServer {
         } catch( InterruptedException e ) {
             logger.debug( e.getMessage(), e );
         }
+        Closeables.close( workers );
+        if( queueMetric != null ) Metrics.unregister( queueMetric );
 
         logger.info( "server gone down" );
     }
@@ -23,19 +23,47 @@
  */
 package oap.logstream;
 
+import lombok.EqualsAndHashCode;
+import lombok.SneakyThrows;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import oap.io.Files;
+import oap.io.IoStreams;
 import oap.io.IoStreams.Encoding;
 import oap.metrics.Metrics;
+import oap.metrics.Name;
 import oap.util.Optionals;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.stream.Collectors.toList;
+import static oap.io.IoStreams.Encoding.GZIP;
+import static oap.io.IoStreams.Encoding.PLAIN;
 
 @Slf4j
 public class Archiver implements Runnable {
     public static final String CORRUPTED_DIRECTORY = ".corrupted";
+    private static final Name METRICS_ARCHIVE = Metrics.name( "archive" );
+    private static final Name METRICS_ARCHIVE_BYTES = Metrics.name( "archive.bytes" );
+    private static final Name METRICS_ARCHIVE_BACKLOG = Metrics.name( "archive.backlog" );
+    private static final Name METRICS_ARCHIVE_FAILED = Metrics.name( "archive.failed" );
     public final Path sourceDirectory;
     public final Path destinationDirectory;
     public final long safeInterval;
@@ -43,6 +71,19 @@ public class Archiver implements Runnable {
     public final String mask;
     public final int bucketsPerHour;
     public final Path corruptedDirectory;
+    /**
+     * number of files archived concurrently
+     */
+    public int threads = Runtime.getRuntime().availableProcessors();
+    /**
+     * files larger than this are gzipped in independently compressed blocks of {@link #blockSize} in parallel
+     */
+    public long parallelThreshold = 1024 * 1024 * 64;
+    public int blockSize = 1024 * 1024 * 4;
+    /**
+     * reread the archive and compare its content with the source before deleting the source
+     */
+    public boolean verify = true;
     private int bufferSize = 1024 * 256 * 4 * 4;
 
 
@@ -67,37 +108,176 @@ public class Archiver implements Runnable {
         long elapsed = DateTimeUtils.currentTimeMillis() - bucketStartTime;
         if( elapsed < safeInterval )
             log.debug( "not safe to process yet ({}ms), some of the files could still be open, waiting...", elapsed );
-        else for( Path path : Files.wildcard( sourceDirectory, mask ) ) {
-            if( path.startsWith( corruptedDirectory ) ) continue;
-            Optionals.fork( Timestamp.parse( path, bucketsPerHour ) )
-                .ifAbsent( () -> log.error( "what a hell is that {}", path ) )
-                .ifPresent( dt -> {
-                    if( dt.isBefore( bucketStartTime ) ) archive( path );
-                    else log.debug( "skipping (current timestamp) {}", path );
-                } );
+        else {
+            final List<Path> closed = new ArrayList<>();
+            for( Path path : Files.wildcard( sourceDirectory, mask ) ) {
+                if( path.startsWith( corruptedDirectory ) ) continue;
+                Optionals.fork( Timestamp.parse( path, bucketsPerHour ) )
+                    .ifAbsent( () -> log.error( "what a hell is that {}", path ) )
+                    .ifPresent( dt -> {
+                        if( dt.isBefore( bucketStartTime ) ) closed.add( path );
+                        else log.debug( "skipping (current timestamp) {}", path );
+                    } );
+            }
+            archive( closed );
         }
         log.debug( "packing is done" );
     }
 
-    private void archive( Path path ) {
-        Encoding from = Encoding.from( path );
-
-        Path destination = destinationDirectory.resolve(
-            encoding.resolve( sourceDirectory.relativize( path ) ) );
-
-        Metrics.measureTimer( Metrics.name( "archive" ), () -> {
-            if( !Files.isFileEncodingValid( path ) ) {
-                Files.rename( path, corruptedDirectory.resolve( sourceDirectory.relativize( path ) ) );
-                log.debug( "corrupted {}", path );
-            } else if( from != encoding ) {
-                log.debug( "compressing {} ({} bytes)", path, path.toFile().length() );
-                Files.copy( path, from, destination, encoding, bufferSize );
-                log.debug( "compressed {} ({} bytes)", path, destination.toFile().length() );
-                Files.delete( path );
-            } else {
-                log.debug( "moving {} ({} bytes)", path, path.toFile().length() );
-                Files.rename( path, destination );
+    /**
+     * Archives files on a pool of {@link #threads}. The pool is a fork/join one, so that block compression
+     * tasks forked by a file share the same bound and a file waiting for its blocks helps to compress them.
+     * All files of a run share {@code threads * 2} permits for blocks held in memory.
+     */
+    private void archive( List<Path> paths ) {
+        if( paths.isEmpty() ) return;
+
+        Metrics.measureCounterIncrement( METRICS_ARCHIVE_BACKLOG, paths.size() );
+        final ForkJoinPool pool = new ForkJoinPool( threads );
+        final Semaphore blocks = new Semaphore( threads * 2 );
+        try {
+            pool.invokeAll( paths.stream().map( path -> ( Callable<Void> ) () -> {
+                archive( path, blocks );
+                return null;
+            } ).collect( toList() ) );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void archive( Path path, Semaphore blocks ) {
+        try {
+            Encoding from = Encoding.from( path );
+
+            Path destination = destinationDirectory.resolve(
+                encoding.resolve( sourceDirectory.relativize( path ) ) );
+
+            Metrics.measureTimer( METRICS_ARCHIVE, () -> {
+                if( !Files.isFileEncodingValid( path ) ) {
+                    Files.rename( path, corruptedDirectory.resolve( sourceDirectory.relativize( path ) ) );
+                    log.debug( "corrupted {}", path );
+                } else if( from != encoding ) {
+                    log.debug( "compressing {} ({} bytes)", path, path.toFile().length() );
+                    final Digest digest = encoding == GZIP && path.toFile().length() > parallelThreshold
+                        ? compressBlocks( path, from, destination, blocks )
+                        : compress( path, from, destination );
+                    log.debug( "compressed {} ({} bytes)", path, destination.toFile().length() );
+                    if( verify && !digest.equals( digest( destination, encoding ) ) ) {
+                        log.error( "archive {} does not match {}, keeping the source", destination, path );
+                        Metrics.measureCounterIncrement( METRICS_ARCHIVE_FAILED );
+                        Files.delete( destination );
+                    } else {
+                        Metrics.measureMeter( METRICS_ARCHIVE_BYTES, digest.length );
+                        Files.delete( path );
+                    }
+                } else {
+                    log.debug( "moving {} ({} bytes)", path, path.toFile().length() );
+                    Metrics.measureMeter( METRICS_ARCHIVE_BYTES, path.toFile().length() );
+                    Files.rename( path, destination );
+                }
+            } );
+        } catch( Exception e ) {
+            log.error( "cannot archive " + path, e );
+            Metrics.measureCounterIncrement( METRICS_ARCHIVE_FAILED );
+        } finally {
+            Metrics.measureCounterDecrement( METRICS_ARCHIVE_BACKLOG );
+        }
+    }
+
+    @SneakyThrows
+    private Digest compress( Path path, Encoding from, Path destination ) {
+        Files.ensureFile( destination );
+        try( CheckedInputStream in = new CheckedInputStream( IoStreams.in( path, from, bufferSize ), new CRC32() );
+             OutputStream out = IoStreams.out( destination, encoding, bufferSize, false, true ) ) {
+            final long length = IOUtils.copyLarge( in, out );
+            return new Digest( in.getChecksum().getValue(), length );
+        }
+    }
+
+    /**
+     * Splits the content into blocks, gzips them in parallel and writes them out in order as members of
+     * a single multi-member gzip file. A block is read only with a permit of {@code blocks}, released once
+     * the block is written, so at most {@code threads * 2} blocks of all files of a run are held in memory.
+     * A file short of permits writes out its own oldest block first and waits only with none in flight.
+     */
+    @SneakyThrows
+    private Digest compressBlocks( Path path, Encoding from, Path destination, Semaphore blocks ) {
+        Files.ensureFile( destination );
+        final ArrayDeque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
+        try( CheckedInputStream in = new CheckedInputStream( IoStreams.in( path, from, bufferSize ), new CRC32() );
+             OutputStream out = IoStreams.out( destination, PLAIN, bufferSize, false, true ) ) {
+            long length = 0;
+            int read;
+            do {
+                while( !blocks.tryAcquire() ) {
+                    if( window.isEmpty() ) {
+                        blocks.acquire();
+                        break;
+                    }
+                    write( out, window.poll(), blocks );
+                }
+
+                final byte[] block = new byte[blockSize];
+                try {
+                    read = IOUtils.read( in, block );
+                } catch( IOException e ) {
+                    blocks.release();
+                    throw e;
+                }
+                if( read == 0 && length > 0 ) {
+                    blocks.release();
+                    break;
+                }
+
+                final int size = read;
+                window.add( ForkJoinTask.adapt( () -> gzip( block, size ) ).fork() );
+                length += read;
+            } while( read == blockSize );
+
+            while( !window.isEmpty() ) write( out, window.poll(), blocks );
+
+            return new Digest( in.getChecksum().getValue(), length );
+        } finally {
+            for( ForkJoinTask<byte[]> task : window ) {
+                task.cancel( false );
+                blocks.release();
             }
-        } );
+        }
+    }
+
+    private static void write( OutputStream out, ForkJoinTask<byte[]> block, Semaphore blocks ) throws IOException {
+        try {
+            out.write( block.join() );
+        } finally {
+            blocks.release();
+        }
+    }
+
+    private static byte[] gzip( byte[] block, int size ) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( size / 2 + 64 );
+        try( GZIPOutputStream out = new GZIPOutputStream( bytes, 1024 * 64 ) ) {
+            out.write( block, 0, size );
+        }
+        return bytes.toByteArray();
+    }
+
+    @SneakyThrows
+    private Digest digest( Path path, Encoding encoding ) {
+        try( CheckedInputStream in = new CheckedInputStream( IoStreams.in( path, encoding, bufferSize ), new CRC32() ) ) {
+            final long length = IOUtils.copyLarge( in, NullOutputStream.NULL_OUTPUT_STREAM );
+            return new Digest( in.getChecksum().getValue(), length );
+        }
+    }
+
+    @EqualsAndHashCode
+    @ToString
+    private static final class Digest {
+        final long crc;
+        final long length;
+
+        Digest( long crc, long length ) {
+            this.crc = crc;
+            this.length = length;
+        }
     }
 }
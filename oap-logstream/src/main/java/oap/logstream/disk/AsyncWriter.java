@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.metrics.Metrics;
+import org.joda.time.DateTimeUtils;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring of pending writes to one file. Producers copy their buffers into the ring together with the
+ * time of the write, so that the bucket is chosen as if the write was synchronous, and the writer thread of
+ * {@link DiskLoggingBackend} drains the ring in batches. A full ring blocks producers until it is drained.
+ * <p>
+ * Buffers are acknowledged to clients once they are in the ring, so a failed write does not drop them: the
+ * drain stops at the failed buffer, keeps it and everything after it pending and marks the ring failing, which
+ * reports the backend unavailable until a later drain writes them out. Pending buffers are lost only if the
+ * process dies or the file still cannot be written when the ring is closed. Closing releases the congestion
+ * and failure the ring reported and fails producers still waiting for room.
+ */
+@Slf4j
+class AsyncWriter implements Closeable {
+    final Writer writer;
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    private final byte[][] buffers;
+    private final long[] times;
+    private final long maxBytes;
+    private final AtomicInteger congested;
+    private final AtomicInteger failing;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Object drainLock = new Object();
+    private int head;
+    private int size;
+    private long bytes;
+    private boolean congestion;
+    private boolean closed;
+    private volatile boolean failure;
+
+    /**
+     * @param capacity  max number of pending writes
+     * @param maxBytes  max number of pending bytes
+     * @param congested number of rings filled above the high-water mark of a half, shared by the backend
+     * @param failing   number of rings whose last drain failed, shared by the backend
+     */
+    AsyncWriter( Writer writer, int capacity, long maxBytes, AtomicInteger congested, AtomicInteger failing ) {
+        this.writer = writer;
+        this.buffers = new byte[capacity][];
+        this.times = new long[capacity];
+        this.maxBytes = maxBytes;
+        this.congested = congested;
+        this.failing = failing;
+    }
+
+    /**
+     * @return true if the ring has to be scheduled for draining
+     * @throws IllegalStateException if the ring is closed
+     */
+    boolean append( byte[] buffer, int offset, int length ) throws InterruptedException {
+        final byte[] copy = Arrays.copyOfRange( buffer, offset, offset + length );
+        final long time = DateTimeUtils.currentTimeMillis();
+
+        lock.lockInterruptibly();
+        try {
+            while( !closed && ( size == buffers.length || size > 0 && bytes + length > maxBytes ) ) notFull.await();
+            if( closed ) throw new IllegalStateException( this + " is closed" );
+
+            final int tail = ( head + size ) % buffers.length;
+            buffers[tail] = copy;
+            times[tail] = time;
+            size++;
+            bytes += length;
+            if( !congestion && ( size * 2 > buffers.length || bytes * 2 > maxBytes ) ) {
+                congestion = true;
+                congested.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return scheduled.compareAndSet( false, true );
+    }
+
+    /**
+     * Writes out everything pending at the moment of the call, up to the first failed write.
+     *
+     * @return number of written buffers
+     */
+    int drain() {
+        synchronized( drainLock ) {
+            final int start;
+            final int pending;
+            lock.lock();
+            try {
+                start = head;
+                pending = size;
+            } finally {
+                lock.unlock();
+            }
+            if( pending == 0 ) return 0;
+
+            int count = 0;
+            long written = 0;
+            for( ; count < pending; count++ ) {
+                final int index = ( start + count ) % buffers.length;
+                final byte[] buffer = buffers[index];
+                try {
+                    writer.write( times[index], buffer, 0, buffer.length );
+                } catch( Exception e ) {
+                    log.error( "keeping " + ( pending - count ) + " buffer(s) of " + writer + " pending, write failed", e );
+                    Metrics.measureCounterIncrement( Metrics.name( DiskLoggingBackend.METRICS_LOGGING_DISK + ".failed" ) );
+                    break;
+                }
+                buffers[index] = null;
+                written += buffer.length;
+            }
+            failing( count < pending );
+
+            lock.lock();
+            try {
+                head = ( head + count ) % buffers.length;
+                size -= count;
+                bytes -= written;
+                if( congestion && size * 2 <= buffers.length && bytes * 2 <= maxBytes ) {
+                    congestion = false;
+                    congested.decrementAndGet();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            return count;
+        }
+    }
+
+    private void failing( boolean failure ) {
+        if( this.failure == failure ) return;
+        this.failure = failure;
+        if( failure ) failing.incrementAndGet();
+        else failing.decrementAndGet();
+    }
+
+    /**
+     * @return true if the last drain failed, the buffers it could not write are still pending
+     */
+    boolean failed() {
+        return failure;
+    }
+
+    int pending() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized( drainLock ) {
+            drain();
+            final int pending;
+            lock.lock();
+            try {
+                closed = true;
+                pending = size;
+                if( congestion ) {
+                    congestion = false;
+                    congested.decrementAndGet();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if( pending > 0 ) {
+                log.error( "dropping {} buffer(s) of {} on close", pending, writer );
+                Metrics.measureCounterIncrement( Metrics.name( DiskLoggingBackend.METRICS_LOGGING_DISK + ".dropped" ), pending );
+            }
+            failing( false );
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + writer;
+    }
+}
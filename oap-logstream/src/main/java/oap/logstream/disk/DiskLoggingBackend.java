@@ -28,18 +28,24 @@ import com.google.common.base.MoreObjects;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import oap.io.Closeables;
 import oap.io.Files;
 import oap.logstream.AvailabilityReport;
+import oap.logstream.AvailabilityReport.State;
 import oap.logstream.LoggingBackend;
 import oap.metrics.Metrics;
 import oap.metrics.Name;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static oap.logstream.AvailabilityReport.State.FAILED;
 import static oap.logstream.AvailabilityReport.State.OPERATIONAL;
@@ -50,34 +56,85 @@ public class DiskLoggingBackend implements LoggingBackend {
     public static final String METRICS_LOGGING_DISK = "logging.disk";
     public static final String METRICS_LOGGING_DISK_BUFFERS = "logging.disk.buffers";
     public static final long DEFAULT_FREE_SPACE_REQUIRED = 2000000000L;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final long RETRY_INTERVAL = 1000;
     private final Path logDirectory;
     private final String ext;
     private final int bufferSize;
-    private final LoadingCache<String, Writer> writers;
+    private final LoadingCache<String, AsyncWriter> writers;
     private final int bucketsPerHour;
     private final Name writersMetric;
-    private boolean closed;
+    private final Name congestedMetric;
+    private final LinkedBlockingQueue<AsyncWriter> scheduled = new LinkedBlockingQueue<>();
+    private final AtomicInteger congested = new AtomicInteger();
+    private final AtomicInteger failing = new AtomicInteger();
+    private final List<AsyncWriter> failed = new ArrayList<>();
+    private final Thread writerThread;
+    private volatile boolean closed;
     public long requiredFreeSpace = DEFAULT_FREE_SPACE_REQUIRED;
     public boolean useClientHostPrefix = true;
+    /**
+     * max number of buffers pending per file, logging is reported unavailable when any file has more than a half
+     */
+    public int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    /**
+     * max number of bytes pending per file
+     */
+    public long queueBytes;
 
     public DiskLoggingBackend( Path logDirectory, String ext, int bufferSize, int bucketsPerHour ) {
         this.logDirectory = logDirectory;
         this.ext = ext;
         this.bufferSize = bufferSize;
         this.bucketsPerHour = bucketsPerHour;
+        this.queueBytes = bufferSize * 64L;
         this.writers = CacheBuilder.newBuilder()
             .expireAfterAccess( 60 / bucketsPerHour * 3, TimeUnit.MINUTES )
-            .removalListener( notification -> Closeables.close( ( Writer ) notification.getValue() ) )
-            .build( new CacheLoader<String, Writer>() {
+            .removalListener( notification -> Closeables.close( ( AsyncWriter ) notification.getValue() ) )
+            .build( new CacheLoader<String, AsyncWriter>() {
                 @Override
-                public Writer load( String fullFileName ) throws Exception {
-                    return new Writer( logDirectory, fullFileName, ext, bufferSize, bucketsPerHour );
+                public AsyncWriter load( String fullFileName ) throws Exception {
+                    return new AsyncWriter( new Writer( logDirectory, fullFileName, ext, bufferSize, bucketsPerHour ),
+                        queueCapacity, queueBytes, congested, failing );
                 }
             } );
-        this.writersMetric = Metrics.measureGauge(
-            Metrics.name( METRICS_LOGGING_DISK + logDirectory.toString().replace( "/", "." ) + ".writers" ),
-            writers::size );
+        final String metricPrefix = METRICS_LOGGING_DISK + logDirectory.toString().replace( "/", "." );
+        this.writersMetric = Metrics.measureGauge( Metrics.name( metricPrefix + ".writers" ), writers::size );
+        this.congestedMetric = Metrics.measureGauge( Metrics.name( metricPrefix + ".congested" ), congested::get );
+        this.writerThread = new Thread( this::drain, "disk-writer-" + logDirectory.getFileName() );
+        this.writerThread.setDaemon( true );
+        this.writerThread.start();
+    }
+
+    /**
+     * Single writer thread: drains scheduled files one by one, each drain writes out everything pending
+     * for the file under one lock. A file is scheduled again by the first append after its flag is reset.
+     * A file whose drain failed stays scheduled and is retried every {@link #RETRY_INTERVAL} ms.
+     */
+    private void drain() {
+        long retry = 0;
+        while( !closed || !scheduled.isEmpty() ) try {
+            final AsyncWriter writer = scheduled.poll( 100, TimeUnit.MILLISECONDS );
+            if( writer != null ) {
+                writer.scheduled.set( false );
+                final int count = writer.drain();
+                if( count > 0 ) Metrics.measureHistogram( Metrics.name( METRICS_LOGGING_DISK + ".batch" ), count );
+                if( writer.failed() && writer.scheduled.compareAndSet( false, true ) ) {
+                    if( failed.isEmpty() ) retry = System.currentTimeMillis() + RETRY_INTERVAL;
+                    failed.add( writer );
+                }
+            }
 
+            if( !failed.isEmpty() && System.currentTimeMillis() >= retry ) {
+                scheduled.addAll( failed );
+                failed.clear();
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            break;
+        } catch( Exception e ) {
+            log.error( e.getMessage(), e );
+        }
     }
 
     @Override
@@ -88,24 +145,38 @@ public class DiskLoggingBackend implements LoggingBackend {
         Metrics.measureCounterIncrement( Metrics.name( METRICS_LOGGING_DISK ).tag( "from", hostName ) );
         Metrics.measureHistogram( Metrics.name( METRICS_LOGGING_DISK_BUFFERS ).tag( "from", hostName ), length );
         String fullFileName = useClientHostPrefix ? hostName + "/" + fileName : fileName;
-        Writer writer = writers.get( fullFileName );
+        AsyncWriter writer = writers.get( fullFileName );
         log.trace( "logging {} bytes to {}", length, writer );
-        writer.write( buffer, offset, length );
+        if( writer.append( buffer, offset, length ) ) scheduled.offer( writer );
     }
 
     @Override
+    @SneakyThrows
     public void close() {
         if( !closed ) {
             closed = true;
+            writerThread.join();
             Metrics.unregister( writersMetric );
+            Metrics.unregister( congestedMetric );
             writers.invalidateAll();
         }
     }
 
     @Override
     public AvailabilityReport availabilityReport() {
-        boolean enoughSpace = Files.usableSpaceAtDirectory( logDirectory ) > requiredFreeSpace;
-        return new AvailabilityReport( enoughSpace ? OPERATIONAL : FAILED );
+        final State space = Files.usableSpaceAtDirectory( logDirectory ) > requiredFreeSpace ? OPERATIONAL : FAILED;
+        final State queues = congested.get() > 0 ? FAILED : OPERATIONAL;
+        final State writes = failing.get() > 0 ? FAILED : OPERATIONAL;
+        return new AvailabilityReport(
+            space == OPERATIONAL && queues == OPERATIONAL && writes == OPERATIONAL ? OPERATIONAL : FAILED,
+            ImmutableMap.of( "space", space, "queues", queues, "writes", writes ) );
+    }
+
+    /**
+     * @return number of buffers not written to disk yet
+     */
+    public int pending() {
+        return writers.asMap().values().stream().mapToInt( AsyncWriter::pending ).sum();
     }
 
     @Override
@@ -116,6 +187,7 @@ public class DiskLoggingBackend implements LoggingBackend {
             .add( "buffer", bufferSize )
             .add( "bucketsPerHour", bucketsPerHour )
             .add( "hostPrefix", useClientHostPrefix )
+            .add( "queueCapacity", queueCapacity )
             .add( "writers", writers.size() )
             .toString();
     }
@@ -35,6 +35,7 @@ import oap.io.IoStreams.Encoding;
 import oap.logstream.Timestamp;
 import oap.metrics.Metrics;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -54,6 +55,8 @@ public class Writer implements Closeable {
     private int bucketsPerHour;
     private CountingOutputStream out;
     private String lastPattern;
+    private long bucketStart;
+    private long bucketEnd;
     private Scheduled refresher;
     private Stopwatch stopwatch = new Stopwatch();
 
@@ -63,7 +66,7 @@ public class Writer implements Closeable {
         this.ext = ext;
         this.bufferSize = bufferSize;
         this.bucketsPerHour = bucketsPerHour;
-        this.lastPattern = currentPattern();
+        this.lastPattern = pattern( DateTimeUtils.currentTimeMillis() );
         this.refresher = Scheduler.scheduleWithFixedDelay( 10, SECONDS, this::refresh );
         log.debug( "spawning {}", this );
     }
@@ -94,8 +97,15 @@ public class Writer implements Closeable {
     }
 
     public synchronized void write( byte[] buffer, int offset, int length ) {
+        write( DateTimeUtils.currentTimeMillis(), buffer, offset, length );
+    }
+
+    /**
+     * @param time of the write, selects the bucket
+     */
+    synchronized void write( long time, byte[] buffer, int offset, int length ) {
         try {
-            refresh();
+            refresh( time );
             Path filename = filename();
             if( out == null )
                 if( Files.isFileEncodingValid( filename ) )
@@ -125,15 +135,32 @@ public class Writer implements Closeable {
     }
 
     private synchronized void refresh() {
-        String currentPattern = currentPattern();
+        refresh( DateTimeUtils.currentTimeMillis() );
+    }
+
+    private void refresh( long time ) {
+        if( time >= bucketStart && time < bucketEnd ) return;
+
+        String currentPattern = pattern( time );
         if( !Objects.equals( this.lastPattern, currentPattern ) ) {
             closeOutput();
             lastPattern = currentPattern;
         }
     }
 
-    private String currentPattern() {
-        return Timestamp.format( DateTime.now(), bucketsPerHour );
+    /**
+     * Formats the bucket of {@code time} and caches its boundaries, so that writes within the bucket
+     * skip formatting. The boundaries never cross an UTC hour, which is part of the pattern.
+     */
+    private String pattern( long time ) {
+        final DateTime date = new DateTime( time );
+        final int bucketMinutes = 60 / bucketsPerHour;
+        bucketStart = date.withMinuteOfHour( date.getMinuteOfHour() / bucketMinutes * bucketMinutes )
+            .withSecondOfMinute( 0 )
+            .withMillisOfSecond( 0 )
+            .getMillis();
+        bucketEnd = Math.min( bucketStart + bucketMinutes * 60000L, ( time / 3600000L + 1 ) * 3600000L );
+        return Timestamp.format( date, bucketsPerHour );
     }
 
     @Override
@@ -24,13 +24,20 @@
 package oap.logstream.net;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 class Buffer implements Serializable {
-    private final String selector;
+    private static final long serialVersionUID = -7850100066125594828L;
+    private String selector;
     private byte[] data;
     private int position = 0;
     private boolean closed = false;
     private int dataStart;
+    /**
+     * position of the buffer in {@link SpillQueue}
+     */
+    transient long spilledAt;
 
     public Buffer( int size, String selector ) {
         this.selector = selector;
@@ -140,7 +147,32 @@ class Buffer implements Serializable {
         return this.data;
     }
 
+    /**
+     * Replaces the content with a closed buffer read from {@link SpillQueue}.
+     */
+    final void load( ByteBuffer record ) {
+        final int length = record.remaining();
+        if( length > data.length ) throw new IllegalArgumentException( "buffer is too small: " + length );
+        record.get( data, 0, length );
+        this.selector = selector( ByteBuffer.wrap( data, 0, length ) );
+        this.dataStart = 14 + ( ( ( data[12] & 0xFF ) << 8 ) | ( data[13] & 0xFF ) );
+        this.position = length;
+        this.closed = true;
+    }
+
+    /**
+     * @return selector of a buffer as sent, its modified UTF-8 is plain UTF-8 for file names
+     */
+    static String selector( ByteBuffer record ) {
+        final int start = record.position();
+        final int length = record.getShort( start + 12 ) & 0xFFFF;
+        final byte[] bytes = new byte[length];
+        for( int i = 0; i < length; i++ ) bytes[i] = record.get( start + 14 + i );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
     public final void reset( String selector ) {
+        this.selector = selector;
         this.closed = false;
         this.position = 0;
         initMetadata( selector );
@@ -162,6 +194,20 @@ class Buffer implements Serializable {
         System.arraycopy( length, 0, this.data, 8, length.length );
     }
 
+    public final long digestionId() {
+        long id = 0;
+        for( int i = 0; i < 8; i++ ) id = ( id << 8 ) | ( data[i] & 0xFF );
+        return id;
+    }
+
+    public final String selector() {
+        return selector;
+    }
+
+    public final int capacity() {
+        return data.length;
+    }
+
     public final int dataLength() {
         return position - dataStart;
     }
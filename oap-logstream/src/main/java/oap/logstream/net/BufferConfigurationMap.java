@@ -72,5 +72,13 @@ public final class BufferConfigurationMap extends HashMap<String, BufferConfigur
     public static final class BufferConfiguration {
         public final int bufferSize;
         public final Pattern pattern;
+        /**
+         * send buffers LZ4 compressed if the server supports it
+         */
+        public final boolean compression;
+
+        public BufferConfiguration( int bufferSize, Pattern pattern ) {
+            this( bufferSize, pattern, false );
+        }
     }
 }
@@ -30,14 +30,16 @@ import lombok.val;
 import oap.io.Files;
 import oap.logstream.net.BufferConfigurationMap.BufferConfiguration;
 import oap.metrics.Metrics;
+import oap.util.Pair;
 
 import java.io.Closeable;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,31 +47,64 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
-@EqualsAndHashCode( exclude = "closed" )
+import static oap.util.Pair.__;
+
+/**
+ * Each selector has {@code stripes} current buffers, a thread always writes to the same one, so request
+ * threads rarely contend and lines of one thread keep their order.
+ * <p>
+ * Ready buffers are appended to a {@link SpillQueue} in {@code location}, at most {@code memoryBuffers} of
+ * them are kept in memory, the rest are loaded back in order as the ones in memory are acknowledged. Buffers
+ * not acknowledged are replayed after a restart, also after a crash.
+ */
+@EqualsAndHashCode( exclude = { "closed", "spill" } )
 @ToString
 @Slf4j
 public class Buffers implements Closeable {
+    public static final int DEFAULT_STRIPES = Math.min( Runtime.getRuntime().availableProcessors(), 4 );
+    public static final int DEFAULT_MEMORY_BUFFERS = 256;
     private final Path location;
     //    private final int bufferSize;
-    private final ConcurrentHashMap<String, Buffer> currentBuffers = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, BufferConfiguration> configurationForSelector = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Stripe[]> currentBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Pair<String, BufferConfiguration>> configurationForSelector = new ConcurrentHashMap<>();
     private final BufferConfigurationMap configurations;
+    private final int stripes;
+    private final int memoryBuffers;
+    private final SpillQueue spill;
     ReadyQueue readyBuffers = new ReadyQueue();
     BufferCache cache;
     private boolean closed;
 
     public Buffers( Path location, BufferConfigurationMap configurations ) {
+        this( location, configurations, DEFAULT_STRIPES );
+    }
+
+    public Buffers( Path location, BufferConfigurationMap configurations, int stripes ) {
+        this( location, configurations, stripes, DEFAULT_MEMORY_BUFFERS, SpillQueue.DEFAULT_SEGMENT_SIZE );
+    }
+
+    public Buffers( Path location, BufferConfigurationMap configurations, int stripes, int memoryBuffers, int segmentSize ) {
         this.location = location;
         this.configurations = configurations;
+        this.stripes = Math.max( stripes, 1 );
+        this.memoryBuffers = Math.max( memoryBuffers, 1 );
         this.cache = new BufferCache();
-        try {
-            if( java.nio.file.Files.exists( location ) )
-                readyBuffers = Files.readObject( location );
-            log.debug( "unsent buffers: {}", readyBuffers.size() );
-        } catch( Exception e ) {
-            log.warn( e.getMessage() );
+
+        ReadyQueue legacy = null;
+        if( java.nio.file.Files.isRegularFile( location ) ) {
+            try {
+                legacy = Files.readObject( location );
+                log.debug( "unsent buffers: {}", legacy.size() );
+            } catch( Exception e ) {
+                log.warn( e.getMessage() );
+            }
+            Files.delete( location );
         }
-        Files.delete( location );
+
+        this.spill = new SpillQueue( location, segmentSize );
+        if( legacy != null ) legacy.iterator().forEachRemaining( b -> spill.append( b.data(), b.length() ) );
+        ReadyQueue.digestionIds.accumulateAndGet( spill.lastId(), Math::max );
+        load();
     }
 
     public final void put( String key, byte[] buffer ) {
@@ -79,43 +114,103 @@ public class Buffers implements Closeable {
     public final void put( String selector, byte[] buffer, int offset, int length ) {
         if( closed ) throw new IllegalStateException( "current buffers already closed" );
 
-        BufferConfiguration conf = configurationForSelector.computeIfAbsent( selector, this::findConfiguration );
+        BufferConfiguration conf = configuration( selector )._2;
 
         final int bufferSize = conf.bufferSize;
-        String intern = selector.intern();
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized( intern ) {
-            Buffer b = currentBuffers.computeIfAbsent( intern, k -> cache.get( intern, bufferSize ) );
+        final Stripe[] selectorStripes = currentBuffers.computeIfAbsent( selector, s -> Stripe.array( stripes ) );
+        final Stripe stripe = selectorStripes[( int ) ( Thread.currentThread().getId() % stripes )];
+        synchronized( stripe ) {
+            Buffer b = stripe.buffer;
+            if( b == null ) stripe.buffer = b = cache.get( selector, bufferSize );
             if( bufferSize - b.headerLength() < length )
                 throw new IllegalArgumentException( "buffer size is too big: " + length + " for buffer of " + bufferSize );
             if( !b.available( length ) ) {
-                readyBuffers.ready( b );
-                currentBuffers.put( intern, b = cache.get( intern, bufferSize ) );
+                ready( b );
+                stripe.buffer = b = cache.get( selector, bufferSize );
             }
             b.put( buffer, offset, length );
         }
     }
 
-    private BufferConfiguration findConfiguration( String selection ) {
+    /**
+     * @return name and configuration of the buffers of {@code selector}
+     */
+    final Pair<String, BufferConfiguration> configuration( String selector ) {
+        return configurationForSelector.computeIfAbsent( selector, this::findConfiguration );
+    }
+
+    private Pair<String, BufferConfiguration> findConfiguration( String selection ) {
         for( val conf : configurations.entrySet() ) {
-            if( conf.getValue().pattern.matcher( selection ).find() ) return conf.getValue();
+            if( conf.getValue().pattern.matcher( selection ).find() ) return __( conf.getKey(), conf.getValue() );
         }
         throw new IllegalStateException( "Pattern for " + selection + " not found" );
     }
 
-    private void flush() {
-        for( String internSelector : currentBuffers.keySet() ) {
-            //noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized( internSelector ) {
-                Buffer buffer = currentBuffers.remove( internSelector );
-                if( buffer != null && !buffer.isEmpty() ) readyBuffers.ready( buffer );
+    final void flush() {
+        for( Stripe[] selectorStripes : currentBuffers.values() )
+            for( Stripe stripe : selectorStripes )
+                synchronized( stripe ) {
+                    if( stripe.buffer != null && !stripe.buffer.isEmpty() ) {
+                        ready( stripe.buffer );
+                        stripe.buffer = null;
+                    }
+                }
+    }
+
+    /**
+     * Closes {@code buffer} with the next digestion id and spills it, it stays in memory only if nothing
+     * spilled before is waiting to be loaded.
+     */
+    private void ready( Buffer buffer ) {
+        synchronized( spill ) {
+            ReadyQueue.close( buffer );
+            final boolean inMemory = spill.unread() == 0 && readyBuffers.size() < memoryBuffers;
+            buffer.spilledAt = spill.append( buffer.data(), buffer.length() );
+            if( inMemory ) {
+                spill.next();
+                readyBuffers.offer( buffer );
+            } else cache.release( buffer );
+        }
+    }
+
+    /**
+     * Loads spilled buffers into memory up to {@code memoryBuffers}.
+     */
+    private void load() {
+        synchronized( spill ) {
+            int inMemory = readyBuffers.size();
+            while( inMemory < memoryBuffers && spill.unread() > 0 ) {
+                final ByteBuffer record = spill.peek();
+                final String selector = Buffer.selector( record );
+                int size = record.remaining();
+                try {
+                    size = Math.max( size, configuration( selector )._2.bufferSize );
+                } catch( IllegalStateException e ) {
+                    log.warn( "replaying {}: {}", selector, e.getMessage() );
+                }
+                final Buffer buffer = cache.get( selector, size );
+                buffer.load( record );
+                buffer.spilledAt = spill.next();
+                readyBuffers.offer( buffer );
+                inMemory++;
             }
         }
+    }
 
+    /**
+     * Moves the head of the spill past acknowledged buffers.
+     */
+    private void commit() {
+        synchronized( spill ) {
+            final Buffer first = readyBuffers.peek();
+            spill.commit( first != null ? first.spilledAt : spill.read() );
+        }
     }
 
     public final boolean isEmpty() {
-        return readyBuffers.isEmpty();
+        synchronized( spill ) {
+            return readyBuffers.isEmpty() && spill.unread() == 0;
+        }
     }
 
 
@@ -124,44 +219,87 @@ public class Buffers implements Closeable {
         if( closed ) throw new IllegalStateException( "already closed" );
         closed = true;
         flush();
-        log.info( "writing {} unsent buffers to {}", readyBuffers.size(), location );
-        Files.writeObject( location, readyBuffers );
+        synchronized( spill ) {
+            log.info( "{} unsent buffers in {}", readyBuffers(), location );
+            spill.close();
+        }
     }
 
     public final synchronized void forEachReadyData( Predicate<Buffer> consumer ) {
         flush();
-        Metrics.measureHistogram( Metrics.name( "logging.buffers_count" ), readyBuffers.size() );
-        log.debug( "buffers to go " + readyBuffers.size() );
-        Iterator<Buffer> iterator = readyBuffers.iterator();
-        while( iterator.hasNext() && !closed ) {
-            Buffer buffer = iterator.next();
-            if( consumer.test( buffer ) ) {
-                iterator.remove();
-                cache.release( buffer );
-            } else break;
+        Metrics.measureHistogram( Metrics.name( "logging.buffers_count" ), readyBuffers() );
+        log.debug( "buffers to go " + readyBuffers() );
+        while( !closed ) {
+            load();
+            final Buffer buffer = readyBuffers.peek();
+            if( buffer == null || !consumer.test( buffer ) ) break;
+            readyBuffers.remove( buffer );
+            commit();
+            cache.release( buffer );
+        }
+    }
+
+    /**
+     * Ready buffers from the head of the queue, in order, whose digestion ids are less than {@code span} above
+     * the first one. They stay queued until {@link #release(Buffer)}, so a buffer that is not acknowledged
+     * is sent again with the same digestion id.
+     */
+    final synchronized List<Buffer> readyData( int span ) {
+        final ArrayList<Buffer> result = new ArrayList<>();
+        if( closed ) return result;
+
+        load();
+        final Iterator<Buffer> iterator = readyBuffers.iterator();
+        if( !iterator.hasNext() ) return result;
+        final Buffer first = iterator.next();
+        final long last = first.digestionId() + span;
+        result.add( first );
+        while( iterator.hasNext() ) {
+            final Buffer buffer = iterator.next();
+            if( buffer.digestionId() >= last ) break;
+            result.add( buffer );
         }
+        return result;
     }
 
+    final void release( Buffer buffer ) {
+        readyBuffers.remove( buffer );
+        commit();
+        cache.release( buffer );
+    }
+
+    /**
+     * @return number of buffers in memory and spilled
+     */
     final int readyBuffers() {
-        return readyBuffers.size();
+        synchronized( spill ) {
+            return readyBuffers.size() + spill.unread();
+        }
+    }
+
+    private static class Stripe {
+        private Buffer buffer;
+
+        private static Stripe[] array( int stripes ) {
+            final Stripe[] array = new Stripe[stripes];
+            for( int i = 0; i < stripes; i++ ) array[i] = new Stripe();
+            return array;
+        }
     }
 
     public static class BufferCache {
-        private final HashMap<Integer, Queue<Buffer>> cache = new HashMap<>();
+        private final ConcurrentHashMap<Integer, Queue<Buffer>> cache = new ConcurrentHashMap<>();
 
-        private synchronized Buffer get( String selector, int bufferSize ) {
-            final Queue<Buffer> list = cache.computeIfAbsent( bufferSize, ( bs ) -> new LinkedList<>() );
+        private Buffer get( String selector, int bufferSize ) {
+            final Buffer buffer = cache.computeIfAbsent( bufferSize, bs -> new ConcurrentLinkedQueue<>() ).poll();
 
-            if( list.isEmpty() ) return new Buffer( bufferSize, selector );
-            else {
-                Buffer buffer = list.poll();
-                buffer.reset( selector );
-                return buffer;
-            }
+            if( buffer == null ) return new Buffer( bufferSize, selector );
+            buffer.reset( selector );
+            return buffer;
         }
 
-        private synchronized void release( Buffer buffer ) {
-            final Queue<Buffer> list = cache.get( buffer.length() );
+        private void release( Buffer buffer ) {
+            final Queue<Buffer> list = cache.get( buffer.capacity() );
             if( list != null ) list.offer( buffer );
         }
 
@@ -171,14 +309,26 @@ public class Buffers implements Closeable {
     }
 
     static class ReadyQueue implements Serializable {
+        private static final long serialVersionUID = 4086329900816784720L;
         static AtomicLong digestionIds = new AtomicLong( System.nanoTime() );
         private Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
 
-        public final void ready( Buffer buffer ) {
+        static void close( Buffer buffer ) {
             buffer.close( digestionIds.incrementAndGet() );
+        }
+
+        public final void offer( Buffer buffer ) {
             buffers.offer( buffer );
         }
 
+        public final Buffer peek() {
+            return buffers.peek();
+        }
+
+        public final void remove( Buffer buffer ) {
+            buffers.remove( buffer );
+        }
+
         public final Iterator<Buffer> iterator() {
             return buffers.iterator();
         }
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+
+/**
+ * Optional LZ4 compression of the logstream protocol.
+ * <p>
+ * A client asks for it with a handshake frame {@code [long HANDSHAKE][int 0][utf LZ4]} right after connecting.
+ * A server supporting it answers {@link #ACCEPTED}, earlier servers take it for an already written buffer
+ * and answer 0, so the client goes on uncompressed. On an accepted connection a frame with a negative size
+ * carries {@code -size} bytes of an LZ4 block instead of the raw data, the acknowledgement stays the same.
+ */
+final class Compression {
+    static final long HANDSHAKE = -1L;
+    static final String LZ4 = "lz4";
+    static final int ACCEPTED = 1;
+
+    private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+    private static final LZ4Compressor compressor = factory.fastCompressor();
+    private static final LZ4SafeDecompressor decompressor = factory.safeDecompressor();
+
+    private Compression() {
+    }
+
+    static int maxCompressedLength( int length ) {
+        return compressor.maxCompressedLength( length );
+    }
+
+    static int compress( byte[] src, int offset, int length, byte[] dest, int destOffset ) {
+        return compressor.compress( src, offset, length, dest, destOffset, dest.length - destOffset );
+    }
+
+    static int decompress( byte[] src, int offset, int length, byte[] dest ) throws IOException {
+        try {
+            return decompressor.decompress( src, offset, length, dest, 0, dest.length );
+        } catch( LZ4Exception e ) {
+            throw new IOException( "corrupted or too big compressed buffer of " + length, e );
+        }
+    }
+
+    static byte[] handshake() {
+        final Buffer buffer = new Buffer( 8 + 4 + 2 + LZ4.length(), LZ4 );
+        buffer.close( HANDSHAKE );
+        return buffer.data();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import lombok.SneakyThrows;
+import oap.io.Files;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Digestion ids of a client host already written by the server. A client sending over several connections
+ * delivers ids out of order, so ids above {@code floor} are remembered individually and folded into it once
+ * contiguous. At most {@code capacity} of them are kept, the lowest are dropped into {@code floor} first.
+ */
+class DigestionWindow implements Serializable {
+    static final int DEFAULT_CAPACITY = 4096;
+    private static final long serialVersionUID = 2795384112617351482L;
+
+    private final TreeSet<Long> written = new TreeSet<>();
+    private transient Set<Long> pending = new HashSet<>();
+    private final int capacity;
+    private long floor;
+
+    DigestionWindow( long floor ) {
+        this( floor, DEFAULT_CAPACITY );
+    }
+
+    DigestionWindow( long floor, int capacity ) {
+        this.floor = floor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reads windows saved by a server, the last written id of each host saved by earlier versions
+     * becomes the floor of its window.
+     */
+    static void load( Path controlStatePath, Map<String, DigestionWindow> control ) {
+        final Map<String, ?> state = Files.readObject( controlStatePath );
+        state.forEach( ( host, window ) -> control.put( host, window instanceof Long
+            ? new DigestionWindow( ( Long ) window )
+            : ( DigestionWindow ) window ) );
+    }
+
+    /**
+     * Runs {@code write} and marks {@code digestionId} written unless it already was. The id is reserved
+     * under the window lock and written outside of it, so writes of one host do not serialize. A duplicate
+     * arriving while the id is being written waits for that write, if it fails the id is free again.
+     *
+     * @return false for a duplicate
+     */
+    @SneakyThrows
+    boolean digest( long digestionId, Runnable write ) {
+        synchronized( this ) {
+            while( pending().contains( digestionId ) ) wait();
+            if( isWritten( digestionId ) ) return false;
+            pending.add( digestionId );
+        }
+
+        boolean done = false;
+        try {
+            write.run();
+            done = true;
+        } finally {
+            synchronized( this ) {
+                pending.remove( digestionId );
+                if( done ) {
+                    written.add( digestionId );
+                    while( !written.isEmpty() && ( written.size() > capacity || written.first() == floor + 1 ) )
+                        floor = written.pollFirst();
+                }
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ids being written are not saved with the window.
+     */
+    private Set<Long> pending() {
+        if( pending == null ) pending = new HashSet<>();
+        return pending;
+    }
+
+    synchronized boolean isWritten( long digestionId ) {
+        return digestionId <= floor || written.contains( digestionId );
+    }
+
+    synchronized long last() {
+        return written.isEmpty() ? floor : written.last();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DigestionWindow(floor=" + floor + ", written=" + written.size() + ")";
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import oap.concurrent.Executors;
+import oap.io.Closeables;
+import oap.io.Files;
+import oap.logstream.LoggingBackend;
+import oap.metrics.Metrics;
+import oap.metrics.Name;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+
+/**
+ * {@link SocketLoggingServer} on NIO selectors: one acceptor thread and {@code loops} event loops
+ * serving all connections, with the same protocol and digestion id deduplication.
+ * <p>
+ * A loop only parses: complete frames are copied out of its read buffer and handed to a pool of
+ * {@code workers}, which decompress them and write them to the backend, the frames of one connection one
+ * at a time in arrival order, so a slow backend never stalls a loop. A connection with {@link #MAX_FRAMES}
+ * frames waiting is not read until the workers catch up. A direct buffer of {@code bufferSize} is taken from
+ * the loop's pool only while a frame arrives in parts, so idle connections hold no more than a few bytes.
+ * Host names of accepted connections are resolved on the workers as well, never on the acceptor thread.
+ */
+@Slf4j
+public class NioSocketLoggingServer {
+    static final int MAX_FRAMES = 16;
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int HEADER = 8 + 4 + 2;
+
+    private final Map<String, DigestionWindow> control = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final int port;
+    private final int bufferSize;
+    private final int packedSize;
+    private final LoggingBackend backend;
+    private final Path controlStatePath;
+    private final List<Loop> loops = new ArrayList<>();
+    private final ExecutorService workers;
+    private final ThreadLocal<byte[]> unpacked;
+    private final Name connectionsMetric;
+    protected int soTimeout = 60000;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public NioSocketLoggingServer( int port, int bufferSize, LoggingBackend backend, Path controlStatePath ) {
+        this( port, bufferSize, backend, controlStatePath, Runtime.getRuntime().availableProcessors() );
+    }
+
+    public NioSocketLoggingServer( int port, int bufferSize, LoggingBackend backend, Path controlStatePath, int loops ) {
+        this( port, bufferSize, backend, controlStatePath, loops, Runtime.getRuntime().availableProcessors() );
+    }
+
+    public NioSocketLoggingServer( int port, int bufferSize, LoggingBackend backend, Path controlStatePath, int loops, int workers ) {
+        this.port = port;
+        this.bufferSize = bufferSize;
+        this.packedSize = Compression.maxCompressedLength( bufferSize );
+        this.backend = backend;
+        this.controlStatePath = controlStatePath;
+        for( int i = 0; i < Math.max( loops, 1 ); i++ ) this.loops.add( new Loop( i ) );
+        this.workers = Executors.newFixedThreadPool( Math.max( workers, 1 ), new ThreadFactoryBuilder()
+            .setNameFormat( "nio-socket-logging-worker-" + port + "-%d" )
+            .setDaemon( true )
+            .build() );
+        this.unpacked = ThreadLocal.withInitial( () -> new byte[bufferSize] );
+        this.connectionsMetric = Metrics.measureGauge(
+            Metrics.name( "logging.server." + port + ".connections" ), connections::get );
+    }
+
+    public void start() {
+        try {
+            if( controlStatePath.toFile().exists() ) DigestionWindow.load( controlStatePath, control );
+        } catch( Exception e ) {
+            log.warn( e.getMessage() );
+        }
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress( true );
+            serverChannel.bind( new InetSocketAddress( port ) );
+            log.debug( "ready to rock " + serverChannel.getLocalAddress() );
+
+            running = true;
+            for( Loop loop : loops ) loop.start();
+            acceptor = new Thread( this::accept, "nio-socket-logging-acceptor-" + port );
+            acceptor.start();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    public void stop() {
+        running = false;
+        Closeables.close( serverChannel );
+        if( acceptor != null ) join( acceptor );
+        for( Loop loop : loops ) loop.stop();
+        workers.shutdown();
+        try {
+            workers.awaitTermination( 1, TimeUnit.MINUTES );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        Metrics.unregister( connectionsMetric );
+        Files.writeObject( controlStatePath, control );
+    }
+
+    private static void join( Thread thread ) {
+        try {
+            thread.join();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while( running ) try {
+            final SocketChannel channel = serverChannel.accept();
+            channel.socket().setKeepAlive( true );
+            channel.socket().setTcpNoDelay( true );
+            log.debug( "accepted connection {}", channel );
+            final Loop loop = loops.get( next++ % loops.size() );
+            workers.execute( () -> loop.register( channel, channel.socket().getInetAddress().getCanonicalHostName() ) );
+        } catch( IOException e ) {
+            if( running ) log.error( e.getMessage(), e );
+        }
+    }
+
+    private class Loop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Client> registrations = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+        private final ByteBuffer in = ByteBuffer.allocateDirect( READ_BUFFER );
+
+        Loop( int id ) {
+            try {
+                this.selector = Selector.open();
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+            this.thread = new Thread( this, "nio-socket-logging-loop-" + port + "-" + id );
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() {
+            selector.wakeup();
+            join( thread );
+        }
+
+        void register( SocketChannel channel, String hostName ) {
+            if( !running ) {
+                Closeables.close( channel );
+                return;
+            }
+            registrations.offer( new Client( this, channel, hostName ) );
+            selector.wakeup();
+        }
+
+        /**
+         * Runs {@code task} on the loop thread.
+         */
+        void execute( Runnable task ) {
+            tasks.offer( task );
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while( running ) {
+                    selector.select( 1000 );
+
+                    Client client;
+                    while( ( client = registrations.poll() ) != null ) client.register( selector );
+                    Runnable task;
+                    while( ( task = tasks.poll() ) != null ) task.run();
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while( keys.hasNext() ) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        ( ( Client ) key.attachment() ).ready( key );
+                    }
+
+                    final long now = System.currentTimeMillis();
+                    for( SelectionKey key : selector.keys() )
+                        ( ( Client ) key.attachment() ).expire( now );
+                }
+            } catch( ClosedSelectorException ignore ) {
+            } catch( IOException e ) {
+                log.error( e.getMessage(), e );
+            } finally {
+                for( Client client : registrations ) client.close();
+                if( selector.isOpen() ) {
+                    for( SelectionKey key : selector.keys() ) ( ( Client ) key.attachment() ).close();
+                    Closeables.close( selector );
+                }
+            }
+        }
+
+        ByteBuffer acquire() {
+            final ByteBuffer buffer = pool.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect( packedSize );
+        }
+
+        void release( ByteBuffer buffer ) {
+            buffer.clear();
+            pool.offer( buffer );
+        }
+    }
+
+    /**
+     * A complete frame copied out of the read buffer, or an acknowledgement to send in turn with the frames
+     * before it, closing the connection if {@code last}.
+     */
+    private static class Frame {
+        final long digestionId;
+        final String selector;
+        final byte[] data;
+        final boolean compressed;
+        final int code;
+        final boolean last;
+
+        Frame( long digestionId, String selector, byte[] data, boolean compressed ) {
+            this( digestionId, selector, data, compressed, 0, false );
+        }
+
+        Frame( int code, boolean last ) {
+            this( 0, null, null, false, code, last );
+        }
+
+        private Frame( long digestionId, String selector, byte[] data, boolean compressed, int code, boolean last ) {
+            this.digestionId = digestionId;
+            this.selector = selector;
+            this.data = data;
+            this.compressed = compressed;
+            this.code = code;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Parses {@code [long digestionId][int size][utf selector][size bytes]} frames, acknowledging each with its size,
+     * and {@link Compression} handshake and compressed frames. Parsing, acknowledgement writes and interest changes
+     * happen on the loop thread, frames are written to the backend by one worker at a time.
+     */
+    private class Client {
+        private final Loop loop;
+        private final SocketChannel channel;
+        private final String hostName;
+        private final ByteBuffer header = ByteBuffer.allocate( HEADER );
+        private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+        private final AtomicBoolean resuming = new AtomicBoolean();
+        private ByteBuffer acks = ByteBuffer.allocate( 64 );
+        private SelectionKey key;
+        private long lastActivity = System.currentTimeMillis();
+        private long digestionId;
+        private int size;
+        private int length;
+        private boolean compression;
+        private boolean compressed;
+        private byte[] selector;
+        private int selectorPosition;
+        private String selectorName;
+        private ByteBuffer partial;
+        private boolean paused;
+        private boolean failed;
+        private boolean draining;
+        private volatile boolean closed;
+
+        Client( Loop loop, SocketChannel channel, String hostName ) {
+            this.loop = loop;
+            this.channel = channel;
+            this.hostName = hostName;
+        }
+
+        void register( Selector selector ) {
+            try {
+                channel.configureBlocking( false );
+                key = channel.register( selector, OP_READ, this );
+                connections.incrementAndGet();
+                log.debug( "[{}] start logging... ", hostName );
+            } catch( IOException e ) {
+                log.error( "[" + hostName + "] " + e.getMessage(), e );
+                Closeables.close( channel );
+            }
+        }
+
+        void ready( SelectionKey key ) {
+            try {
+                if( key.isReadable() ) read();
+                if( key.isValid() && key.isWritable() ) flush();
+            } catch( IOException e ) {
+                log.debug( "[{}] {} ended, closed: {}", hostName, channel, e.getMessage() );
+                close();
+            } catch( Exception e ) {
+                log.error( "[" + hostName + "] " + e.getMessage(), e );
+                close();
+            }
+        }
+
+        void expire( long now ) {
+            if( !paused && now - lastActivity > soTimeout ) {
+                log.info( "[{}] no activity on socket for {}ms, timeout, closing...", hostName, soTimeout );
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            final ByteBuffer in = loop.in;
+            while( !paused && !failed ) {
+                in.clear();
+                final int read = channel.read( in );
+                if( read < 0 ) {
+                    log.debug( "[{}] {} ended, closed", hostName, channel );
+                    close();
+                    return;
+                }
+                if( read == 0 ) break;
+
+                lastActivity = System.currentTimeMillis();
+                in.flip();
+                parse( in );
+                if( read < in.capacity() ) break;
+            }
+            flush();
+        }
+
+        private void parse( ByteBuffer in ) throws IOException {
+            while( in.hasRemaining() && !failed ) {
+                if( header.hasRemaining() ) {
+                    copy( in, header );
+                    if( header.hasRemaining() ) return;
+
+                    header.flip();
+                    digestionId = header.getLong();
+                    size = header.getInt();
+                    final int utfLength = header.getShort() & 0xFFFF;
+                    compressed = compression && size < 0;
+                    length = compressed ? -size : size;
+                    if( length > ( compressed ? packedSize : bufferSize ) || length < 0 ) {
+                        log.error( "[{}] buffer overflow: chunk size is {} when buffer size is {}", hostName, size, bufferSize );
+                        failed = true;
+                        submit( new Frame( SocketError.BUFFER_OVERFLOW.code, true ) );
+                        return;
+                    }
+                    selector = new byte[utfLength + 2];
+                    selector[0] = ( byte ) ( utfLength >>> 8 );
+                    selector[1] = ( byte ) utfLength;
+                    selectorPosition = 2;
+                    selectorName = null;
+                }
+
+                if( selectorName == null ) {
+                    final int length = Math.min( in.remaining(), selector.length - selectorPosition );
+                    in.get( selector, selectorPosition, length );
+                    selectorPosition += length;
+                    if( selectorPosition < selector.length ) return;
+
+                    selectorName = new DataInputStream( new ByteArrayInputStream( selector ) ).readUTF();
+
+                    if( digestionId == Compression.HANDSHAKE && size == 0 ) {
+                        compression = Compression.LZ4.equals( selectorName );
+                        log.debug( "[{}] compression {}", hostName, compression );
+                        submit( new Frame( compression ? Compression.ACCEPTED : 0, false ) );
+                        header.clear();
+                        continue;
+                    }
+                }
+
+                final byte[] data = new byte[length];
+                if( partial == null && in.remaining() >= length ) in.get( data );
+                else {
+                    if( partial == null ) partial = loop.acquire();
+                    partial.limit( length );
+                    copy( in, partial );
+                    if( partial.hasRemaining() ) return;
+
+                    partial.flip();
+                    partial.get( data );
+                    loop.release( partial );
+                    partial = null;
+                }
+                submit( new Frame( digestionId, selectorName, data, compressed ) );
+                header.clear();
+            }
+        }
+
+        private void copy( ByteBuffer from, ByteBuffer to ) {
+            final int limit = from.limit();
+            from.limit( from.position() + Math.min( from.remaining(), to.remaining() ) );
+            to.put( from );
+            from.limit( limit );
+        }
+
+        /**
+         * Queues {@code frame} for the workers, stops reading the connection if too many frames are waiting.
+         */
+        private void submit( Frame frame ) {
+            final boolean start;
+            synchronized( frames ) {
+                frames.add( frame );
+                if( frames.size() >= MAX_FRAMES ) paused = true;
+                start = !draining;
+                draining = true;
+            }
+            if( start ) workers.execute( this::drain );
+        }
+
+        private void drain() {
+            while( true ) {
+                final Frame frame;
+                synchronized( frames ) {
+                    frame = closed ? null : frames.poll();
+                    if( frame == null ) {
+                        draining = false;
+                        return;
+                    }
+                }
+
+                if( !write( frame ) ) {
+                    synchronized( frames ) {
+                        frames.clear();
+                        draining = false;
+                    }
+                    loop.execute( () -> {
+                        try {
+                            flush();
+                        } catch( IOException e ) {
+                            log.trace( "[" + hostName + "] " + e.getMessage(), e );
+                        }
+                        close();
+                    } );
+                    return;
+                }
+                if( resuming.compareAndSet( false, true ) ) loop.execute( this::resume );
+            }
+        }
+
+        /**
+         * @return false if the connection has to be closed
+         */
+        private boolean write( Frame frame ) {
+            if( frame.data == null ) {
+                ack( frame.code );
+                return !frame.last;
+            }
+
+            try {
+                if( !backend.isLoggingAvailable() ) {
+                    log.error( "[{}] backend logging is not available", hostName );
+                    ack( SocketError.BACKEND_UNAVAILABLE.code );
+                    return false;
+                }
+
+                byte[] data = frame.data;
+                int size = data.length;
+                if( frame.compressed ) {
+                    final long start = System.nanoTime();
+                    data = unpacked.get();
+                    size = Compression.decompress( frame.data, 0, frame.data.length, data );
+                    Metrics.measureTimer( Metrics.name( "logging.server.decompression_time" ), System.nanoTime() - start, TimeUnit.NANOSECONDS );
+                }
+
+                final DigestionWindow window = control.computeIfAbsent( hostName, h -> new DigestionWindow( 0L ) );
+                final byte[] buffer = data;
+                final int logged = size;
+                if( !window.digest( frame.digestionId, () -> {
+                    log.trace( "[{}] logging ({}, {}, {})", hostName, frame.digestionId, frame.selector, logged );
+                    backend.log( hostName, frame.selector, buffer, 0, logged );
+                } ) )
+                    log.warn( "[{}] buffer ({}, {}, {}) already written. Last written buffer is ({})", hostName, frame.digestionId, frame.selector, logged, window.last() );
+
+                ack( logged );
+                return true;
+            } catch( Exception e ) {
+                log.error( "[" + hostName + "] " + e.getMessage(), e );
+                return false;
+            }
+        }
+
+        /**
+         * Sends the acknowledgements of written frames and reads again if the workers caught up.
+         */
+        private void resume() {
+            resuming.set( false );
+            if( paused ) synchronized( frames ) {
+                if( frames.size() < MAX_FRAMES ) {
+                    paused = false;
+                    lastActivity = System.currentTimeMillis();
+                }
+            }
+            try {
+                flush();
+            } catch( IOException e ) {
+                log.debug( "[{}] {} ended, closed: {}", hostName, channel, e.getMessage() );
+                close();
+            }
+        }
+
+        private synchronized void ack( int code ) {
+            if( acks.remaining() < 4 ) {
+                final ByteBuffer larger = ByteBuffer.allocate( acks.capacity() * 2 );
+                acks.flip();
+                larger.put( acks );
+                acks = larger;
+            }
+            acks.putInt( code );
+        }
+
+        private synchronized void flush() throws IOException {
+            if( closed ) return;
+            acks.flip();
+            channel.write( acks );
+            acks.compact();
+            if( key.isValid() )
+                key.interestOps( ( paused || failed ? 0 : OP_READ ) | ( acks.position() > 0 ? OP_WRITE : 0 ) );
+        }
+
+        void close() {
+            closed = true;
+            if( key != null && key.isValid() ) {
+                key.cancel();
+                connections.decrementAndGet();
+            }
+            if( partial != null ) {
+                loop.release( partial );
+                partial = null;
+            }
+            Closeables.close( channel );
+        }
+    }
+}
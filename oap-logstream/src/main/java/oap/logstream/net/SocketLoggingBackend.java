@@ -24,21 +24,41 @@
 
 package oap.logstream.net;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import oap.concurrent.Executors;
 import oap.concurrent.scheduler.Scheduled;
 import oap.concurrent.scheduler.Scheduler;
 import oap.io.Closeables;
 import oap.logstream.AvailabilityReport;
 import oap.logstream.LoggingBackend;
+import oap.logstream.net.BufferConfigurationMap.BufferConfiguration;
 import oap.metrics.Metrics;
+import oap.metrics.Name;
+import oap.util.Pair;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static oap.logstream.AvailabilityReport.State.FAILED;
 import static oap.logstream.AvailabilityReport.State.OPERATIONAL;
 
+/**
+ * Ready buffers are sent over {@code connections} connections, each keeping up to {@code window} buffers
+ * in flight before waiting for the acknowledgement of the oldest one. Buffers are released only once
+ * acknowledged, unacknowledged ones are sent again with the same digestion id and the server drops the
+ * duplicates.
+ * <p>
+ * If a {@link BufferConfigurationMap.BufferConfiguration} asks for compression, each connection negotiates it
+ * with the server and its buffers are sent as LZ4 blocks, see {@link Compression}.
+ */
 @Slf4j
 @ToString( of = { "host" } )
 public class SocketLoggingBackend implements LoggingBackend {
@@ -49,9 +69,19 @@ public class SocketLoggingBackend implements LoggingBackend {
     protected int maxBuffers = 5000;
     protected long timeout = 5000;
     protected boolean blocking = true;
-    private Connection connection;
+    /**
+     * more than one requires a server deduplicating digestion ids by {@link DigestionWindow}
+     */
+    protected int connections = 1;
+    protected int window = 16;
+    private final List<Name> gauges = new ArrayList<>();
+    private final boolean compression;
+    private Connection[] pool = new Connection[0];
+    private boolean[] compressed = new boolean[0];
+    private byte[][] frames = new byte[0][];
+    private ExecutorService senders;
     private Buffers buffers;
-    private boolean loggingAvailable = true;
+    private volatile boolean loggingAvailable = true;
     private boolean closed = false;
 
     public SocketLoggingBackend( String host, int port, Path location, int bufferSize, long flushInterval ) {
@@ -62,14 +92,15 @@ public class SocketLoggingBackend implements LoggingBackend {
         this.host = host;
         this.port = port;
         this.buffers = new Buffers( location, configurations );
+        this.compression = configurations.values().stream().anyMatch( c -> c.compression );
         this.scheduled = Scheduler.scheduleWithFixedDelay( flushInterval, TimeUnit.MILLISECONDS, this::send );
-        configurations.forEach( ( name, conf ) -> Metrics.measureGauge(
+        configurations.forEach( ( name, conf ) -> gauges.add( Metrics.measureGauge(
             Metrics
                 .name( "logging.buffers_cache" )
                 .tag( "from_host", host )
                 .tag( "configuration", name ),
             () -> buffers.cache.size( conf.bufferSize )
-        ) );
+        ) ) );
     }
 
     public SocketLoggingBackend( String host, int port, Path location, int bufferSize ) {
@@ -84,63 +115,155 @@ public class SocketLoggingBackend implements LoggingBackend {
         if( !closed ) try {
             if( buffers.isEmpty() ) loggingAvailable = true;
 
-            refreshConnection();
-
+            buffers.flush();
+            Metrics.measureHistogram( Metrics.name( "logging.buffers_count" ), buffers.readyBuffers() );
             log.debug( "sending data to server..." );
 
-            buffers.forEachReadyData( buffer -> {
-                if( !sendBuffer( buffer ) ) {
+            int retries = 1;
+            List<Buffer> ready;
+            while( !closed && !( ready = buffers.readyData( connections * window ) ).isEmpty() )
+                if( !send( ready ) ) {
                     log.debug( "send unsuccessful..." );
-                    refreshConnection();
-                    return sendBuffer( buffer );
+                    if( retries-- == 0 ) break;
                 }
-                return true;
-
-            } );
             log.debug( "sending done" );
         } catch( Exception e ) {
             loggingAvailable = false;
             log.warn( e.getMessage() );
             log.trace( e.getMessage(), e );
-            Closeables.close( connection );
         }
 
         if( !loggingAvailable ) log.debug( "logging unavailable" );
 
     }
 
-    private void refreshConnection() {
-        if( this.connection == null || !connection.isConnected() ) {
-            Closeables.close( connection );
-            log.debug( "opening connection..." );
-            this.connection =
-                blocking ? new SocketConnection( host, port, timeout ) : new ChannelConnection( host, port, timeout );
-            log.debug( "connected!" );
+    private boolean send( List<Buffer> ready ) throws Exception {
+        if( pool.length != connections ) {
+            for( int i = connections; i < pool.length; i++ ) Closeables.close( pool[i] );
+            pool = Arrays.copyOf( pool, connections );
+            compressed = Arrays.copyOf( compressed, connections );
+            frames = Arrays.copyOf( frames, connections );
+        }
+
+        final ArrayDeque<Buffer> queue = new ArrayDeque<>( ready );
+        final int lanes = Math.min( connections, ( ready.size() + window - 1 ) / window );
+        if( lanes > 1 && senders == null )
+            senders = Executors.newCachedThreadPool( new ThreadFactoryBuilder().setNameFormat( "socket-logging-sender-%d" ).build() );
+
+        final List<Future<Boolean>> others = new ArrayList<>();
+        for( int lane = 1; lane < lanes; lane++ ) {
+            final int l = lane;
+            others.add( senders.submit( () -> send( l, queue ) ) );
         }
+        boolean success = send( 0, queue );
+        for( Future<Boolean> other : others ) success &= other.get();
+        return success;
     }
 
-    private Boolean sendBuffer( Buffer buffer ) {
-        return Metrics.measureTimer( Metrics.name( "logging.buffer_send_time" ).tag( "from_host", host ), () -> {
-            try {
-                log.trace( "sending {}", buffer );
-                connection.write( buffer.data(), 0, buffer.length() );
+    private boolean send( int lane, ArrayDeque<Buffer> queue ) {
+        final ArrayDeque<Buffer> unacknowledged = new ArrayDeque<>( window );
+        final ArrayDeque<Long> sent = new ArrayDeque<>( window );
+        try {
+            final Connection connection = connection( lane );
+            while( true ) {
+                while( unacknowledged.size() < window ) {
+                    final Buffer buffer;
+                    synchronized( queue ) {
+                        buffer = queue.poll();
+                    }
+                    if( buffer == null ) break;
+
+                    log.trace( "sending {}", buffer );
+                    write( lane, connection, buffer );
+                    unacknowledged.add( buffer );
+                    sent.add( System.nanoTime() );
+                }
+
+                final Buffer buffer = unacknowledged.poll();
+                if( buffer == null ) return true;
+
                 int size = connection.read();
                 if( size <= 0 ) {
                     loggingAvailable = false;
                     log.error( "Error completing remote write: {}", SocketError.fromCode( size ) );
+                    Closeables.close( connection );
                     return false;
                 }
+                Metrics.measureTimer( Metrics.name( "logging.buffer_send_time" ).tag( "from_host", host ),
+                    System.nanoTime() - sent.poll(), TimeUnit.NANOSECONDS );
                 Metrics.measureCounterIncrement( Metrics.name( "logging.socket" ).tag( "from_host", host ), buffer.length() );
+                buffers.release( buffer );
                 loggingAvailable = true;
-                return true;
-            } catch( Exception e ) {
-                loggingAvailable = false;
-                log.warn( e.getMessage() );
-                log.trace( e.getMessage(), e );
-                Closeables.close( connection );
-                return false;
             }
-        } );
+        } catch( Exception e ) {
+            loggingAvailable = false;
+            log.warn( e.getMessage() );
+            log.trace( e.getMessage(), e );
+            Closeables.close( pool[lane] );
+            return false;
+        }
+    }
+
+    private void write( int lane, Connection connection, Buffer buffer ) {
+        if( !compressed[lane] ) {
+            connection.write( buffer.data(), 0, buffer.length() );
+            return;
+        }
+
+        final Pair<String, BufferConfiguration> configuration = buffers.configuration( buffer.selector() );
+        if( !configuration._2.compression ) {
+            connection.write( buffer.data(), 0, buffer.length() );
+            return;
+        }
+
+        final int header = buffer.headerLength();
+        final int length = buffer.dataLength();
+        byte[] frame = frames[lane];
+        if( frame == null || frame.length < header + Compression.maxCompressedLength( length ) )
+            frames[lane] = frame = new byte[header + Compression.maxCompressedLength( buffer.capacity() )];
+
+        final long start = System.nanoTime();
+        final int compressedLength = Compression.compress( buffer.data(), header, length, frame, header );
+        Metrics.measureTimer( Metrics.name( "logging.compression_time" ).tag( "from_host", host ).tag( "configuration", configuration._1 ),
+            System.nanoTime() - start, TimeUnit.NANOSECONDS );
+        Metrics.measureHistogram( Metrics.name( "logging.compression_ratio" ).tag( "from_host", host ).tag( "configuration", configuration._1 ),
+            length > 0 ? compressedLength * 100L / length : 100 );
+
+        if( compressedLength >= length ) {
+            connection.write( buffer.data(), 0, buffer.length() );
+            return;
+        }
+
+        System.arraycopy( buffer.data(), 0, frame, 0, header );
+        final int size = -compressedLength;
+        frame[8] = ( byte ) ( size >>> 24 );
+        frame[9] = ( byte ) ( size >>> 16 );
+        frame[10] = ( byte ) ( size >>> 8 );
+        frame[11] = ( byte ) size;
+        connection.write( frame, 0, header + compressedLength );
+    }
+
+    private Connection connection( int lane ) {
+        Connection connection = pool[lane];
+        if( connection == null || !connection.isConnected() ) {
+            Closeables.close( connection );
+            log.debug( "opening connection {}...", lane );
+            pool[lane] = connection =
+                blocking ? new SocketConnection( host, port, timeout ) : new ChannelConnection( host, port, timeout );
+            log.debug( "connected!" );
+
+            compressed[lane] = false;
+            if( compression ) {
+                final byte[] handshake = Compression.handshake();
+                connection.write( handshake, 0, handshake.length );
+                final int response = connection.read();
+                if( response < 0 )
+                    throw new IllegalStateException( "Error negotiating compression: " + SocketError.fromCode( response ) );
+                compressed[lane] = response == Compression.ACCEPTED;
+                log.debug( "compression {}", compressed[lane] );
+            }
+        }
+        return connection;
     }
 
     @Override
@@ -152,7 +275,9 @@ public class SocketLoggingBackend implements LoggingBackend {
     public synchronized void close() {
         closed = true;
         Scheduled.cancel( scheduled );
-        Closeables.close( connection );
+        for( Connection connection : pool ) Closeables.close( connection );
+        if( senders != null ) senders.shutdownNow();
+        gauges.forEach( Metrics::unregister );
         Closeables.close( buffers );
     }
 
@@ -67,7 +67,7 @@ public class SocketLoggingServer implements Runnable {
     private LoggingBackend backend;
     private Path controlStatePath;
     private ServerSocket serverSocket;
-    private Map<String, Long> control = new ConcurrentHashMap<>();
+    private Map<String, DigestionWindow> control = new ConcurrentHashMap<>();
 
     public SocketLoggingServer( int port, int bufferSize, LoggingBackend backend, Path controlStatePath ) {
         this.port = port;
@@ -99,7 +99,7 @@ public class SocketLoggingServer implements Runnable {
 
     public void start() {
         try {
-            if( controlStatePath.toFile().exists() ) this.control = Files.readObject( controlStatePath );
+            if( controlStatePath.toFile().exists() ) DigestionWindow.load( controlStatePath, control );
         } catch( Exception e ) {
             log.warn( e.getMessage() );
         }
@@ -143,26 +143,43 @@ public class SocketLoggingServer implements Runnable {
                 socket.setTcpNoDelay( true );
                 hostName = socket.getInetAddress().getCanonicalHostName();
                 log.debug( "[{}] start logging... ", hostName );
+                final String host = hostName;
+                boolean compression = false;
+                byte[] packed = null;
                 while( !closed && !isInterrupted() ) {
                     long digestionId = in.readLong();
-                    long lastId = control.computeIfAbsent( hostName, h -> 0L );
+                    DigestionWindow window = control.computeIfAbsent( hostName, h -> new DigestionWindow( 0L ) );
                     int size = in.readInt();
                     String selector = in.readUTF();
-                    if( size > bufferSize ) {
+                    if( digestionId == Compression.HANDSHAKE && size == 0 ) {
+                        compression = Compression.LZ4.equals( selector );
+                        log.debug( "[{}] compression {}", hostName, compression );
+                        out.writeInt( compression ? Compression.ACCEPTED : 0 );
+                        continue;
+                    }
+                    final boolean compressed = compression && size < 0;
+                    final int length = compressed ? -size : size;
+                    if( compressed && packed == null ) packed = new byte[Compression.maxCompressedLength( bufferSize )];
+                    if( length > ( compressed ? packed.length : bufferSize ) || length < 0 ) {
                         out.writeInt( SocketError.BUFFER_OVERFLOW.code );
                         throw new IOException( "buffer overflow: chunk size is " + size + " when buffer size is " + bufferSize + " from " + hostName + " with " + selector );
                     }
-                    in.readFully( buffer, 0, size );
+                    if( compressed ) {
+                        in.readFully( packed, 0, length );
+                        final long start = System.nanoTime();
+                        size = Compression.decompress( packed, 0, length, buffer );
+                        Metrics.measureTimer( Metrics.name( "logging.server.decompression_time" ), System.nanoTime() - start, TimeUnit.NANOSECONDS );
+                    } else in.readFully( buffer, 0, size );
                     if( !backend.isLoggingAvailable() ) {
                         out.writeInt( SocketError.BACKEND_UNAVAILABLE.code );
                         throw new IOException( "backend logging is not available" );
                     }
-                    if( lastId < digestionId ) {
-                        log.trace( "[{}] logging ({}, {}, {})", hostName, digestionId, selector, size );
-                        backend.log( hostName, selector, buffer, 0, size );
-                        control.put( hostName, digestionId );
-                    } else
-                        log.warn( "[{}] buffer ({}, {}, {}) already written. Last written buffer is ({})", hostName, digestionId, selector, size, lastId );
+                    final int logged = size;
+                    if( !window.digest( digestionId, () -> {
+                        log.trace( "[{}] logging ({}, {}, {})", host, digestionId, selector, logged );
+                        backend.log( host, selector, buffer, 0, logged );
+                    } ) )
+                        log.warn( "[{}] buffer ({}, {}, {}) already written. Last written buffer is ({})", hostName, digestionId, selector, size, window.last() );
                     out.writeInt( size );
                 }
             } catch( EOFException e ) {
@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import oap.io.Files;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Durable queue of ready buffers in memory mapped segment files. A record is an int length followed by
+ * the buffer as sent. The length slot after the record is zeroed before the length is written, so
+ * neither a torn record nor stale bytes of an earlier life of the segment past the tail read as a record.
+ * <p>
+ * Positions are the segment index in the high and the offset in the low 32 bits. {@code head} is the first
+ * record not acknowledged yet and is kept in a mapped file of its own, segments below it are deleted.
+ * {@code read} is the first record not loaded into memory. Not thread-safe.
+ * <p>
+ * A segment is forced after each append and {@code head} on each commit, before released segments are
+ * deleted. What a crash can still cost: the record being appended, and a commit whose {@code head} was
+ * written but not forced yet, whose acknowledged records are then replayed once more. A new segment file
+ * is forced but its directory entry is not, so a crash right after a segment is created may lose it.
+ */
+@Slf4j
+class SpillQueue implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024 * 64;
+    private static final String HEAD = "head";
+    private static final String SEGMENT = ".segment";
+    private static final int END_OF_SEGMENT = -1;
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+    private final MappedByteBuffer headBuffer;
+    private long head;
+    private long read;
+    private long tail;
+    private int unread;
+    private long lastId;
+
+    SpillQueue( Path directory, int segmentSize ) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.ensureDirectory( directory );
+        this.headBuffer = map( directory.resolve( HEAD ), 8 );
+        this.head = headBuffer.getLong( 0 );
+
+        final File[] files = directory.toFile().listFiles( ( dir, name ) -> name.endsWith( SEGMENT ) );
+        if( files != null ) for( File file : files ) {
+            final int index = Integer.parseInt( file.getName().substring( 0, file.getName().length() - SEGMENT.length() ) );
+            if( index < segment( head ) ) Files.delete( file.toPath() );
+            else segments.put( index, map( file.toPath(), ( int ) file.length() ) );
+        }
+
+        long position = normalize( head );
+        int length;
+        while( ( length = length( position ) ) > 0 ) {
+            unread++;
+            lastId = segments.get( segment( position ) ).getLong( offset( position ) + 4 );
+            position = normalize( position( segment( position ), offset( position ) + 4 + length ) );
+        }
+        this.read = head;
+        this.tail = position;
+        if( unread > 0 ) log.info( "{} unsent buffers in {}", unread, directory );
+    }
+
+    private static int segment( long position ) {
+        return ( int ) ( position >>> 32 );
+    }
+
+    private static int offset( long position ) {
+        return ( int ) position;
+    }
+
+    private static long position( int segment, int offset ) {
+        return ( ( long ) segment << 32 ) | offset;
+    }
+
+    @SneakyThrows
+    private static MappedByteBuffer map( Path path, int size ) {
+        try( FileChannel channel = FileChannel.open( path, CREATE, READ, WRITE ) ) {
+            return channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+        }
+    }
+
+    /**
+     * @return position of the appended record
+     */
+    long append( byte[] data, int length ) {
+        int segment = segment( tail );
+        int offset = offset( tail );
+        MappedByteBuffer buffer = segments.get( segment );
+        if( buffer != null && offset + 4 + length > buffer.capacity() ) {
+            if( offset + 4 <= buffer.capacity() ) buffer.putInt( offset, END_OF_SEGMENT );
+            buffer = null;
+            segment++;
+            offset = 0;
+        }
+        if( buffer == null ) {
+            buffer = map( directory.resolve( String.format( "%010d", segment ) + SEGMENT ),
+                Math.max( segmentSize, length + 8 ) );
+            segments.put( segment, buffer );
+        }
+
+        final ByteBuffer record = buffer.duplicate();
+        record.position( offset + 4 );
+        record.put( data, 0, length );
+        final int next = offset + 4 + length;
+        if( next + 4 <= buffer.capacity() ) buffer.putInt( next, 0 );
+        buffer.putInt( offset, length );
+        buffer.force();
+
+        final boolean drained = unread == 0;
+        final long position = position( segment, offset );
+        tail = position( segment, offset + 4 + length );
+        if( drained ) read = position;
+        unread++;
+        return position;
+    }
+
+    /**
+     * @return the first record not loaded yet
+     */
+    ByteBuffer peek() {
+        read = normalize( read );
+        final MappedByteBuffer buffer = segments.get( segment( read ) );
+        final ByteBuffer record = buffer.duplicate();
+        record.position( offset( read ) + 4 );
+        record.limit( offset( read ) + 4 + buffer.getInt( offset( read ) ) );
+        return record.slice();
+    }
+
+    /**
+     * Marks the record returned by {@link #peek()} loaded.
+     *
+     * @return its position
+     */
+    long next() {
+        final long position = read;
+        read = position( segment( read ), offset( read ) + 4 + segments.get( segment( read ) ).getInt( offset( read ) ) );
+        unread--;
+        return position;
+    }
+
+    /**
+     * Moves {@code head} to {@code position}, records before it are not replayed anymore.
+     */
+    void commit( long position ) {
+        if( position == head ) return;
+
+        head = position;
+        headBuffer.putLong( 0, head );
+        headBuffer.force();
+        final Map<Integer, MappedByteBuffer> released = segments.headMap( segment( head ) );
+        for( Integer segment : released.keySet() )
+            Files.delete( directory.resolve( String.format( "%010d", segment ) + SEGMENT ) );
+        released.clear();
+    }
+
+    /**
+     * @return position of the next record to load, {@link #commit(long)} it when all loaded records are
+     * acknowledged
+     */
+    long read() {
+        return read;
+    }
+
+    int unread() {
+        return unread;
+    }
+
+    long lastId() {
+        return lastId;
+    }
+
+    /**
+     * Skips ends of segments.
+     */
+    private long normalize( long position ) {
+        while( true ) {
+            final MappedByteBuffer buffer = segments.get( segment( position ) );
+            if( buffer == null ) return position;
+            final int offset = offset( position );
+            if( offset + 4 <= buffer.capacity() && buffer.getInt( offset ) != END_OF_SEGMENT ) return position;
+            position = position( segment( position ) + 1, 0 );
+        }
+    }
+
+    /**
+     * @return length of the record at a normalized position, 0 past the end of the queue
+     */
+    private int length( long position ) {
+        final MappedByteBuffer buffer = segments.get( segment( position ) );
+        if( buffer == null ) return 0;
+        final int length = buffer.getInt( offset( position ) );
+        return length > 0 && offset( position ) + 4 + length <= buffer.capacity() ? length : 0;
+    }
+
+    @Override
+    public void close() {
+        for( MappedByteBuffer buffer : segments.values() ) buffer.force();
+        headBuffer.force();
+        segments.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + directory + ", unread=" + unread + "]";
+    }
+}
@@ -24,6 +24,7 @@
 
 package oap.logstream;
 
+import com.google.common.base.Strings;
 import oap.io.Files;
 import oap.io.IoStreams;
 import oap.testng.AbstractTest;
@@ -99,4 +100,27 @@ public class ArchiverTest extends AbstractTest {
         assertFile( logs.resolve( corrupted ) ).doesNotExist();
         assertFile( archives.resolve( corrupted ) ).doesNotExist();
     }
+
+    @Test
+    public void archiveBlocks() {
+        DateTimeUtils.setCurrentMillisFixed( new DateTime( 2015, 10, 10, 12, 0, 10 ).getMillis() );
+        Path logs = Env.tmpPath( "logs" );
+        Path archives = Env.tmpPath( "archives" );
+        String content = Strings.repeat( "0123456789abcdef", 1000 ) + "end";
+        String[] files = { "a-2015-10-10-11-10.log", "b-2015-10-10-11-10.log.gz", "c-2015-10-10-11-10.log" };
+        Files.writeString( logs.resolve( files[0] ), PLAIN, content );
+        Files.writeString( logs.resolve( files[1] ), GZIP, content );
+        Files.writeString( logs.resolve( files[2] ), PLAIN, "" );
+
+        Archiver archiver = new Archiver( logs, archives, 10000, "*", GZIP, 12 );
+        archiver.threads = 2;
+        archiver.parallelThreshold = -1;
+        archiver.blockSize = 1000;
+        archiver.run();
+
+        assertFile( archives.resolve( "a-2015-10-10-11-10.log.gz" ) ).hasContent( content, GZIP );
+        assertFile( archives.resolve( "b-2015-10-10-11-10.log.gz" ) ).hasContent( content, GZIP );
+        assertFile( archives.resolve( "c-2015-10-10-11-10.log.gz" ) ).hasContent( "", GZIP );
+        for( String file : files ) assertFile( logs.resolve( file ) ).doesNotExist();
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import oap.testng.AbstractTest;
+import oap.util.Dates;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static oap.io.IoStreams.Encoding.PLAIN;
+import static oap.testng.Asserts.assertFile;
+import static oap.testng.Env.tmpPath;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncWriterTest extends AbstractTest {
+    @Test
+    public void bucketOfAppend() throws InterruptedException {
+        final Path logs = tmpPath( "logs" );
+        final AtomicInteger congested = new AtomicInteger();
+        final AsyncWriter writer = new AsyncWriter( new Writer( logs, "test/file", ".log", 10, 12 ), 4, 1000, congested, new AtomicInteger() );
+
+        Dates.setTimeFixed( 2015, 10, 10, 1, 0 );
+        assertThat( writer.append( "1234567890".getBytes(), 0, 5 ) ).isTrue();
+        Dates.setTimeFixed( 2015, 10, 10, 1, 5 );
+        assertThat( writer.append( "1234567890".getBytes(), 5, 5 ) ).isFalse();
+        assertThat( congested.get() ).isEqualTo( 0 );
+        assertThat( writer.append( "abc".getBytes(), 0, 3 ) ).isFalse();
+        assertThat( congested.get() ).isEqualTo( 1 );
+        assertThat( writer.pending() ).isEqualTo( 3 );
+
+        Dates.setTimeFixed( 2015, 10, 10, 1, 30 );
+        assertThat( writer.drain() ).isEqualTo( 3 );
+        assertThat( writer.pending() ).isEqualTo( 0 );
+        assertThat( congested.get() ).isEqualTo( 0 );
+        writer.close();
+
+        assertFile( logs.resolve( "test/2015-10/10/file-2015-10-10-01-00.log" ) ).hasContent( "12345", PLAIN );
+        assertFile( logs.resolve( "test/2015-10/10/file-2015-10-10-01-01.log" ) ).hasContent( "67890abc", PLAIN );
+    }
+
+    @Test
+    public void full() throws InterruptedException {
+        final AsyncWriter writer = new AsyncWriter( new Writer( tmpPath( "logs" ), "file", ".log", 10, 12 ),
+            2, 1000, new AtomicInteger(), new AtomicInteger() );
+
+        writer.append( new byte[10], 0, 10 );
+        writer.append( new byte[10], 0, 10 );
+
+        final Thread producer = new Thread( () -> {
+            try {
+                writer.append( new byte[10], 0, 10 );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        producer.start();
+        producer.join( 200 );
+        assertThat( producer.isAlive() ).isTrue();
+
+        writer.drain();
+        producer.join();
+        assertThat( writer.pending() ).isEqualTo( 1 );
+        writer.close();
+    }
+
+    @Test
+    public void failedWriteKeepsBuffers() throws InterruptedException {
+        final Path logs = tmpPath( "logs" );
+        final AtomicBoolean broken = new AtomicBoolean( true );
+        final AtomicInteger failing = new AtomicInteger();
+        final AsyncWriter writer = new AsyncWriter( new Writer( logs, "file", ".log", 10, 12 ) {
+            @Override
+            synchronized void write( long time, byte[] buffer, int offset, int length ) {
+                if( broken.get() ) throw new UncheckedIOException( new IOException( "disk" ) );
+                super.write( time, buffer, offset, length );
+            }
+        }, 4, 1000, new AtomicInteger(), failing );
+
+        Dates.setTimeFixed( 2015, 10, 10, 1, 0 );
+        writer.append( "123".getBytes(), 0, 3 );
+        writer.append( "456".getBytes(), 0, 3 );
+
+        assertThat( writer.drain() ).isEqualTo( 0 );
+        assertThat( writer.failed() ).isTrue();
+        assertThat( writer.pending() ).isEqualTo( 2 );
+        assertThat( failing.get() ).isEqualTo( 1 );
+
+        broken.set( false );
+        assertThat( writer.drain() ).isEqualTo( 2 );
+        assertThat( writer.failed() ).isFalse();
+        assertThat( failing.get() ).isEqualTo( 0 );
+        writer.close();
+
+        assertFile( logs.resolve( "2015-10/10/file-2015-10-10-01-00.log" ) ).hasContent( "123456", PLAIN );
+    }
+
+    @Test
+    public void closeCongestedFailing() throws InterruptedException {
+        final AtomicInteger congested = new AtomicInteger();
+        final AtomicInteger failing = new AtomicInteger();
+        final AsyncWriter writer = new AsyncWriter( new Writer( tmpPath( "logs" ), "file", ".log", 10, 12 ) {
+            @Override
+            synchronized void write( long time, byte[] buffer, int offset, int length ) {
+                throw new UncheckedIOException( new IOException( "disk" ) );
+            }
+        }, 2, 1000, congested, failing );
+
+        writer.append( new byte[10], 0, 10 );
+        writer.append( new byte[10], 0, 10 );
+        assertThat( writer.drain() ).isEqualTo( 0 );
+        assertThat( congested.get() ).isEqualTo( 1 );
+        assertThat( failing.get() ).isEqualTo( 1 );
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread producer = new Thread( () -> {
+            try {
+                writer.append( new byte[10], 0, 10 );
+            } catch( Throwable e ) {
+                error.set( e );
+            }
+        } );
+        producer.start();
+        producer.join( 200 );
+        assertThat( producer.isAlive() ).isTrue();
+
+        writer.close();
+        producer.join( 5000 );
+        assertThat( producer.isAlive() ).isFalse();
+        assertThat( error.get() ).isInstanceOf( IllegalStateException.class );
+        assertThat( congested.get() ).isEqualTo( 0 );
+        assertThat( failing.get() ).isEqualTo( 0 );
+    }
+}
@@ -25,9 +25,14 @@
 package oap.logstream.disk;
 
 import oap.testng.AbstractTest;
+import com.google.common.base.Strings;
 import oap.testng.Env;
+import oap.util.Dates;
 import org.testng.annotations.Test;
 
+import java.nio.file.Path;
+
+import static oap.testng.Asserts.assertFile;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
@@ -40,5 +45,21 @@ public class DiskLoggingBackendTest extends AbstractTest {
         assertFalse( backend.isLoggingAvailable() );
         backend.requiredFreeSpace /= 1000;
         assertTrue( backend.isLoggingAvailable() );
+        backend.close();
+    }
+
+    @Test
+    public void closeDrains() {
+        final Path logs = Env.tmpPath( "logs" );
+        try( DiskLoggingBackend backend = new DiskLoggingBackend( logs, ".log", 4000, 12 ) ) {
+            Dates.setTimeFixed( 2015, 10, 10, 1, 0 );
+            for( int i = 0; i < 1000; i++ ) backend.log( "host", "file", "line\n".getBytes(), 0, 5 );
+            Dates.setTimeFixed( 2015, 10, 10, 1, 5 );
+            backend.log( "host", "file", "last\n".getBytes(), 0, 5 );
+        }
+
+        assertFile( logs.resolve( "host/2015-10/10/file-2015-10-10-01-00.log" ) )
+            .hasContent( Strings.repeat( "line\n", 1000 ) );
+        assertFile( logs.resolve( "host/2015-10/10/file-2015-10-10-01-01.log" ) ).hasContent( "last\n" );
     }
 }
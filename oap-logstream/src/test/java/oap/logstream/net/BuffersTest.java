@@ -24,21 +24,26 @@
 
 package oap.logstream.net;
 
+import oap.testng.AbstractTest;
 import oap.testng.Env;
 import oap.util.Lists;
 import oap.util.Pair;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static oap.util.Pair.__;
 import static org.assertj.core.api.Assertions.assertThat;
 
 
-public class BuffersTest {
+public class BuffersTest extends AbstractTest {
 
     public static final int HEADER = 17;
 
@@ -143,5 +148,97 @@ public class BuffersTest {
         assertReadyData( buffers3, Lists.empty() );
     }
 
+    @Test
+    public void readyDataRelease() {
+        Buffers.ReadyQueue.digestionIds.set( 0 );
+        Buffers buffers = new Buffers( Env.tmpPath( "bfrs" ), BufferConfigurationMap.DEFAULT( HEADER + 4 ) );
+        for( byte i = 0; i < 5; i++ ) buffers.put( "x/y", new byte[] { i, i, i } );
+        buffers.flush();
+
+        List<Buffer> ready = buffers.readyData( 3 );
+        assertThat( ready ).extracting( Buffer::digestionId ).containsExactly( 1L, 2L, 3L );
+
+        buffers.release( ready.get( 1 ) );
+        assertThat( buffers.readyData( 3 ) ).extracting( Buffer::digestionId ).containsExactly( 1L, 3L );
+
+        buffers.release( ready.get( 0 ) );
+        assertThat( buffers.readyData( 3 ) ).extracting( Buffer::digestionId ).containsExactly( 3L, 4L, 5L );
+        assertThat( buffers.cache.size( HEADER + 4 ) ).isEqualTo( 2 );
+    }
+
+    @Test
+    public void stripes() throws InterruptedException {
+        Buffers buffers = new Buffers( Env.tmpPath( "bfrs" ), BufferConfigurationMap.DEFAULT( HEADER + 8 ), 4 );
+        List<Thread> threads = new ArrayList<>();
+        for( int t = 0; t < 8; t++ )
+            threads.add( new Thread( () -> {
+                for( int i = 0; i < 1000; i++ ) buffers.put( "x/y", new byte[] { 1, 2 } );
+            } ) );
+        for( Thread thread : threads ) thread.start();
+        for( Thread thread : threads ) thread.join();
+
+        AtomicInteger bytes = new AtomicInteger();
+        buffers.forEachReadyData( b -> {
+            bytes.addAndGet( b.dataLength() );
+            return true;
+        } );
+        assertThat( bytes.get() ).isEqualTo( 8 * 1000 * 2 );
+    }
 
+    @Test
+    public void spill() {
+        Buffers.ReadyQueue.digestionIds.set( 0 );
+        Buffers buffers = new Buffers( Env.tmpPath( "bfrs" ), BufferConfigurationMap.DEFAULT( HEADER + 4 ), 1, 2, 64 );
+        for( byte i = 0; i < 10; i++ ) buffers.put( "x/y", new byte[] { i, i, i } );
+        buffers.flush();
+        assertThat( buffers.readyBuffers.size() ).isEqualTo( 2 );
+        assertThat( buffers.readyBuffers() ).isEqualTo( 10 );
+
+        List<Buffer> ready = buffers.readyData( 3 );
+        assertThat( ready ).extracting( Buffer::digestionId ).containsExactly( 1L, 2L );
+        buffers.release( ready.get( 0 ) );
+        buffers.release( ready.get( 1 ) );
+        assertThat( buffers.readyData( 3 ) ).extracting( Buffer::digestionId ).containsExactly( 3L, 4L );
+        assertThat( buffers.readyData( 3 ).get( 0 ).selector() ).isEqualTo( "x/y" );
+        assertThat( Env.tmpPath( "bfrs" ).resolve( "0000000000.segment" ) ).doesNotExist();
+
+        ArrayList<Buffer> expected = new ArrayList<>();
+        for( byte i = 2; i < 10; i++ ) expected.add( buffer( HEADER + 4, i + 1, "x/y", new byte[] { i, i, i } ) );
+        assertReadyData( buffers, expected );
+        assertThat( buffers.isEmpty() ).isTrue();
+    }
+
+    @Test
+    public void replayWithoutClose() {
+        Buffers.ReadyQueue.digestionIds.set( 0 );
+        Buffers buffers = new Buffers( Env.tmpPath( "bfrs" ), BufferConfigurationMap.DEFAULT( HEADER + 4 ), 1, 2, 64 );
+        for( byte i = 0; i < 5; i++ ) buffers.put( "x/y", new byte[] { i, i, i } );
+        buffers.flush();
+        List<Buffer> ready = buffers.readyData( 2 );
+        buffers.release( ready.get( 0 ) );
+
+        Buffers.ReadyQueue.digestionIds.set( 0 );
+        Buffers restarted = new Buffers( Env.tmpPath( "bfrs" ), BufferConfigurationMap.DEFAULT( HEADER + 4 ), 1, 2, 64 );
+        assertThat( restarted.readyBuffers() ).isEqualTo( 4 );
+        assertThat( Buffers.ReadyQueue.digestionIds.get() ).isEqualTo( 5 );
+        ArrayList<Buffer> expected = new ArrayList<>();
+        for( byte i = 1; i < 5; i++ ) expected.add( buffer( HEADER + 4, i + 1, "x/y", new byte[] { i, i, i } ) );
+        assertReadyData( restarted, expected );
+    }
+
+    @Test
+    public void staleBytesPastTail() throws Exception {
+        final Path directory = Env.tmpPath( "spill" );
+        final ByteBuffer stale = ByteBuffer.allocate( 64 );
+        stale.putInt( 20, 8 ).putLong( 24, 99 );
+        java.nio.file.Files.createDirectories( directory );
+        java.nio.file.Files.write( directory.resolve( "0000000000.segment" ), stale.array() );
+
+        final SpillQueue queue = new SpillQueue( directory, 64 );
+        assertThat( queue.unread() ).isEqualTo( 0 );
+        queue.append( new byte[16], 16 );
+        queue.close();
+
+        assertThat( new SpillQueue( directory, 64 ).unread() ).isEqualTo( 1 );
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestionWindowTest {
+    @Test
+    public void outOfOrder() {
+        final DigestionWindow window = new DigestionWindow( 10 );
+        final AtomicInteger written = new AtomicInteger();
+
+        assertThat( window.digest( 12, written::incrementAndGet ) ).isTrue();
+        assertThat( window.digest( 14, written::incrementAndGet ) ).isTrue();
+        assertThat( window.digest( 11, written::incrementAndGet ) ).isTrue();
+        assertThat( window.digest( 12, written::incrementAndGet ) ).isFalse();
+        assertThat( window.digest( 10, written::incrementAndGet ) ).isFalse();
+        assertThat( window.digest( 13, written::incrementAndGet ) ).isTrue();
+        assertThat( window.digest( 14, written::incrementAndGet ) ).isFalse();
+
+        assertThat( written.get() ).isEqualTo( 4 );
+        assertThat( window.last() ).isEqualTo( 14 );
+        assertThat( window.toString() ).isEqualTo( "DigestionWindow(floor=14, written=0)" );
+    }
+
+    @Test
+    public void capacity() {
+        final DigestionWindow window = new DigestionWindow( 0, 2 );
+
+        window.digest( 5, () -> {} );
+        window.digest( 7, () -> {} );
+        window.digest( 9, () -> {} );
+
+        assertThat( window.isWritten( 5 ) ).isTrue();
+        assertThat( window.isWritten( 6 ) ).isFalse();
+
+        window.digest( 11, () -> {} );
+
+        assertThat( window.isWritten( 6 ) ).isTrue();
+        assertThat( window.isWritten( 8 ) ).isFalse();
+        assertThat( window.isWritten( 9 ) ).isTrue();
+    }
+
+    @Test
+    public void failedWrite() {
+        final DigestionWindow window = new DigestionWindow( 0 );
+
+        try {
+            window.digest( 1, () -> {
+                throw new IllegalStateException( "backend" );
+            } );
+        } catch( IllegalStateException ignored ) {
+        }
+
+        assertThat( window.isWritten( 1 ) ).isFalse();
+    }
+
+    @Test
+    public void writeOutsideLock() throws Exception {
+        final DigestionWindow window = new DigestionWindow( 0 );
+        final CountDownLatch writing = new CountDownLatch( 1 );
+        final CountDownLatch proceed = new CountDownLatch( 1 );
+        final AtomicInteger written = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool( 2 );
+        try {
+            final Future<Boolean> first = pool.submit( () -> window.digest( 1, () -> {
+                writing.countDown();
+                Uninterruptibles.awaitUninterruptibly( proceed );
+                written.incrementAndGet();
+            } ) );
+            writing.await();
+
+            assertThat( window.digest( 2, written::incrementAndGet ) ).isTrue();
+            final Future<Boolean> duplicate = pool.submit( () -> window.digest( 1, written::incrementAndGet ) );
+            Thread.sleep( 50 );
+            assertThat( duplicate.isDone() ).isFalse();
+
+            proceed.countDown();
+            assertThat( first.get() ).isTrue();
+            assertThat( duplicate.get() ).isFalse();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat( written.get() ).isEqualTo( 2 );
+        assertThat( window.last() ).isEqualTo( 2 );
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import oap.logstream.AvailabilityReport;
+import oap.logstream.MemoryLoggingBackend;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import org.testng.annotations.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.testng.Env.tmpPath;
+import static oap.util.Pair.__;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NioSocketLoggingServerTest extends AbstractTest {
+    private static byte[] frame( long digestionId, String selector, String data ) throws IOException {
+        final Buffer buffer = new Buffer( 1024, selector );
+        buffer.put( data.getBytes( UTF_8 ) );
+        buffer.close( digestionId );
+        final byte[] frame = new byte[buffer.length()];
+        System.arraycopy( buffer.data(), 0, frame, 0, frame.length );
+        return frame;
+    }
+
+    @Test
+    public void protocol() throws Exception {
+        final MemoryLoggingBackend backend = new MemoryLoggingBackend();
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 16, backend, tmpPath( "control" ), 2 );
+        server.start();
+        try( Socket socket = new Socket( "localhost", Env.port( "net" ) ) ) {
+            final DataOutputStream out = new DataOutputStream( socket.getOutputStream() );
+            final DataInputStream in = new DataInputStream( socket.getInputStream() );
+
+            final byte[] first = frame( 1, "a", "line1\n" );
+            out.write( first, 0, 5 );
+            out.flush();
+            Thread.sleep( 50 );
+            out.write( first, 5, first.length - 5 );
+            out.write( frame( 2, "a", "line2\n" ) );
+            out.write( frame( 1, "a", "line1\n" ) );
+            out.flush();
+
+            assertThat( in.readInt() ).isEqualTo( 6 );
+            assertThat( in.readInt() ).isEqualTo( 6 );
+            assertThat( in.readInt() ).isEqualTo( 6 );
+
+            out.write( frame( 3, "a", "a line longer than the buffer\n" ) );
+            out.flush();
+            assertThat( in.readInt() ).isEqualTo( SocketError.BUFFER_OVERFLOW.code );
+            assertThat( in.read() ).isEqualTo( -1 );
+        } finally {
+            server.stop();
+        }
+
+        assertThat( backend.getLines( "localhost", "a" ) ).containsExactly( "line1", "line2" );
+
+        final NioSocketLoggingServer restarted = new NioSocketLoggingServer( Env.port( "net" ), 16, backend, tmpPath( "control" ), 1 );
+        restarted.start();
+        try( Socket socket = new Socket( "localhost", Env.port( "net" ) ) ) {
+            new DataOutputStream( socket.getOutputStream() ).write( frame( 2, "a", "line2\n" ) );
+            assertThat( new DataInputStream( socket.getInputStream() ).readInt() ).isEqualTo( 6 );
+        } finally {
+            restarted.stop();
+        }
+
+        assertThat( backend.getLines( "localhost", "a" ) ).containsExactly( "line1", "line2" );
+    }
+
+    @Test( expectedExceptions = EOFException.class )
+    public void backendUnavailable() throws Exception {
+        final MemoryLoggingBackend backend = new MemoryLoggingBackend() {
+            @Override
+            public AvailabilityReport availabilityReport() {
+                return new AvailabilityReport( AvailabilityReport.State.FAILED );
+            }
+        };
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 1024, backend, tmpPath( "control" ) );
+        server.start();
+        try( Socket socket = new Socket( "localhost", Env.port( "net" ) ) ) {
+            new DataOutputStream( socket.getOutputStream() ).write( frame( 1, "a", "line1\n" ) );
+            final DataInputStream in = new DataInputStream( socket.getInputStream() );
+            assertThat( in.readInt() ).isEqualTo( SocketError.BACKEND_UNAVAILABLE.code );
+            in.readInt();
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void slowBackendDoesNotBlockLoop() throws Exception {
+        final CountDownLatch slow = new CountDownLatch( 1 );
+        final MemoryLoggingBackend backend = new MemoryLoggingBackend() {
+            @Override
+            public void log( String hostName, String fileName, byte[] buffer, int offset, int length ) {
+                if( "slow".equals( fileName ) ) Uninterruptibles.awaitUninterruptibly( slow );
+                super.log( hostName, fileName, buffer, offset, length );
+            }
+        };
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 1024, backend, tmpPath( "control" ), 1, 2 );
+        server.start();
+        try( Socket blocked = new Socket( "localhost", Env.port( "net" ) );
+             Socket socket = new Socket( "localhost", Env.port( "net" ) ) ) {
+            new DataOutputStream( blocked.getOutputStream() ).write( frame( 1, "slow", "line1\n" ) );
+            Thread.sleep( 50 );
+
+            new DataOutputStream( socket.getOutputStream() ).write( frame( 2, "a", "line2\n" ) );
+            assertThat( new DataInputStream( socket.getInputStream() ).readInt() ).isEqualTo( 6 );
+
+            slow.countDown();
+            assertThat( new DataInputStream( blocked.getInputStream() ).readInt() ).isEqualTo( 6 );
+        } finally {
+            server.stop();
+        }
+
+        assertThat( backend.getLines( "localhost", "slow" ) ).containsExactly( "line1" );
+        assertThat( backend.getLines( "localhost", "a" ) ).containsExactly( "line2" );
+    }
+
+    @Test
+    public void pipelined() throws InterruptedException {
+        final MemoryLoggingBackend serverBackend = new MemoryLoggingBackend();
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 1024, serverBackend, tmpPath( "control" ), 2 );
+        server.start();
+        try( SocketLoggingBackend clientBackend = new SocketLoggingBackend( "localhost", Env.port( "net" ), tmpPath( "buffers" ), 64, Long.MAX_VALUE ) ) {
+            clientBackend.connections = 4;
+            clientBackend.window = 3;
+
+            final List<String> expected = new ArrayList<>();
+            for( int i = 0; i < 2000; i++ ) {
+                clientBackend.log( "host", "a", ( "line" + i + "\n" ).getBytes( UTF_8 ) );
+                expected.add( "line" + i );
+            }
+            clientBackend.send();
+
+            assertThat( clientBackend.isLoggingAvailable() ).isTrue();
+            assertThat( serverBackend.getLines( "localhost", "a" ) ).containsOnlyElementsOf( expected ).hasSize( expected.size() );
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void compressed() throws Exception {
+        final MemoryLoggingBackend backend = new MemoryLoggingBackend();
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 1024, backend, tmpPath( "control" ), 1 );
+        server.start();
+        try( Socket socket = new Socket( "localhost", Env.port( "net" ) ) ) {
+            final DataOutputStream out = new DataOutputStream( socket.getOutputStream() );
+            final DataInputStream in = new DataInputStream( socket.getInputStream() );
+
+            out.write( frame( Compression.HANDSHAKE, "zstd", "" ) );
+            assertThat( in.readInt() ).isEqualTo( 0 );
+            out.write( frame( Compression.HANDSHAKE, Compression.LZ4, "" ) );
+            assertThat( in.readInt() ).isEqualTo( Compression.ACCEPTED );
+
+            final byte[] raw = frame( 1, "a", "line1\nline1\nline1\nline1\n" );
+            final byte[] compressed = new byte[raw.length + Compression.maxCompressedLength( raw.length )];
+            final int header = 8 + 4 + 2 + 1;
+            System.arraycopy( raw, 0, compressed, 0, header );
+            final int length = Compression.compress( raw, header, raw.length - header, compressed, header );
+            final ByteBuffer size = ByteBuffer.wrap( compressed, 8, 4 );
+            size.putInt( -length );
+
+            out.write( compressed, 0, header + length );
+            out.write( frame( 2, "a", "line2\n" ) );
+            out.flush();
+            assertThat( in.readInt() ).isEqualTo( 24 );
+            assertThat( in.readInt() ).isEqualTo( 6 );
+        } finally {
+            server.stop();
+        }
+
+        assertThat( backend.getLines( "localhost", "a" ) ).containsExactly( "line1", "line1", "line1", "line1", "line2" );
+    }
+
+    @Test
+    public void compressedClient() {
+        final MemoryLoggingBackend serverBackend = new MemoryLoggingBackend();
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "net" ), 1024, serverBackend, tmpPath( "control" ), 1 );
+        server.start();
+        final BufferConfigurationMap configurations = BufferConfigurationMap.custom(
+            __( "compressed", new BufferConfigurationMap.BufferConfiguration( 1024, Pattern.compile( ".*" ), true ) ) );
+        try( SocketLoggingBackend clientBackend = new SocketLoggingBackend( "localhost", Env.port( "net" ), tmpPath( "buffers" ), configurations, Long.MAX_VALUE ) ) {
+            final List<String> expected = new ArrayList<>();
+            for( int i = 0; i < 1000; i++ ) {
+                clientBackend.log( "host", "a", ( "line\t" + i % 10 + "\n" ).getBytes( UTF_8 ) );
+                expected.add( "line\t" + i % 10 );
+            }
+            clientBackend.send();
+
+            assertThat( serverBackend.getLines( "localhost", "a" ) ).isEqualTo( expected );
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import oap.logstream.MemoryLoggingBackend;
+import oap.logstream.net.BufferConfigurationMap.BufferConfiguration;
+import oap.metrics.Metrics;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.testng.Env.tmpPath;
+import static oap.util.Pair.__;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SocketLoggingBackendTest extends AbstractTest {
+    @Test
+    public void pipelined() throws InterruptedException {
+        final MemoryLoggingBackend serverBackend = new MemoryLoggingBackend();
+        final SocketLoggingServer server = new SocketLoggingServer( Env.port( "net" ), 1024, serverBackend, tmpPath( "control" ) );
+        server.start();
+        try( SocketLoggingBackend clientBackend = new SocketLoggingBackend( "localhost", Env.port( "net" ), tmpPath( "buffers" ), 64, Long.MAX_VALUE ) ) {
+            clientBackend.connections = 4;
+            clientBackend.window = 3;
+
+            final List<Thread> threads = new ArrayList<>();
+            final List<String> expected = new ArrayList<>();
+            for( int t = 0; t < 4; t++ ) {
+                final int thread = t;
+                for( int i = 0; i < 500; i++ ) expected.add( "t" + thread + "-" + i );
+                threads.add( new Thread( () -> {
+                    for( int i = 0; i < 500; i++ )
+                        clientBackend.log( "host", "a", ( "t" + thread + "-" + i + "\n" ).getBytes( UTF_8 ) );
+                } ) );
+            }
+            for( Thread thread : threads ) thread.start();
+            for( Thread thread : threads ) thread.join();
+
+            clientBackend.send();
+
+            assertThat( clientBackend.isLoggingAvailable() ).isTrue();
+            assertThat( serverBackend.getLines( "localhost", "a" ) ).containsOnlyElementsOf( expected ).hasSize( expected.size() );
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void compressed() {
+        final MemoryLoggingBackend serverBackend = new MemoryLoggingBackend();
+        final SocketLoggingServer server = new SocketLoggingServer( Env.port( "net" ), 1024, serverBackend, tmpPath( "control" ) );
+        server.start();
+        final BufferConfigurationMap configurations = BufferConfigurationMap.custom(
+            __( "compressed", new BufferConfiguration( 1024, Pattern.compile( "a" ), true ) ),
+            __( "raw", new BufferConfiguration( 1024, Pattern.compile( "b" ) ) ) );
+        try( SocketLoggingBackend clientBackend = new SocketLoggingBackend( "localhost", Env.port( "net" ), tmpPath( "buffers" ), configurations, Long.MAX_VALUE ) ) {
+            final List<String> expected = new ArrayList<>();
+            for( int i = 0; i < 1000; i++ ) {
+                clientBackend.log( "host", "a", ( "line\t" + i % 10 + "\tsame\n" ).getBytes( UTF_8 ) );
+                clientBackend.log( "host", "b", ( "line\t" + i + "\n" ).getBytes( UTF_8 ) );
+                expected.add( "line\t" + i % 10 + "\tsame" );
+            }
+            clientBackend.send();
+
+            assertThat( clientBackend.isLoggingAvailable() ).isTrue();
+            assertThat( serverBackend.getLines( "localhost", "a" ) ).isEqualTo( expected );
+            assertThat( serverBackend.getLines( "localhost", "b" ) ).hasSize( 1000 );
+            assertThat( Metrics.snapshot( Metrics.name( "logging.compression_ratio" ).tag( "from_host", "localhost" ).tag( "configuration", "compressed" ) ).count )
+                .isGreaterThan( 0 );
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import oap.logstream.NullLoggingBackend;
+import oap.testng.AbstractPerformance;
+import oap.testng.Env;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static oap.testng.Env.tmpPath;
+
+/**
+ * Load test of {@link SocketLoggingServer} against {@link NioSocketLoggingServer}: one client keeps
+ * {@code CONNECTIONS} connections busy, threads and heap are reported once all of them are open.
+ */
+@Test( enabled = false )
+public class SocketLoggingServerPerformance extends AbstractPerformance {
+    private static final int CONNECTIONS = 200;
+    private static final int BUFFER = 64 * 1024;
+    private static final int SAMPLES = 50;
+    private static final int EXPERIMENTS = 5;
+
+    @Test
+    public void testThreads() {
+        final SocketLoggingServer server = new SocketLoggingServer( Env.port( "threads" ), BUFFER, new NullLoggingBackend(), tmpPath( "control-threads" ) );
+        server.start();
+        try {
+            load( "threads", Env.port( "threads" ) );
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testNio() {
+        final NioSocketLoggingServer server = new NioSocketLoggingServer( Env.port( "nio" ), BUFFER, new NullLoggingBackend(), tmpPath( "control-nio" ) );
+        server.start();
+        try {
+            load( "nio", Env.port( "nio" ) );
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void load( String name, int port ) {
+        final byte[] line = new byte[100];
+        Arrays.fill( line, ( byte ) 'x' );
+        line[line.length - 1] = '\n';
+
+        try( SocketLoggingBackend client = new SocketLoggingBackend( "localhost", port, tmpPath( "buffers-" + name ), BUFFER, Long.MAX_VALUE ) ) {
+            client.connections = CONNECTIONS;
+            client.window = 1;
+
+            final Runnable round = () -> {
+                for( int i = 0; i < CONNECTIONS * BUFFER / line.length; i++ ) client.log( "host", "a", line );
+                client.send();
+            };
+            round.run();
+
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            System.out.format( "%s: %d connections, %d threads, %d KB heap used\n", name, CONNECTIONS,
+                ManagementFactory.getThreadMXBean().getThreadCount(), ( runtime.totalMemory() - runtime.freeMemory() ) / 1024 );
+
+            benchmark( "logging.server-" + name, SAMPLES, EXPERIMENTS, i -> round.run(),
+                x -> {}, x -> {}, rate -> rate * CONNECTIONS * BUFFER / 1024 / 1024 + " MB/s" );
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.concurrent;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Fixed set of {@link ReentrantLock}s selected by key hash. Keys sharing a stripe share a lock,
+ * so the number of stripes bounds both memory and the achievable parallelism.
+ * <p>
+ * Replacement for {@code synchronized( key.intern() )}: nothing is added to the JVM string table
+ * and the locks are reentrant, so a callback may lock the same key again.
+ */
+public final class StripedLock {
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLock() {
+        this( DEFAULT_STRIPES );
+    }
+
+    public StripedLock( int stripes ) {
+        if( stripes <= 0 ) throw new IllegalArgumentException( "stripes must be positive: " + stripes );
+
+        final int size = stripes == 1 ? 1 : Integer.highestOneBit( stripes - 1 ) << 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for( int i = 0; i < size; i++ ) locks[i] = new ReentrantLock();
+    }
+
+    public final ReentrantLock get( Object key ) {
+        final int h = key.hashCode();
+        return locks[( h ^ ( h >>> 16 ) ) & mask];
+    }
+
+    public final void sync( Object key, Runnable runnable ) {
+        final ReentrantLock lock = get( key );
+        lock.lock();
+        try {
+            runnable.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public final <T> T sync( Object key, Supplier<T> supplier ) {
+        final ReentrantLock lock = get( key );
+        lock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public final int stripes() {
+        return locks.length;
+    }
+}
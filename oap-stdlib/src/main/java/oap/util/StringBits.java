@@ -24,10 +24,11 @@
 
 package oap.util;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
@@ -37,7 +38,7 @@ import static java.util.stream.Collectors.toList;
 public class StringBits {
     private static final long UNKNOWN = 0;
 
-    private final HashMap<String, Long> bits = new HashMap<>();
+    private final ConcurrentHashMap<String, Long> bits = new ConcurrentHashMap<>();
     private final AtomicLong bit = new AtomicLong( 1L );
 
     public StringBits() {
@@ -57,6 +58,8 @@ public class StringBits {
     }
 
     public final long get( String name ) {
+        if( name == null ) return UNKNOWN;
+
         return bits.getOrDefault( name, UNKNOWN );
     }
 
@@ -65,7 +68,7 @@ public class StringBits {
         final long[] result = new long[size];
 
         for( int i = 0; i < size; i++ ) {
-            result[i] = bits.getOrDefault( name.get( i ), UNKNOWN );
+            result[i] = get( name.get( i ) );
         }
 
         return result;
@@ -83,6 +86,15 @@ public class StringBits {
         return bitSet;
     }
 
+    /**
+     * @return names indexed by their bit, index 0 is {@link Strings#UNKNOWN}
+     */
+    public final synchronized List<String> names() {
+        final String[] names = new String[( int ) bit.get()];
+        bits.forEach( ( name, bit ) -> names[bit.intValue()] = name );
+        return Arrays.asList( names );
+    }
+
     public int size() {
         return bits.size();
     }
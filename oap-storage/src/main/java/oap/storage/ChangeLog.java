@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sequence numbered changes of a {@link MemoryStorage}, consumed by {@link Replicator}. Only the latest
+ * change of every id is kept, a deleted id is a tombstone change without metadata. At most {@code capacity}
+ * changes are retained, a consumer whose cursor fell behind the retained window (or a fresh one) gets
+ * a full snapshot instead.
+ * <p>
+ * Recording starts with the first {@link #since(long, int)} call, a storage which is never replicated
+ * pays nothing. Mutating threads record concurrently: the sequence is an atomic counter, the log a
+ * concurrent skip list and the latest change of an id is replaced under its hash bin only. Consumers
+ * take the exclusive side of a read-write lock, so every change up to the head they see is published.
+ */
+public class ChangeLog<T> {
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private final MemoryStorage<T> storage;
+    private final int capacity;
+    private final ConcurrentSkipListMap<Long, Change<T>> log = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Long> latest = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean enabled;
+
+    public ChangeLog( MemoryStorage<T> storage, int capacity ) {
+        this.storage = storage;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records the current state of {@code id}, call after the storage has been modified.
+     */
+    void record( String id ) {
+        if( !enabled ) return;
+
+        lock.readLock().lock();
+        try {
+            final long sequence = this.sequence.incrementAndGet();
+            latest.compute( id, ( k, previous ) -> {
+                if( previous != null && previous > sequence ) return previous;
+                if( previous != null && log.remove( previous ) != null ) size.decrementAndGet();
+                log.put( sequence, new Change<>( sequence, id, storage.data.get( id ) ) );
+                size.incrementAndGet();
+                return sequence;
+            } );
+
+            while( size.get() > capacity ) {
+                final Map.Entry<Long, Change<T>> first = log.pollFirstEntry();
+                if( first == null ) break;
+                size.decrementAndGet();
+                latest.remove( first.getValue().id, first.getKey() );
+                truncated.accumulateAndGet( first.getKey(), Math::max );
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param sequence cursor returned by the previous call, 0 initially
+     * @return at most {@code limit} changes after {@code sequence} or a full snapshot of the storage
+     */
+    public Changes<T> since( long sequence, int limit ) {
+        final long head;
+        lock.writeLock().lock();
+        try {
+            final long current = this.sequence.get();
+            if( enabled && sequence > 0 && sequence >= truncated.get() && sequence <= current ) {
+                final ArrayList<Change<T>> changes = new ArrayList<>( Math.min( limit, size.get() ) );
+                long last = sequence;
+                for( Change<T> change : log.tailMap( sequence, false ).values() ) {
+                    if( changes.size() >= limit ) break;
+                    changes.add( change );
+                    last = change.sequence;
+                }
+                return new Changes<>( changes, last, current, false );
+            }
+
+            enabled = true;
+            head = this.sequence.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        final ArrayList<Change<T>> changes = new ArrayList<>( storage.data.size() );
+        for( Metadata<T> metadata : storage.data.values() ) changes.add( new Change<>( head, metadata.id, metadata ) );
+        return new Changes<>( changes, head, head, true );
+    }
+
+    @ToString
+    public static class Change<T> implements Serializable {
+        public final long sequence;
+        public final String id;
+        /**
+         * null for deleted objects
+         */
+        public final Metadata<T> metadata;
+
+        public Change( long sequence, String id, Metadata<T> metadata ) {
+            this.sequence = sequence;
+            this.id = id;
+            this.metadata = metadata;
+        }
+
+        public boolean deleted() {
+            return metadata == null;
+        }
+    }
+
+    @ToString
+    public static class Changes<T> implements Serializable {
+        public final List<Change<T>> changes;
+        /**
+         * cursor for the next call
+         */
+        public final long sequence;
+        /**
+         * latest sequence of the change log
+         */
+        public final long head;
+        /**
+         * changes are all objects of the storage, ids missing from it are deleted
+         */
+        public final boolean snapshot;
+
+        public Changes( List<Change<T>> changes, long sequence, long head, boolean snapshot ) {
+            this.changes = changes;
+            this.sequence = sequence;
+            this.head = head;
+            this.snapshot = snapshot;
+        }
+    }
+}
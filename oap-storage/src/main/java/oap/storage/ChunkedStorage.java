@@ -1,50 +1,266 @@
 package oap.storage;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import oap.concurrent.Executors;
+import oap.concurrent.StripedLock;
+import oap.concurrent.ThreadException;
 import oap.io.Files;
+import oap.io.IoStreams;
 import oap.json.Binder;
 import oap.util.Stream;
+import oap.util.Throwables;
 
+import java.io.Closeable;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static oap.io.IoStreams.DEFAULT_BUFFER;
 
 /**
  * Created by macchiatow on 8/30/16.
+ * <p>
+ * By default every merge is written through to its chunk file. With a positive {@code cacheSize} up to
+ * that many chunks are kept in memory (LRU), merges go to the cached chunk and it is written back once
+ * on eviction, {@link #flush()} or {@link #close()}, so repeated merges into the same chunk cost one read
+ * and one write, the owner has to flush or close the storage. {@link #stream()} sees merged but not yet
+ * written records.
+ * <p>
+ * Merges lock their chunk only, chunk files are read and written outside the lock of the cache, an evicted
+ * chunk is written by the merge that evicted it once its own lock is released.
  */
 @Slf4j
-public class ChunkedStorage<T> {
+public class ChunkedStorage<T> implements Closeable {
+   public static final int DEFAULT_CACHE_SIZE = 64;
    private static final String pattern = "chunk*.gz";
 
    private final Function<T, String> identify;
+   private final int cacheSize;
+   private final LinkedHashMap<Integer, Chunk> cache;
+   private final ConcurrentHashMap<Integer, Chunk> evicted = new ConcurrentHashMap<>();
+   private final StripedLock locks = new StripedLock();
    private Path dataLocation;
 
    public ChunkedStorage( Function<T, String> identify, Path dataLocation ) {
+      this( identify, dataLocation, 0 );
+   }
+
+   /**
+    * @param cacheSize number of chunks kept in memory, e.g. {@link #DEFAULT_CACHE_SIZE},
+    *                  0 writes every merge through to the chunk file
+    */
+   public ChunkedStorage( Function<T, String> identify, Path dataLocation, int cacheSize ) {
       this.dataLocation = dataLocation;
       this.identify = identify;
+      this.cacheSize = cacheSize;
+      this.cache = new LinkedHashMap<>( 16, 0.75f, true );
    }
 
    @SuppressWarnings( "unchecked" )
    public void mergeAll( Collection<T> objects, Integer chunkId, BiFunction<T, T, T> remappingFunction ) {
-      Path chunkPath = dataLocation.resolve( pattern.replace( "*", String.valueOf( chunkId ) ) );
-      Chunk chunk = chunkPath.toFile().exists() ? Binder.json.unmarshal( Chunk.class, chunkPath ) : new Chunk();
-      objects.forEach( o -> chunk.records.merge( identify.apply( o ), o,
-         ( a, b ) -> remappingFunction.apply( ( T ) a, ( T ) b ) ) );
-      Binder.json.marshal( chunkPath, chunk );
+      final Integer eldest = locks.sync( chunkId, () -> {
+         final Chunk chunk = cacheSize > 0 ? cached( chunkId ) : read( chunkId );
+         objects.forEach( o -> chunk.records.merge( identify.apply( o ), o,
+            ( a, b ) -> remappingFunction.apply( ( T ) a, ( T ) b ) ) );
+         if( cacheSize == 0 ) {
+            write( chunkId, chunk );
+            return null;
+         }
+         return cache( chunkId, chunk );
+      } );
+
+      if( eldest != null ) locks.sync( eldest, () -> {
+         final Chunk chunk = evicted.get( eldest );
+         if( chunk != null ) {
+            write( eldest, chunk );
+            evicted.remove( eldest, chunk );
+         }
+      } );
+   }
+
+   /**
+    * @return the cached chunk, the evicted one not written yet or the chunk file, under the lock of the chunk
+    */
+   private Chunk cached( int chunkId ) {
+      final Chunk chunk = inMemoryChunk( chunkId );
+      return chunk != null ? chunk : read( chunkId );
+   }
+
+   /**
+    * @return id of the evicted chunk, it waits in {@link #evicted} to be written, or null
+    */
+   private Integer cache( int chunkId, Chunk chunk ) {
+      synchronized( cache ) {
+         cache.put( chunkId, chunk );
+         if( cache.size() <= cacheSize ) return null;
+
+         final Iterator<Map.Entry<Integer, Chunk>> eldest = cache.entrySet().iterator();
+         final Map.Entry<Integer, Chunk> entry = eldest.next();
+         evicted.put( entry.getKey(), entry.getValue() );
+         eldest.remove();
+         return entry.getKey();
+      }
    }
 
+   /**
+    * Chunk files are read ahead concurrently by a pool of the stream, one thread per available processor, the pool
+    * stops when the stream is consumed or closed.
+    */
    @SuppressWarnings( "unchecked" )
    public Stream<T> stream() {
-      return Stream.of( Files.fastWildcard( dataLocation, pattern ) )
-         .map( f -> Binder.json.unmarshal( Chunk.class, f ) )
-         .flatMap( c -> Stream.of( ( Collection<T> ) c.records.values() ) );
+      final List<Supplier<Collection<Object>>> chunks = new ArrayList<>();
+      final List<Integer> ids;
+      synchronized( cache ) {
+         ids = new ArrayList<>( cache.keySet() );
+      }
+      ids.addAll( evicted.keySet() );
+      final Set<Integer> inMemory = new HashSet<>();
+      for( Integer chunkId : ids ) {
+         if( inMemory.contains( chunkId ) ) continue;
+
+         final ArrayList<Object> records = locks.sync( chunkId, () -> {
+            final Chunk chunk = inMemoryChunk( chunkId );
+            return chunk == null ? null : new ArrayList<>( chunk.records.values() );
+         } );
+         if( records != null ) {
+            inMemory.add( chunkId );
+            chunks.add( () -> records );
+         }
+      }
+      for( Path path : Files.fastWildcard( dataLocation, pattern ) )
+         if( !inMemory.contains( chunkId( path ) ) )
+            chunks.add( () -> Binder.json.unmarshal( Chunk.class, path ).records.values() );
+
+      final ReadAhead readAhead = new ReadAhead( chunks, Runtime.getRuntime().availableProcessors() );
+      return Stream.of( readAhead )
+         .flatMap( c -> Stream.of( ( Collection<T> ) c ) )
+         .onClose( readAhead::close );
+   }
+
+   private Chunk inMemoryChunk( int chunkId ) {
+      final Chunk chunk;
+      synchronized( cache ) {
+         chunk = cache.get( chunkId );
+      }
+      return chunk != null ? chunk : evicted.get( chunkId );
+   }
+
+   /**
+    * Writes all cached chunks and empties the cache.
+    */
+   public void flush() {
+      final List<Integer> ids;
+      synchronized( cache ) {
+         ids = new ArrayList<>( cache.keySet() );
+      }
+      ids.addAll( evicted.keySet() );
+      for( Integer chunkId : ids )
+         locks.sync( chunkId, () -> {
+            final Chunk chunk;
+            synchronized( cache ) {
+               chunk = cache.remove( chunkId );
+            }
+            final Chunk pending = evicted.remove( chunkId );
+            if( chunk != null ) write( chunkId, chunk );
+            else if( pending != null ) write( chunkId, pending );
+         } );
+   }
+
+   @Override
+   public void close() {
+      flush();
+   }
+
+   private Path path( int chunkId ) {
+      return dataLocation.resolve( pattern.replace( "*", String.valueOf( chunkId ) ) );
+   }
+
+   private static int chunkId( Path path ) {
+      final String name = path.getFileName().toString();
+      final int star = pattern.indexOf( '*' );
+      return Integer.parseInt( name.substring( star, name.length() - pattern.length() + star + 1 ) );
+   }
+
+   private Chunk read( int chunkId ) {
+      final Path chunkPath = path( chunkId );
+      return chunkPath.toFile().exists() ? Binder.json.unmarshal( Chunk.class, chunkPath ) : new Chunk();
+   }
+
+   @SneakyThrows
+   private void write( int chunkId, Chunk chunk ) {
+      final Path chunkPath = path( chunkId );
+      Files.ensureFile( chunkPath );
+      try( OutputStream out = IoStreams.out( chunkPath, IoStreams.Encoding.from( chunkPath ), DEFAULT_BUFFER, false, true ) ) {
+         Binder.json.marshal( out, chunk );
+      }
    }
 
    private static class Chunk {
       private Map<String, Object> records = new HashMap<>();
    }
 
+   /**
+    * Keeps up to {@code window} chunk reads in flight ahead of the consumer on its own pool of {@code window}
+    * threads.
+    */
+   private static class ReadAhead implements Iterator<Collection<Object>> {
+      private final Iterator<Supplier<Collection<Object>>> chunks;
+      private final ArrayDeque<Future<Collection<Object>>> reading = new ArrayDeque<>();
+      private final int window;
+      private final ExecutorService pool;
+
+      ReadAhead( List<Supplier<Collection<Object>>> chunks, int window ) {
+         this.chunks = chunks.iterator();
+         this.window = Math.max( window, 1 );
+         this.pool = Executors.newFixedThreadPool( this.window,
+            new ThreadFactoryBuilder().setNameFormat( "chunked-storage-read-%d" ).setDaemon( true ).build() );
+      }
+
+      @Override
+      public boolean hasNext() {
+         fill();
+         if( reading.isEmpty() ) pool.shutdown();
+         return !reading.isEmpty();
+      }
+
+      @Override
+      public Collection<Object> next() {
+         fill();
+         try {
+            return reading.remove().get();
+         } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ThreadException( e );
+         } catch( ExecutionException e ) {
+            throw Throwables.propagate( e.getCause() );
+         }
+      }
+
+      private void fill() {
+         while( reading.size() < window && chunks.hasNext() )
+            reading.add( pool.submit( chunks.next()::get ) );
+      }
+
+      void close() {
+         pool.shutdownNow();
+      }
+   }
 }
@@ -72,6 +72,14 @@ public class FileStorage<T> extends MemoryStorage<T> {
       ), this );
    }
 
+   /**
+    * Storage with a custom persistence, e.g. {@code s -> new WalPersistenceBackend<>( path, fsync, s )}.
+    */
+   public FileStorage( Identifier<T> identifier, Function<MemoryStorage<T>, PersistenceBackend<T>> persistence ) {
+      super( identifier );
+      this.persistence = persistence.apply( this );
+   }
+
    /**
     * @deprecated use {@link #FileStorage(Path, BiFunction, Identifier, long)}} instead.
     */
@@ -24,45 +24,65 @@
 package oap.storage;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.SneakyThrows;
 import lombok.ToString;
+import oap.concurrent.Executors;
 import oap.concurrent.scheduler.PeriodicScheduled;
 import oap.concurrent.scheduler.Scheduled;
 import oap.concurrent.scheduler.Scheduler;
 import oap.io.Files;
 import oap.json.Binder;
+import oap.metrics.Metrics;
+import oap.metrics.Name;
 import oap.storage.migration.FileStorageMigration;
 import oap.storage.migration.FileStorageMigrationException;
 import oap.storage.migration.JsonMetadata;
-import oap.util.Try;
 import org.slf4j.Logger;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static java.util.Comparator.reverseOrder;
-import static oap.util.Maps.Collectors.toConcurrentMap;
-import static oap.util.Pair.__;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class FsPersistenceBackend<T> implements PersistenceBackend<T>, Closeable, Storage.DataListener<T> {
+    private static final String TMP = ".tmp";
+    private static final int LOAD_CHUNK = 1024;
+
     protected final Path path;
     protected final BiFunction<Path, T, Path> fsResolve;
     protected final int version;
     protected final List<FileStorageMigration> migrations;
     protected final Logger log;
+    protected final int loadThreads;
     protected MemoryStorage<T> storage;
     protected PeriodicScheduled scheduled;
 
     public FsPersistenceBackend( Path path, BiFunction<Path, T, Path> fsResolve, long fsync, int version, List<FileStorageMigration> migrations, MemoryStorage<T> storage ) {
+        this( path, fsResolve, fsync, version, migrations, Runtime.getRuntime().availableProcessors(), storage );
+    }
+
+    public FsPersistenceBackend( Path path, BiFunction<Path, T, Path> fsResolve, long fsync, int version, List<FileStorageMigration> migrations, int loadThreads, MemoryStorage<T> storage ) {
         this.path = path;
+        this.loadThreads = loadThreads;
         this.fsResolve = fsResolve;
         this.version = version;
         this.migrations = migrations;
@@ -73,36 +93,114 @@ public class FsPersistenceBackend<T> implements PersistenceBackend<T>, Closeable
         this.storage.addDataListener( this );
     }
 
+    /**
+     * Loads all objects on {@link #loadThreads} workers, each reading, migrating and unmarshalling
+     * a chunk of files straight into the storage map. Progress is reported as the
+     * {@code storage.load} meter tagged with the storage path.
+     */
+    @SneakyThrows
     protected void load() {
         Files.ensureDirectory( path );
-        List<Path> paths = Files.deepCollect( path, p -> p.getFileName().toString().endsWith( ".json" ) );
+        final List<Path> found = Files.deepCollect( path, p -> {
+            final String name = p.getFileName().toString();
+            return name.endsWith( ".json" ) || name.endsWith( TMP );
+        } );
+        final List<Path> paths = latestVersions( found );
         log.debug( "found {} files", paths.size() );
 
-        storage.data = paths
-            .stream()
-            .map( Try.map(
-                f -> {
-                    final Persisted persisted = Persisted.valueOf( f );
+        final ConcurrentHashMap<String, Metadata<T>> data =
+            new ConcurrentHashMap<>( Math.max( 16, ( int ) ( paths.size() / 0.75f ) + 1 ), 0.75f, loadThreads );
+        final Name progress = Metrics.name( "storage.load" ).tag( "path", path.toString() );
+        final AtomicLong loaded = new AtomicLong();
+        final long started = System.currentTimeMillis();
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for( int from = 0; from < paths.size(); from += LOAD_CHUNK ) {
+            final List<Path> chunk = paths.subList( from, Math.min( from + LOAD_CHUNK, paths.size() ) );
+            tasks.add( () -> {
+                for( Path file : chunk ) {
+                    final Metadata<T> metadata = load( file );
+                    data.merge( metadata.id, metadata, ( a, b ) -> a.modified >= b.modified ? a : b );
+                }
+                Metrics.measureMeter( progress, chunk.size() );
+                final long count = loaded.addAndGet( chunk.size() );
+                log.debug( "loaded {} of {} object(s)", count, paths.size() );
+                return null;
+            } );
+        }
 
-                    Path file = f;
-                    for( long version = persisted.version; version < this.version; version++ ) {
-                        file = migration( file );
+        if( tasks.size() <= 1 || loadThreads <= 1 ) for( Callable<Void> task : tasks ) task.call();
+        else {
+            final ExecutorService pool = Executors.newFixedThreadPool( Math.min( loadThreads, tasks.size() ),
+                new ThreadFactoryBuilder().setNameFormat( "storage-load-%d" ).build() );
+            try {
+                for( Future<Void> future : pool.invokeAll( tasks ) ) {
+                    try {
+                        future.get();
+                    } catch( ExecutionException e ) {
+                        throw e.getCause();
                     }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
 
-                    final Metadata<T> unmarshal = Binder.json.unmarshal( new TypeReference<Metadata<T>>() {}, file );
+        storage.data = data;
+        log.info( "{} object(s) loaded in {} ms.", data.size(), System.currentTimeMillis() - started );
+    }
 
-                    final Path newPath = filenameFor( unmarshal.object, this.version );
+    protected Metadata<T> load( Path f ) {
+        final Persisted persisted = Persisted.valueOf( f );
 
-                    if( !java.nio.file.Files.exists( newPath ) || !java.nio.file.Files.isSameFile( file, newPath ) ) {
-                        Files.move( file, newPath, StandardCopyOption.REPLACE_EXISTING );
-                    }
+        Path file = f;
+        for( long version = persisted.version; version < this.version; version++ ) {
+            file = migration( file );
+        }
+
+        final Metadata<T> unmarshal = Binder.json.unmarshal( new TypeReference<Metadata<T>>() {}, file );
+
+        final Path newPath = filenameFor( unmarshal.object, this.version );
+
+        try {
+            if( !java.nio.file.Files.exists( newPath ) || !java.nio.file.Files.isSameFile( file, newPath ) ) {
+                Files.move( file, newPath, StandardCopyOption.REPLACE_EXISTING );
+            }
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        return unmarshal;
+    }
+
+    /**
+     * A crash during migration may leave two versions of one object: the new version is complete
+     * (it is renamed into place), so older versions and unfinished {@code .tmp} files are dropped.
+     */
+    private List<Path> latestVersions( List<Path> paths ) {
+        final Map<Path, Persisted> latest = new HashMap<>( paths.size() * 2 );
+
+        for( Path file : paths ) {
+            if( file.getFileName().toString().endsWith( TMP ) ) {
+                log.debug( "deleting unfinished {}", file );
+                Files.delete( file );
+                continue;
+            }
+            final Persisted persisted = Persisted.valueOf( file );
+            final Path key = persisted.path.resolve( persisted.id );
+            final Persisted previous = latest.get( key );
+            if( previous == null ) latest.put( key, persisted );
+            else {
+                final Persisted older = previous.version < persisted.version ? previous : persisted;
+                log.debug( "deleting superseded {}", older.file );
+                Files.delete( older.file );
+                if( older == previous ) latest.put( key, persisted );
+            }
+        }
 
-                    return unmarshal;
-                } ) )
-            .sorted( reverseOrder() )
-            .map( x -> __( x.id, x ) )
-            .collect( toConcurrentMap() );
-        log.info( storage.data.size() + " object(s) loaded." );
+        final List<Path> result = new ArrayList<>( latest.size() );
+        for( Persisted persisted : latest.values() ) result.add( persisted.file );
+        return result;
     }
 
     protected Path migration( Path path ) {
@@ -121,8 +219,10 @@ public class FsPersistenceBackend<T> implements PersistenceBackend<T>, Closeable
         return migration
             .map( m -> {
                 Path name = fn.toVersion( m.fromVersion() + 1 );
+                Path tmp = name.resolveSibling( name.getFileName() + TMP );
                 JsonMetadata newV = m.run( oldV );
-                Binder.json.marshal( name, newV.underlying );
+                Binder.json.marshal( tmp, newV.underlying );
+                Files.rename( tmp, name );
                 Files.delete( path );
                 return name;
             } )
@@ -181,22 +281,24 @@ public class FsPersistenceBackend<T> implements PersistenceBackend<T>, Closeable
         public final long version;
         public final Path path;
         public final String id;
+        public final Path file;
 
         private static final Pattern PATTERN_VERSION = Pattern.compile( "(.+)\\.v(\\d+)\\.json" );
 
 
-        Persisted( Path path, String id, long version ) {
+        Persisted( Path path, String id, long version, Path file ) {
             this.path = path;
             this.id = id;
             this.version = version;
+            this.file = file;
         }
 
         public static Persisted valueOf( Path path ) {
             String name = path.getFileName().toString();
             final Matcher matcher = PATTERN_VERSION.matcher( name );
             return matcher.matches()
-                ? new Persisted( path.getParent(), matcher.group( 1 ), Long.parseLong( matcher.group( 2 ) ) )
-                : new Persisted( path.getParent(), name.substring( 0, name.length() - ".json".length() ), 0L );
+                ? new Persisted( path.getParent(), matcher.group( 1 ), Long.parseLong( matcher.group( 2 ) ), path )
+                : new Persisted( path.getParent(), name.substring( 0, name.length() - ".json".length() ), 0L, path );
         }
 
 
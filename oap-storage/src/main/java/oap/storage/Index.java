@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Secondary index of a {@link MemoryStorage}, maps a key computed from the stored object to object ids.
+ * Objects with a null key are not indexed.
+ * <p>
+ * Indexes are maintained by the storage under the per-id lock, the key of every id is remembered,
+ * so objects mutated in place by {@link Storage#update(String, java.util.function.Consumer)} are re-indexed correctly.
+ */
+public abstract class Index<T> {
+    public static final String MODIFIED = "modified";
+
+    public final String name;
+    private final Function<Metadata<T>, ?> key;
+    private final ConcurrentHashMap<String, Object> keys = new ConcurrentHashMap<>();
+
+    protected Index( String name, Function<Metadata<T>, ?> key ) {
+        this.name = name;
+        this.key = key;
+    }
+
+    /**
+     * At most one object per key, storing a second one fails with {@link IllegalArgumentException}.
+     */
+    public static <T> Index<T> unique( String name, Function<T, ?> key ) {
+        return new Unique<>( name, m -> key.apply( m.object ) );
+    }
+
+    public static <T> Index<T> nonUnique( String name, Function<T, ?> key ) {
+        return new NonUnique<>( name, m -> key.apply( m.object ), new ConcurrentHashMap<>() );
+    }
+
+    /**
+     * Non-unique index over comparable keys supporting range selects.
+     */
+    public static <T> Sorted<T> sorted( String name, Function<T, ? extends Comparable<?>> key ) {
+        return new Sorted<>( name, m -> key.apply( m.object ) );
+    }
+
+    /**
+     * Sorted index on {@link Metadata#modified} named {@link #MODIFIED}, used by {@link MemoryStorage#updatedSince(long)}.
+     */
+    public static <T> Sorted<T> modified() {
+        return new Sorted<>( MODIFIED, m -> m.modified );
+    }
+
+    public abstract Set<String> get( Object key );
+
+    boolean unique() {
+        return false;
+    }
+
+    protected abstract boolean link( Object key, String id );
+
+    protected abstract void unlink( Object key, String id );
+
+    protected abstract void clearLinks();
+
+    final Object keyOf( String id ) {
+        return keys.get( id );
+    }
+
+    final void update( String id, Metadata<T> metadata ) {
+        move( id, keys.get( id ), metadata == null ? null : key.apply( metadata ) );
+    }
+
+    final void move( String id, Object from, Object to ) {
+        if( Objects.equals( from, to ) ) return;
+
+        if( to != null ) {
+            if( !link( to, id ) )
+                throw new IllegalArgumentException( "duplicate key " + to + " in unique index " + name );
+            keys.put( id, to );
+        } else keys.remove( id );
+
+        if( from != null ) unlink( from, id );
+    }
+
+    final void clear() {
+        keys.clear();
+        clearLinks();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + name + ")";
+    }
+
+    private static class Unique<T> extends Index<T> {
+        private final ConcurrentHashMap<Object, String> ids = new ConcurrentHashMap<>();
+
+        Unique( String name, Function<Metadata<T>, ?> key ) {
+            super( name, key );
+        }
+
+        @Override
+        public Set<String> get( Object key ) {
+            final String id = ids.get( key );
+            return id == null ? Collections.emptySet() : Collections.singleton( id );
+        }
+
+        @Override
+        boolean unique() {
+            return true;
+        }
+
+        @Override
+        protected boolean link( Object key, String id ) {
+            final String existing = ids.putIfAbsent( key, id );
+            return existing == null || existing.equals( id );
+        }
+
+        @Override
+        protected void unlink( Object key, String id ) {
+            ids.remove( key, id );
+        }
+
+        @Override
+        protected void clearLinks() {
+            ids.clear();
+        }
+    }
+
+    private static class NonUnique<T> extends Index<T> {
+        private final ConcurrentMap<Object, Set<String>> ids;
+
+        NonUnique( String name, Function<Metadata<T>, ?> key, ConcurrentMap<Object, Set<String>> ids ) {
+            super( name, key );
+            this.ids = ids;
+        }
+
+        @Override
+        public Set<String> get( Object key ) {
+            final Set<String> set = ids.get( key );
+            return set == null ? Collections.emptySet() : set;
+        }
+
+        @Override
+        protected boolean link( Object key, String id ) {
+            ids.compute( key, ( k, set ) -> {
+                final Set<String> result = set == null ? ConcurrentHashMap.newKeySet() : set;
+                result.add( id );
+                return result;
+            } );
+            return true;
+        }
+
+        @Override
+        protected void unlink( Object key, String id ) {
+            ids.computeIfPresent( key, ( k, set ) -> {
+                set.remove( id );
+                return set.isEmpty() ? null : set;
+            } );
+        }
+
+        @Override
+        protected void clearLinks() {
+            ids.clear();
+        }
+    }
+
+    /**
+     * Non-unique index keeping its keys ordered, the only kind of index supporting range selects.
+     */
+    public static class Sorted<T> extends NonUnique<T> {
+        private final ConcurrentSkipListMap<Object, Set<String>> ids;
+
+        private Sorted( String name, Function<Metadata<T>, ?> key, ConcurrentSkipListMap<Object, Set<String>> ids ) {
+            super( name, key, ids );
+            this.ids = ids;
+        }
+
+        Sorted( String name, Function<Metadata<T>, ?> key ) {
+            this( name, key, new ConcurrentSkipListMap<>() );
+        }
+
+        /**
+         * @param from inclusive, null for no lower bound
+         * @param to   exclusive, null for no upper bound
+         */
+        public Collection<Set<String>> range( Object from, Object to ) {
+            NavigableMap<Object, Set<String>> map = ids;
+            if( from != null ) map = map.tailMap( from, true );
+            if( to != null ) map = map.headMap( to, false );
+            return map.values();
+        }
+    }
+}
@@ -131,6 +131,7 @@ public class LazyFileStorage<T> extends MemoryStorage<T> {
             .stream()
             .map( x -> __( x.id, x ) )
             .collect( toConcurrentMap() );
+         reindex();
       }
       closed = false;
       log.info( data.size() + " object(s) loaded." );
@@ -145,6 +146,7 @@ public class LazyFileStorage<T> extends MemoryStorage<T> {
       out.close();
       log.debug( "storing {}... done", path );
       data.clear();
+      reindex();
       closed = true;
    }
 
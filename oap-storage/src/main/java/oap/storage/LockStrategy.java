@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.concurrent.StripedLock;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-id mutual exclusion used by {@link Storage#lock(String, Supplier)}.
+ */
+public interface LockStrategy {
+    /**
+     * Legacy behaviour: monitor of the interned id. Every id ends up in the JVM string table.
+     */
+    LockStrategy INTERN = new LockStrategy() {
+        @Override
+        public <R> R lock( String id, Supplier<R> run ) {
+            synchronized( id.intern() ) {
+                return run.get();
+            }
+        }
+
+        @Override
+        public void lock( String id, Runnable run ) {
+            synchronized( id.intern() ) {
+                run.run();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "intern";
+        }
+    };
+
+    static LockStrategy striped() {
+        return striped( StripedLock.DEFAULT_STRIPES );
+    }
+
+    /**
+     * Reentrant locks shared by ids with the same hash stripe.
+     */
+    static LockStrategy striped( int stripes ) {
+        final StripedLock locks = new StripedLock( stripes );
+
+        return new LockStrategy() {
+            @Override
+            public <R> R lock( String id, Supplier<R> run ) {
+                return locks.sync( id, run );
+            }
+
+            @Override
+            public void lock( String id, Runnable run ) {
+                locks.sync( id, run );
+            }
+
+            @Override
+            public String toString() {
+                return "striped(" + locks.stripes() + ")";
+            }
+        };
+    }
+
+    <R> R lock( String id, Supplier<R> run );
+
+    void lock( String id, Runnable run );
+}
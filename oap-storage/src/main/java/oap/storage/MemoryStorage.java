@@ -23,6 +23,7 @@
  */
 package oap.storage;
 
+import oap.json.Binder;
 import oap.util.Maps;
 import oap.util.Optionals;
 import oap.util.Stream;
@@ -33,14 +34,19 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
     protected final Identifier<T> identifier;
+    protected final LockStrategy lockStrategy;
     protected ConcurrentMap<String, Metadata<T>> data = new ConcurrentHashMap<>();
     private List<DataListener<T>> dataListeners = new ArrayList<>();
+    private final List<Index<T>> indexes = new CopyOnWriteArrayList<>();
+    private volatile boolean unique;
+    protected final ChangeLog<T> changeLog = new ChangeLog<>( this, ChangeLog.DEFAULT_CAPACITY );
 
     /**
      * @deprecated use {@link #MemoryStorage(Identifier)} instead.
@@ -51,7 +57,17 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
     }
 
     public MemoryStorage( Identifier<T> identifier ) {
+        this( identifier, LockStrategy.striped() );
+    }
+
+    public MemoryStorage( Identifier<T> identifier, LockStrategy lockStrategy ) {
         this.identifier = identifier;
+        this.lockStrategy = lockStrategy;
+    }
+
+    @Override
+    public LockStrategy lockStrategy() {
+        return lockStrategy;
     }
 
     @Override
@@ -59,30 +75,132 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
         return Stream.of( data.values() ).map( m -> m.object );
     }
 
+    /**
+     * Registers a secondary index and builds it from the objects already stored. Indexes should be
+     * added before the storage is shared between threads.
+     */
+    public MemoryStorage<T> addIndex( Index<T> index ) {
+        if( getIndex( index.name ).isPresent() )
+            throw new IllegalArgumentException( "index " + index.name + " already exists" );
+
+        for( Metadata<T> metadata : data.values() ) index.update( metadata.id, metadata );
+        indexes.add( index );
+        if( index.unique() ) unique = true;
+        return this;
+    }
+
+    public Optional<Index<T>> getIndex( String name ) {
+        for( Index<T> index : indexes ) if( index.name.equals( name ) ) return Optional.of( index );
+        return Optional.empty();
+    }
+
+    public Stream<T> select( String index, Object key ) {
+        return Stream.of( requireIndex( index ).get( key ) )
+            .flatMapOptional( id -> Maps.get( data, id ) )
+            .map( m -> m.object );
+    }
+
+    /**
+     * Range select over a {@link Index.Sorted} index, {@code from} inclusive, {@code to} exclusive, null for unbounded.
+     */
+    public Stream<T> select( String index, Object from, Object to ) {
+        final Index<T> sorted = requireIndex( index );
+        if( !( sorted instanceof Index.Sorted ) )
+            throw new IllegalArgumentException( "index " + index + " is not sorted" );
+        return selectMetadata( ( Index.Sorted<T> ) sorted, from, to ).map( m -> m.object );
+    }
+
+    private Stream<Metadata<T>> selectMetadata( Index.Sorted<T> index, Object from, Object to ) {
+        return Stream.of( index.range( from, to ) )
+            .flatMap( ids -> ids.stream() )
+            .flatMapOptional( id -> Maps.get( data, id ) );
+    }
+
+    private Index<T> requireIndex( String name ) {
+        return getIndex( name ).orElseThrow( () -> new IllegalArgumentException( "unknown index " + name ) );
+    }
+
+    /**
+     * Re-indexes the object of {@code metadata} in all indexes. On unique key conflict the indexes
+     * already moved are restored and {@link IllegalArgumentException} is thrown. Call under the id lock.
+     */
+    private void index( Metadata<T> metadata ) {
+        final Object[] previous = new Object[indexes.size()];
+        int i = 0;
+        try {
+            for( ; i < previous.length; i++ ) {
+                final Index<T> index = indexes.get( i );
+                previous[i] = index.keyOf( metadata.id );
+                index.update( metadata.id, metadata );
+            }
+        } catch( IllegalArgumentException e ) {
+            for( int j = 0; j < i; j++ ) {
+                final Index<T> index = indexes.get( j );
+                index.move( metadata.id, index.keyOf( metadata.id ), previous[j] );
+            }
+            throw e;
+        }
+    }
+
+    private void unindex( String id ) {
+        for( Index<T> index : indexes ) index.update( id, null );
+    }
+
+    /**
+     * Rebuilds all indexes, for subclasses replacing {@link #data}.
+     */
+    protected void reindex() {
+        for( Index<T> index : indexes ) {
+            index.clear();
+            for( Metadata<T> metadata : data.values() ) index.update( metadata.id, metadata );
+        }
+    }
+
     @Override
     public void store( T object ) {
-        String id = identifier.getOrInit( object, this );
-        lock( id, () -> {
-            Metadata<T> metadata = data.get( id );
-            if( metadata != null ) metadata.update( object );
-            else data.put( id, new Metadata<>( id, object ) );
-            fireUpdated( object );
-        } );
+        final String id = identifier.getOrInit( object, this );
+        replace( id, object );
+        changeLog.record( id );
+        fireUpdated( object );
     }
 
     @Override
     public void store( Collection<T> objects ) {
         for( T object : objects ) {
-            String id = identifier.getOrInit( object, this );
-            lock( id, () -> {
-                Metadata<T> metadata = data.get( id );
-                if( metadata != null ) metadata.update( object );
-                else data.put( id, new Metadata<>( id, object ) );
-            } );
+            final String id = identifier.getOrInit( object, this );
+            replace( id, object );
+            changeLog.record( id );
         }
         fireUpdated( objects );
     }
 
+    /**
+     * Replaces the object under the id lock, so it never interleaves with {@link #updateObject}
+     * applying a change to the object being replaced.
+     */
+    protected Metadata<T> replace( String id, T object ) {
+        return lock( id, () -> {
+            Metadata<T> metadata = data.get( id );
+            if( metadata == null ) {
+                metadata = new Metadata<>( id, object );
+                index( metadata );
+                data.put( id, metadata );
+            } else {
+                final T previous = metadata.object;
+                final long modified = metadata.modified;
+                metadata.update( object );
+                try {
+                    index( metadata );
+                } catch( IllegalArgumentException e ) {
+                    metadata.object = previous;
+                    metadata.modified = modified;
+                    throw e;
+                }
+            }
+            return metadata;
+        } );
+    }
+
     @Override
     public Optional<T> update( String id, Consumer<T> update ) {
         return update( id, update, null );
@@ -97,20 +215,48 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
             } );
     }
 
+    /**
+     * The update is applied in place under the id lock, the same lock {@link #replace} and deletes take.
+     * If it violates a unique index the previous state is restored from a copy taken before the update
+     * and {@link IllegalArgumentException} is thrown. The copy is only made when the storage has a unique index.
+     */
     protected Optional<Metadata<T>> updateObject( String id, Consumer<T> update, Supplier<T> init ) {
-        return lock( id, () -> {
+        final Optional<Metadata<T>> result = lock( id, () -> {
             Metadata<T> m = data.get( id );
             if( m == null ) {
                 if( init == null ) return Optional.empty();
-                T object = init.get();
-                m = new Metadata<>( id, object );
-                data.put( m.id, m );
+                m = new Metadata<>( id, init.get() );
+                index( m );
+                data.put( id, m );
             } else {
-                update.accept( m.object );
-                m.update( m.object );
+                final T object = m.object;
+                final T previous = unique ? Binder.json.clone( object ) : null;
+                final long modified = m.modified;
+                update.accept( object );
+                m.update( object );
+                try {
+                    index( m );
+                } catch( IllegalArgumentException e ) {
+                    m.object = previous;
+                    m.modified = modified;
+                    throw e;
+                }
             }
             return Optional.of( m );
         } );
+        if( result.isPresent() ) changeLog.record( id );
+        return result;
+    }
+
+    /**
+     * Puts metadata received from elsewhere (replication) as is, keeping its modification time.
+     */
+    protected void put( Metadata<T> metadata ) {
+        lock( metadata.id, () -> {
+            index( metadata );
+            data.put( metadata.id, metadata );
+        } );
+        changeLog.record( metadata.id );
     }
 
     @Override
@@ -134,8 +280,11 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
 
     @Override
     public void deleteAll() {
+        List<String> ids = new ArrayList<>( data.keySet() );
         List<T> objects = select().toList();
         data.clear();
+        for( Index<T> index : indexes ) index.clear();
+        for( String id : ids ) changeLog.record( id );
         fireDeleted( objects );
     }
 
@@ -144,11 +293,16 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
     }
 
     protected Optional<Metadata<T>> deleteObject( String id ) {
-        return lock( id, () -> {
+        final Optional<Metadata<T>> result = lock( id, () -> {
             Optional<Metadata<T>> metadata = Maps.get( data, id );
-            metadata.ifPresent( m -> data.remove( id ) );
+            metadata.ifPresent( m -> {
+                data.remove( id, m );
+                unindex( id );
+            } );
             return metadata;
         } );
+        if( result.isPresent() ) changeLog.record( id );
+        return result;
     }
 
     @Override
@@ -188,20 +342,33 @@ public class MemoryStorage<T> implements Storage<T>, ReplicationMaster<T> {
 
     @Override
     public List<Metadata<T>> updatedSince( long time ) {
-        return Stream.of( data.values() )
-            .filter( m -> m.modified > time )
-            .toList();
+        return modifiedSince( time ).toList();
     }
 
     @Override
     public List<Metadata<T>> updatedSince( long time, int limit, int offset ) {
-        return Stream.of( data.values() )
-            .filter( m -> m.modified > time )
+        return modifiedSince( time )
             .skip( offset )
             .limit( limit )
             .toList();
     }
 
+    /**
+     * Range lookup ordered by modification time if the storage has {@link Index#modified()}, full scan otherwise.
+     */
+    private Stream<Metadata<T>> modifiedSince( long time ) {
+        return getIndex( Index.MODIFIED )
+            .filter( index -> index instanceof Index.Sorted )
+            .map( index -> selectMetadata( ( Index.Sorted<T> ) index, time + 1, null ).distinct() )
+            .orElseGet( () -> Stream.of( data.values() ) )
+            .filter( m -> m.modified > time );
+    }
+
+    @Override
+    public ChangeLog.Changes<T> changesSince( long sequence, int limit ) {
+        return changeLog.since( sequence, limit );
+    }
+
     @Override
     public List<String> ids() {
         return new ArrayList<>( data.keySet() );
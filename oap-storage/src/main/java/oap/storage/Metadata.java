@@ -37,10 +37,10 @@ import java.io.Serializable;
 @ToString( exclude = "object" )
 public class Metadata<T> implements Comparable<Metadata<T>>, Serializable {
     public String id;
-    public long modified = DateTimeUtils.currentTimeMillis();
+    public volatile long modified = DateTimeUtils.currentTimeMillis();
     @JsonTypeIdResolver( TypeIdFactory.class )
     @JsonTypeInfo( use = JsonTypeInfo.Id.CUSTOM, include = JsonTypeInfo.As.EXTERNAL_PROPERTY, property = "object:type" )
-    public T object;
+    public volatile T object;
 
     public Metadata( String id, T object ) {
         this.id = id;
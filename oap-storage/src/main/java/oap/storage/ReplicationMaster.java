@@ -24,6 +24,7 @@
 
 package oap.storage;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface ReplicationMaster<T> {
@@ -34,4 +35,16 @@ public interface ReplicationMaster<T> {
     }
 
     List<String> ids();
+
+    /**
+     * Masters without a change log answer with a full snapshot of {@link #updatedSince(long)} every time.
+     *
+     * @see ChangeLog#since(long, int)
+     */
+    default ChangeLog.Changes<T> changesSince( long sequence, int limit ) {
+        final List<ChangeLog.Change<T>> changes = new ArrayList<>();
+        for( Metadata<T> metadata : updatedSince( Long.MIN_VALUE ) )
+            changes.add( new ChangeLog.Change<>( 0, metadata.id, metadata ) );
+        return new ChangeLog.Changes<>( changes, 0, 0, true );
+    }
 }
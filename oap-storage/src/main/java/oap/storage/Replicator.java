@@ -27,23 +27,39 @@ package oap.storage;
 import lombok.extern.slf4j.Slf4j;
 import oap.concurrent.scheduler.Scheduled;
 import oap.concurrent.scheduler.Scheduler;
-import oap.util.Lists;
-import oap.util.Optionals;
-import oap.util.Stream;
+import oap.metrics.Metrics;
+import oap.metrics.Name;
+import org.joda.time.DateTimeUtils;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Applies the {@link ChangeLog} of the master to the slave, from the cursor of the previous tick.
+ * <p>
+ * Metrics: {@code storage.replication.lag} - changes the slave was behind at the start of a tick,
+ * {@code storage.replication.delay} - max time in ms between modification on master and replication.
+ */
 @Slf4j
 public class Replicator<T> implements Closeable {
     private final MemoryStorage<T> slave;
     private final ReplicationMaster<T> master;
     private final Scheduled scheduled;
-    protected int batchSize = 10;
+    private final Name lagMetric;
+    private final Name delayMetric;
+    protected int batchSize = 1000;
+    private long cursor;
+    private volatile long lag;
+    private volatile long delay;
 
     public Replicator( MemoryStorage<T> slave, ReplicationMaster<T> master, long interval, long safeModificationTime ) {
         this.slave = slave;
         this.master = master;
+        this.lagMetric = Metrics.name( "storage.replication.lag" ).tag( "master", master.toString() );
+        this.delayMetric = Metrics.name( "storage.replication.delay" ).tag( "master", master.toString() );
         this.scheduled = Scheduler.scheduleWithFixedDelay( getClass(), interval, safeModificationTime, this::replicate );
     }
 
@@ -52,32 +68,78 @@ public class Replicator<T> implements Closeable {
     }
 
     public synchronized void replicate( long last ) {
-        List<Metadata<T>> newUpdates = Lists.empty();
-        for( int b = 0; b < 100000; b++ ) {
-            int offset = b * batchSize;
-            List<Metadata<T>> updates = master.updatedSince( last, batchSize, offset );
-            log.trace( "replicate {} to {} last: {}, size {}, batch {}, offset {}",
-                master, slave, last, updates.size(), batchSize, offset );
-            if( updates.isEmpty() ) break;
-            newUpdates.addAll( updates );
+        final long now = DateTimeUtils.currentTimeMillis();
+        delay = 0;
+
+        ChangeLog.Changes<T> changes = master.changesSince( cursor, batchSize );
+        lag = changes.snapshot ? changes.changes.size() : changes.head - cursor;
+        log.trace( "replicate {} to {} from {}, head {}, snapshot {}",
+            master, slave, cursor, changes.head, changes.snapshot );
+
+        if( changes.snapshot ) {
+            final Set<String> ids = new HashSet<>( changes.changes.size() * 2 );
+            for( int from = 0; from < changes.changes.size(); from += batchSize ) {
+                final List<ChangeLog.Change<T>> batch =
+                    changes.changes.subList( from, Math.min( from + batchSize, changes.changes.size() ) );
+                for( ChangeLog.Change<T> change : batch ) ids.add( change.id );
+                apply( batch, now );
+            }
+
+            final List<T> deleted = new ArrayList<>();
+            for( String id : new ArrayList<>( slave.data.keySet() ) )
+                if( !ids.contains( id ) ) slave.deleteObject( id ).ifPresent( m -> deleted.add( m.object ) );
+            log.trace( "deleted {}", deleted );
+            slave.fireDeleted( deleted );
+            cursor = changes.sequence;
+        } else {
+            while( true ) {
+                apply( changes.changes, now );
+                cursor = changes.sequence;
+                if( changes.changes.size() < batchSize ) break;
+                changes = master.changesSince( cursor, batchSize );
+                if( changes.snapshot ) {
+                    log.debug( "{} fell behind the change log of {}, resynchronizing", slave, master );
+                    cursor = 0;
+                    replicate( last );
+                    return;
+                }
+            }
         }
-        log.trace( "updated objects {}", newUpdates.size() );
 
-        for( Metadata<T> metadata : newUpdates ) {
-            log.trace( "replicate {}", metadata );
-            slave.data.put( metadata.id, metadata );
+        Metrics.measureHistogram( lagMetric, lag );
+        Metrics.measureHistogram( delayMetric, delay );
+    }
+
+    private void apply( List<ChangeLog.Change<T>> changes, long now ) {
+        final List<T> updated = new ArrayList<>();
+        final List<T> deleted = new ArrayList<>();
+
+        for( ChangeLog.Change<T> change : changes ) {
+            log.trace( "replicate {}", change );
+            if( change.deleted() ) slave.deleteObject( change.id ).ifPresent( m -> deleted.add( m.object ) );
+            else {
+                slave.put( change.metadata );
+                updated.add( change.metadata.object );
+                delay = Math.max( delay, now - change.metadata.modified );
+            }
         }
-        slave.fireUpdated( Stream.of( newUpdates ).map( m -> m.object ).toList() );
 
-        List<String> ids = master.ids();
-        log.trace( "master ids {}", ids );
-        List<T> deletedObjects = Stream.of( slave.data.keySet() )
-            .filter( id -> !ids.contains( id ) )
-            .flatMap( id -> Optionals.toStream( slave.deleteObject( id ).map( m -> m.object ) ) )
-            .toList();
-        log.trace( "deleted {}", deletedObjects );
-        slave.fireDeleted( deletedObjects );
+        slave.fireUpdated( updated );
+        slave.fireDeleted( deleted );
+    }
+
+    /**
+     * changes the slave was behind at the start of the last tick
+     */
+    public long lag() {
+        return lag;
+    }
 
+    /**
+     * max time in ms between modification and replication of the objects replicated by the last tick
+     */
+    public long delay() {
+        return delay;
     }
 
     @Override
@@ -24,7 +24,10 @@
 
 package oap.storage;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import oap.concurrent.scheduler.PeriodicScheduled;
@@ -33,30 +36,50 @@ import oap.concurrent.scheduler.Scheduler;
 import oap.io.Files;
 import oap.io.IoStreams;
 import oap.json.Binder;
+import org.joda.time.DateTimeUtils;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.io.IoStreams.DEFAULT_BUFFER;
-import static oap.util.Maps.Collectors.toConcurrentMap;
-import static oap.util.Pair.__;
 
 /**
  * Created by igor.petrenko on 23.09.2016.
+ * <p>
+ * By default every fsync rewrites the whole file. With {@code compaction > 0} fsync appends only the
+ * objects changed since the previous one to {@code <path>.delta} as json lines (a deleted object is a
+ * line without object) and the file is rewritten at most once per {@code compaction} ms. On load the
+ * delta is replayed over the file, a record only replaces an older modification, so a delta left
+ * over by a crash during compaction does not roll objects back.
  */
 @Slf4j
 public class SingleFileStorage<T> extends MemoryStorage<T> {
     private final static byte[] BEGIN_ARRAY = "[".getBytes();
     private final static byte[] END_ARRAY = "]".getBytes();
     private final static byte[] ITEM_SEP = ",".getBytes();
+    private final static byte[] LINE_SEP = "\n".getBytes();
     private final PeriodicScheduled scheduled;
+    private final ObjectReader reader = Binder.json.readerFor( new TypeReference<Metadata<T>>() {} );
+    private final Path delta;
+    private final long compaction;
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
     private Path path;
     private AtomicBoolean modified = new AtomicBoolean( false );
+    private long compacted = DateTimeUtils.currentTimeMillis();
+    private long deltaSize;
 
 
     /**
@@ -68,52 +91,131 @@ public class SingleFileStorage<T> extends MemoryStorage<T> {
     }
 
     public SingleFileStorage( Path path, Identifier<T> identifier, long fsync ) {
+        this( path, identifier, fsync, 0 );
+    }
+
+    /**
+     * @param compaction ms between full rewrites of the file, 0 to rewrite it on every fsync
+     */
+    public SingleFileStorage( Path path, Identifier<T> identifier, long fsync, long compaction ) {
         super( identifier );
         this.path = path;
+        this.delta = path.resolveSibling( path.getFileName() + ".delta" );
+        this.compaction = compaction;
 
         load();
-        addDataListener( new SFSDataListener<>() );
+        addDataListener( new SFSDataListener() );
         this.scheduled = Scheduler.scheduleWithFixedDelay( getClass(), fsync, this::fsync );
     }
 
+    @SneakyThrows
     private void load() {
         Files.ensureFile( path );
 
+        final ConcurrentHashMap<String, Metadata<T>> data = new ConcurrentHashMap<>();
         if( java.nio.file.Files.exists( path ) ) {
-            data = Binder.json.unmarshal( new TypeReference<List<Metadata<T>>>() {
-            }, path )
-                .stream()
-                .map( x -> __( x.id, x ) )
-                .collect( toConcurrentMap() );
+            try( InputStream in = IoStreams.in( path );
+                 JsonParser parser = reader.getFactory().createParser( in ) ) {
+                if( parser.nextToken() == JsonToken.START_ARRAY )
+                    while( parser.nextToken() == JsonToken.START_OBJECT ) {
+                        final Metadata<T> metadata = reader.readValue( parser );
+                        data.put( metadata.id, metadata );
+                    }
+            }
         }
+        if( java.nio.file.Files.exists( delta ) ) replay( data );
+
+        this.data = data;
         log.info( data.size() + " object(s) loaded." );
     }
 
+    @SneakyThrows
+    private void replay( Map<String, Metadata<T>> data ) {
+        long records = 0;
+        try( BufferedReader lines = new BufferedReader( new InputStreamReader( IoStreams.in( delta, IoStreams.Encoding.PLAIN ), UTF_8 ) ) ) {
+            String line;
+            while( ( line = lines.readLine() ) != null ) {
+                final Metadata<T> metadata;
+                try {
+                    metadata = reader.readValue( line );
+                } catch( Exception e ) {
+                    log.warn( "{}: skipping torn record {}", delta, line );
+                    continue;
+                }
+                final Metadata<T> existing = data.get( metadata.id );
+                if( existing != null && existing.modified > metadata.modified ) continue;
+
+                if( metadata.object == null ) data.remove( metadata.id );
+                else data.put( metadata.id, metadata );
+                records++;
+            }
+        }
+        deltaSize = java.nio.file.Files.size( delta );
+        log.debug( "{} record(s) replayed from {}", records, delta );
+    }
+
     @SneakyThrows
     private synchronized void fsync( long last ) {
         log.trace( "fsync: last: {}, storage size: {}", last, data.size() );
 
-        if( modified.getAndSet( false ) ) {
-            log.debug( "fsync storing {}...", path );
+        if( compaction > 0 ) {
+            if( !changed.isEmpty() ) append();
+            if( deltaSize > 0 && DateTimeUtils.currentTimeMillis() - compacted >= compaction ) compact();
+        } else if( modified.getAndSet( false ) ) write();
+    }
 
-            OutputStream out = IoStreams.out( path, IoStreams.Encoding.from( path ), DEFAULT_BUFFER, false, true );
-            out.write( BEGIN_ARRAY );
+    @SneakyThrows
+    private void append() {
+        log.trace( "fsync appending {} change(s) to {}...", changed.size(), delta );
 
-            Iterator<Metadata<T>> it = data.values().iterator();
+        try( FileOutputStream fos = new FileOutputStream( delta.toFile(), true );
+             OutputStream out = new BufferedOutputStream( fos, DEFAULT_BUFFER ) ) {
+            final Iterator<String> it = changed.iterator();
             while( it.hasNext() ) {
-                Metadata<T> metadata = it.next();
-                lock( metadata.id, () -> {
-                    Binder.json.marshal( out, metadata );
-                } );
-                if( it.hasNext() ) {
-                    out.write( ITEM_SEP );
-                }
+                final String id = it.next();
+                it.remove();
+
+                final Metadata<T> metadata = data.get( id );
+                final byte[] record = Binder.json.marshal( metadata != null ? metadata : new Metadata<T>( id, null ) )
+                    .getBytes( UTF_8 );
+                out.write( record );
+                out.write( LINE_SEP );
+                deltaSize += record.length + LINE_SEP.length;
             }
-            out.write( END_ARRAY );
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
 
-            out.close();
-            log.debug( "fsync storing {}... done", path );
+    private void compact() {
+        modified.set( false );
+        write();
+        Files.delete( delta );
+        deltaSize = 0;
+        compacted = DateTimeUtils.currentTimeMillis();
+    }
+
+    @SneakyThrows
+    private void write() {
+        log.debug( "fsync storing {}...", path );
+
+        OutputStream out = IoStreams.out( path, IoStreams.Encoding.from( path ), DEFAULT_BUFFER, false, true );
+        out.write( BEGIN_ARRAY );
+
+        Iterator<Metadata<T>> it = data.values().iterator();
+        while( it.hasNext() ) {
+            Metadata<T> metadata = it.next();
+            lock( metadata.id, () -> {
+                Binder.json.marshal( out, metadata );
+            } );
+            if( it.hasNext() ) {
+                out.write( ITEM_SEP );
+            }
         }
+        out.write( END_ARRAY );
+
+        out.close();
+        log.debug( "fsync storing {}... done", path );
     }
 
     @Override
@@ -122,25 +224,30 @@ public class SingleFileStorage<T> extends MemoryStorage<T> {
         fsync( scheduled.lastExecuted() );
     }
 
-    private class SFSDataListener<T> implements DataListener<T> {
+    private void changed( T object ) {
+        if( compaction > 0 ) changed.add( identifier.get( object ) );
+        else modified.set( true );
+    }
+
+    private class SFSDataListener implements DataListener<T> {
         @Override
         public void updated( T object ) {
-            modified.set( true );
+            changed( object );
         }
 
         @Override
         public void updated( Collection<T> objects ) {
-            modified.set( true );
+            for( T object : objects ) changed( object );
         }
 
         @Override
         public void deleted( T object ) {
-            modified.set( true );
+            changed( object );
         }
 
         @Override
         public void deleted( Collection<T> objects ) {
-            modified.set( true );
+            for( T object : objects ) changed( object );
         }
     }
 }
@@ -34,16 +34,16 @@ import java.util.function.Supplier;
 public interface Storage<T> extends Closeable {
     Stream<T> select();
 
+    default LockStrategy lockStrategy() {
+        return LockStrategy.INTERN;
+    }
+
     default <R> R lock( String id, Supplier<R> run ) {
-        synchronized( id.intern() ) {
-            return run.get();
-        }
+        return lockStrategy().lock( id, run );
     }
 
     default void lock( String id, Runnable run ) {
-        synchronized( id.intern() ) {
-            run.run();
-        }
+        lockStrategy().lock( id, run );
     }
 
     void store( T object );
@@ -0,0 +1,371 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import oap.concurrent.Executors;
+import oap.concurrent.scheduler.PeriodicScheduled;
+import oap.concurrent.scheduler.Scheduled;
+import oap.concurrent.scheduler.Scheduler;
+import oap.io.Files;
+import oap.json.Binder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Append-only persistence: every change is appended to the current log segment as a record
+ * {@code [int length][int crc32][byte type][payload]}, where payload is the json {@link Metadata}
+ * of a stored object or the id of a deleted one. Records carry the state of the object at the time
+ * they are appended, so replaying them in order is idempotent.
+ * <p>
+ * Records are serialized on the calling thread under the id lock of the storage, only the buffer append
+ * is serialized between all threads. Appends are made durable together once per {@code fsync} period
+ * (group commit). When the log since the last snapshot grows over {@code compactionSize}, the storage is
+ * written into {@code snapshot-<segment>.log} on a separate compaction thread and the segments it covers
+ * are deleted. Recovery reads the latest snapshot and replays the remaining segments sequentially, a torn
+ * record at the end of the last segment is truncated, snapshots left unfinished ({@code *.tmp}) are deleted.
+ * <p>
+ * Migrations are not supported.
+ */
+@Slf4j
+public class WalPersistenceBackend<T> implements PersistenceBackend<T>, Storage.DataListener<T> {
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_COMPACTION_SIZE = 256 * 1024 * 1024;
+
+    private static final byte STORE = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER = 4 + 4 + 1;
+    private static final int BUFFER = 64 * 1024;
+    private static final Pattern SEGMENT = Pattern.compile( "wal-(\\d+)\\.log" );
+    private static final Pattern SNAPSHOT = Pattern.compile( "snapshot-(\\d+)\\.log" );
+
+    protected final Path path;
+    protected final long segmentSize;
+    protected final long compactionSize;
+    protected final MemoryStorage<T> storage;
+    private final TypeReference<Metadata<T>> type = new TypeReference<Metadata<T>>() {};
+    private final Object compaction = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactor = Executors.newFixedThreadPool( 1,
+        new ThreadFactoryBuilder().setNameFormat( "wal-compaction-%d" ).setDaemon( true ).build() );
+    private PeriodicScheduled scheduled;
+    private long segment;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long segmentPosition;
+    private long logSize;
+    private boolean dirty;
+
+    public WalPersistenceBackend( Path path, long fsync, MemoryStorage<T> storage ) {
+        this( path, fsync, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_SIZE, storage );
+    }
+
+    public WalPersistenceBackend( Path path, long fsync, long segmentSize, long compactionSize, MemoryStorage<T> storage ) {
+        this.path = path;
+        this.segmentSize = segmentSize;
+        this.compactionSize = compactionSize;
+        this.storage = storage;
+        this.load();
+        this.scheduled = Scheduler.scheduleWithFixedDelay( getClass(), fsync, this::fsync );
+        this.storage.addDataListener( this );
+    }
+
+    private static String segmentName( long segment ) {
+        return String.format( "wal-%020d.log", segment );
+    }
+
+    private static String snapshotName( long segment ) {
+        return String.format( "snapshot-%020d.log", segment );
+    }
+
+    private static long sequence( Path file, Pattern pattern ) {
+        final Matcher matcher = pattern.matcher( file.getFileName().toString() );
+        return matcher.matches() ? Long.parseLong( matcher.group( 1 ) ) : -1;
+    }
+
+    private List<Long> sequences( Pattern pattern ) {
+        final List<Long> result = new ArrayList<>();
+        for( Path file : Files.wildcard( path, "*.log" ) ) {
+            final long sequence = sequence( file, pattern );
+            if( sequence >= 0 ) result.add( sequence );
+        }
+        result.sort( Long::compareTo );
+        return result;
+    }
+
+    @SneakyThrows
+    protected void load() {
+        Files.ensureDirectory( path );
+        for( Path tmp : Files.wildcard( path, "*.tmp" ) ) {
+            log.warn( "{}: deleting unfinished snapshot {}", path, tmp.getFileName() );
+            Files.delete( tmp );
+        }
+
+        final List<Long> snapshots = sequences( SNAPSHOT );
+        final long snapshot = snapshots.isEmpty() ? 0 : snapshots.get( snapshots.size() - 1 );
+        final ConcurrentHashMap<String, Metadata<T>> data = new ConcurrentHashMap<>();
+
+        if( !snapshots.isEmpty() ) replay( path.resolve( snapshotName( snapshot ) ), data, false );
+
+        final List<Long> segments = sequences( SEGMENT );
+        long next = snapshot;
+        for( int i = 0; i < segments.size(); i++ ) {
+            final long s = segments.get( i );
+            final Path file = path.resolve( segmentName( s ) );
+            if( s < snapshot ) {
+                Files.delete( file );
+                continue;
+            }
+            replay( file, data, i == segments.size() - 1 );
+            logSize += java.nio.file.Files.size( file );
+            next = s + 1;
+        }
+
+        storage.data = data;
+        log.info( "{}: {} object(s) loaded from snapshot {} and {} byte(s) of log", path, data.size(), snapshot, logSize );
+
+        open( next );
+    }
+
+    @SneakyThrows
+    private void replay( Path file, Map<String, Metadata<T>> data, boolean last ) {
+        final long size = java.nio.file.Files.size( file );
+        final CRC32 crc = new CRC32();
+        long position = 0;
+
+        try( DataInputStream in = new DataInputStream( new BufferedInputStream( java.nio.file.Files.newInputStream( file ), BUFFER ) ) ) {
+            while( position < size ) {
+                if( size - position < HEADER ) break;
+
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                final byte type = in.readByte();
+                if( length < 0 || position + HEADER + length > size ) break;
+
+                final byte[] payload = new byte[length];
+                in.readFully( payload );
+                crc.reset();
+                crc.update( type );
+                crc.update( payload );
+                if( ( int ) crc.getValue() != checksum ) break;
+
+                if( type == STORE ) {
+                    final Metadata<T> metadata = Binder.json.unmarshal( this.type, new String( payload, UTF_8 ) );
+                    data.put( metadata.id, metadata );
+                } else data.remove( new String( payload, UTF_8 ) );
+
+                position += HEADER + length;
+            }
+        } catch( EOFException e ) {
+            log.trace( "{}: unexpected end of file at {}", file, position );
+        }
+
+        if( position < size ) {
+            if( !last ) throw new IllegalStateException( "corrupted record in " + file + " at " + position );
+
+            log.warn( "{}: truncating torn record at {}, {} byte(s) dropped", file, position, size - position );
+            try( FileChannel channel = FileChannel.open( file, WRITE ) ) {
+                channel.truncate( position );
+            }
+        }
+    }
+
+    @SneakyThrows
+    private void open( long segment ) {
+        this.segment = segment;
+        this.channel = FileChannel.open( path.resolve( segmentName( segment ) ), CREATE_NEW, WRITE );
+        this.out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER ) );
+        this.segmentPosition = 0;
+    }
+
+    @SneakyThrows
+    private void flush() {
+        if( !dirty ) return;
+        out.flush();
+        channel.force( false );
+        dirty = false;
+    }
+
+    @SneakyThrows
+    private void roll() {
+        flush();
+        out.close();
+        open( segment + 1 );
+    }
+
+    /**
+     * Appends the current state of {@code id}: the stored object or a delete if it is absent. The id lock
+     * keeps the records of one id in the order of its changes.
+     */
+    protected void append( String id ) {
+        storage.lock( id, () -> {
+            final Metadata<T> metadata = storage.data.get( id );
+            final byte type = metadata != null ? STORE : DELETE;
+            final byte[] payload = ( metadata != null ? Binder.json.marshal( metadata ) : id ).getBytes( UTF_8 );
+
+            final CRC32 crc = new CRC32();
+            crc.update( type );
+            crc.update( payload );
+
+            write( type, payload, ( int ) crc.getValue() );
+        } );
+    }
+
+    @SneakyThrows
+    private synchronized void write( byte type, byte[] payload, int checksum ) {
+        out.writeInt( payload.length );
+        out.writeInt( checksum );
+        out.writeByte( type );
+        out.write( payload );
+
+        dirty = true;
+        segmentPosition += HEADER + payload.length;
+        logSize += HEADER + payload.length;
+        if( segmentPosition >= segmentSize ) roll();
+    }
+
+    protected void fsync( long last ) {
+        final boolean compact;
+        synchronized( this ) {
+            flush();
+            compact = logSize >= compactionSize;
+        }
+        if( compact && compacting.compareAndSet( false, true ) ) compactor.execute( () -> {
+            try {
+                compact();
+            } catch( Exception e ) {
+                log.error( path + ": compaction failed", e );
+            } finally {
+                compacting.set( false );
+            }
+        } );
+    }
+
+    /**
+     * Writes all objects into a snapshot and deletes the log segments it covers. Appends continue
+     * meanwhile into a new segment, which is replayed over the snapshot on recovery.
+     */
+    @SneakyThrows
+    public void compact() {
+        synchronized( compaction ) {
+            final long cut;
+            synchronized( this ) {
+                roll();
+                cut = segment;
+                logSize = 0;
+            }
+
+            final Path snapshot = path.resolve( snapshotName( cut ) );
+            final Path tmp = path.resolve( snapshotName( cut ) + ".tmp" );
+            final CRC32 crc = new CRC32();
+            long count = 0;
+
+            try( FileChannel channel = FileChannel.open( tmp, CREATE_NEW, WRITE );
+                 DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER ) ) ) {
+                for( Metadata<T> metadata : storage.data.values() ) {
+                    final byte[] payload = Binder.json.marshal( metadata ).getBytes( UTF_8 );
+                    crc.reset();
+                    crc.update( STORE );
+                    crc.update( payload );
+                    out.writeInt( payload.length );
+                    out.writeInt( ( int ) crc.getValue() );
+                    out.writeByte( STORE );
+                    out.write( payload );
+                    count++;
+                }
+                out.flush();
+                channel.force( true );
+            }
+            Files.rename( tmp, snapshot );
+
+            for( long s : sequences( SEGMENT ) ) if( s < cut ) Files.delete( path.resolve( segmentName( s ) ) );
+            for( long s : sequences( SNAPSHOT ) ) if( s < cut ) Files.delete( path.resolve( snapshotName( s ) ) );
+
+            log.debug( "{}: {} object(s) compacted into {}", path, count, snapshot.getFileName() );
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void close() {
+        Scheduled.cancel( scheduled );
+        compactor.shutdown();
+        compactor.awaitTermination( Long.MAX_VALUE, MILLISECONDS );
+        synchronized( this ) {
+            flush();
+            out.close();
+        }
+    }
+
+    @Override
+    public void updated( T object ) {
+        append( storage.identifier.get( object ) );
+    }
+
+    @Override
+    public void updated( Collection<T> objects ) {
+        for( T object : objects ) updated( object );
+    }
+
+    @Override
+    public void deleted( T object ) {
+        append( storage.identifier.get( object ) );
+    }
+
+    @Override
+    public void deleted( Collection<T> objects ) {
+        for( T object : objects ) deleted( object );
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + ":" + path;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangeLogTest {
+    @Test
+    public void latestChangePerId() {
+        final MemoryStorage<Bean> storage = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+        final ChangeLog<Bean> changeLog = new ChangeLog<>( storage, 10 );
+
+        storage.store( new Bean( "1" ) );
+        final ChangeLog.Changes<Bean> snapshot = changeLog.since( 0, 100 );
+        assertThat( snapshot.snapshot ).isTrue();
+        assertThat( snapshot.changes ).extracting( c -> c.id ).containsExactly( "1" );
+
+        storage.store( new Bean( "2" ) );
+        changeLog.record( "2" );
+        storage.store( new Bean( "1", "b" ) );
+        changeLog.record( "1" );
+        storage.store( new Bean( "2", "c" ) );
+        changeLog.record( "2" );
+        storage.delete( "1" );
+        changeLog.record( "1" );
+
+        final ChangeLog.Changes<Bean> changes = changeLog.since( snapshot.sequence, 100 );
+        assertThat( changes.snapshot ).isFalse();
+        assertThat( changes.changes ).extracting( c -> c.id ).containsExactly( "2", "1" );
+        assertThat( changes.changes.get( 0 ).metadata.object ).isEqualTo( new Bean( "2", "c" ) );
+        assertThat( changes.changes.get( 1 ).deleted() ).isTrue();
+        assertThat( changes.sequence ).isEqualTo( changes.head );
+
+        final ChangeLog.Changes<Bean> limited = changeLog.since( snapshot.sequence, 1 );
+        assertThat( limited.changes ).extracting( c -> c.id ).containsExactly( "2" );
+        assertThat( changeLog.since( limited.sequence, 1 ).changes ).extracting( c -> c.id ).containsExactly( "1" );
+    }
+
+    @Test
+    public void snapshotWhenBehind() {
+        final MemoryStorage<Bean> storage = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+        final ChangeLog<Bean> changeLog = new ChangeLog<>( storage, 2 );
+        final long cursor = changeLog.since( 0, 100 ).sequence;
+
+        for( int i = 0; i < 5; i++ ) {
+            storage.store( new Bean( "b" + i ) );
+            changeLog.record( "b" + i );
+        }
+
+        final ChangeLog.Changes<Bean> changes = changeLog.since( cursor, 100 );
+        assertThat( changes.snapshot ).isTrue();
+        assertThat( changes.changes ).hasSize( 5 );
+        assertThat( changeLog.since( 1000, 100 ).snapshot ).isTrue();
+    }
+
+    @Test
+    public void concurrentRecord() throws Exception {
+        final MemoryStorage<Bean> storage = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+        final ChangeLog<Bean> changeLog = new ChangeLog<>( storage, ChangeLog.DEFAULT_CAPACITY );
+        final long start = changeLog.since( 0, 100 ).sequence;
+
+        final ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        final Set<String> seen = new HashSet<>();
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for( int t = 0; t < 8; t++ ) {
+                final int thread = t;
+                futures.add( pool.submit( () -> {
+                    for( int i = 0; i < 1000; i++ ) {
+                        final String id = thread + "-" + i;
+                        storage.store( new Bean( id ) );
+                        changeLog.record( id );
+                    }
+                } ) );
+            }
+
+            long cursor = start;
+            while( !futures.stream().allMatch( Future::isDone ) ) {
+                final ChangeLog.Changes<Bean> changes = changeLog.since( cursor, 100 );
+                assertThat( changes.snapshot ).isFalse();
+                for( ChangeLog.Change<Bean> change : changes.changes ) seen.add( change.id );
+                cursor = changes.sequence;
+            }
+            for( Future<?> future : futures ) future.get();
+
+            ChangeLog.Changes<Bean> changes;
+            do {
+                changes = changeLog.since( cursor, 100 );
+                for( ChangeLog.Change<Bean> change : changes.changes ) seen.add( change.id );
+                cursor = changes.sequence;
+            } while( !changes.changes.isEmpty() );
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat( seen ).hasSize( 8 * 1000 );
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.testng.AbstractPerformance;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static oap.testng.Env.tmpPath;
+
+@Test( enabled = false )
+public class ChunkedStoragePerformance extends AbstractPerformance {
+    private static final int SAMPLES = 2000;
+    private static final int EXPERIMENTS = 5;
+    private static final int CHUNKS = 16;
+
+    @Test
+    public void testMerge() {
+        final List<String> batch = new ArrayList<>();
+        for( int i = 0; i < 100; i++ ) batch.add( "r" + i );
+
+        for( int cacheSize : new int[] { 0, ChunkedStorage.DEFAULT_CACHE_SIZE } ) {
+            final Path location = tmpPath( "chunks-" + cacheSize );
+            final ChunkedStorage<String> storage = new ChunkedStorage<>( s -> s, location, cacheSize );
+
+            benchmark( "chunked.mergeAll-cache-" + cacheSize, SAMPLES, EXPERIMENTS, ( i ) -> {
+                storage.mergeAll( batch, i % CHUNKS, ( a, b ) -> a );
+            }, x -> {}, x -> storage.flush() );
+
+            benchmark( "chunked.stream-cache-" + cacheSize, 100, EXPERIMENTS, ( i ) -> {
+                storage.stream().count();
+            } );
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package oap.storage;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import oap.io.Files;
 import oap.json.Binder;
 import oap.testng.Env;
@@ -7,10 +8,17 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.Arrays.asList;
 import static oap.testng.Asserts.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -53,4 +61,83 @@ public class ChunkedStorageTest {
       } );
    }
 
-}
\ No newline at end of file
+   @Test
+   public void testEviction() {
+      Path location = Env.tmpRoot.resolve( "audience-chunks" );
+      ChunkedStorage<String> storage = new ChunkedStorage<>( s -> s.substring( 0, 1 ), location, 2 );
+
+      for( int i = 0; i < 5; i++ ) storage.mergeAll( asList( "a", "b" ), i, ( a, b ) -> a + b );
+
+      assertFile( location.resolve( "chunk0.gz" ) ).exists();
+      assertFile( location.resolve( "chunk2.gz" ) ).exists();
+      assertFile( location.resolve( "chunk3.gz" ) ).doesNotExist();
+      assertThat( storage.stream().toList() ).hasSize( 10 );
+
+      for( int i = 0; i < 5; i++ ) storage.mergeAll( asList( "a1", "c" ), i, ( a, b ) -> a + b );
+
+      assertThat( storage.stream().toList() ).hasSize( 15 ).containsOnly( "aa1", "b", "c" );
+
+      storage.close();
+      assertFile( location.resolve( "chunk4.gz" ) ).exists();
+      assertThat( new ChunkedStorage<String>( s -> s, location ).stream().toList() )
+         .hasSize( 15 ).containsOnly( "aa1", "b", "c" );
+   }
+
+   @Test
+   public void testWriteThrough() {
+      Path location = Env.tmpRoot.resolve( "audience-chunks" );
+      ChunkedStorage<String> storage = new ChunkedStorage<>( s -> s.substring( 0, 1 ), location, 0 );
+
+      storage.mergeAll( asList( "a", "b" ), 1, ( a, b ) -> a + b );
+      storage.mergeAll( asList( "a1" ), 1, ( a, b ) -> a + b );
+
+      assertFile( location.resolve( "chunk1.gz" ) ).exists();
+      assertThat( new ChunkedStorage<String>( s -> s, location ).stream().toList() ).containsOnly( "aa1", "b" );
+   }
+
+   @Test
+   public void mergesLockTheirChunk() throws Exception {
+      Path location = Env.tmpRoot.resolve( "audience-chunks" );
+      ChunkedStorage<String> storage = new ChunkedStorage<>( s -> s.substring( 0, 1 ), location, 0 );
+      storage.mergeAll( asList( "a" ), 1, ( a, b ) -> a + b );
+
+      CountDownLatch merging = new CountDownLatch( 1 );
+      CountDownLatch proceed = new CountDownLatch( 1 );
+      ExecutorService pool = Executors.newFixedThreadPool( 2 );
+      try {
+         Future<?> slow = pool.submit( () -> storage.mergeAll( asList( "a1" ), 1, ( a, b ) -> {
+            merging.countDown();
+            Uninterruptibles.awaitUninterruptibly( proceed );
+            return a + b;
+         } ) );
+         merging.await();
+
+         pool.submit( () -> {
+            for( int i = 2; i < 6; i++ ) storage.mergeAll( asList( "b" ), i, ( a, b ) -> a + b );
+         } ).get( 10, TimeUnit.SECONDS );
+
+         proceed.countDown();
+         slow.get();
+      } finally {
+         pool.shutdown();
+      }
+
+      assertThat( new ChunkedStorage<String>( s -> s, location ).stream().toList() )
+         .containsOnly( "aa1", "b" ).hasSize( 5 );
+   }
+
+   @Test
+   public void readAheadStops() {
+      Path location = Env.tmpRoot.resolve( "audience-chunks" );
+      ChunkedStorage<String> storage = new ChunkedStorage<>( s -> s, location );
+      for( int i = 0; i < 5; i++ ) storage.mergeAll( asList( "a" + i ), i, ( a, b ) -> a + b );
+
+      assertThat( storage.stream().toList() ).containsOnly( "a0", "a1", "a2", "a3", "a4" );
+      try( oap.util.Stream<String> stream = storage.stream() ) {
+         assertThat( stream.iterator().next() ).startsWith( "a" );
+      }
+
+      assertEventually( 50, 100, () -> assertThat( Thread.getAllStackTraces().keySet().stream()
+         .anyMatch( t -> t.getName().startsWith( "chunked-storage-read" ) ) ).isFalse() );
+   }
+}
@@ -86,5 +86,28 @@ public class FileStorageMigrationTest extends AbstractTest {
 
       assertThat( data.resolve( "1.v10.json" ).toFile() ).exists();
    }
-}
 
+   @Test
+   public void testInterruptedMigration() {
+      Path data = Env.tmpPath( "data" );
+      try( FileStorage<Bean> storage1 = new FileStorage<>( data, b -> b.id, Long.MAX_VALUE ) ) {
+         storage1.store( new Bean( "1" ) );
+         storage1.store( new Bean( "2" ) );
+      }
+
+      oap.io.Files.writeString( data.resolve( "1.v1.json" ),
+         oap.io.Files.readString( data.resolve( "1.json" ) ).replace( "\"1\"", "\"11\"" ) );
+      oap.io.Files.writeString( data.resolve( "2.v1.json.tmp" ), "{\"id\":" );
+
+      try( FileStorage<Bean> storage2 = new FileStorage<>( data, b -> b.id, Long.MAX_VALUE, 1, Lists.of(
+         BeanMigration.class.getName()
+      ) ) ) {
+         assertThat( storage2.select() ).containsOnly( new Bean( "11" ), new Bean( "21" ) );
+      }
+
+      assertThat( data.resolve( "1.json" ) ).doesNotExist();
+      assertThat( data.resolve( "2.v1.json.tmp" ) ).doesNotExist();
+      assertThat( data.resolve( "11.v1.json" ) ).exists();
+      assertThat( data.resolve( "21.v1.json" ) ).exists();
+   }
+}
@@ -155,4 +155,17 @@ public class FileStorageTest extends AbstractTest {
         }
     }
 
+    @Test
+    public void parallelLoad() {
+        final Path data = tmpPath( "data" );
+        try( FileStorage<Bean> storage = new FileStorage<>( data, ( p, o ) -> p.resolve( o.s ), b -> b.id, 50 ) ) {
+            for( int i = 0; i < 5000; i++ ) storage.store( new Bean( "b" + i, "s" + ( i % 10 ) ) );
+        }
+
+        try( FileStorage<Bean> storage = new FileStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build(),
+            s -> new FsPersistenceBackend<>( data, ( p, o ) -> p.resolve( o.s ), 50, 0, emptyList(), 4, s ) ) ) {
+            assertThat( storage.size() ).isEqualTo( 5000 );
+            assertThat( storage.get( "b4321" ) ).contains( new Bean( "b4321", "s1" ) );
+        }
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.json.Binder;
+import oap.json.TypeIdFactory;
+import oap.testng.AbstractPerformance;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static oap.testng.Env.tmpPath;
+
+@Test( enabled = false )
+public class FsPersistenceBackendPerformance extends AbstractPerformance {
+    private static final int OBJECTS = 100000;
+    private static final int EXPERIMENTS = 5;
+
+    @Test
+    public void testLoad() {
+        TypeIdFactory.register( Bean.class, Bean.class.getName() );
+
+        final Path data = tmpPath( "data" );
+        for( int i = 0; i < OBJECTS; i++ ) {
+            final Bean bean = new Bean( "b" + i, "s" + ( i % 100 ) );
+            Binder.json.marshal( data.resolve( bean.s ).resolve( bean.id + ".json" ), new Metadata<>( bean.id, bean ) );
+        }
+
+        for( int threads : new int[] { 1, Runtime.getRuntime().availableProcessors() } ) {
+            final List<FsPersistenceBackend<Bean>> loaded = new ArrayList<>();
+            benchmark( "storage.load-" + threads + "-threads", 1, EXPERIMENTS, ( i ) -> {
+                loaded.add( new FsPersistenceBackend<>( data, ( p, b ) -> p.resolve( b.s ), Long.MAX_VALUE, 0, emptyList(),
+                    threads, new MemoryStorage<Bean>( b -> b.id ) ) );
+            }, x -> {}, x -> loaded.remove( 0 ).close() );
+        }
+    }
+}
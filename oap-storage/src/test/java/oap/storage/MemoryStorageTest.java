@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MemoryStorageTest {
+    @AfterMethod
+    public void afterMethod() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @DataProvider
+    public Object[][] strategies() {
+        return new Object[][] { { LockStrategy.INTERN }, { LockStrategy.striped() }, { LockStrategy.striped( 1 ) } };
+    }
+
+    @Test( dataProvider = "strategies" )
+    public void concurrentUpdate( LockStrategy lockStrategy ) throws Exception {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build(), lockStrategy );
+        final ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for( int t = 0; t < 8; t++ )
+                futures.add( pool.submit( () -> {
+                    for( int i = 0; i < 1000; i++ ) {
+                        final String id = "c" + ( i % 16 );
+                        storage.update( id, c -> c.value++, () -> new Counter( id, 1 ) );
+                        storage.store( new Counter( "s" + ( i % 16 ), i ) );
+                    }
+                } ) );
+            for( Future<?> future : futures ) future.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat( storage.size() ).isEqualTo( 32 );
+        assertThat( storage.select().filter( c -> c.id.startsWith( "c" ) ).mapToInt( c -> c.value ).sum() )
+            .isEqualTo( 8 * 1000 );
+    }
+
+    @Test
+    public void storeWaitsForUpdate() throws Exception {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() );
+        storage.store( new Counter( "1", 1 ) );
+
+        final CountDownLatch updating = new CountDownLatch( 1 );
+        final CountDownLatch proceed = new CountDownLatch( 1 );
+        final AtomicInteger applied = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool( 2 );
+        try {
+            final Future<?> update = pool.submit( () -> storage.update( "1", c -> {
+                applied.incrementAndGet();
+                updating.countDown();
+                Uninterruptibles.awaitUninterruptibly( proceed );
+                c.value++;
+            } ) );
+            updating.await();
+            final Future<?> store = pool.submit( () -> storage.store( new Counter( "1", 100 ) ) );
+            Thread.sleep( 50 );
+            assertThat( store.isDone() ).isFalse();
+
+            proceed.countDown();
+            update.get();
+            store.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat( applied.get() ).isEqualTo( 1 );
+        assertThat( storage.get( "1" ).map( c -> c.value ) ).contains( 100 );
+    }
+
+    @Test
+    public void reentrantUpdate() {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() );
+        storage.store( new Counter( "1", 1 ) );
+        storage.store( new Counter( "2", 1 ) );
+
+        storage.update( "1", c -> {
+            storage.update( "2", c2 -> c2.value = 5 );
+            c.value = 3;
+        } );
+
+        assertThat( storage.get( "1" ).map( c -> c.value ) ).contains( 3 );
+        assertThat( storage.get( "2" ).map( c -> c.value ) ).contains( 5 );
+    }
+
+    @Test
+    public void storeAfterDelete() {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() );
+        storage.store( new Counter( "1", 1 ) );
+        storage.delete( "1" );
+        storage.store( new Counter( "1", 2 ) );
+
+        assertThat( storage.get( "1" ).map( c -> c.value ) ).contains( 2 );
+    }
+
+    @Test
+    public void uniqueIndex() {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() );
+        storage.store( new Counter( "1", 1 ) );
+        storage.addIndex( Index.unique( "value", c -> c.value ) );
+        storage.store( new Counter( "2", 2 ) );
+
+        assertThat( storage.select( "value", 1 ).map( c -> c.id ).toList() ).containsExactly( "1" );
+        assertThat( storage.select( "value", 2 ).map( c -> c.id ).toList() ).containsExactly( "2" );
+
+        assertThatThrownBy( () -> storage.store( new Counter( "3", 1 ) ) ).isInstanceOf( IllegalArgumentException.class );
+        assertThat( storage.get( "3" ) ).isEmpty();
+
+        assertThatThrownBy( () -> storage.store( new Counter( "2", 1 ) ) ).isInstanceOf( IllegalArgumentException.class );
+        assertThat( storage.get( "2" ).map( c -> c.value ) ).contains( 2 );
+
+        assertThatThrownBy( () -> storage.update( "1", c -> c.value = 2 ) ).isInstanceOf( IllegalArgumentException.class );
+        assertThat( storage.get( "1" ).map( c -> c.value ) ).contains( 1 );
+        assertThat( storage.select( "value", 1 ).map( c -> c.id ).toList() ).containsExactly( "1" );
+        assertThat( storage.select( "value", 2 ).map( c -> c.id ).toList() ).containsExactly( "2" );
+
+        storage.update( "1", c -> c.value = 3 );
+        assertThat( storage.select( "value", 1 ).toList() ).isEmpty();
+        assertThat( storage.select( "value", 3 ).map( c -> c.id ).toList() ).containsExactly( "1" );
+
+        storage.delete( "1" );
+        assertThat( storage.select( "value", 3 ).toList() ).isEmpty();
+        storage.store( new Counter( "4", 3 ) );
+        assertThat( storage.select( "value", 3 ).map( c -> c.id ).toList() ).containsExactly( "4" );
+    }
+
+    @Test
+    public void nonUniqueAndSortedIndex() {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() )
+            .addIndex( Index.nonUnique( "parity", c -> c.value % 2 ) )
+            .addIndex( Index.sorted( "value", c -> c.value ) );
+        for( int i = 0; i < 10; i++ ) storage.store( new Counter( "c" + i, i ) );
+
+        assertThat( storage.select( "parity", 0 ).map( c -> c.value ).toList() ).containsOnly( 0, 2, 4, 6, 8 );
+        assertThat( storage.select( "value", 3, 6 ).map( c -> c.value ).toList() ).containsExactly( 3, 4, 5 );
+        assertThat( storage.select( "value", 8, null ).map( c -> c.value ).toList() ).containsExactly( 8, 9 );
+        assertThatThrownBy( () -> storage.select( "parity", 0, 1 ) ).isInstanceOf( IllegalArgumentException.class );
+        assertThatThrownBy( () -> storage.select( "unknown", 0 ) ).isInstanceOf( IllegalArgumentException.class );
+
+        storage.update( "c2", c -> c.value = 7 );
+        assertThat( storage.select( "parity", 0 ).map( c -> c.value ).toList() ).containsOnly( 0, 4, 6, 8 );
+        assertThat( storage.select( "value", 7 ).map( c -> c.id ).toList() ).containsOnly( "c2", "c7" );
+
+        storage.deleteAll();
+        assertThat( storage.select( "parity", 1 ).toList() ).isEmpty();
+    }
+
+    @Test
+    public void updatedSinceByModifiedIndex() {
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() )
+            .addIndex( Index.modified() );
+
+        for( int i = 0; i < 5; i++ ) {
+            DateTimeUtils.setCurrentMillisFixed( 100 + i );
+            storage.store( new Counter( "c" + i, i ) );
+        }
+        DateTimeUtils.setCurrentMillisFixed( 200 );
+        storage.update( "c1", c -> c.value = 10 );
+
+        assertThat( storage.updatedSince( 102 ) ).extracting( m -> m.id ).containsExactly( "c3", "c4", "c1" );
+        assertThat( storage.updatedSince( 102, 2, 1 ) ).extracting( m -> m.id ).containsExactly( "c4", "c1" );
+
+        storage.delete( "c4" );
+        assertThat( storage.updatedSince( 102 ) ).extracting( m -> m.id ).containsExactly( "c3", "c1" );
+    }
+
+    public static class Counter {
+        public String id;
+        public int value;
+
+        public Counter( String id, int value ) {
+            this.id = id;
+            this.value = value;
+        }
+
+        public Counter() {
+        }
+    }
+}
@@ -29,6 +29,9 @@ import oap.testng.AbstractTest;
 import org.testng.annotations.Test;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static oap.testng.Asserts.assertEventually;
@@ -77,4 +80,61 @@ public class ReplicatorTest extends AbstractTest {
 
       }
    }
+
+   @Test
+   public void changeFeed() {
+      MemoryStorage<Bean> master = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+      MemoryStorage<Bean> slave = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+      slave.store( new Bean( "stale" ) );
+      master.store( new Bean( "0" ) );
+
+      try( Replicator<Bean> replicator = new Replicator<>( slave, master, 3600000 ) ) {
+         replicator.batchSize = 7;
+         replicator.replicate( 0 );
+         assertThat( slave.select() ).containsOnly( new Bean( "0" ) );
+
+         master.store( IntStream.range( 1, 50 ).mapToObj( i -> new Bean( String.valueOf( i ) ) ).collect( Collectors.toList() ) );
+         master.update( "1", b -> b.s = "bbb" );
+         master.delete( "2" );
+         replicator.replicate( 0 );
+         // the scheduled tick may have replicated some of the changes already
+         assertThat( replicator.lag() ).isLessThanOrEqualTo( 51 );
+         assertThat( slave.size() ).isEqualTo( 49 );
+         assertThat( slave.get( "1" ) ).contains( new Bean( "1", "bbb" ) );
+         assertThat( slave.get( "2" ) ).isEmpty();
+
+         replicator.replicate( 0 );
+         assertThat( replicator.lag() ).isEqualTo( 0 );
+      }
+   }
+
+   @Test
+   public void snapshotWithoutChangeLog() {
+      MemoryStorage<Bean> master = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+      MemoryStorage<Bean> slave = new MemoryStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build() );
+      ReplicationMaster<Bean> snapshots = new ReplicationMaster<Bean>() {
+         @Override
+         public List<Metadata<Bean>> updatedSince( long time ) {
+            return master.updatedSince( time );
+         }
+
+         @Override
+         public List<String> ids() {
+            return master.ids();
+         }
+      };
+      slave.store( new Bean( "stale" ) );
+      master.store( new Bean( "1" ) );
+      master.store( new Bean( "2" ) );
+
+      try( Replicator<Bean> replicator = new Replicator<>( slave, snapshots, 3600000 ) ) {
+         replicator.replicate( 0 );
+         assertThat( slave.select() ).containsOnly( new Bean( "1" ), new Bean( "2" ) );
+
+         master.update( "1", b -> b.s = "bbb" );
+         master.delete( "2" );
+         replicator.replicate( 0 );
+         assertThat( slave.select() ).containsOnly( new Bean( "1", "bbb" ) );
+      }
+   }
 }
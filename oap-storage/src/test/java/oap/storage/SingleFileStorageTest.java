@@ -31,7 +31,9 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.testng.Asserts.assertEventually;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -69,6 +71,66 @@ public class SingleFileStorageTest extends AbstractTest {
       }
    }
 
+   @Test
+   public void testIncremental() {
+      final Path path = Env.tmpPath( "file.json" );
+      final Path delta = Env.tmpPath( "file.json.delta" );
+      final Identifier<TestSFS> identifier = IdentifierBuilder.<TestSFS>identify( s -> s.id ).build();
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         sfs.store( new TestSFS( "1" ) );
+         sfs.store( new TestSFS( "2" ) );
+         sfs.store( new TestSFS( "3" ) );
+      }
+      assertThat( delta ).exists();
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         assertThat( sfs.select().map( s -> s.id ).toList() ).containsOnly( "1", "2", "3" );
+         sfs.delete( "2" );
+         sfs.store( new TestSFS( "4" ) );
+      }
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         assertThat( sfs.select().map( s -> s.id ).toList() ).containsOnly( "1", "3", "4" );
+      }
+   }
+
+   @Test
+   public void testCompaction() {
+      final Path path = Env.tmpPath( "file.json" );
+      final Path delta = Env.tmpPath( "file.json.delta" );
+      final Identifier<TestSFS> identifier = IdentifierBuilder.<TestSFS>identify( s -> s.id ).build();
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 50, 1 ) ) {
+         sfs.store( new TestSFS( "1" ) );
+         sfs.store( new TestSFS( "2" ) );
+         sfs.delete( "1" );
+
+         assertEventually( 50, 100, () -> assertThat( path ).exists() );
+         assertEventually( 50, 100, () -> assertThat( delta ).doesNotExist() );
+      }
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         assertThat( sfs.select().map( s -> s.id ).toList() ).containsOnly( "2" );
+      }
+   }
+
+   @Test
+   public void testTornDelta() throws Exception {
+      final Path path = Env.tmpPath( "file.json" );
+      final Path delta = Env.tmpPath( "file.json.delta" );
+      final Identifier<TestSFS> identifier = IdentifierBuilder.<TestSFS>identify( s -> s.id ).build();
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         sfs.store( new TestSFS( "1" ) );
+         sfs.store( new TestSFS( "2" ) );
+      }
+      java.nio.file.Files.write( delta, "{\"id\":\"3\",\"obj".getBytes( UTF_8 ), StandardOpenOption.APPEND );
+
+      try( final SingleFileStorage<TestSFS> sfs = new SingleFileStorage<>( path, identifier, 10000, 10000000 ) ) {
+         assertThat( sfs.select().map( s -> s.id ).toList() ).containsOnly( "1", "2" );
+      }
+   }
 
    public static class TestSFS {
       public String id;
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.storage.MemoryStorageTest.Counter;
+import oap.testng.AbstractPerformance;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@Test( enabled = false )
+public class StoragePerformance extends AbstractPerformance {
+    private static final int SAMPLES = 1000000;
+    private static final int EXPERIMENTS = 5;
+    private static final int IDS = 1024;
+
+    @DataProvider
+    public Object[][] threads() {
+        return new Object[][] { { 1 }, { 2 }, { 4 }, { 8 }, { 16 }, { 32 }, { 64 } };
+    }
+
+    @Test( dataProvider = "threads" )
+    public void testContention( int threads ) {
+        final String[] ids = new String[IDS];
+        for( int i = 0; i < IDS; i++ ) ids[i] = new String( "id" + i );
+
+        for( LockStrategy lockStrategy : new LockStrategy[] { LockStrategy.INTERN, LockStrategy.striped() } ) {
+            final MemoryStorage<Counter> storage =
+                new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build(), lockStrategy );
+            for( String id : ids ) storage.store( new Counter( id, 0 ) );
+
+            benchmark( "storage.update-" + lockStrategy + "-" + threads, SAMPLES, EXPERIMENTS, threads, ( i ) -> {
+                storage.update( ids[i & ( IDS - 1 )], c -> c.value++ );
+            } );
+        }
+
+        final MemoryStorage<Counter> storage = new MemoryStorage<>( IdentifierBuilder.<Counter>identify( c -> c.id ).build() );
+        benchmark( "storage.store-" + threads, SAMPLES, EXPERIMENTS, threads, ( i ) -> {
+            storage.store( new Counter( ids[i & ( IDS - 1 )], i ) );
+        } );
+    }
+}
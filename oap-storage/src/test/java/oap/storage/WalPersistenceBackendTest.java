@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.io.Files;
+import oap.json.TypeIdFactory;
+import oap.testng.AbstractTest;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static oap.testng.Asserts.assertEventually;
+import static oap.testng.Env.tmpPath;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WalPersistenceBackendTest extends AbstractTest {
+    private static FileStorage<Bean> storage( Path path, long segmentSize ) {
+        return new FileStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build(),
+            s -> new WalPersistenceBackend<>( path, 50, segmentSize, Long.MAX_VALUE, s ) );
+    }
+
+    @BeforeMethod
+    @Override
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        TypeIdFactory.register( Bean.class, Bean.class.getName() );
+    }
+
+    @Test
+    public void persist() {
+        final Path path = tmpPath( "wal" );
+        try( FileStorage<Bean> storage = storage( path, 100 ) ) {
+            storage.store( new Bean( "1" ) );
+            storage.store( new Bean( "2" ) );
+            storage.store( new Bean( "3" ) );
+            storage.update( "2", b -> b.s = "bbb" );
+            storage.delete( "3" );
+        }
+
+        assertThat( Files.wildcard( path, "wal-*.log" ).size() ).isGreaterThan( 1 );
+
+        try( FileStorage<Bean> storage = storage( path, 100 ) ) {
+            assertThat( storage.select() ).containsOnly( new Bean( "1" ), new Bean( "2", "bbb" ) );
+            storage.store( new Bean( "4" ) );
+        }
+
+        try( FileStorage<Bean> storage = storage( path, 100 ) ) {
+            assertThat( storage.select() ).containsOnly( new Bean( "1" ), new Bean( "2", "bbb" ), new Bean( "4" ) );
+        }
+    }
+
+    @Test
+    public void compact() {
+        final Path path = tmpPath( "wal" );
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            for( int i = 0; i < 20; i++ ) storage.store( new Bean( "b" + ( i % 5 ), "v" + i ) );
+            storage.delete( "b0" );
+
+            ( ( WalPersistenceBackend<Bean> ) storage.persistence ).compact();
+            storage.store( new Bean( "b5" ) );
+        }
+
+        assertThat( Files.wildcard( path, "snapshot-*.log" ) ).hasSize( 1 );
+        assertThat( Files.wildcard( path, "wal-*.log" ) ).hasSize( 1 );
+
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            assertThat( storage.select() ).containsOnly(
+                new Bean( "b1", "v16" ), new Bean( "b2", "v17" ), new Bean( "b3", "v18" ), new Bean( "b4", "v19" ),
+                new Bean( "b5" ) );
+        }
+    }
+
+    @Test
+    public void compactInBackground() {
+        final Path path = tmpPath( "wal" );
+        try( FileStorage<Bean> storage = new FileStorage<>( IdentifierBuilder.<Bean>identify( b -> b.id ).build(),
+            s -> new WalPersistenceBackend<>( path, 50, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE, 1024, s ) ) ) {
+            for( int i = 0; i < 100; i++ ) storage.store( new Bean( "b" + ( i % 10 ), "v" + i ) );
+
+            assertEventually( 50, 100, () -> assertThat( Files.wildcard( path, "snapshot-*.log" ) ).isNotEmpty() );
+        }
+
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            assertThat( storage.size() ).isEqualTo( 10 );
+            assertThat( storage.get( "b9" ) ).contains( new Bean( "b9", "v99" ) );
+        }
+    }
+
+    @Test
+    public void deleteUnfinishedSnapshot() {
+        final Path path = tmpPath( "wal" );
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            storage.store( new Bean( "1" ) );
+        }
+        Files.writeString( path.resolve( "snapshot-00000000000000000001.log.tmp" ), "garbage" );
+
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            assertThat( Files.wildcard( path, "*.tmp" ) ).isEmpty();
+            assertThat( storage.select() ).containsOnly( new Bean( "1" ) );
+        }
+    }
+
+    @Test
+    public void tornRecord() throws Exception {
+        final Path path = tmpPath( "wal" );
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            storage.store( new Bean( "1" ) );
+            storage.store( new Bean( "2" ) );
+        }
+
+        final Path segment = Files.wildcard( path, "wal-*.log" ).get( 0 );
+        final long size = java.nio.file.Files.size( segment );
+        java.nio.file.Files.write( segment, new byte[] { 0, 0, 1, 0, 1, 2 }, StandardOpenOption.APPEND );
+
+        try( FileStorage<Bean> storage = storage( path, WalPersistenceBackend.DEFAULT_SEGMENT_SIZE ) ) {
+            assertThat( storage.select() ).containsOnly( new Bean( "1" ), new Bean( "2" ) );
+        }
+        assertThat( java.nio.file.Files.size( segment ) ).isEqualTo( size );
+    }
+}
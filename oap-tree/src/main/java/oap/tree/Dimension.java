@@ -32,9 +32,11 @@ import oap.util.StringBits;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.RandomAccess;
 import java.util.stream.Stream;
 
 import static oap.tree.Tree.ANY_AS_ARRAY;
@@ -87,6 +89,11 @@ public abstract class Dimension {
                 return sortedToName[( int ) value];
             }
 
+            @Override
+            protected List<String> dictionary() {
+                return Arrays.asList( sortedToName );
+            }
+
             @Override
             protected void _init( Stream<Object> value ) {
             }
@@ -118,6 +125,19 @@ public abstract class Dimension {
                 return bits.valueOf( value );
             }
 
+            @Override
+            protected List<String> dictionary() {
+                return bits.names();
+            }
+
+            @Override
+            protected void restoreDictionary( List<String> dictionary ) {
+                for( int i = 1; i < dictionary.size(); i++ ) {
+                    if( bits.computeIfAbsent( dictionary.get( i ) ) != i )
+                        throw new IllegalStateException( "[" + name + "] dictionary mismatch at " + dictionary.get( i ) );
+                }
+            }
+
             @Override
             protected void _init( Stream<Object> value ) {
                 value.sorted().forEach( v -> bits.computeIfAbsent( ( String ) v ) );
@@ -214,8 +234,63 @@ public abstract class Dimension {
         }
     }
 
+    /**
+     * Allocation-free variant of {@link #getOrDefault(Object)}.
+     *
+     * @param buffer must hold at least {@link #valueCount(Object)} items
+     * @return number of sorted values written into buffer, 0 means ANY
+     */
+    public final int getOrDefault( Object value, long[] buffer ) {
+        if( value == null ) return 0;
+
+        if( value instanceof Optional<?> ) {
+            final Optional<?> optValue = ( Optional<?> ) value;
+            return optValue.isPresent() ? getOrDefault( optValue.get(), buffer ) : 0;
+        }
+
+        if( value instanceof List && value instanceof RandomAccess ) {
+            final List<?> list = ( List<?> ) value;
+            final int size = list.size();
+            for( int i = 0; i < size; i++ ) buffer[i] = _getOrDefault( list.get( i ) );
+            if( size > 1 ) Arrays.sort( buffer, 0, size );
+            return size;
+        } else if( value instanceof Collection ) {
+            final Collection<?> list = ( Collection<?> ) value;
+            int size = 0;
+            for( Object item : list ) buffer[size++] = _getOrDefault( item );
+            if( size > 1 ) Arrays.sort( buffer, 0, size );
+            return size;
+        } else {
+            buffer[0] = _getOrDefault( value );
+            return 1;
+        }
+    }
+
+    public static int valueCount( Object value ) {
+        if( value == null ) return 0;
+        if( value instanceof Optional<?> ) {
+            final Optional<?> optValue = ( Optional<?> ) value;
+            return optValue.isPresent() ? valueCount( optValue.get() ) : 0;
+        }
+        if( value instanceof Collection ) return ( ( Collection<?> ) value ).size();
+
+        return 1;
+    }
+
     protected abstract long _getOrDefault( Object value );
 
+    /**
+     * Value to id mapping stored in a {@link TreeSnapshot}, empty if ids do not depend on loaded data.
+     */
+    protected List<String> dictionary() {
+        return Collections.emptyList();
+    }
+
+    protected void restoreDictionary( List<String> dictionary ) {
+        if( !dictionary().equals( dictionary ) )
+            throw new IllegalStateException( "[" + name + "] dictionary mismatch" );
+    }
+
     @Override
     public String toString() {
         return name;
@@ -229,8 +304,13 @@ public abstract class Dimension {
     }
 
     public final int direction( long[] qValue, long nodeValue ) {
-        final int qValueLength = qValue.length;
+        return direction( qValue, qValue.length, nodeValue );
+    }
 
+    /**
+     * @param qValueLength number of leading qValue items in use, see {@link #getOrDefault(Object, long[])}
+     */
+    public final int direction( long[] qValue, int qValueLength, long nodeValue ) {
         final long head = qValue[0];
         switch( operationType ) {
             case CONTAINS:
@@ -245,7 +325,7 @@ public abstract class Dimension {
                     if( last > nodeValue ) v |= Direction.RIGHT;
                     if( head < nodeValue ) v |= Direction.LEFT;
 
-                    if( Arrays.binarySearch( qValue, nodeValue ) >= 0 ) {
+                    if( Arrays.binarySearch( qValue, 0, qValueLength, nodeValue ) >= 0 ) {
                         v |= Direction.EQUAL;
                     }
 
@@ -0,0 +1,437 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static oap.tree.Dimension.Direction;
+
+/**
+ * Array encoded copy of the {@link Tree} node graph used by {@link Tree#find(List, QueryContext)}.
+ * A memory-mapped {@link TreeSnapshot} stores the same sections, see {@link MappedFlatTree}.
+ * <p>
+ * Every node is a fixed size record in {@link #nodes}: type, dimension, left, right, equal, any, from, to.
+ * For a node [from, to) points into {@link #sets} (include, equal, bits from, bits to),
+ * for a hash node into {@link #refs} (children), for a leaf into {@link #refs} (selection ids).
+ */
+final class FlatTree {
+    static final int NONE = -1;
+
+    static final int LEAF = 0;
+    static final int NODE = 1;
+    static final int HASH = 2;
+
+    static final int NODE_SIZE = 8;
+    static final int SET_SIZE = 4;
+
+    static final int TYPE = 0;
+    static final int DIMENSION = 1;
+    static final int LEFT = 2;
+    static final int RIGHT = 3;
+    static final int EQUAL = 4;
+    static final int ANY = 5;
+    static final int FROM = 6;
+    static final int TO = 7;
+
+    final Dimension[] dimensions;
+    final int[] nodes;
+    final long[] eqValues;
+    final int[] sets;
+    final long[] bits;
+    final int[] refs;
+    final Object[] selections;
+    final int root;
+
+    FlatTree( Dimension[] dimensions, int[] nodes, long[] eqValues, int[] sets, long[] bits, int[] refs, Object[] selections, int root ) {
+        this.dimensions = dimensions;
+        this.nodes = nodes;
+        this.eqValues = eqValues;
+        this.sets = sets;
+        this.bits = bits;
+        this.refs = refs;
+        this.selections = selections;
+        this.root = root;
+    }
+
+    void find( QueryContext<?> context ) {
+        find( root, context );
+    }
+
+    private void find( int node, QueryContext<?> context ) {
+        if( node == NONE ) return;
+
+        final int offset = node * NODE_SIZE;
+        final int from = nodes[offset + FROM];
+        final int to = nodes[offset + TO];
+
+        switch( nodes[offset + TYPE] ) {
+            case LEAF:
+                for( int i = from; i < to; i++ ) context.collect( refs[i] );
+                return;
+
+            case NODE: {
+                find( nodes[offset + ANY], context );
+
+                final int dimensionIndex = nodes[offset + DIMENSION];
+                final long[] qValue = context.values[dimensionIndex];
+                final int qValueLength = context.lengths[dimensionIndex];
+
+                if( qValueLength == 0 ) {
+                    if( dimensions[dimensionIndex].queryRequired ) return;
+
+                    find( nodes[offset + EQUAL], context );
+                    find( nodes[offset + RIGHT], context );
+                    find( nodes[offset + LEFT], context );
+
+                    for( int s = from; s < to; s += SET_SIZE ) find( sets[s + 1], context );
+                } else if( from < to ) {
+                    for( int s = from; s < to; s += SET_SIZE ) {
+                        if( setContains( s, qValue, qValueLength ) ) find( sets[s + 1], context );
+                    }
+                } else {
+                    final int direction = dimensions[dimensionIndex].direction( qValue, qValueLength, eqValues[node] );
+                    if( ( direction & Direction.LEFT ) > 0 )
+                        find( nodes[offset + LEFT], context );
+                    if( ( direction & Direction.EQUAL ) > 0 )
+                        find( nodes[offset + EQUAL], context );
+                    if( ( direction & Direction.RIGHT ) > 0 )
+                        find( nodes[offset + RIGHT], context );
+                }
+                return;
+            }
+
+            case HASH: {
+                find( nodes[offset + ANY], context );
+
+                final int dimensionIndex = nodes[offset + DIMENSION];
+                final long[] qValue = context.values[dimensionIndex];
+                final int qValueLength = context.lengths[dimensionIndex];
+
+                if( qValueLength == 0 ) {
+                    if( dimensions[dimensionIndex].queryRequired ) return;
+
+                    for( int i = from; i < to; i++ ) find( refs[i], context );
+                } else {
+                    final int hashLength = to - from;
+                    for( int i = 0; i < qValueLength; i++ ) {
+                        final int index = ( int ) qValue[i];
+                        if( index >= 0 && index < hashLength ) find( refs[from + index], context );
+                    }
+                }
+                return;
+            }
+
+            default:
+                throw new IllegalStateException( "Unknown node type " + nodes[offset + TYPE] );
+        }
+    }
+
+    /**
+     * Walks the tree once for queries [from, to) of the batch, at every split
+     * the query set is narrowed down to the queries going into each child.
+     */
+    void findAll( QueryContext<?>[] contexts, int from, int to ) {
+        final Batch batch = new Batch( to - from );
+        for( int i = from; i < to; i++ ) batch.work[batch.top++] = i;
+
+        findAll( root, contexts, batch, 0, to - from );
+    }
+
+    private void findAll( int node, QueryContext<?>[] contexts, Batch batch, int queries, int count ) {
+        if( node == NONE || count == 0 ) return;
+
+        final int offset = node * NODE_SIZE;
+        final int from = nodes[offset + FROM];
+        final int to = nodes[offset + TO];
+
+        switch( nodes[offset + TYPE] ) {
+            case LEAF:
+                for( int q = queries; q < queries + count; q++ ) {
+                    final QueryContext<?> context = contexts[batch.work[q]];
+                    for( int i = from; i < to; i++ ) context.collect( refs[i] );
+                }
+                return;
+
+            case NODE: {
+                findAll( nodes[offset + ANY], contexts, batch, queries, count );
+
+                final int dimensionIndex = nodes[offset + DIMENSION];
+                final Dimension dimension = dimensions[dimensionIndex];
+
+                if( from < to ) {
+                    for( int s = from; s < to; s += SET_SIZE ) {
+                        final int sub = batch.top;
+                        batch.ensure( count );
+                        int n = 0;
+                        for( int q = queries; q < queries + count; q++ ) {
+                            final QueryContext<?> context = contexts[batch.work[q]];
+                            final int qValueLength = context.lengths[dimensionIndex];
+                            final boolean matches = qValueLength == 0
+                                ? !dimension.queryRequired
+                                : setContains( s, context.values[dimensionIndex], qValueLength );
+                            if( matches ) batch.work[sub + n++] = batch.work[q];
+                        }
+                        batch.top = sub + n;
+                        findAll( sets[s + 1], contexts, batch, sub, n );
+                        batch.top = sub;
+                    }
+                } else {
+                    final int directions = batch.top;
+                    batch.ensure( count );
+                    for( int q = queries; q < queries + count; q++ ) {
+                        final QueryContext<?> context = contexts[batch.work[q]];
+                        final int qValueLength = context.lengths[dimensionIndex];
+                        batch.work[directions + q - queries] = qValueLength == 0
+                            ? ( dimension.queryRequired ? Direction.NONE : Direction.LEFT | Direction.EQUAL | Direction.RIGHT )
+                            : dimension.direction( context.values[dimensionIndex], qValueLength, eqValues[node] );
+                    }
+                    batch.top += count;
+
+                    findAll( nodes[offset + LEFT], Direction.LEFT, contexts, batch, queries, count, directions );
+                    findAll( nodes[offset + EQUAL], Direction.EQUAL, contexts, batch, queries, count, directions );
+                    findAll( nodes[offset + RIGHT], Direction.RIGHT, contexts, batch, queries, count, directions );
+
+                    batch.top = directions;
+                }
+                return;
+            }
+
+            case HASH: {
+                findAll( nodes[offset + ANY], contexts, batch, queries, count );
+
+                final int dimensionIndex = nodes[offset + DIMENSION];
+                final boolean queryRequired = dimensions[dimensionIndex].queryRequired;
+                final int hashLength = to - from;
+
+                final int any = batch.top;
+                batch.ensure( count );
+                int anyCount = 0;
+                int pairCount = 0;
+                for( int q = queries; q < queries + count; q++ ) {
+                    final int qValueLength = contexts[batch.work[q]].lengths[dimensionIndex];
+                    if( qValueLength == 0 ) {
+                        if( !queryRequired ) batch.work[any + anyCount++] = batch.work[q];
+                    } else pairCount += qValueLength;
+                }
+                batch.top = any + anyCount;
+
+                final long[] pairs = new long[pairCount];
+                pairCount = 0;
+                for( int q = queries; q < queries + count; q++ ) {
+                    final QueryContext<?> context = contexts[batch.work[q]];
+                    final int qValueLength = context.lengths[dimensionIndex];
+                    final long[] qValue = context.values[dimensionIndex];
+                    for( int i = 0; i < qValueLength; i++ ) {
+                        final int index = ( int ) qValue[i];
+                        if( index >= 0 && index < hashLength )
+                            pairs[pairCount++] = ( ( long ) index << 32 ) | batch.work[q];
+                    }
+                }
+                Arrays.sort( pairs, 0, pairCount );
+
+                int p = 0;
+                int index = anyCount > 0 ? 0 : ( pairCount > 0 ? ( int ) ( pairs[0] >>> 32 ) : hashLength );
+                while( index < hashLength ) {
+                    final int sub = batch.top;
+                    batch.ensure( anyCount + count );
+                    System.arraycopy( batch.work, any, batch.work, sub, anyCount );
+                    int n = anyCount;
+                    while( p < pairCount && ( int ) ( pairs[p] >>> 32 ) == index )
+                        batch.work[sub + n++] = ( int ) pairs[p++];
+                    batch.top = sub + n;
+                    findAll( refs[from + index], contexts, batch, sub, n );
+                    batch.top = sub;
+
+                    index = anyCount > 0 ? index + 1 : ( p < pairCount ? ( int ) ( pairs[p] >>> 32 ) : hashLength );
+                }
+
+                batch.top = any;
+                return;
+            }
+
+            default:
+                throw new IllegalStateException( "Unknown node type " + nodes[offset + TYPE] );
+        }
+    }
+
+    private void findAll( int node, int direction, QueryContext<?>[] contexts, Batch batch, int queries, int count, int directions ) {
+        if( node == NONE ) return;
+
+        final int sub = batch.top;
+        batch.ensure( count );
+        int n = 0;
+        for( int q = 0; q < count; q++ ) {
+            if( ( batch.work[directions + q] & direction ) > 0 ) batch.work[sub + n++] = batch.work[queries + q];
+        }
+        batch.top = sub + n;
+        findAll( node, contexts, batch, sub, n );
+        batch.top = sub;
+    }
+
+    private boolean setContains( int set, long[] qValue, int qValueLength ) {
+        final boolean include = sets[set] != 0;
+        final int bitsFrom = sets[set + 2];
+        final int words = sets[set + 3] - bitsFrom;
+
+        for( int i = 0; i < qValueLength; i++ ) {
+            final int value = ( int ) qValue[i];
+            final int word = value >>> 6;
+            if( word < words && ( bits[bitsFrom + word] & ( 1L << value ) ) != 0 ) return include;
+        }
+
+        return !include;
+    }
+
+    /**
+     * Stack of query id slices, one slice per tree level.
+     */
+    private static class Batch {
+        private int[] work;
+        private int top;
+
+        private Batch( int size ) {
+            this.work = new int[Math.max( size * 4, 16 )];
+        }
+
+        private void ensure( int count ) {
+            if( top + count > work.length ) work = Arrays.copyOf( work, Math.max( work.length * 2, top + count ) );
+        }
+    }
+
+    static class Builder {
+        private final Dimension[] dimensions;
+        private final HashMap<Object, Integer> selectionIds = new HashMap<>();
+        private int[] nodes = new int[NODE_SIZE * 16];
+        private long[] eqValues = new long[16];
+        private int[] sets = new int[SET_SIZE * 16];
+        private long[] bits = new long[16];
+        private int[] refs = new int[16];
+        private Object[] selections = new Object[16];
+        private int nodeCount;
+        private int setSize;
+        private int bitsSize;
+        private int refsSize;
+
+        Builder( List<Dimension> dimensions ) {
+            this.dimensions = dimensions.toArray( new Dimension[dimensions.size()] );
+        }
+
+        int leaf( List<?> selections ) {
+            final int from = refsSize;
+            for( Object selection : selections ) ref( selectionId( selection ) );
+
+            return node( LEAF, 0, 0, NONE, NONE, NONE, NONE, from, refsSize );
+        }
+
+        int node( int dimension, long eqValue, int left, int right, int equal, int any,
+                  long[][] setBits, boolean[] setInclude, int[] setEqual ) {
+            final int from = setSize;
+
+            for( int i = 0; i < setBits.length; i++ ) {
+                if( setSize + SET_SIZE > sets.length ) sets = Arrays.copyOf( sets, sets.length * 2 );
+
+                final long[] words = setBits[i];
+                sets[setSize] = setInclude[i] ? 1 : 0;
+                sets[setSize + 1] = setEqual[i];
+                sets[setSize + 2] = bitsSize;
+                sets[setSize + 3] = bitsSize + words.length;
+                setSize += SET_SIZE;
+
+                if( bitsSize + words.length > bits.length )
+                    bits = Arrays.copyOf( bits, Math.max( bits.length * 2, bitsSize + words.length ) );
+                System.arraycopy( words, 0, bits, bitsSize, words.length );
+                bitsSize += words.length;
+            }
+
+            return node( NODE, dimension, eqValue, left, right, equal, any, from, setSize );
+        }
+
+        int hash( int dimension, int any, int[] hash ) {
+            final int from = refsSize;
+            for( int child : hash ) ref( child );
+
+            return node( HASH, dimension, 0, NONE, NONE, NONE, any, from, refsSize );
+        }
+
+        int nodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * Tree over the current sections without copying them. Later appends only write past the
+         * used part or into grown copies, so a shared tree stays valid.
+         */
+        FlatTree share( int root ) {
+            return new FlatTree( dimensions, nodes, eqValues, sets, bits, refs, selections, root );
+        }
+
+        FlatTree build( int root ) {
+            return new FlatTree( dimensions,
+                Arrays.copyOf( nodes, nodeCount * NODE_SIZE ),
+                Arrays.copyOf( eqValues, nodeCount ),
+                Arrays.copyOf( sets, setSize ),
+                Arrays.copyOf( bits, bitsSize ),
+                Arrays.copyOf( refs, refsSize ),
+                Arrays.copyOf( selections, selectionIds.size() ),
+                root );
+        }
+
+        private int node( int type, int dimension, long eqValue, int left, int right, int equal, int any, int from, int to ) {
+            if( ( nodeCount + 1 ) * NODE_SIZE > nodes.length ) {
+                nodes = Arrays.copyOf( nodes, nodes.length * 2 );
+                eqValues = Arrays.copyOf( eqValues, eqValues.length * 2 );
+            }
+
+            final int offset = nodeCount * NODE_SIZE;
+            nodes[offset + TYPE] = type;
+            nodes[offset + DIMENSION] = dimension;
+            nodes[offset + LEFT] = left;
+            nodes[offset + RIGHT] = right;
+            nodes[offset + EQUAL] = equal;
+            nodes[offset + ANY] = any;
+            nodes[offset + FROM] = from;
+            nodes[offset + TO] = to;
+            eqValues[nodeCount] = eqValue;
+
+            return nodeCount++;
+        }
+
+        private int selectionId( Object selection ) {
+            return selectionIds.computeIfAbsent( selection, s -> {
+                final int id = selectionIds.size();
+                if( id >= selections.length ) selections = Arrays.copyOf( selections, selections.length * 2 );
+                selections[id] = s;
+                return id;
+            } );
+        }
+
+        private void ref( int value ) {
+            if( refsSize >= refs.length ) refs = Arrays.copyOf( refs, refs.length * 2 );
+            refs[refsSize++] = value;
+        }
+    }
+}
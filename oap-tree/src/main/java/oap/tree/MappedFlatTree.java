@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import static oap.tree.Dimension.Direction;
+import static oap.tree.FlatTree.ANY;
+import static oap.tree.FlatTree.DIMENSION;
+import static oap.tree.FlatTree.EQUAL;
+import static oap.tree.FlatTree.FROM;
+import static oap.tree.FlatTree.HASH;
+import static oap.tree.FlatTree.LEAF;
+import static oap.tree.FlatTree.LEFT;
+import static oap.tree.FlatTree.NODE;
+import static oap.tree.FlatTree.NODE_SIZE;
+import static oap.tree.FlatTree.NONE;
+import static oap.tree.FlatTree.RIGHT;
+import static oap.tree.FlatTree.SET_SIZE;
+import static oap.tree.FlatTree.TO;
+import static oap.tree.FlatTree.TYPE;
+
+/**
+ * {@link FlatTree} layout read in place from the mapped sections of a {@link TreeSnapshot}.
+ * <p>
+ * A separate class, so that the heap tree lookup keeps plain array accesses.
+ */
+final class MappedFlatTree {
+    final Dimension[] dimensions;
+    final IntBuffer nodes;
+    final LongBuffer eqValues;
+    final IntBuffer sets;
+    final LongBuffer bits;
+    final IntBuffer refs;
+    final Object[] selections;
+    final int root;
+
+    MappedFlatTree( Dimension[] dimensions, IntBuffer nodes, LongBuffer eqValues, IntBuffer sets, LongBuffer bits, IntBuffer refs, Object[] selections, int root ) {
+        this.dimensions = dimensions;
+        this.nodes = nodes;
+        this.eqValues = eqValues;
+        this.sets = sets;
+        this.bits = bits;
+        this.refs = refs;
+        this.selections = selections;
+        this.root = root;
+    }
+
+    void find( QueryContext<?> context ) {
+        find( root, context );
+    }
+
+    /**
+     * Same walk as {@link FlatTree#find(QueryContext)}.
+     */
+    private void find( int node, QueryContext<?> context ) {
+        if( node == NONE ) return;
+
+        final int offset = node * NODE_SIZE;
+        final int from = nodes.get( offset + FROM );
+        final int to = nodes.get( offset + TO );
+
+        switch( nodes.get( offset + TYPE ) ) {
+            case LEAF:
+                for( int i = from; i < to; i++ ) context.collect( refs.get( i ) );
+                return;
+
+            case NODE: {
+                find( nodes.get( offset + ANY ), context );
+
+                final int dimensionIndex = nodes.get( offset + DIMENSION );
+                final long[] qValue = context.values[dimensionIndex];
+                final int qValueLength = context.lengths[dimensionIndex];
+
+                if( qValueLength == 0 ) {
+                    if( dimensions[dimensionIndex].queryRequired ) return;
+
+                    find( nodes.get( offset + EQUAL ), context );
+                    find( nodes.get( offset + RIGHT ), context );
+                    find( nodes.get( offset + LEFT ), context );
+
+                    for( int s = from; s < to; s += SET_SIZE ) find( sets.get( s + 1 ), context );
+                } else if( from < to ) {
+                    for( int s = from; s < to; s += SET_SIZE ) {
+                        if( setContains( s, qValue, qValueLength ) ) find( sets.get( s + 1 ), context );
+                    }
+                } else {
+                    final int direction = dimensions[dimensionIndex].direction( qValue, qValueLength, eqValues.get( node ) );
+                    if( ( direction & Direction.LEFT ) > 0 )
+                        find( nodes.get( offset + LEFT ), context );
+                    if( ( direction & Direction.EQUAL ) > 0 )
+                        find( nodes.get( offset + EQUAL ), context );
+                    if( ( direction & Direction.RIGHT ) > 0 )
+                        find( nodes.get( offset + RIGHT ), context );
+                }
+                return;
+            }
+
+            case HASH: {
+                find( nodes.get( offset + ANY ), context );
+
+                final int dimensionIndex = nodes.get( offset + DIMENSION );
+                final long[] qValue = context.values[dimensionIndex];
+                final int qValueLength = context.lengths[dimensionIndex];
+
+                if( qValueLength == 0 ) {
+                    if( dimensions[dimensionIndex].queryRequired ) return;
+
+                    for( int i = from; i < to; i++ ) find( refs.get( i ), context );
+                } else {
+                    final int hashLength = to - from;
+                    for( int i = 0; i < qValueLength; i++ ) {
+                        final int index = ( int ) qValue[i];
+                        if( index >= 0 && index < hashLength ) find( refs.get( from + index ), context );
+                    }
+                }
+                return;
+            }
+
+            default:
+                throw new IllegalStateException( "Unknown node type " + nodes.get( offset + TYPE ) );
+        }
+    }
+
+    private boolean setContains( int set, long[] qValue, int qValueLength ) {
+        final boolean include = sets.get( set ) != 0;
+        final int bitsFrom = sets.get( set + 2 );
+        final int words = sets.get( set + 3 ) - bitsFrom;
+
+        for( int i = 0; i < qValueLength; i++ ) {
+            final int value = ( int ) qValue[i];
+            final int word = value >>> 6;
+            if( word < words && ( bits.get( bitsFrom + word ) & ( 1L << value ) ) != 0 ) return include;
+        }
+
+        return !include;
+    }
+}
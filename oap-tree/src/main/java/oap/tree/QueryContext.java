@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reusable query buffers and result collector for {@link Tree#find(List, QueryContext)}.
+ * <p>
+ * Not thread-safe, keep one instance per thread (e.g. in a ThreadLocal). Once the buffers
+ * have grown to the size of the tree and of the largest query, lookups do not allocate.
+ */
+public final class QueryContext<T> {
+    long[][] values = new long[0][];
+    int[] lengths = new int[0];
+
+    private long[] seen = new long[0];
+    private int[] found = new int[16];
+    private int size;
+    private Object[] selections;
+
+    QueryContext() {
+    }
+
+    void prepare( List<Dimension> dimensions, List<?> query, Object[] selections ) {
+        clear();
+
+        final int dimensionCount = dimensions.size();
+        if( values.length < dimensionCount ) {
+            values = new long[dimensionCount][];
+            lengths = new int[dimensionCount];
+        }
+
+        for( int i = 0; i < dimensionCount; i++ ) {
+            final Object value = query.get( i );
+            final int count = Dimension.valueCount( value );
+
+            if( values[i] == null || values[i].length < count )
+                values[i] = new long[Math.max( count, 4 )];
+
+            lengths[i] = dimensions.get( i ).getOrDefault( value, values[i] );
+        }
+
+        final int words = ( selections.length >>> 6 ) + 1;
+        if( seen.length < words ) seen = new long[words];
+        this.selections = selections;
+    }
+
+    void collect( int selection ) {
+        final int word = selection >>> 6;
+        final long mask = 1L << selection;
+
+        if( ( seen[word] & mask ) == 0 ) {
+            seen[word] |= mask;
+            if( size == found.length ) found = Arrays.copyOf( found, size * 2 );
+            found[size++] = selection;
+        }
+    }
+
+    private void clear() {
+        for( int i = 0; i < size; i++ ) seen[found[i] >>> 6] = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public T get( int index ) {
+        if( index >= size ) throw new IndexOutOfBoundsException( "index: " + index + ", size: " + size );
+
+        return ( T ) selections[found[index]];
+    }
+
+    public void forEach( Consumer<? super T> action ) {
+        for( int i = 0; i < size; i++ ) action.accept( get( i ) );
+    }
+
+    public Set<T> toSet() {
+        final HashSet<T> result = new HashSet<>( size * 2 );
+        forEach( result::add );
+        return result;
+    }
+}
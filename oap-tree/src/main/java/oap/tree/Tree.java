@@ -44,6 +44,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
@@ -65,21 +69,40 @@ import static oap.util.Pair.__;
 public class Tree<T> {
     public static final long ANY = Long.MIN_VALUE;
     public static final long[] ANY_AS_ARRAY = new long[0];
+    public static final int FIND_ALL_BATCH_SIZE = 256;
+    public static final int PARALLEL_THRESHOLD = 10000;
 
-    TreeNode<T> root = new Leaf<>( emptyList() );
+    volatile TreeNode<T> root = new Leaf<>( emptyList(), false );
+    private volatile FlatTree flat;
     private List<Dimension> dimensions;
     private double hashFillFactor;
+    private final int parallelThreshold;
+    private final boolean measureMemory;
+    private final boolean updatable;
     private long memory;
+    private long[] uniqueCount;
     private long nodeCount = 0;
     private long leafCount = 0;
+    private boolean counted = true;
+    private FlatTree.Builder builder;
+    private int compiledNodes;
 
     Tree( List<Dimension> dimensions ) {
         this( dimensions, 0.25 );
     }
 
     Tree( List<Dimension> dimensions, double hashFillFactor ) {
+        this( dimensions, hashFillFactor, PARALLEL_THRESHOLD, true, false );
+    }
+
+    Tree( List<Dimension> dimensions, double hashFillFactor, int parallelThreshold, boolean measureMemory,
+          boolean updatable ) {
         this.dimensions = dimensions;
         this.hashFillFactor = hashFillFactor;
+        this.parallelThreshold = parallelThreshold;
+        this.measureMemory = measureMemory;
+        this.updatable = updatable;
+        publish( root, false );
     }
 
     public static <T> ValueData<T> v( T selection, List<?> data ) {
@@ -110,11 +133,13 @@ public class Tree<T> {
         return memory;
     }
 
-    public long getNodeCount() {
+    public synchronized long getNodeCount() {
+        count();
         return nodeCount;
     }
 
-    public long getLeafCount() {
+    public synchronized long getLeafCount() {
+        count();
         return leafCount;
     }
 
@@ -147,27 +172,193 @@ public class Tree<T> {
         }
     }
 
-    public void load( List<ValueData<T>> data ) {
+    public synchronized void load( List<ValueData<T>> data ) {
         init( data );
-        final long[] uniqueCount = getUniqueCount( data );
-        root = toNode( data, uniqueCount, new BitSet( dimensions.size() ) );
+        uniqueCount = getUniqueCount( data );
+        final TreeNode<T> root = build( data, uniqueCount, new BitSet( dimensions.size() ) );
 
-        updateCount( root );
+        publish( root, false );
 
-        memory = MemoryMeter.get().measureDeep( this );
+        if( measureMemory ) memory = MemoryMeter.get().measureDeep( this );
     }
 
-    private long[] getUniqueCount( List<ValueData<T>> data ) {
-        final long[] longs = new long[dimensions.size()];
+    public void add( List<ValueData<T>> data ) {
+        update( emptyList(), data );
+    }
+
+    public void remove( List<ValueData<T>> data ) {
+        update( data, emptyList() );
+    }
+
+    /**
+     * Patches only the branches the changed rows are routed to, rebuilding the subtree below the touched
+     * leaves. The new nodes are copied along the path, so concurrent readers keep using the previous
+     * version until the new root is published. A row is removed if both its value and data are equal.
+     * <p>
+     * Only the new nodes are appended to the array encoded tree, it is compacted once the appended nodes
+     * outnumber the compacted ones. Requires {@link TreeBuilder#withUpdates(boolean)}, {@link #getMemory()}
+     * is not re-measured.
+     */
+    public synchronized void update( List<ValueData<T>> remove, List<ValueData<T>> add ) {
+        if( !updatable ) throw new IllegalStateException( "tree is not updatable, see TreeBuilder.withUpdates" );
+        if( remove.isEmpty() && add.isEmpty() ) return;
+
+        init( add );
+        if( uniqueCount == null ) uniqueCount = getUniqueCount( add );
+
+        publish( update( root, remove, add, new BitSet( dimensions.size() ) ), true );
+    }
+
+    /**
+     * @param incremental compile only the nodes not compiled yet into the current builder
+     */
+    private void publish( TreeNode<T> root, boolean incremental ) {
+        if( !incremental || builder.nodeCount() > compiledNodes * 2 ) {
+            final FlatTree.Builder builder = new FlatTree.Builder( dimensions );
+            final int index = compile( root, builder, false );
+            compiledNodes = builder.nodeCount();
+
+            this.builder = updatable ? builder : null;
+            this.flat = updatable ? builder.share( index ) : builder.build( index );
+        } else this.flat = builder.share( compile( root, builder, true ) );
+
+        this.root = root;
+        this.counted = false;
+    }
+
+    private TreeNode<T> update( TreeNode<T> node, List<ValueData<T>> remove, List<ValueData<T>> add, BitSet eq ) {
+        if( remove.isEmpty() && add.isEmpty() ) return node;
+
+        if( node == null ) return build( add, uniqueCount, eq );
+
+        if( node instanceof Leaf ) {
+            final ArrayList<ValueData<T>> data = new ArrayList<>( ( ( Leaf<T> ) node ).data );
+            if( !remove.isEmpty() ) data.removeAll( new HashSet<>( remove ) );
+            data.addAll( add );
+
+            return build( data, uniqueCount, eq );
+        } else if( node instanceof Tree.Node ) {
+            final Node n = ( Node ) node;
+            final Dimension dimension = dimensions.get( n.dimension );
+            final BitSet eqWithDimension = withSet( eq, n.dimension );
+
+            if( dimension.operationType == null ) { //array
+                final ArrayList<ArrayBitSet> sets = new ArrayList<>( n.sets );
+                final List<List<ValueData<T>>> setsRemove = new ArrayList<>();
+                final List<List<ValueData<T>>> setsAdd = new ArrayList<>();
+                final List<ValueData<T>> anyRemove = new ArrayList<>();
+                final List<ValueData<T>> anyAdd = new ArrayList<>();
+
+                route( dimension, n.dimension, sets, add, anyAdd, setsAdd, true );
+                route( dimension, n.dimension, sets, remove, anyRemove, setsRemove, false );
+
+                for( int i = 0; i < sets.size(); i++ ) {
+                    final ArrayBitSet set = sets.get( i );
+                    sets.set( i, new ArrayBitSet( set.bitSet, set.include,
+                        update( set.equal, setsRemove.get( i ), setsAdd.get( i ), eqWithDimension ) ) );
+                }
+
+                return new Node( n.dimension, n.eqValue, n.left, n.right, n.equal,
+                    update( n.any, anyRemove, anyAdd, eqWithDimension ), sets );
+            }
+
+            final Directions removeDirections = new Directions( dimension, n.dimension, n.eqValue, remove );
+            final Directions addDirections = new Directions( dimension, n.dimension, n.eqValue, add );
+
+            return new Node( n.dimension, n.eqValue,
+                update( n.left, removeDirections.left, addDirections.left, eq ),
+                update( n.right, removeDirections.right, addDirections.right, eq ),
+                update( n.equal, removeDirections.equal, addDirections.equal, eqWithDimension ),
+                update( n.any, removeDirections.any, addDirections.any, eqWithDimension ),
+                n.sets );
+        } else {
+            final HashNode n = ( HashNode ) node;
+            final Dimension dimension = dimensions.get( n.dimension );
+            final BitSet eqWithDimension = withSet( eq, n.dimension );
+
+            final Map<Integer, List<ValueData<T>>> hashRemove = new HashMap<>();
+            final Map<Integer, List<ValueData<T>>> hashAdd = new HashMap<>();
+            final List<ValueData<T>> anyRemove = new ArrayList<>();
+            final List<ValueData<T>> anyAdd = new ArrayList<>();
+
+            route( dimension, n.dimension, remove, anyRemove, hashRemove );
+            route( dimension, n.dimension, add, anyAdd, hashAdd );
+
+            final int max = hashAdd.keySet().stream().mapToInt( i -> i ).max().orElse( -1 );
+            final TreeNode<T>[] hash = Arrays.copyOf( n.hash, Math.max( max + 1, n.hash.length ) );
+
+            for( int i = 0; i < hash.length; i++ ) {
+                hash[i] = update( hash[i], hashRemove.getOrDefault( i, emptyList() ),
+                    hashAdd.getOrDefault( i, emptyList() ), eqWithDimension );
+            }
 
+            return new HashNode( n.dimension, hash, update( n.any, anyRemove, anyAdd, eqWithDimension ) );
+        }
+    }
+
+    private void route( Dimension dimension, int dimensionIndex, List<ArrayBitSet> sets, List<ValueData<T>> data,
+                        List<ValueData<T>> any, List<List<ValueData<T>>> setsData, boolean create ) {
+        while( setsData.size() < sets.size() ) setsData.add( new ArrayList<>() );
+
+        for( ValueData<T> vd : data ) {
+            final Array array = ( Array ) vd.data.get( dimensionIndex );
+            if( array.isEmpty() ) {
+                any.add( vd );
+                continue;
+            }
+
+            final BitSet bitSet = dimension.toBitSet( array );
+            int index = 0;
+            while( index < sets.size()
+                && !( sets.get( index ).include == array.include && sets.get( index ).bitSet.equals( bitSet ) ) )
+                index++;
+
+            if( index == sets.size() ) {
+                if( !create ) continue;
+
+                sets.add( new ArrayBitSet( bitSet, array.include, null ) );
+                setsData.add( new ArrayList<>() );
+            }
 
-        for( int i = 0; i < longs.length; i++ ) {
-            int finalI = i;
-            longs[i] = data.stream().map( d -> d.data.get( finalI ) ).distinct().count();
+            setsData.get( index ).add( vd );
         }
+    }
+
+    private void route( Dimension dimension, int dimensionIndex, List<ValueData<T>> data,
+                        List<ValueData<T>> any, Map<Integer, List<ValueData<T>>> hash ) {
+        for( ValueData<T> vd : data ) {
+            final long[] value = dimension.getOrDefault( vd.data.get( dimensionIndex ) );
+
+            if( value == ANY_AS_ARRAY ) any.add( vd );
+            else hash.computeIfAbsent( ( int ) value[0], i -> new ArrayList<>() ).add( vd );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private long[] getUniqueCount( List<ValueData<T>> data ) {
+        final int size = dimensions.size();
+        final HashSet<Object>[] unique = new HashSet[size];
+        for( int i = 0; i < size; i++ ) unique[i] = new HashSet<>();
+
+        for( ValueData<T> vd : data ) {
+            for( int i = 0; i < size; i++ ) unique[i].add( vd.data.get( i ) );
+        }
+
+        final long[] longs = new long[size];
+        for( int i = 0; i < size; i++ ) longs[i] = unique[i].size();
+
         return longs;
     }
 
+    private void count() {
+        if( counted ) return;
+
+        nodeCount = 0;
+        leafCount = 0;
+        updateCount( root );
+        counted = true;
+    }
+
     private void updateCount( TreeNode<T> node ) {
         if( node == null ) return;
 
@@ -207,37 +398,94 @@ public class Tree<T> {
         return longData;
     }
 
+    /**
+     * @param reuse keep the nodes already compiled into builder, only the new ones are appended
+     */
+    private int compile( TreeNode<T> node, FlatTree.Builder builder, boolean reuse ) {
+        if( node == null ) return FlatTree.NONE;
+        if( reuse && node.flat != FlatTree.NONE ) return node.flat;
+
+        node.flat = compileNode( node, builder, reuse );
+        return node.flat;
+    }
+
+    private int compileNode( TreeNode<T> node, FlatTree.Builder builder, boolean reuse ) {
+        if( node instanceof Leaf ) {
+            return builder.leaf( ( ( Leaf<T> ) node ).selections );
+        } else if( node instanceof Tree.Node ) {
+            final Node n = ( Node ) node;
+
+            final int size = n.sets.size();
+            final long[][] setBits = new long[size][];
+            final boolean[] setInclude = new boolean[size];
+            final int[] setEqual = new int[size];
+            for( int i = 0; i < size; i++ ) {
+                final ArrayBitSet set = n.sets.get( i );
+                setBits[i] = set.bitSet.toLongArray();
+                setInclude[i] = set.include;
+                setEqual[i] = compile( set.equal, builder, reuse );
+            }
+
+            return builder.node( n.dimension, n.eqValue,
+                compile( n.left, builder, reuse ), compile( n.right, builder, reuse ),
+                compile( n.equal, builder, reuse ), compile( n.any, builder, reuse ),
+                setBits, setInclude, setEqual );
+        } else {
+            final HashNode n = ( HashNode ) node;
+
+            final int[] hash = new int[n.hash.length];
+            for( int i = 0; i < hash.length; i++ ) hash[i] = compile( n.hash[i], builder, reuse );
+
+            return builder.hash( n.dimension, compile( n.any, builder, reuse ), hash );
+        }
+    }
+
+    private TreeNode<T> build( List<ValueData<T>> data, long[] uniqueCount, BitSet eq ) {
+        if( data.size() >= parallelThreshold && !ForkJoinTask.inForkJoinPool() )
+            return ForkJoinPool.commonPool().invoke( new ToNodeTask( data, uniqueCount, eq ) );
+
+        return toNode( data, uniqueCount, eq );
+    }
+
     private TreeNode<T> toNode( List<ValueData<T>> data, long[] uniqueCount, BitSet eq ) {
         if( data.isEmpty() ) return null;
 
         final SplitDimension splitDimension = findSplitDimension( data, uniqueCount, eq );
 
-        if( splitDimension == null ) return new Leaf<>( data.stream().map( sd -> sd.value ).collect( toList() ) );
+        if( splitDimension == null ) return new Leaf<>( data, updatable );
 
         final BitSet bitSetWithDimension = withSet( eq, splitDimension.dimension );
 
         final Dimension dimension = dimensions.get( splitDimension.dimension );
 
-        final List<ArrayBitSet> sets = splitDimension.sets
+        final List<Map.Entry<Object, List<ValueData<T>>>> setsData = new ArrayList<>( splitDimension.sets
             .stream()
-            .collect( groupingBy( s -> s.data.get( splitDimension.dimension ) ) )
-            .entrySet()
-            .stream()
-            .map( es -> {
-                final Array key = ( Array ) es.getKey();
-                return new ArrayBitSet( dimension.toBitSet( key ), key.include, toNode( es.getValue(), uniqueCount, bitSetWithDimension ) );
-            } )
-            .collect( toList() );
+            .collect( groupingBy( s -> ( Object ) s.data.get( splitDimension.dimension ) ) )
+            .entrySet() );
 
         if( splitDimension.hash.isEmpty() ) {
+            final ArrayList<Pair<List<ValueData<T>>, BitSet>> children = new ArrayList<>();
+            children.add( __( splitDimension.left, eq ) );
+            children.add( __( splitDimension.right, eq ) );
+            children.add( __( splitDimension.equal, bitSetWithDimension ) );
+            children.add( __( splitDimension.any, bitSetWithDimension ) );
+            setsData.forEach( es -> children.add( __( es.getValue(), bitSetWithDimension ) ) );
+
+            final TreeNode<T>[] nodes = toNodes( children, uniqueCount );
+
+            final List<ArrayBitSet> sets = new ArrayList<>( setsData.size() );
+            for( int i = 0; i < setsData.size(); i++ ) {
+                final Array key = ( Array ) setsData.get( i ).getKey();
+                sets.add( new ArrayBitSet( dimension.toBitSet( key ), key.include, nodes[4 + i] ) );
+            }
 
             return new Node(
                 splitDimension.dimension,
                 splitDimension.value,
-                toNode( splitDimension.left, uniqueCount, eq ),
-                toNode( splitDimension.right, uniqueCount, eq ),
-                toNode( splitDimension.equal, uniqueCount, bitSetWithDimension ),
-                toNode( splitDimension.any, uniqueCount, bitSetWithDimension ),
+                nodes[0],
+                nodes[1],
+                nodes[2],
+                nodes[3],
                 sets
             );
         } else {
@@ -248,19 +496,50 @@ public class Tree<T> {
 
             final int max = map.keySet().stream().mapToInt( l -> l ).max().getAsInt();
 
-            final TreeNode<T>[] array = new TreeNode[max + 1];
-            Arrays.fill( array, null );
+            final ArrayList<Pair<List<ValueData<T>>, BitSet>> children = new ArrayList<>( max + 2 );
+            children.add( __( splitDimension.any, bitSetWithDimension ) );
+            for( int i = 0; i <= max; i++ )
+                children.add( __( map.getOrDefault( i, emptyList() ), bitSetWithDimension ) );
 
-            map.forEach( ( p, l ) -> array[p] = toNode( l, uniqueCount, bitSetWithDimension ) );
+            final TreeNode<T>[] nodes = toNodes( children, uniqueCount );
 
             return new HashNode(
                 splitDimension.dimension,
-                array,
-                toNode( splitDimension.any, uniqueCount, bitSetWithDimension )
+                Arrays.copyOfRange( nodes, 1, nodes.length ),
+                nodes[0]
             );
         }
     }
 
+    /**
+     * Children with at least {@link #parallelThreshold} rows are forked when running in a ForkJoinPool.
+     */
+    @SuppressWarnings( "unchecked" )
+    private TreeNode<T>[] toNodes( List<Pair<List<ValueData<T>>, BitSet>> children, long[] uniqueCount ) {
+        final TreeNode<T>[] nodes = new TreeNode[children.size()];
+        final ToNodeTask[] tasks = new Tree.ToNodeTask[children.size()];
+        final boolean inForkJoinPool = ForkJoinTask.inForkJoinPool();
+
+        for( int i = 0; i < nodes.length; i++ ) {
+            final Pair<List<ValueData<T>>, BitSet> child = children.get( i );
+            if( inForkJoinPool && child._1.size() >= parallelThreshold ) {
+                tasks[i] = new ToNodeTask( child._1, uniqueCount, child._2 );
+                tasks[i].fork();
+            }
+        }
+
+        for( int i = 0; i < nodes.length; i++ ) {
+            final Pair<List<ValueData<T>>, BitSet> child = children.get( i );
+            if( tasks[i] == null ) nodes[i] = toNode( child._1, uniqueCount, child._2 );
+        }
+
+        for( int i = 0; i < nodes.length; i++ ) {
+            if( tasks[i] != null ) nodes[i] = tasks[i].join();
+        }
+
+        return nodes;
+    }
+
     private BitSet withSet( BitSet eq, int dimension ) {
         final BitSet bitSet = BitSet.valueOf( eq.toLongArray() );
         bitSet.set( dimension );
@@ -361,6 +640,58 @@ public class Tree<T> {
         return result;
     }
 
+    /**
+     * @return array encoded tree without the spare capacity an updatable tree keeps for appends
+     */
+    synchronized FlatTree flat() {
+        return builder == null ? flat : builder.build( flat.root );
+    }
+
+    public QueryContext<T> newQueryContext() {
+        return new QueryContext<>();
+    }
+
+    /**
+     * Allocation-free lookup over the array encoded tree, the results stay in context until its next use.
+     *
+     * @see #newQueryContext()
+     */
+    public QueryContext<T> find( List<?> query, QueryContext<T> context ) {
+        final FlatTree flat = this.flat;
+
+        context.prepare( dimensions, query, flat.selections );
+        flat.find( context );
+
+        return context;
+    }
+
+    public List<Set<T>> findAll( List<List<?>> queries ) {
+        return findAll( queries, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Batch variant of {@link #find(List)}: every node is visited once per batch and the queries are
+     * partitioned between its children. Batches larger than {@link #FIND_ALL_BATCH_SIZE} are split between pool workers.
+     */
+    @SuppressWarnings( "unchecked" )
+    public List<Set<T>> findAll( List<List<?>> queries, ForkJoinPool pool ) {
+        final FlatTree flat = this.flat;
+        final QueryContext<T>[] contexts = new QueryContext[queries.size()];
+
+        for( int i = 0; i < contexts.length; i++ ) {
+            contexts[i] = new QueryContext<>();
+            contexts[i].prepare( dimensions, queries.get( i ), flat.selections );
+        }
+
+        if( contexts.length <= FIND_ALL_BATCH_SIZE ) flat.findAll( contexts, 0, contexts.length );
+        else pool.invoke( new FindAllTask( flat, contexts, 0, contexts.length ) );
+
+        final ArrayList<Set<T>> result = new ArrayList<>( contexts.length );
+        for( QueryContext<T> context : contexts ) result.add( context.toSet() );
+
+        return result;
+    }
+
     private void find( TreeNode<T> node, long[][] query, HashSet<T> result ) {
         if( node == null ) return;
 
@@ -633,10 +964,15 @@ public class Tree<T> {
         }
     }
 
-    private interface TreeNode<T> {
-        List<Pair<String, TreeNode<T>>> children();
+    private abstract static class TreeNode<T> {
+        /**
+         * index in the array encoded tree, assigned by the writer when the node is compiled
+         */
+        int flat = FlatTree.NONE;
 
-        void print( StringBuilder out );
+        abstract List<Pair<String, TreeNode<T>>> children();
+
+        abstract void print( StringBuilder out );
     }
 
     @ToString( callSuper = true )
@@ -650,6 +986,7 @@ public class Tree<T> {
         }
     }
 
+    @EqualsAndHashCode
     public static class ValueData<T> {
         public final List<?> data;
         public final T value;
@@ -660,12 +997,17 @@ public class Tree<T> {
         }
     }
 
-    @ToString
-    static class Leaf<T> implements TreeNode<T> {
+    @ToString( exclude = "data" )
+    static class Leaf<T> extends TreeNode<T> {
         final List<T> selections;
-
-        private Leaf( List<T> selections ) {
-            this.selections = selections;
+        /**
+         * rows of an updatable tree, null otherwise
+         */
+        final List<ValueData<T>> data;
+
+        private Leaf( List<ValueData<T>> data, boolean keepData ) {
+            this.data = keepData ? data : null;
+            this.selections = data.stream().map( sd -> sd.value ).collect( toList() );
         }
 
         @Override
@@ -786,6 +1128,64 @@ public class Tree<T> {
         }
     }
 
+    private class ToNodeTask extends RecursiveTask<TreeNode<T>> {
+        private final List<ValueData<T>> data;
+        private final long[] uniqueCount;
+        private final BitSet eq;
+
+        private ToNodeTask( List<ValueData<T>> data, long[] uniqueCount, BitSet eq ) {
+            this.data = data;
+            this.uniqueCount = uniqueCount;
+            this.eq = eq;
+        }
+
+        @Override
+        protected TreeNode<T> compute() {
+            return toNode( data, uniqueCount, eq );
+        }
+    }
+
+    private static class FindAllTask extends RecursiveAction {
+        private final FlatTree flat;
+        private final QueryContext<?>[] contexts;
+        private final int from;
+        private final int to;
+
+        private FindAllTask( FlatTree flat, QueryContext<?>[] contexts, int from, int to ) {
+            this.flat = flat;
+            this.contexts = contexts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if( to - from <= FIND_ALL_BATCH_SIZE ) flat.findAll( contexts, from, to );
+            else {
+                final int middle = ( from + to ) >>> 1;
+                invokeAll( new FindAllTask( flat, contexts, from, middle ), new FindAllTask( flat, contexts, middle, to ) );
+            }
+        }
+    }
+
+    private class Directions {
+        private final List<ValueData<T>> left = new ArrayList<>();
+        private final List<ValueData<T>> right = new ArrayList<>();
+        private final List<ValueData<T>> equal = new ArrayList<>();
+        private final List<ValueData<T>> any = new ArrayList<>();
+
+        private Directions( Dimension dimension, int dimensionIndex, long eqValue, List<ValueData<T>> data ) {
+            for( ValueData<T> vd : data ) {
+                final long[] value = dimension.getOrDefault( vd.data.get( dimensionIndex ) );
+
+                if( value == ANY_AS_ARRAY ) any.add( vd );
+                else if( value[0] < eqValue ) left.add( vd );
+                else if( value[0] > eqValue ) right.add( vd );
+                else equal.add( vd );
+            }
+        }
+    }
+
     private class SplitDimension {
         private final List<ValueData<T>> left;
         private final List<ValueData<T>> right;
@@ -819,7 +1219,7 @@ public class Tree<T> {
     }
 
     @ToString
-    class HashNode implements TreeNode<T> {
+    class HashNode extends TreeNode<T> {
         final TreeNode<T>[] hash;
         final int dimension;
         final TreeNode<T> any;
@@ -853,7 +1253,7 @@ public class Tree<T> {
     }
 
     @ToString
-    class Node implements TreeNode<T> {
+    class Node extends TreeNode<T> {
         final List<ArrayBitSet> sets;
         final TreeNode<T> left;
         final TreeNode<T> right;
@@ -32,6 +32,9 @@ import java.util.List;
 public class TreeBuilder<T> {
     private List<Dimension> dimensions;
     private double hashFillFactor = 0.25;
+    private int parallelThreshold = Tree.PARALLEL_THRESHOLD;
+    private boolean measureMemory = true;
+    private boolean updatable = false;
 
     public TreeBuilder( List<Dimension> dimensions ) {
         this.dimensions = dimensions;
@@ -43,8 +46,36 @@ public class TreeBuilder<T> {
         return this;
     }
 
+    /**
+     * Subtrees with at least parallelThreshold rows are built on the common ForkJoinPool,
+     * Integer.MAX_VALUE builds on the calling thread.
+     */
+    public TreeBuilder<T> withParallelThreshold( int parallelThreshold ) {
+        this.parallelThreshold = parallelThreshold;
+
+        return this;
+    }
+
+    /**
+     * Deep memory measurement of the loaded tree, see {@link Tree#getMemory()}.
+     */
+    public TreeBuilder<T> withMemoryMeasurement( boolean measureMemory ) {
+        this.measureMemory = measureMemory;
+
+        return this;
+    }
+
+    /**
+     * Keeps the rows in the leaves for {@link Tree#update(List, List)}, at the cost of the heap they take.
+     */
+    public TreeBuilder<T> withUpdates( boolean updatable ) {
+        this.updatable = updatable;
+
+        return this;
+    }
+
     public final Tree<T> load( List<Tree.ValueData<T>> data ) {
-        final Tree<T> tree = new Tree<>( dimensions, hashFillFactor );
+        final Tree<T> tree = new Tree<>( dimensions, hashFillFactor, parallelThreshold, measureMemory, updatable );
         tree.load( data );
 
         return tree;
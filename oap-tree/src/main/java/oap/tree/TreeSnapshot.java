@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import lombok.SneakyThrows;
+import oap.io.Closeables;
+import oap.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Read-only tree memory-mapped from a snapshot of a loaded {@link Tree}.
+ * <p>
+ * File layout: header length, header (dimension names, operation types and dictionaries, selections, root,
+ * section sizes, strings as an int length and UTF-8 bytes), then the 8 byte aligned little endian node, eq value, set, bit and ref sections of the
+ * array encoded tree. Only the header is read on the heap, the node sections stay in the mapped file.
+ * Snapshots are limited to 2Gb.
+ */
+public final class TreeSnapshot<T> implements Closeable {
+    private static final int MAGIC = 0x4F415054;
+    private static final int VERSION = 2;
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final List<Dimension> dimensions;
+    private final MappedFlatTree flat;
+    private final MappedByteBuffer buffer;
+
+    private TreeSnapshot( List<Dimension> dimensions, MappedFlatTree flat, MappedByteBuffer buffer ) {
+        this.dimensions = dimensions;
+        this.flat = flat;
+        this.buffer = buffer;
+    }
+
+    @SneakyThrows
+    @SuppressWarnings( "unchecked" )
+    public static <T> void write( Tree<T> tree, Path path, Function<? super T, String> serializer ) {
+        final FlatTree flat = tree.flat();
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try( DataOutputStream out = new DataOutputStream( header ) ) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            out.writeInt( flat.dimensions.length );
+            for( Dimension dimension : flat.dimensions ) {
+                writeString( out, dimension.name );
+                out.writeInt( dimension.operationType == null ? -1 : dimension.operationType.ordinal() );
+
+                final List<String> dictionary = dimension.dictionary();
+                out.writeInt( dictionary.size() );
+                for( String value : dictionary ) writeString( out, value );
+            }
+
+            out.writeInt( flat.selections.length );
+            for( Object selection : flat.selections ) writeString( out, serializer.apply( ( T ) selection ) );
+
+            out.writeInt( flat.root );
+            out.writeInt( flat.nodes.length );
+            out.writeInt( flat.eqValues.length );
+            out.writeInt( flat.sets.length );
+            out.writeInt( flat.bits.length );
+            out.writeInt( flat.refs.length );
+        }
+
+        final Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+        Files.ensureFile( tmp );
+
+        try( FileChannel channel = FileChannel.open( tmp, CREATE, TRUNCATE_EXISTING, WRITE ) ) {
+            final ByteBuffer buffer = ByteBuffer.allocate( WRITE_BUFFER ).order( ByteOrder.LITTLE_ENDIAN );
+
+            buffer.putInt( header.size() );
+            write( channel, buffer );
+            channel.write( ByteBuffer.wrap( header.toByteArray() ) );
+
+            write( channel, buffer, flat.nodes );
+            write( channel, buffer, flat.eqValues );
+            write( channel, buffer, flat.sets );
+            write( channel, buffer, flat.bits );
+            write( channel, buffer, flat.refs );
+
+            channel.force( true );
+        }
+
+        Files.rename( tmp, path );
+    }
+
+    /**
+     * @param dimensions definitions of the tree dimensions, dictionaries of fresh dimensions are filled from the snapshot
+     */
+    @SneakyThrows
+    public static <T> TreeSnapshot<T> read( Path path, List<Dimension> dimensions, Function<String, ? extends T> deserializer ) {
+        final MappedByteBuffer buffer;
+        try( FileChannel channel = FileChannel.open( path, READ ) ) {
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+        final byte[] header = new byte[buffer.getInt( 0 )];
+        final ByteBuffer headerBuffer = buffer.duplicate();
+        headerBuffer.position( 4 );
+        headerBuffer.get( header );
+
+        try( DataInputStream in = new DataInputStream( new ByteArrayInputStream( header ) ) ) {
+            if( in.readInt() != MAGIC ) throw new IOException( path + ": not a tree snapshot" );
+            final int version = in.readInt();
+            if( version != VERSION ) throw new IOException( path + ": unsupported snapshot version " + version );
+
+            final int dimensionCount = in.readInt();
+            if( dimensionCount != dimensions.size() )
+                throw new IllegalArgumentException( "snapshot has " + dimensionCount + " dimensions, expected " + dimensions.size() );
+
+            for( Dimension dimension : dimensions ) {
+                final String name = readString( in );
+                final int operationType = in.readInt();
+                if( !dimension.name.equals( name )
+                    || operationType != ( dimension.operationType == null ? -1 : dimension.operationType.ordinal() ) )
+                    throw new IllegalArgumentException( "snapshot dimension " + name + " does not match " + dimension.name );
+
+                final int size = in.readInt();
+                final ArrayList<String> dictionary = new ArrayList<>( size );
+                for( int i = 0; i < size; i++ ) dictionary.add( readString( in ) );
+                dimension.restoreDictionary( dictionary );
+            }
+
+            final Object[] selections = new Object[in.readInt()];
+            for( int i = 0; i < selections.length; i++ ) selections[i] = deserializer.apply( readString( in ) );
+
+            final int root = in.readInt();
+            final int nodes = in.readInt();
+            final int eqValues = in.readInt();
+            final int sets = in.readInt();
+            final int bits = in.readInt();
+            final int refs = in.readInt();
+
+            int offset = align( 4 + header.length );
+            final IntBuffer nodesBuffer = slice( buffer, offset, nodes * 4 ).asIntBuffer();
+            offset = align( offset + nodes * 4 );
+            final LongBuffer eqValuesBuffer = slice( buffer, offset, eqValues * 8 ).asLongBuffer();
+            offset = align( offset + eqValues * 8 );
+            final IntBuffer setsBuffer = slice( buffer, offset, sets * 4 ).asIntBuffer();
+            offset = align( offset + sets * 4 );
+            final LongBuffer bitsBuffer = slice( buffer, offset, bits * 8 ).asLongBuffer();
+            offset = align( offset + bits * 8 );
+            final IntBuffer refsBuffer = slice( buffer, offset, refs * 4 ).asIntBuffer();
+
+            final MappedFlatTree flat = new MappedFlatTree( dimensions.toArray( new Dimension[dimensions.size()] ),
+                nodesBuffer, eqValuesBuffer, setsBuffer, bitsBuffer, refsBuffer, selections, root );
+
+            return new TreeSnapshot<>( dimensions, flat, buffer );
+        }
+    }
+
+    /**
+     * {@link DataOutputStream#writeUTF(String)} is limited to 64Kb.
+     */
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static int align( int offset ) {
+        return ( offset + 7 ) & ~7;
+    }
+
+    private static ByteBuffer slice( ByteBuffer buffer, int offset, int length ) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position( offset );
+        duplicate.limit( offset + length );
+        return duplicate.slice().order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    private static void write( FileChannel channel, ByteBuffer buffer, int[] section ) throws IOException {
+        pad( channel, buffer );
+        for( int value : section ) {
+            if( buffer.remaining() < 4 ) write( channel, buffer );
+            buffer.putInt( value );
+        }
+        write( channel, buffer );
+    }
+
+    private static void write( FileChannel channel, ByteBuffer buffer, long[] section ) throws IOException {
+        pad( channel, buffer );
+        for( long value : section ) {
+            if( buffer.remaining() < 8 ) write( channel, buffer );
+            buffer.putLong( value );
+        }
+        write( channel, buffer );
+    }
+
+    private static void pad( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        final int padding = align( ( int ) channel.position() ) - ( int ) channel.position();
+        for( int i = 0; i < padding; i++ ) buffer.put( ( byte ) 0 );
+        write( channel, buffer );
+    }
+
+    private static void write( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        buffer.flip();
+        while( buffer.hasRemaining() ) channel.write( buffer );
+        buffer.clear();
+    }
+
+    public QueryContext<T> newQueryContext() {
+        return new QueryContext<>();
+    }
+
+    public QueryContext<T> find( List<?> query, QueryContext<T> context ) {
+        context.prepare( dimensions, query, flat.selections );
+        flat.find( context );
+
+        return context;
+    }
+
+    public Set<T> find( List<?> query ) {
+        return find( query, newQueryContext() ).toSet();
+    }
+
+    public int getSelectionCount() {
+        return flat.selections.length;
+    }
+
+    /**
+     * Unmaps the snapshot, it must not be queried afterwards.
+     */
+    @Override
+    public void close() {
+        Closeables.close( buffer );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static oap.tree.Dimension.ENUM;
+import static oap.tree.Dimension.LONG;
+import static oap.tree.Dimension.OperationType.CONTAINS;
+import static oap.tree.Tree.l;
+import static oap.tree.Tree.v;
+import static oap.tree.TreeQueryContextTest.data;
+import static oap.tree.TreeQueryContextTest.dimensions;
+import static oap.tree.TreeQueryContextTest.queries;
+import static oap.tree.TreeTest.TestEnum.Test1;
+import static oap.tree.TreeTest.TestEnum.Test2;
+import static oap.tree.TreeTest.TestEnum.Test3;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeFindAllTest {
+    @Test
+    public void testFindAll() {
+        final Tree<String> tree = Tree
+            .<String>tree( LONG( "d1", CONTAINS, false ), ENUM( "d2", TreeTest.TestEnum.class, CONTAINS, false ) )
+            .withHashFillFactor( 1 )
+            .load( l( v( "1", 1L, Test1 ), v( "2", 2L, Test2 ), v( "3", 1L, Test3 ), v( "33", 1L, Test3 ) ) );
+
+        final List<Set<String>> result = tree.findAll( l( l( 1L, Test3 ), l( l( 1L, 2L ), null ), l( 5L, Test1 ) ) );
+
+        assertThat( result ).hasSize( 3 );
+        assertThat( result.get( 0 ) ).containsOnly( "3", "33" );
+        assertThat( result.get( 1 ) ).containsOnly( "1", "2", "3", "33" );
+        assertThat( result.get( 2 ) ).isEmpty();
+    }
+
+    @Test
+    public void testSameAsFind() {
+        final Random random = new Random( 1 );
+
+        for( double hashFillFactor : new double[] { 0.25, 1 } ) {
+            final Tree<String> tree = Tree.<String>tree( dimensions() )
+                .withHashFillFactor( hashFillFactor )
+                .load( data( random, 2000 ) );
+
+            final List<List<?>> queries = queries( random, Tree.FIND_ALL_BATCH_SIZE * 4 + 3 );
+            final List<Set<String>> result = tree.findAll( queries );
+
+            for( int i = 0; i < queries.size(); i++ )
+                assertThat( result.get( i ) ).isEqualTo( tree.find( queries.get( i ) ) );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static oap.tree.TreeQueryContextTest.data;
+import static oap.tree.TreeQueryContextTest.dimensions;
+import static oap.tree.TreeQueryContextTest.queries;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeParallelLoadTest {
+    @Test
+    public void testSameAsSequential() {
+        final Random random = new Random( 1 );
+        final List<Tree.ValueData<String>> data = data( random, 5000 );
+
+        final Tree<String> sequential = Tree.<String>tree( dimensions() )
+            .withParallelThreshold( Integer.MAX_VALUE )
+            .withMemoryMeasurement( false )
+            .load( data );
+        final Tree<String> parallel = Tree.<String>tree( dimensions() )
+            .withParallelThreshold( 10 )
+            .withMemoryMeasurement( false )
+            .load( data );
+
+        assertThat( parallel.getNodeCount() ).isEqualTo( sequential.getNodeCount() );
+        assertThat( parallel.getLeafCount() ).isEqualTo( sequential.getLeafCount() );
+        assertThat( parallel.toString() ).isEqualTo( sequential.toString() );
+
+        for( List<?> query : queries( random, 1000 ) )
+            assertThat( parallel.find( query ) ).isEqualTo( sequential.find( query ) );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import oap.testng.AbstractPerformance;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static oap.tree.TreeQueryContextTest.data;
+import static oap.tree.TreeQueryContextTest.dimensions;
+import static oap.tree.TreeQueryContextTest.queries;
+
+@Test( enabled = false )
+public class TreePerformance extends AbstractPerformance {
+    private static final int SAMPLES = 20000;
+    private static final int EXPERIMENTS = 5;
+
+    @Test
+    public void testFind() {
+        final Random random = new Random( 1 );
+
+        final Tree<String> tree = Tree.<String>tree( dimensions() ).load( data( random, 10000 ) );
+        final List<List<?>> queries = queries( random, 1024 );
+        final QueryContext<String> context = tree.newQueryContext();
+
+        benchmark( "tree.find", SAMPLES, EXPERIMENTS, ( i ) -> {
+            tree.find( queries.get( i & 1023 ) );
+        } );
+
+        benchmark( "tree.find-context", SAMPLES, EXPERIMENTS, ( i ) -> {
+            tree.find( queries.get( i & 1023 ), context );
+        } );
+    }
+
+    @Test
+    public void testFindAll() {
+        final Random random = new Random( 1 );
+
+        final Tree<String> tree = Tree.<String>tree( dimensions() ).load( data( random, 10000 ) );
+        final List<List<?>> queries = queries( random, 1024 );
+
+        benchmark( "tree.find-1024", SAMPLES / 1024, EXPERIMENTS, ( i ) -> {
+            for( List<?> query : queries ) tree.find( query );
+        } );
+
+        benchmark( "tree.findAll-1024", SAMPLES / 1024, EXPERIMENTS, ( i ) -> {
+            tree.findAll( queries );
+        } );
+    }
+
+    @DataProvider
+    public Object[][] rows() {
+        return new Object[][] { { 10000 }, { 100000 }, { 1000000 } };
+    }
+
+    @Test( dataProvider = "rows" )
+    public void testLoad( int rows ) {
+        final List<Tree.ValueData<String>> data = data( new Random( 1 ), rows );
+
+        benchmark( "tree.load-" + rows, 1, EXPERIMENTS, ( i ) -> {
+            Tree.<String>tree( dimensions() )
+                .withParallelThreshold( Integer.MAX_VALUE )
+                .withMemoryMeasurement( false )
+                .load( data );
+        } );
+
+        benchmark( "tree.load-parallel-" + rows, 1, EXPERIMENTS, ( i ) -> {
+            Tree.<String>tree( dimensions() )
+                .withMemoryMeasurement( false )
+                .load( data );
+        } );
+    }
+
+    @Test( dataProvider = "rows" )
+    public void testUpdate( int rows ) {
+        final List<Tree.ValueData<String>> data = data( new Random( 1 ), rows + 1 );
+        final Tree<String> tree = Tree.<String>tree( dimensions() )
+            .withMemoryMeasurement( false )
+            .withUpdates( true )
+            .load( data.subList( 0, rows ) );
+        final List<Tree.ValueData<String>> row = data.subList( rows, rows + 1 );
+
+        benchmark( "tree.update-" + rows, 200, EXPERIMENTS, ( i ) -> {
+            if( i % 2 == 0 ) tree.add( row );
+            else tree.remove( row );
+        } );
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static oap.tree.Dimension.ARRAY_LONG;
+import static oap.tree.Dimension.BOOLEAN;
+import static oap.tree.Dimension.ENUM;
+import static oap.tree.Dimension.LONG;
+import static oap.tree.Dimension.OperationType.BETWEEN_INCLUSIVE;
+import static oap.tree.Dimension.OperationType.CONTAINS;
+import static oap.tree.Dimension.OperationType.GREATER_THEN_OR_EQUAL_TO;
+import static oap.tree.Dimension.OperationType.NOT_CONTAINS;
+import static oap.tree.Dimension.STRING;
+import static oap.tree.Tree.a;
+import static oap.tree.Tree.l;
+import static oap.tree.Tree.v;
+import static oap.tree.TreeTest.TestEnum.Test1;
+import static oap.tree.TreeTest.TestEnum.Test2;
+import static oap.tree.TreeTest.TestEnum.Test3;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeQueryContextTest {
+    static List<Dimension> dimensions() {
+        return l(
+            LONG( "d1", CONTAINS, false ),
+            STRING( "d2", CONTAINS, false ),
+            ENUM( "d3", TreeTest.TestEnum.class, NOT_CONTAINS, false ),
+            LONG( "d4", GREATER_THEN_OR_EQUAL_TO, false ),
+            LONG( "d5", BETWEEN_INCLUSIVE, false ),
+            BOOLEAN( "d6", CONTAINS, true ),
+            ARRAY_LONG( "d7", false )
+        );
+    }
+
+    static List<Tree.ValueData<String>> data( Random random, int count ) {
+        final ArrayList<Tree.ValueData<String>> data = new ArrayList<>( count );
+
+        for( int i = 0; i < count; i++ ) {
+            data.add( v( "s" + i,
+                random.nextInt( 5 ) == 0 ? Optional.empty() : ( long ) random.nextInt( 20 ),
+                random.nextInt( 5 ) == 0 ? Optional.empty() : "v" + random.nextInt( 10 ),
+                TreeTest.TestEnum.values()[random.nextInt( 4 )],
+                random.nextInt( 3 ) == 0 ? Optional.empty() : ( long ) random.nextInt( 100 ),
+                ( long ) random.nextInt( 100 ),
+                random.nextBoolean(),
+                random.nextInt( 3 ) == 0 ? a( true )
+                    : a( random.nextBoolean(), ( long ) random.nextInt( 10 ), ( long ) random.nextInt( 10 ) )
+            ) );
+        }
+
+        return data;
+    }
+
+    static List<List<?>> queries( Random random, int count ) {
+        final ArrayList<List<?>> queries = new ArrayList<>( count );
+
+        for( int i = 0; i < count; i++ ) {
+            queries.add( l(
+                random.nextInt( 4 ) == 0 ? l( ( long ) random.nextInt( 20 ), ( long ) random.nextInt( 20 ) )
+                    : ( long ) random.nextInt( 20 ),
+                random.nextInt( 4 ) == 0 ? null : "v" + random.nextInt( 12 ),
+                random.nextInt( 4 ) == 0 ? Optional.empty() : TreeTest.TestEnum.values()[random.nextInt( 4 )],
+                ( long ) random.nextInt( 100 ),
+                l( ( long ) random.nextInt( 50 ), 50L + random.nextInt( 50 ) ),
+                random.nextInt( 4 ) == 0 ? null : random.nextBoolean(),
+                random.nextInt( 4 ) == 0 ? l() : l( ( long ) random.nextInt( 10 ), ( long ) random.nextInt( 10 ) )
+            ) );
+        }
+
+        return queries;
+    }
+
+    @Test
+    public void testSameAsFind() {
+        final Random random = new Random( 1 );
+
+        for( double hashFillFactor : new double[] { 0.25, 1 } ) {
+            final Tree<String> tree = Tree.<String>tree( dimensions() )
+                .withHashFillFactor( hashFillFactor )
+                .load( data( random, 2000 ) );
+
+            final QueryContext<String> context = tree.newQueryContext();
+
+            for( List<?> query : queries( random, 2000 ) )
+                assertThat( tree.find( query, context ).toSet() ).isEqualTo( tree.find( query ) );
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        final Tree<String> tree = Tree
+            .<String>tree( LONG( "d1", CONTAINS, false ), ENUM( "d2", TreeTest.TestEnum.class, CONTAINS, false ) )
+            .withHashFillFactor( 1 )
+            .load( l( v( "1", 1L, Test1 ), v( "2", 2L, Test2 ), v( "3", 1L, Test3 ), v( "33", 1L, Test3 ) ) );
+
+        final QueryContext<String> context = tree.newQueryContext();
+
+        assertThat( tree.find( l( 1L, Test3 ), context ).toSet() ).containsOnly( "3", "33" );
+        assertThat( tree.find( l( l( 1L, 2L ), null ), context ).toSet() ).containsOnly( "1", "2", "3", "33" );
+        assertThat( tree.find( l( 5L, Test1 ), context ).isEmpty() ).isTrue();
+        assertThat( tree.find( l( 2L, Test2 ), context ).get( 0 ) ).isEqualTo( "2" );
+    }
+
+    @Test
+    public void testEmpty() {
+        final Tree<String> tree = Tree.<String>tree( LONG( "d1", CONTAINS, false ) ).load( l() );
+
+        assertThat( tree.find( l( 5L ), tree.newQueryContext() ).isEmpty() ).isTrue();
+    }
+}
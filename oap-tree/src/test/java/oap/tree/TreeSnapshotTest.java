@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static oap.tree.Dimension.LONG;
+import static oap.tree.Dimension.OperationType.CONTAINS;
+import static oap.tree.Dimension.STRING;
+import static oap.tree.Tree.l;
+import static oap.tree.Tree.v;
+import static oap.tree.TreeQueryContextTest.data;
+import static oap.tree.TreeQueryContextTest.dimensions;
+import static oap.tree.TreeQueryContextTest.queries;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TreeSnapshotTest extends AbstractTest {
+    @Test
+    public void testWriteRead() {
+        final Random random = new Random( 1 );
+        final Path path = Env.tmpPath( "tree.snapshot" );
+
+        final Tree<String> tree = Tree.<String>tree( dimensions() ).load( data( random, 3000 ) );
+        TreeSnapshot.write( tree, path, Function.identity() );
+
+        try( TreeSnapshot<String> snapshot = TreeSnapshot.read( path, dimensions(), Function.identity() ) ) {
+            final QueryContext<String> context = snapshot.newQueryContext();
+
+            for( List<?> query : queries( random, 2000 ) )
+                assertThat( snapshot.find( query, context ).toSet() ).isEqualTo( tree.find( query ) );
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final Path path = Env.tmpPath( "empty.snapshot" );
+
+        TreeSnapshot.write( Tree.<Integer>tree( LONG( "d1", CONTAINS, false ) ).load( l() ), path, String::valueOf );
+
+        try( TreeSnapshot<Integer> snapshot = TreeSnapshot.read( path, l( LONG( "d1", CONTAINS, false ) ), Integer::valueOf ) ) {
+            assertThat( snapshot.find( l( 1L ) ) ).isEmpty();
+        }
+    }
+
+    @Test
+    public void testLongStrings() {
+        final Path path = Env.tmpPath( "long.snapshot" );
+        final String value = String.join( "", Collections.nCopies( 40000, "я" ) );
+
+        TreeSnapshot.write( Tree.<String>tree( STRING( "d1", CONTAINS, false ) )
+            .load( l( v( value, value ) ) ), path, Function.identity() );
+
+        try( TreeSnapshot<String> snapshot = TreeSnapshot.read( path, l( STRING( "d1", CONTAINS, false ) ), Function.identity() ) ) {
+            assertThat( snapshot.find( l( value ) ) ).containsOnly( value );
+        }
+    }
+
+    @Test
+    public void testDimensionMismatch() {
+        final Path path = Env.tmpPath( "tree.snapshot" );
+
+        TreeSnapshot.write( Tree.<Integer>tree( STRING( "d1", CONTAINS, false ) )
+            .load( l( v( 1, "a" ), v( 2, "b" ) ) ), path, String::valueOf );
+
+        assertThatThrownBy( () -> TreeSnapshot.read( path, l( LONG( "d2", CONTAINS, false ) ), Integer::valueOf ) )
+            .isInstanceOf( IllegalArgumentException.class );
+
+        final Dimension used = STRING( "d1", CONTAINS, false );
+        used.init( java.util.stream.Stream.of( "b" ) );
+        assertThatThrownBy( () -> TreeSnapshot.read( path, l( used ), Integer::valueOf ) )
+            .isInstanceOf( IllegalStateException.class );
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tree;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static oap.tree.Dimension.LONG;
+import static oap.tree.Dimension.OperationType.CONTAINS;
+import static oap.tree.Tree.l;
+import static oap.tree.Tree.v;
+import static oap.tree.TreeQueryContextTest.data;
+import static oap.tree.TreeQueryContextTest.dimensions;
+import static oap.tree.TreeQueryContextTest.queries;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeUpdateTest {
+    @Test
+    public void testAddRemove() {
+        final Tree<String> tree = Tree
+            .<String>tree( LONG( "d1", CONTAINS, false ) )
+            .withUpdates( true )
+            .load( l( v( "1", 1L ), v( "2", 2L ) ) );
+
+        tree.add( l( v( "3", 3L ), v( "22", 2L ) ) );
+
+        assertThat( tree.find( l( 2L ) ) ).containsOnly( "2", "22" );
+        assertThat( tree.find( l( 3L ) ) ).containsOnly( "3" );
+        assertThat( tree.find( l( 3L ), tree.newQueryContext() ).toSet() ).containsOnly( "3" );
+
+        tree.remove( l( v( "2", 2L ), v( "3", 4L ) ) );
+
+        assertThat( tree.find( l( 2L ) ) ).containsOnly( "22" );
+        assertThat( tree.find( l( 3L ) ) ).containsOnly( "3" );
+        assertThat( tree.getLeafCount() ).isGreaterThan( 0 );
+    }
+
+    @Test
+    public void testAddToEmpty() {
+        final Tree<String> tree = Tree.<String>tree( LONG( "d1", CONTAINS, false ) ).withUpdates( true ).load( l() );
+
+        tree.add( l( v( "1", 1L ) ) );
+
+        assertThat( tree.find( l( 1L ) ) ).containsOnly( "1" );
+    }
+
+    @Test
+    public void testSameAsLoad() {
+        final Random random = new Random( 1 );
+
+        final List<Tree.ValueData<String>> data = data( random, 3000 );
+        final List<Tree.ValueData<String>> initial = data.subList( 0, 2000 );
+        final List<Tree.ValueData<String>> remove = data.subList( 1000, 1500 );
+        final List<Tree.ValueData<String>> add = data.subList( 2000, 3000 );
+
+        final ArrayList<Tree.ValueData<String>> expectedData = new ArrayList<>( data.subList( 0, 1000 ) );
+        expectedData.addAll( data.subList( 1500, 3000 ) );
+
+        for( double hashFillFactor : new double[] { 0.25, 1 } ) {
+            final Tree<String> tree = Tree.<String>tree( dimensions() )
+                .withHashFillFactor( hashFillFactor )
+                .withUpdates( true )
+                .load( initial );
+            tree.update( remove, add.subList( 0, 500 ) );
+            tree.add( add.subList( 500, 1000 ) );
+
+            final Tree<String> expected = Tree.<String>tree( dimensions() ).withHashFillFactor( hashFillFactor ).load( expectedData );
+
+            for( List<?> query : queries( random, 2000 ) ) {
+                assertThat( tree.find( query ) ).isEqualTo( expected.find( query ) );
+                assertThat( tree.find( query, tree.newQueryContext() ).toSet() ).isEqualTo( expected.find( query ) );
+            }
+        }
+    }
+
+    @Test
+    public void testManySmallUpdates() {
+        final Random random = new Random( 2 );
+
+        final List<Tree.ValueData<String>> data = data( random, 2000 );
+        final Tree<String> tree = Tree.<String>tree( dimensions() ).withUpdates( true ).load( data.subList( 0, 1000 ) );
+
+        for( int i = 0; i < 500; i++ ) {
+            tree.update( data.subList( i, i + 1 ), data.subList( 1000 + i * 2, 1002 + i * 2 ) );
+        }
+
+        final Tree<String> expected = Tree.<String>tree( dimensions() ).load( data.subList( 500, 2000 ) );
+
+        for( List<?> query : queries( random, 2000 ) ) {
+            assertThat( tree.find( query, tree.newQueryContext() ).toSet() ).isEqualTo( expected.find( query ) );
+            assertThat( tree.findAll( l( query ) ).get( 0 ) ).isEqualTo( expected.find( query ) );
+        }
+    }
+
+    @Test( expectedExceptions = IllegalStateException.class )
+    public void testNotUpdatable() {
+        Tree.<String>tree( LONG( "d1", CONTAINS, false ) ).load( l( v( "1", 1L ) ) ).add( l( v( "2", 2L ) ) );
+    }
+}
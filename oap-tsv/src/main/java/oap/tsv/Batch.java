@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import oap.util.Stream;
+import oap.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar block of up to {@link #DEFAULT_SIZE} rows converted by a {@link Model}. INT, LONG and BOOLEAN columns
+ * are kept in {@code long[]}, DOUBLE in {@code double[]} and STRING as codes into a dictionary of the batch,
+ * so typed getters read cells without boxing.
+ */
+public final class Batch {
+   public static final int DEFAULT_SIZE = 4096;
+
+   private final Model.ColumnFunction[] columns;
+   private final Model.ColumnType[] types;
+   private final long[][] longs;
+   private final double[][] doubles;
+   private final int[][] codes;
+   private final Dictionary[] dictionaries;
+   private final int capacity;
+   private int size;
+
+   Batch( Model model, int capacity ) {
+      final int count = model.size();
+
+      this.columns = new Model.ColumnFunction[count];
+      this.types = new Model.ColumnType[count];
+      this.longs = new long[count][];
+      this.doubles = new double[count][];
+      this.codes = new int[count][];
+      this.dictionaries = new Dictionary[count];
+      this.capacity = capacity;
+
+      for( int i = 0; i < count; i++ ) {
+         columns[i] = model.getColumn( i );
+         types[i] = columns[i].type;
+         switch( types[i] ) {
+            case DOUBLE:
+               doubles[i] = new double[capacity];
+               break;
+            case STRING:
+               codes[i] = new int[capacity];
+               dictionaries[i] = new Dictionary();
+               break;
+            default:
+               longs[i] = new long[capacity];
+         }
+      }
+   }
+
+   boolean isFull() {
+      return size == capacity;
+   }
+
+   void add( List<String> line ) {
+      for( int i = 0; i < columns.length; i++ ) {
+         final Model.ColumnFunction column = columns[i];
+         try {
+            if( column instanceof Model.Column ) parse( i, line.get( ( ( Model.Column ) column ).index ) );
+            else setValue( i, column.apply( line ) );
+         } catch( IndexOutOfBoundsException e ) {
+            throw new TsvException( "line does not contain a column with index " + column + ": "
+               + Strings.join( "|", line, "[", "]" ), e );
+         } catch( Exception e ) {
+            throw new TsvException( "at column " + column + " " + e, e );
+         }
+      }
+      size++;
+   }
+
+   private void parse( int column, String value ) {
+      switch( types[column] ) {
+         case BOOLEAN:
+            longs[column][size] = Boolean.parseBoolean( value ) ? 1 : 0;
+            break;
+         case STRING:
+            codes[column][size] = dictionaries[column].code( value );
+            break;
+         case INT:
+            longs[column][size] = Integer.parseInt( value );
+            break;
+         case LONG:
+            longs[column][size] = Long.parseLong( value );
+            break;
+         case DOUBLE:
+            doubles[column][size] = Double.parseDouble( value );
+            break;
+         default:
+            throw new IllegalStateException( "Unknown column type " + types[column] );
+      }
+   }
+
+   void setValue( int column, Object value ) {
+      switch( types[column] ) {
+         case BOOLEAN:
+            longs[column][size] = ( Boolean ) value ? 1 : 0;
+            break;
+         case STRING:
+            codes[column][size] = dictionaries[column].code( ( String ) value );
+            break;
+         case DOUBLE:
+            doubles[column][size] = ( ( Number ) value ).doubleValue();
+            break;
+         default:
+            longs[column][size] = ( ( Number ) value ).longValue();
+      }
+   }
+
+   void setLong( int column, long value ) {
+      longs[column][size] = value;
+   }
+
+   void setDouble( int column, double value ) {
+      doubles[column][size] = value;
+   }
+
+   void setString( int column, String value ) {
+      codes[column][size] = dictionaries[column].code( value );
+   }
+
+   /**
+    * Ends a row filled with the setters.
+    */
+   void commit() {
+      size++;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public int columns() {
+      return columns.length;
+   }
+
+   public Model.ColumnType type( int column ) {
+      return types[column];
+   }
+
+   public long getLong( int column, int row ) {
+      return longs[column] != null ? longs[column][row] : ( long ) doubles[column][row];
+   }
+
+   public int getInt( int column, int row ) {
+      return ( int ) getLong( column, row );
+   }
+
+   public double getDouble( int column, int row ) {
+      return doubles[column] != null ? doubles[column][row] : longs[column][row];
+   }
+
+   public boolean getBoolean( int column, int row ) {
+      return longs[column][row] != 0;
+   }
+
+   public String getString( int column, int row ) {
+      return dictionaries[column].values.get( codes[column][row] );
+   }
+
+   /**
+    * @return code of a STRING cell, equal codes of a batch are equal strings
+    */
+   public int code( int column, int row ) {
+      return codes[column][row];
+   }
+
+   public Object get( int column, int row ) {
+      switch( types[column] ) {
+         case BOOLEAN:
+            return getBoolean( column, row );
+         case STRING:
+            return getString( column, row );
+         case INT:
+            return getInt( column, row );
+         case LONG:
+            return getLong( column, row );
+         case DOUBLE:
+            return getDouble( column, row );
+         default:
+            throw new IllegalStateException( "Unknown column type " + types[column] );
+      }
+   }
+
+   /**
+    * @return boxed row as {@link Model#convert(List)} returns it
+    */
+   public List<Object> row( int row ) {
+      final ArrayList<Object> result = new ArrayList<>( columns.length );
+      for( int i = 0; i < columns.length; i++ ) result.add( get( i, row ) );
+      return result;
+   }
+
+   public Stream<List<Object>> rows() {
+      return Stream.of( IntStream.range( 0, size ).mapToObj( this::row ) );
+   }
+
+   /**
+    * Appends the row as {@link Tsv#print(List)} prints it.
+    */
+   public void print( int row, StringBuilder out ) {
+      for( int i = 0; i < columns.length; i++ ) {
+         if( i > 0 ) out.append( '\t' );
+         switch( types[i] ) {
+            case BOOLEAN:
+               out.append( getBoolean( i, row ) );
+               break;
+            case STRING:
+               Tsv.escape( getString( i, row ), out );
+               break;
+            case DOUBLE:
+               out.append( doubles[i][row] );
+               break;
+            default:
+               out.append( longs[i][row] );
+         }
+      }
+      out.append( '\n' );
+   }
+
+   @Override
+   public String toString() {
+      return "Batch(size=" + size + ", types=" + Arrays.toString( types ) + ")";
+   }
+
+   private static final class Dictionary {
+      private final HashMap<String, Integer> codes = new HashMap<>();
+      private final ArrayList<String> values = new ArrayList<>();
+
+      int code( String value ) {
+         final Integer code = codes.get( value );
+         if( code != null ) return code;
+
+         final int next = values.size();
+         values.add( value );
+         codes.put( value, next );
+         return next;
+      }
+   }
+}
@@ -47,6 +47,8 @@ import static oap.tsv.Model.ColumnType.STRING;
 public class Model {
    public final boolean withHeader;
    private Predicate<List<String>> filter;
+   private int columnCount = -1;
+   private boolean filteredByValue;
    private List<ColumnFunction> columns = new ArrayList<>();
    private Map<String, Integer> nameToIndexMap = new HashMap<>();
 
@@ -127,12 +129,36 @@ public class Model {
    }
 
    public Model filtered( Predicate<List<String>> filter ) {
+      this.filteredByValue = true;
+      return and( filter );
+   }
+
+   public Model filterColumnCount( int count ) {
+      this.columnCount = columnCount < 0 || columnCount == count ? count : Integer.MIN_VALUE;
+      return and( l -> l.size() == count );
+   }
+
+   private Model and( Predicate<List<String>> filter ) {
       this.filter = this.filter == null ? filter : this.filter.and( filter );
       return this;
    }
 
-   public Model filterColumnCount( int count ) {
-      return filtered( l -> l.size() == count );
+   /**
+    * @return column count lines must have or -1, see {@link #filterColumnCount(int)}
+    */
+   int columnCount() {
+      return columnCount;
+   }
+
+   /**
+    * Lines can be converted without splitting them into strings: columns are plain or constant and the only
+    * filter is on the column count.
+    */
+   boolean isParsable() {
+      if( filteredByValue ) return false;
+      for( ColumnFunction column : columns )
+         if( !( column instanceof Column ) && !( column instanceof Value ) ) return false;
+      return true;
    }
 
    public int size() {
@@ -253,7 +279,7 @@ public class Model {
    }
 
    @ToString
-   private static class Column extends ColumnFunction {
+   static class Column extends ColumnFunction {
       int index;
 
       public Column( String name, int index, ColumnType type ) {
@@ -283,7 +309,7 @@ public class Model {
    }
 
    @ToString
-   private static class Value extends ColumnFunction {
+   static class Value extends ColumnFunction {
       Object value;
 
       public Value( String name, Object value, ColumnType type ) {
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.ToString;
+import oap.concurrent.Executors;
+import oap.concurrent.ThreadException;
+import oap.util.Stream;
+import oap.util.Throwables;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Decompresses and parses files on a pool of {@code threads} threads, see {@link Tsv#parallel(int)}.
+ * <p>
+ * Workers take files in list order and parse ahead of the consumer until the rows waiting in all files reach the
+ * {@link #buffer(int)} budget. Ordered streams return the rows of a file after all rows of the previous one,
+ * unordered streams return chunks as soon as any file produces them. The pool stops when the stream is consumed,
+ * fails or is closed.
+ */
+public final class ParallelReader {
+   private static final int ROWS_CHUNK = 1024;
+   private static final int ROWS_BUFFER = 256 * 1024;
+   private static final Object END = new Object();
+
+   private final int threads;
+   private boolean ordered = true;
+   private int buffer = ROWS_BUFFER;
+   private Consumer<Progress> progress = p -> {
+   };
+
+   ParallelReader( int threads ) {
+      if( threads < 1 ) throw new IllegalArgumentException( "threads: " + threads );
+      this.threads = threads;
+   }
+
+   public ParallelReader ordered( boolean ordered ) {
+      this.ordered = ordered;
+      return this;
+   }
+
+   /**
+    * Rows parsed ahead of the consumer by the whole pool, {@value #ROWS_BUFFER} by default. The file an ordered
+    * stream is returning is never held back by the budget, so files parsed ahead cannot stall it.
+    */
+   public ParallelReader buffer( int rows ) {
+      if( rows < 1 ) throw new IllegalArgumentException( "rows: " + rows );
+      this.buffer = rows;
+      return this;
+   }
+
+   /**
+    * Called from the pool threads after each chunk of a file and once more when the file is done.
+    */
+   public ParallelReader progress( Consumer<Progress> progress ) {
+      this.progress = progress;
+      return this;
+   }
+
+   public Stream<List<Object>> fromPaths( List<Path> paths, Model model ) {
+      return read( paths, path -> Tsv.fromPath( path, model ), row -> 1, ROWS_CHUNK );
+   }
+
+   public Stream<List<Object>> fromPaths( List<Path> paths, Model.Complex complexModel ) {
+      return read( paths, path -> Tsv.fromPath( path, complexModel.modelFor( path.toString() ) ), row -> 1,
+         ROWS_CHUNK );
+   }
+
+   public Stream<Batch> batchesFromPaths( List<Path> paths, Model model ) {
+      return read( paths, path -> Tsv.batchesFromPath( path, model ), Batch::size, 1 );
+   }
+
+   public Stream<Batch> batchesFromPaths( List<Path> paths, Model.Complex complexModel ) {
+      return read( paths, path -> Tsv.batchesFromPath( path, complexModel.modelFor( path.toString() ) ),
+         Batch::size, 1 );
+   }
+
+   private <T> Stream<T> read( List<Path> paths, Function<Path, Stream<T>> parse, ToIntFunction<T> rows,
+                               int chunk ) {
+      if( paths.isEmpty() ) return Stream.empty();
+
+      final int workers = Math.min( threads, paths.size() );
+      final List<BlockingQueue<Object>> queues = new ArrayList<>( paths.size() );
+      if( ordered ) for( Path ignored : paths ) queues.add( new LinkedBlockingQueue<>() );
+      else queues.addAll( Collections.nCopies( paths.size(), new LinkedBlockingQueue<>() ) );
+      final Budget budget = new Budget( buffer, ordered ? 0 : -1 );
+
+      final ExecutorService pool = Executors.newFixedThreadPool( workers,
+         new ThreadFactoryBuilder().setNameFormat( "tsv-reader-%d" ).setDaemon( true ).build() );
+      final AtomicInteger next = new AtomicInteger();
+      for( int i = 0; i < workers; i++ )
+         pool.execute( () -> {
+            try {
+               for( int file = next.getAndIncrement(); file < paths.size(); file = next.getAndIncrement() )
+                  if( !read( file, paths.get( file ), queues.get( file ), budget, parse, rows, chunk ) ) return;
+            } catch( InterruptedException ignored ) {
+            }
+         } );
+      pool.shutdown();
+
+      return Stream.of( new Iterator<T>() {
+         private Iterator<T> current = Collections.emptyIterator();
+         private int done;
+
+         @Override
+         @SuppressWarnings( "unchecked" )
+         public boolean hasNext() {
+            while( !current.hasNext() ) {
+               if( done == paths.size() ) return false;
+
+               final Object item = take( queues.get( done ) );
+               if( item == END ) {
+                  done++;
+                  if( ordered ) budget.head( done );
+               } else if( item instanceof Failure ) {
+                  pool.shutdownNow();
+                  throw Throwables.propagate( ( ( Failure ) item ).cause );
+               } else {
+                  final Chunk<T> c = ( Chunk<T> ) item;
+                  budget.release( c.rows );
+                  current = c.items.iterator();
+               }
+            }
+            return true;
+         }
+
+         @Override
+         public T next() {
+            if( !hasNext() ) throw new NoSuchElementException();
+            return current.next();
+         }
+      } ).onClose( pool::shutdownNow );
+   }
+
+   /**
+    * @return false if the file failed, the failure is queued instead of the end
+    */
+   private <T> boolean read( int file, Path path, BlockingQueue<Object> queue, Budget budget,
+                             Function<Path, Stream<T>> parse, ToIntFunction<T> rows, int chunk )
+      throws InterruptedException {
+      final long start = System.nanoTime();
+      long count = 0;
+      try( Stream<T> stream = parse.apply( path ) ) {
+         final long size = Files.size( path );
+         Chunk<T> buffer = new Chunk<>( chunk );
+         for( Iterator<T> iterator = stream.iterator(); iterator.hasNext(); ) {
+            final T item = iterator.next();
+            final int r = rows.applyAsInt( item );
+            buffer.items.add( item );
+            buffer.rows += r;
+            count += r;
+            if( buffer.items.size() == chunk ) {
+               budget.acquire( file, buffer.rows );
+               queue.put( buffer );
+               buffer = new Chunk<>( chunk );
+               progress.accept( new Progress( path, size, count, System.nanoTime() - start, false ) );
+            }
+         }
+         if( !buffer.items.isEmpty() ) {
+            budget.acquire( file, buffer.rows );
+            queue.put( buffer );
+         }
+         progress.accept( new Progress( path, size, count, System.nanoTime() - start, true ) );
+      } catch( InterruptedException e ) {
+         throw e;
+      } catch( Exception e ) {
+         if( Thread.interrupted() ) throw new InterruptedException();
+         queue.put( new Failure( e ) );
+         return false;
+      }
+      queue.put( END );
+      return true;
+   }
+
+   private static Object take( BlockingQueue<Object> queue ) {
+      try {
+         return queue.take();
+      } catch( InterruptedException e ) {
+         Thread.currentThread().interrupt();
+         throw new ThreadException( e );
+      }
+   }
+
+   @ToString
+   public static final class Progress {
+      public final Path path;
+      /**
+       * bytes on disk, compressed for compressed files
+       */
+      public final long size;
+      public final long rows;
+      public final long time;
+      public final boolean done;
+
+      Progress( Path path, long size, long rows, long nanos, boolean done ) {
+         this.path = path;
+         this.size = size;
+         this.rows = rows;
+         this.time = TimeUnit.NANOSECONDS.toMillis( nanos );
+         this.done = done;
+      }
+
+      /**
+       * @return rows per second so far
+       */
+      public double rate() {
+         return time == 0 ? 0 : rows * 1000.0 / time;
+      }
+   }
+
+   /**
+    * Rows waiting in the queues of all files. A chunk larger than the budget still passes when nothing waits,
+    * and the file an ordered stream is returning, its head, always passes.
+    */
+   private static final class Budget {
+      private final int limit;
+      private int available;
+      private int head;
+
+      Budget( int limit, int head ) {
+         this.limit = limit;
+         this.available = limit;
+         this.head = head;
+      }
+
+      synchronized void acquire( int file, int rows ) throws InterruptedException {
+         while( rows > available && available < limit && file != head ) wait();
+         available -= rows;
+      }
+
+      synchronized void release( int rows ) {
+         available += rows;
+         notifyAll();
+      }
+
+      synchronized void head( int file ) {
+         head = file;
+         notifyAll();
+      }
+   }
+
+   private static final class Chunk<T> {
+      final List<T> items;
+      int rows;
+
+      Chunk( int size ) {
+         this.items = new ArrayList<>( size );
+      }
+   }
+
+   private static final class Failure {
+      final Exception cause;
+
+      Failure( Exception cause ) {
+         this.cause = cause;
+      }
+   }
+}
@@ -33,6 +33,7 @@ import java.io.StringReader;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -46,17 +47,17 @@ public class Tsv {
       return Resources.url( contextClass, name ).map( url -> fromUrl( url, model ) );
    }
 
+   /**
+    * Files are parsed from bytes by {@link TsvParser} unless the model filters lines by value.
+    */
    public static Stream<List<Object>> fromPath( Path path, Model model ) {
-      return fromStream( path, IoStreams.lines( path ), model );
+      return model.isParsable() ? TsvParser.rows( path, IoStreams.in( path ), model )
+         : fromStream( path, IoStreams.lines( path ), model );
    }
 
    public static Stream<List<Object>> fromPaths( List<Path> paths, Model.Complex complexModel ) {
       return Stream.of( paths )
-         .flatMap( path -> fromStream(
-            path,
-            IoStreams.lines( path ),
-            complexModel.modelFor( path.toString() )
-         ) );
+         .flatMap( path -> fromPath( path, complexModel.modelFor( path.toString() ) ) );
    }
 
    public static Stream<List<Object>> fromURLs( List<URL> urls, Model.Complex complexModel ) {
@@ -70,11 +71,15 @@ public class Tsv {
 
    public static Stream<List<Object>> fromPaths( List<Path> paths, Model model ) {
       return Stream.of( paths )
-         .flatMap( path -> fromStream(
-            path,
-            IoStreams.lines( path ),
-            model )
-         );
+         .flatMap( path -> fromPath( path, model ) );
+   }
+
+   /**
+    * Reads files concurrently on {@code threads} threads instead of one after another, rows stay in file order
+    * unless {@link ParallelReader#ordered(boolean)} is off.
+    */
+   public static ParallelReader parallel( int threads ) {
+      return new ParallelReader( threads );
    }
 
    public static Stream<List<Object>> fromUrl( URL url, Model model ) {
@@ -111,6 +116,61 @@ public class Tsv {
          } );
    }
 
+   public static Stream<Batch> batchesFromPath( Path path, Model model ) {
+      return model.isParsable() ? TsvParser.batches( path, IoStreams.in( path ), model )
+         : batchesFromStream( path, IoStreams.lines( path ), model );
+   }
+
+   public static Stream<Batch> batchesFromPaths( List<Path> paths, Model model ) {
+      return Stream.of( paths )
+         .flatMap( path -> batchesFromPath( path, model ) );
+   }
+
+   public static Stream<Batch> batchesFromPaths( List<Path> paths, Model.Complex complexModel ) {
+      return Stream.of( paths )
+         .flatMap( path -> batchesFromPath( path, complexModel.modelFor( path.toString() ) ) );
+   }
+
+   public static Stream<Batch> batchesFromString( String tsv, Model model ) {
+      return batchesFromStream( "unknown", Stream.of( new BufferedReader( new StringReader( tsv ) ).lines() ), model );
+   }
+
+   /**
+    * Same rows as {@link #fromStream(Stream, Model)} in columnar {@link Batch}es of {@link Batch#DEFAULT_SIZE}.
+    */
+   private static Stream<Batch> batchesFromStream( Object source, Stream<String> stream, Model model ) {
+      final int skip = model.withHeader ? 1 : 0;
+      final Iterator<List<String>> lines = fromStream( stream, model.maxOffset() )
+         .skip( skip )
+         .filter( model.filter() )
+         .iterator();
+
+      return Stream.of( new Iterator<Batch>() {
+         private long index = skip;
+
+         @Override
+         public boolean hasNext() {
+            return lines.hasNext();
+         }
+
+         @Override
+         public Batch next() {
+            final Batch batch = new Batch( model, Batch.DEFAULT_SIZE );
+            while( !batch.isFull() && lines.hasNext() ) {
+               try {
+                  batch.add( lines.next() );
+               } catch( TsvException e ) {
+                  throw new TsvException( "[" + index + "] " + source + ": " + e, e.getCause() );
+               } catch( Exception e ) {
+                  throw new TsvException( "[" + index + "] " + source + ": " + e, e );
+               }
+               index++;
+            }
+            return batch;
+         }
+      } ).onClose( stream::close );
+   }
+
    public static Stream<List<String>> fromStream( Stream<String> stream ) {
       return stream.map( Tsv::parse );
    }
@@ -169,29 +229,31 @@ public class Tsv {
    }
 
    public static String print( List<?> list ) {
-      return Stream.of( list )
-         .map( e -> {
-            String value = e == null ? "" : String.valueOf( e );
-            String result = "";
-            for( int i = 0; i < value.length(); i++ ) {
-               char c = value.charAt( i );
-               switch( c ) {
-                  case '\r':
-                     result += "\\r";
-                     break;
-                  case '\n':
-                     result += "\\n";
-                     break;
-                  case '\t':
-                     result += "\\t";
-                     break;
-                  default:
-                     result += c;
-               }
-            }
-            return result;
-         } )
-         .collect( Collectors.joining( "\t" ) ) + "\n";
+      final StringBuilder result = new StringBuilder();
+      for( int i = 0; i < list.size(); i++ ) {
+         if( i > 0 ) result.append( '\t' );
+         final Object e = list.get( i );
+         escape( e == null ? "" : String.valueOf( e ), result );
+      }
+      return result.append( '\n' ).toString();
+   }
 
+   static void escape( String value, StringBuilder out ) {
+      for( int i = 0; i < value.length(); i++ ) {
+         char c = value.charAt( i );
+         switch( c ) {
+            case '\r':
+               out.append( "\\r" );
+               break;
+            case '\n':
+               out.append( "\\n" );
+               break;
+            case '\t':
+               out.append( "\\t" );
+               break;
+            default:
+               out.append( c );
+         }
+      }
    }
 }
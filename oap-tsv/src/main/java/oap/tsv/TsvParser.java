@@ -0,0 +1,410 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import oap.util.Stream;
+import oap.util.Strings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Converts tsv bytes without decoding lines: tabs and line ends are found in a reused buffer, numbers are parsed
+ * from the bytes and strings are only created for STRING columns of the model, other cells are skipped.
+ * <p>
+ * Produces what {@link Tsv#fromStream(Stream, Model)} produces for the lines of the same bytes, including the
+ * token limit of {@link Tsv#parse(String, int)}, for models where {@link Model#isParsable()}.
+ */
+final class TsvParser implements Closeable {
+   private static final int BUFFER = 64 * 1024;
+   private static final double[] POWERS = new double[23];
+
+   static {
+      POWERS[0] = 1;
+      for( int i = 1; i < POWERS.length; i++ ) POWERS[i] = POWERS[i - 1] * 10;
+   }
+
+   private final Object source;
+   private final InputStream in;
+   private final Model.ColumnFunction[] columns;
+   private final int[] indexes;
+   private final int max;
+   private final int columnCount;
+   private final int[] starts;
+   private final int[] ends;
+   private byte[] buffer = new byte[BUFFER];
+   private int position;
+   private int limit;
+   private int scan;
+   private boolean eof;
+   private boolean skipLf;
+   private int lineStart;
+   private int lineEnd;
+   private int cells;
+   private boolean header;
+   private long index;
+
+   private TsvParser( Object source, InputStream in, Model model ) {
+      this.source = source;
+      this.in = in;
+      this.columns = new Model.ColumnFunction[model.size()];
+      this.indexes = new int[columns.length];
+      for( int i = 0; i < columns.length; i++ ) {
+         columns[i] = model.getColumn( i );
+         indexes[i] = columns[i] instanceof Model.Column ? ( ( Model.Column ) columns[i] ).index : -1;
+      }
+      this.max = model.maxOffset();
+      this.columnCount = model.columnCount();
+      this.starts = new int[max];
+      this.ends = new int[max];
+      this.header = model.withHeader;
+      this.index = header ? 1 : 0;
+   }
+
+   static Stream<List<Object>> rows( Object source, InputStream in, Model model ) {
+      final TsvParser parser = new TsvParser( source, in, model );
+      return Stream.of( new Iterator<List<Object>>() {
+         private List<Object> next;
+
+         @Override
+         public boolean hasNext() {
+            if( next == null && parser.next() ) next = parser.row();
+            return next != null;
+         }
+
+         @Override
+         public List<Object> next() {
+            if( !hasNext() ) throw new NoSuchElementException();
+            final List<Object> row = next;
+            next = null;
+            return row;
+         }
+      } ).onClose( parser::close );
+   }
+
+   static Stream<Batch> batches( Object source, InputStream in, Model model ) {
+      final TsvParser parser = new TsvParser( source, in, model );
+      return Stream.of( new Iterator<Batch>() {
+         private boolean ready;
+
+         @Override
+         public boolean hasNext() {
+            if( !ready ) ready = parser.next();
+            return ready;
+         }
+
+         @Override
+         public Batch next() {
+            if( !hasNext() ) throw new NoSuchElementException();
+
+            final Batch batch = new Batch( model, Batch.DEFAULT_SIZE );
+            do {
+               parser.addTo( batch );
+               ready = false;
+            } while( !batch.isFull() && hasNext() );
+            return batch;
+         }
+      } ).onClose( parser::close );
+   }
+
+   /**
+    * Moves to the next line passing the column count filter.
+    */
+   private boolean next() {
+      while( line() ) {
+         if( header ) {
+            header = false;
+            continue;
+         }
+         split();
+         if( columnCount < 0 || cells == columnCount ) return true;
+      }
+      return false;
+   }
+
+   private boolean line() {
+      while( true ) {
+         if( skipLf ) {
+            if( position < limit ) {
+               if( buffer[position] == '\n' ) position++;
+               skipLf = false;
+            } else if( eof ) skipLf = false;
+            else {
+               fill();
+               continue;
+            }
+         }
+
+         for( int i = Math.max( scan, position ); i < limit; i++ ) {
+            final byte b = buffer[i];
+            if( b == '\n' || b == '\r' ) {
+               lineStart = position;
+               lineEnd = i;
+               position = i + 1;
+               scan = position;
+               skipLf = b == '\r';
+               return true;
+            }
+         }
+         scan = limit;
+
+         if( eof ) {
+            if( position < limit ) {
+               lineStart = position;
+               lineEnd = limit;
+               position = scan = limit;
+               return true;
+            }
+            return false;
+         }
+         fill();
+      }
+   }
+
+   private void fill() {
+      if( position > 0 ) {
+         System.arraycopy( buffer, position, buffer, 0, limit - position );
+         limit -= position;
+         scan -= position;
+         position = 0;
+      }
+      if( limit == buffer.length ) buffer = Arrays.copyOf( buffer, buffer.length * 2 );
+
+      try {
+         final int read = in.read( buffer, limit, buffer.length - limit );
+         if( read < 0 ) eof = true;
+         else limit += read;
+      } catch( IOException e ) {
+         throw new UncheckedIOException( e );
+      }
+   }
+
+   /**
+    * Cell bounds as {@link Tsv#parse(String, int)} splits, {@link #cells} is the size of its result.
+    */
+   private void split() {
+      cells = 0;
+      if( lineStart == lineEnd ) return;
+
+      int begin = lineStart;
+      while( true ) {
+         int tab = begin;
+         while( tab < lineEnd && buffer[tab] != '\t' ) tab++;
+
+         if( cells < max ) {
+            starts[cells] = begin;
+            ends[cells] = tab;
+         }
+         cells++;
+
+         if( tab == lineEnd || tab > begin && cells == max ) return;
+         begin = tab + 1;
+      }
+   }
+
+   private List<Object> row() {
+      final ArrayList<Object> row = new ArrayList<>( columns.length );
+      for( int i = 0; i < columns.length; i++ ) {
+         final int cell = cell( i );
+         if( cell < 0 ) {
+            row.add( columns[i].apply( null ) );
+            continue;
+         }
+         try {
+            switch( columns[i].type ) {
+               case BOOLEAN:
+                  row.add( parseBoolean( cell ) );
+                  break;
+               case STRING:
+                  row.add( string( cell ) );
+                  break;
+               case INT:
+                  row.add( parseInt( cell ) );
+                  break;
+               case LONG:
+                  row.add( parseLong( cell ) );
+                  break;
+               case DOUBLE:
+                  row.add( parseDouble( cell ) );
+                  break;
+               default:
+                  throw new IllegalStateException( "Unknown column type " + columns[i].type );
+            }
+         } catch( Exception e ) {
+            throw error( "at column " + columns[i] + " " + e, e );
+         }
+      }
+      index++;
+      return row;
+   }
+
+   private void addTo( Batch batch ) {
+      for( int i = 0; i < columns.length; i++ ) {
+         final int cell = cell( i );
+         if( cell < 0 ) {
+            batch.setValue( i, columns[i].apply( null ) );
+            continue;
+         }
+         try {
+            switch( columns[i].type ) {
+               case BOOLEAN:
+                  batch.setLong( i, parseBoolean( cell ) ? 1 : 0 );
+                  break;
+               case STRING:
+                  batch.setString( i, string( cell ) );
+                  break;
+               case INT:
+                  batch.setLong( i, parseInt( cell ) );
+                  break;
+               case LONG:
+                  batch.setLong( i, parseLong( cell ) );
+                  break;
+               case DOUBLE:
+                  batch.setDouble( i, parseDouble( cell ) );
+                  break;
+               default:
+                  throw new IllegalStateException( "Unknown column type " + columns[i].type );
+            }
+         } catch( Exception e ) {
+            throw error( "at column " + columns[i] + " " + e, e );
+         }
+      }
+      batch.commit();
+      index++;
+   }
+
+   /**
+    * @return cell of the model column or -1 for a constant
+    */
+   private int cell( int column ) {
+      final int cell = indexes[column];
+      if( cell >= 0 && cell >= Math.min( cells, max ) ) {
+         final IndexOutOfBoundsException e = new IndexOutOfBoundsException( "Index: " + cell + ", Size: " + cells );
+         throw error( "line does not contain a column with index " + columns[column] + ": "
+            + Strings.join( "|", tokens(), "[", "]" ), e );
+      }
+      return cell;
+   }
+
+   private TsvException error( String message, Exception cause ) {
+      final TsvException e = new TsvException( message, cause );
+      return new TsvException( "[" + index + "] " + source + ": " + e, cause );
+   }
+
+   private List<String> tokens() {
+      final ArrayList<String> tokens = new ArrayList<>( cells );
+      for( int i = 0; i < Math.min( cells, max ); i++ ) tokens.add( string( i ) );
+      return tokens;
+   }
+
+   private String string( int cell ) {
+      return new String( buffer, starts[cell], ends[cell] - starts[cell], UTF_8 );
+   }
+
+   private boolean parseBoolean( int cell ) {
+      final int start = starts[cell];
+      if( ends[cell] - start != 4 ) return false;
+      return ( buffer[start] | 0x20 ) == 't' && ( buffer[start + 1] | 0x20 ) == 'r'
+         && ( buffer[start + 2] | 0x20 ) == 'u' && ( buffer[start + 3] | 0x20 ) == 'e';
+   }
+
+   /**
+    * Digits with an optional sign, short enough not to overflow, anything else goes to {@link Integer#parseInt}.
+    */
+   private int parseInt( int cell ) {
+      final int start = starts[cell];
+      final int end = ends[cell];
+      final int digits = start < end && ( buffer[start] == '-' || buffer[start] == '+' ) ? start + 1 : start;
+      if( digits == end || end - digits > 9 ) return Integer.parseInt( string( cell ) );
+
+      int value = 0;
+      for( int i = digits; i < end; i++ ) {
+         final int digit = buffer[i] - '0';
+         if( digit < 0 || digit > 9 ) return Integer.parseInt( string( cell ) );
+         value = value * 10 + digit;
+      }
+      return buffer[start] == '-' ? -value : value;
+   }
+
+   private long parseLong( int cell ) {
+      final int start = starts[cell];
+      final int end = ends[cell];
+      final int digits = start < end && ( buffer[start] == '-' || buffer[start] == '+' ) ? start + 1 : start;
+      if( digits == end || end - digits > 18 ) return Long.parseLong( string( cell ) );
+
+      long value = 0;
+      for( int i = digits; i < end; i++ ) {
+         final int digit = buffer[i] - '0';
+         if( digit < 0 || digit > 9 ) return Long.parseLong( string( cell ) );
+         value = value * 10 + digit;
+      }
+      return buffer[start] == '-' ? -value : value;
+   }
+
+   /**
+    * Plain decimals of up to 15 digits are exact as mantissa / 10^fraction, a single correctly rounded division.
+    * Exponents, long mantissas and anything else go to {@link Double#parseDouble}.
+    */
+   private double parseDouble( int cell ) {
+      final int start = starts[cell];
+      final int end = ends[cell];
+      final int first = start < end && ( buffer[start] == '-' || buffer[start] == '+' ) ? start + 1 : start;
+
+      long mantissa = 0;
+      int digits = 0;
+      int fraction = -1;
+      for( int i = first; i < end; i++ ) {
+         final byte b = buffer[i];
+         if( b == '.' && fraction < 0 ) fraction = 0;
+         else if( b >= '0' && b <= '9' ) {
+            mantissa = mantissa * 10 + ( b - '0' );
+            digits++;
+            if( fraction >= 0 ) fraction++;
+         } else return Double.parseDouble( string( cell ) );
+      }
+      if( digits == 0 || digits > 15 ) return Double.parseDouble( string( cell ) );
+
+      final double value = fraction > 0 ? mantissa / POWERS[fraction] : mantissa;
+      return buffer[start] == '-' ? -value : value;
+   }
+
+   @Override
+   public void close() {
+      try {
+         in.close();
+      } catch( IOException e ) {
+         throw new UncheckedIOException( e );
+      }
+   }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import oap.io.Files;
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.util.Stream;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static oap.testng.Asserts.assertEventually;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class ParallelReaderTest extends AbstractTest {
+   private static final Model MODEL = Model.withoutHeader()
+      .s( "c0", 0 ).i( "c1", 1 ).s( "c2", 2 ).filterColumnCount( 3 );
+
+   @DataProvider
+   public Object[][] threads() {
+      return new Object[][] { { 1 }, { 3 }, { 16 } };
+   }
+
+   @Test( dataProvider = "threads" )
+   public void ordered( int threads ) {
+      final List<Path> paths = files( 9 );
+      final List<List<Object>> expected = Tsv.fromPaths( paths, MODEL ).toList();
+      assertThat( expected ).hasSize( 9246 );
+
+      assertThat( Tsv.parallel( threads ).fromPaths( paths, MODEL ).toList() ).isEqualTo( expected );
+      assertThat( Tsv.parallel( threads ).batchesFromPaths( paths, MODEL ).flatMap( Batch::rows ).toList() )
+         .isEqualTo( expected );
+   }
+
+   @Test( dataProvider = "threads" )
+   public void smallBuffer( int threads ) {
+      final List<Path> paths = files( 9 );
+      final List<List<Object>> expected = Tsv.fromPaths( paths, MODEL ).toList();
+
+      assertThat( Tsv.parallel( threads ).buffer( 100 ).fromPaths( paths, MODEL ).toList() ).isEqualTo( expected );
+      assertThat( Tsv.parallel( threads ).buffer( 100 ).ordered( false ).fromPaths( paths, MODEL ).toList() )
+         .hasSameSizeAs( expected )
+         .containsOnlyElementsOf( expected );
+   }
+
+   @Test
+   public void parsesAhead() {
+      final List<Path> paths = largeFiles( 4 );
+      final Map<Path, ParallelReader.Progress> last = new ConcurrentHashMap<>();
+
+      try( Stream<List<Object>> stream = Tsv.parallel( 4 )
+         .progress( p -> last.put( p.path, p ) )
+         .fromPaths( paths, MODEL ) ) {
+         assertThat( stream.iterator().hasNext() ).isTrue();
+
+         assertEventually( 50, 100, () -> assertThat( last.values() )
+            .hasSize( paths.size() )
+            .allMatch( p -> p.done ) );
+      }
+   }
+
+   @Test
+   public void bufferBoundsParsedRows() throws InterruptedException {
+      final List<Path> paths = largeFiles( 4 );
+      final Map<Path, ParallelReader.Progress> last = new ConcurrentHashMap<>();
+
+      try( Stream<List<Object>> stream = Tsv.parallel( 4 )
+         .buffer( 2048 )
+         .progress( p -> last.put( p.path, p ) )
+         .fromPaths( paths, MODEL ) ) {
+         assertThat( stream.iterator().hasNext() ).isTrue();
+
+         assertEventually( 50, 100, () -> assertThat( last.get( paths.get( 0 ) ).done ).isTrue() );
+         Thread.sleep( 200 );
+         final long ahead = paths.subList( 1, paths.size() ).stream()
+            .mapToLong( path -> last.containsKey( path ) ? last.get( path ).rows : 0 )
+            .sum();
+         assertThat( ahead ).isLessThanOrEqualTo( 2048 + 1024 );
+      }
+   }
+
+   @Test( dataProvider = "threads" )
+   public void unordered( int threads ) {
+      final List<Path> paths = files( 9 );
+
+      final List<List<Object>> expected = Tsv.fromPaths( paths, MODEL ).toList();
+
+      assertThat( Tsv.parallel( threads ).ordered( false ).fromPaths( paths, MODEL ).toList() )
+         .hasSameSizeAs( expected )
+         .containsOnlyElementsOf( expected );
+   }
+
+   @Test
+   public void progress() {
+      final List<Path> paths = files( 5 );
+      final Map<Path, ParallelReader.Progress> done = new ConcurrentHashMap<>();
+      final List<ParallelReader.Progress> all = Collections.synchronizedList( new ArrayList<>() );
+
+      Tsv.parallel( 2 )
+         .progress( p -> {
+            all.add( p );
+            if( p.done ) done.put( p.path, p );
+         } )
+         .fromPaths( paths, MODEL )
+         .drain();
+
+      assertThat( done.keySet() ).hasSameSizeAs( paths ).containsOnlyElementsOf( paths );
+      for( Path path : paths ) {
+         assertThat( done.get( path ).rows ).isEqualTo( Tsv.fromPath( path, MODEL ).count() );
+         assertThat( done.get( path ).size ).isEqualTo( path.toFile().length() );
+      }
+      assertThat( all.size() ).isGreaterThan( paths.size() );
+   }
+
+   @Test
+   public void failure() {
+      final List<Path> paths = files( 4 );
+      final Path broken = Env.tmpPath( "parallel/broken.tsv" );
+      Files.writeString( broken, "a\t1\tx\nb\tnot a number\tx\n" );
+      paths.add( 2, broken );
+
+      final Throwable e = catchThrowable( () -> Tsv.parallel( 2 ).fromPaths( paths, MODEL ).drain() );
+
+      assertThat( e ).isInstanceOf( TsvException.class ).hasMessageContaining( broken.toString() );
+   }
+
+   @Test
+   public void empty() {
+      assertThat( Tsv.parallel( 4 ).fromPaths( Collections.emptyList(), MODEL ).toList() ).isEmpty();
+   }
+
+   /**
+    * Files of 10000 rows, more chunks than the budget holds.
+    */
+   private static List<Path> largeFiles( int count ) {
+      final List<Path> paths = new ArrayList<>();
+      for( int file = 0; file < count; file++ ) {
+         final int f = file;
+         final Path path = Env.tmpPath( "parallel/large" + file + ".tsv" );
+         Files.writeString( path, IntStream.range( 0, 10000 )
+            .mapToObj( row -> "file" + f + "\t" + row + "\tx\n" )
+            .collect( Collectors.joining() ) );
+         paths.add( path );
+      }
+      return paths;
+   }
+
+   /**
+    * Files of 0 to 3000 rows, more than a chunk, plain and gzipped.
+    */
+   private static List<Path> files( int count ) {
+      final List<Path> paths = new ArrayList<>();
+      for( int file = 0; file < count; file++ ) {
+         final int f = file;
+         final Path path = Env.tmpPath( "parallel/" + file + ( file % 2 == 0 ? ".tsv.gz" : ".tsv" ) );
+         Files.writeString( path, IntStream.range( 0, file * 757 % 3001 )
+            .mapToObj( row -> "file" + f + "\t" + row + "\tx\n" )
+            .collect( Collectors.joining() ) );
+         paths.add( path );
+      }
+      return paths;
+   }
+}
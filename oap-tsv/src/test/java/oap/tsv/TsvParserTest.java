@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import oap.io.IoStreams;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class TsvParserTest {
+   private static final String[] CELLS = {
+      "", "0", "1", "-1", "+7", "42", "2147483647", "-2147483648", "9223372036854775807", "123456789012",
+      "1.5", "-0.25", ".5", "1.", "3.141592653589793", "1e3", "-2.5E-3", "0.1000000000000000055511151231257827",
+      "true", "TRUE", "False", "yes", "x", "ünïcödé", "a b", "NaN"
+   };
+
+   @DataProvider
+   public Object[][] models() {
+      return new Object[][] {
+         { Model.withoutHeader().s( "s0", 0 ).s( "s2", 2 ).filterColumnCount( 3 ) },
+         { Model.withHeader().s( "s1", 1 ).s( "s3", 3 ).filterColumnCount( 4 ) },
+         { Model.withoutHeader().s( "s0", 0 ).s( "s1", 1 ).filterColumnCount( 2 ) },
+         { Model.withoutHeader().s( "s1", 1 ).v( "v", Model.ColumnType.LONG, 5L ).s( "s4", 4 )
+            .filterColumnCount( 5 ) },
+         { Model.withoutHeader().s( "s2", 2 ).filterColumnCount( 3 ) }
+      };
+   }
+
+   @Test( dataProvider = "models" )
+   public void sameAsLines( Model model ) {
+      final Random random = new Random( 1 );
+      final StringBuilder tsv = new StringBuilder();
+      for( int i = 0; i < 5000; i++ ) {
+         final int cells = random.nextInt( 7 );
+         for( int c = 0; c < cells; c++ ) {
+            if( c > 0 ) tsv.append( '\t' );
+            tsv.append( CELLS[random.nextInt( CELLS.length )] );
+         }
+         if( random.nextInt( 10 ) == 0 ) tsv.append( '\t' );
+         final int eol = random.nextInt( 10 );
+         tsv.append( eol == 0 ? "\r\n" : eol == 1 ? "\r" : "\n" );
+      }
+
+      assertSameAsLines( tsv.toString(), model );
+   }
+
+   @Test
+   public void types() {
+      final Random random = new Random( 1 );
+      final StringBuilder tsv = new StringBuilder();
+      for( int i = 0; i < 5000; i++ ) {
+         tsv.append( random.nextInt() ).append( '\t' )
+            .append( random.nextLong() >> random.nextInt( 64 ) ).append( '\t' )
+            .append( random.nextDouble() * Math.pow( 10, random.nextInt( 20 ) - 10 ) ).append( '\t' )
+            .append( String.format( "%.4f", random.nextDouble() * 1000 ) ).append( '\t' )
+            .append( random.nextBoolean() ? "True" : "false" ).append( '\t' )
+            .append( "s" ).append( random.nextInt( 100 ) ).append( '\n' );
+      }
+      final Model model = Model.withoutHeader().i( "i", 0 ).l( "l", 1 ).d( "d", 2 ).d( "f", 3 ).b( "b", 4 )
+         .s( "s", 5 ).filterColumnCount( 6 );
+
+      assertThat( parse( tsv.toString(), model ) ).isEqualTo( lines( tsv.toString(), model ) );
+   }
+
+   @Test
+   public void errors() {
+      final Model model = Model.withoutHeader().s( "s", 0 ).i( "i", 1 ).l( "l", 3 );
+
+      assertThat( catchThrowable( () -> parse( "a\t1\t\t2\nb\tx\t\t3\n", model ) ) ).isNotNull();
+      assertSameAsLines( "a\t1\t\t2\nb\tx\t\t3\n", model );
+      assertSameAsLines( "a\t1\t\t2\nb\t2\n", model );
+   }
+
+   @Test
+   public void longLines() {
+      final StringBuilder cell = new StringBuilder();
+      for( int i = 0; i < 100000; i++ ) cell.append( 'x' );
+      final String tsv = "a\t" + cell + "\n" + cell + "\tb\n";
+      final Model model = Model.withoutHeader().s( "c0", 0 ).s( "c1", 1 );
+
+      assertThat( parse( tsv, model ) ).isEqualTo( lines( tsv, model ) );
+   }
+
+   private static void assertSameAsLines( String tsv, Model model ) {
+      final Throwable expected = catchThrowable( () -> lines( tsv, model ) );
+      if( expected != null ) assertThat( catchThrowable( () -> parse( tsv, model ) ) )
+         .isInstanceOf( TsvException.class )
+         .hasMessage( expected.getMessage() );
+      else assertThat( parse( tsv, model ) ).isEqualTo( lines( tsv, model ) );
+   }
+
+   private static List<List<Object>> parse( String tsv, Model model ) {
+      return TsvParser.rows( "unknown", new ByteArrayInputStream( tsv.getBytes( UTF_8 ) ), model ).toList();
+   }
+
+   private static List<List<Object>> lines( String tsv, Model model ) {
+      return Tsv.fromStream( IoStreams.lines( new ByteArrayInputStream( tsv.getBytes( UTF_8 ) ) ), model ).toList();
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.tsv;
+
+import oap.io.IoStreams;
+import oap.testng.AbstractPerformance;
+import oap.testng.Env;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.util.Functions.empty.consume;
+
+@Test( enabled = false )
+public class TsvPerformance extends AbstractPerformance {
+   private static final int SAMPLES = 20;
+   private static final int EXPERIMENTS = 5;
+   private static final int ROWS = 200000;
+   private static final Model MODEL = Model.withoutHeader()
+      .s( "c0", 0 ).i( "c3", 3 ).l( "c5", 5 ).d( "c7", 7 ).filterColumnCount( 10 );
+
+   private static Path write( String name ) {
+      final Path path = Env.tmpPath( name );
+      final Random random = new Random( 1 );
+      try( OutputStream out = IoStreams.out( path, IoStreams.Encoding.GZIP ) ) {
+         for( int y = 0; y < ROWS; y++ ) {
+            final StringBuilder row = new StringBuilder();
+            for( int x = 0; x < 10; x++ ) {
+               if( x > 0 ) row.append( '\t' );
+               if( x < 3 ) row.append( "text-" ).append( x ).append( '-' ).append( random.nextInt( 1000 ) );
+               else if( x == 7 ) row.append( random.nextInt( 100000 ) / 100.0 );
+               else row.append( random.nextInt() );
+            }
+            out.write( row.append( '\n' ).toString().getBytes( UTF_8 ) );
+         }
+      } catch( IOException e ) {
+         throw new UncheckedIOException( e );
+      }
+      return path;
+   }
+
+   @Test
+   public void testParse() {
+      final Path path = write( "test.tsv.gz" );
+
+      benchmark( "tsv.lines", SAMPLES, EXPERIMENTS,
+         ( i ) -> count( Tsv.fromStream( IoStreams.lines( path ), MODEL ) ),
+         consume(), consume(), rate -> rate * ROWS + " rows/s" );
+
+      benchmark( "tsv.bytes", SAMPLES, EXPERIMENTS,
+         ( i ) -> count( Tsv.fromPath( path, MODEL ) ),
+         consume(), consume(), rate -> rate * ROWS + " rows/s" );
+
+      benchmark( "tsv.batches", SAMPLES, EXPERIMENTS,
+         ( i ) -> count( Tsv.batchesFromPath( path, MODEL ) ),
+         consume(), consume(), rate -> rate * ROWS + " rows/s" );
+   }
+
+   @DataProvider
+   public Object[][] threads() {
+      return new Object[][] { { 1 }, { 2 }, { 4 }, { 8 } };
+   }
+
+   @Test( dataProvider = "threads" )
+   public void testParallel( int threads ) {
+      final List<Path> paths = IntStream.range( 0, 8 )
+         .mapToObj( x -> write( "parallel/" + x + ".tsv.gz" ) )
+         .collect( Collectors.toList() );
+
+      benchmark( "tsv.sequential", SAMPLES / 4, EXPERIMENTS,
+         ( i ) -> count( Tsv.fromPaths( paths, MODEL ) ) );
+
+      benchmark( "tsv.parallel-ordered-" + threads, SAMPLES / 4, EXPERIMENTS,
+         ( i ) -> count( Tsv.parallel( threads ).fromPaths( paths, MODEL ) ) );
+
+      benchmark( "tsv.parallel-unordered-" + threads, SAMPLES / 4, EXPERIMENTS,
+         ( i ) -> count( Tsv.parallel( threads ).ordered( false ).fromPaths( paths, MODEL ) ) );
+   }
+
+   private static void count( Stream<?> stream ) {
+      try( Stream<?> s = stream ) {
+         s.count();
+      }
+   }
+}
@@ -62,4 +62,43 @@ public class TsvTest {
       assertFile( path.resolve( "result.tsv" ) ).hasContent( Tsv.print( tsv ) );
    }
 
+   @Test( dataProvider = "files" )
+   public void loadBatches( String file, IoStreams.Encoding encoding ) {
+      Model model = Model.withoutHeader().s( "c1", 1 ).i( "c3", 3 ).filterColumnCount( 4 );
+      Path path = Env.deployTestData( getClass() );
+
+      List<Batch> batches = Tsv.batchesFromPath( path.resolve( file ), model ).toList();
+      assertFile( path.resolve( "result.tsv" ) )
+         .hasContent( Tsv.print( Stream.of( batches ).flatMap( Batch::rows ) ) );
+
+      StringBuilder printed = new StringBuilder();
+      for( Batch batch : batches )
+         for( int row = 0; row < batch.size(); row++ ) batch.print( row, printed );
+      assertFile( path.resolve( "result.tsv" ) ).hasContent( printed.toString() );
+   }
+
+   @Test
+   public void batches() {
+      StringBuilder tsv = new StringBuilder();
+      for( int i = 0; i < Batch.DEFAULT_SIZE + 10; i++ )
+         tsv.append( "s" ).append( i % 3 ).append( '\t' ).append( i ).append( '\t' ).append( i / 2.0 )
+            .append( '\t' ).append( i % 2 == 0 ).append( '\n' );
+      Model model = Model.withoutHeader().s( "s", 0 ).l( "l", 1 ).d( "d", 2 ).b( "b", 3 )
+         .v( "v", Model.ColumnType.INT, 7 );
+
+      List<Batch> batches = Tsv.batchesFromString( tsv.toString(), model ).toList();
+      assertEquals( batches.size(), 2 );
+      assertEquals( batches.get( 1 ).size(), 10 );
+      assertEquals( Stream.of( batches ).flatMap( Batch::rows ).toList(),
+         Tsv.fromString( tsv.toString(), model ).toList() );
+
+      Batch batch = batches.get( 0 );
+      assertEquals( batch.getString( 0, 4 ), "s1" );
+      assertEquals( batch.code( 0, 1 ), batch.code( 0, 4 ) );
+      assertEquals( batch.getLong( 1, 5 ), 5L );
+      assertEquals( batch.getDouble( 1, 5 ), 5.0 );
+      assertEquals( batch.getDouble( 2, 5 ), 2.5 );
+      assertEquals( batch.getBoolean( 3, 4 ), true );
+      assertEquals( batch.getInt( 4, 4 ), 7 );
+   }
 }
@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws;
+
+import oap.http.Request;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dispatch table of a web service, built once when the service is bound.
+ * <p>
+ * Routes are kept per http method: literal paths in a hash map, patterns grouped by their literal first
+ * path segment and the rest in a fallback list. A lookup only evaluates the patterns sharing the request
+ * first segment, and the route added first still wins when several match.
+ */
+final class WsRoutes<T> {
+    private static final String META = "\\^$.|?*+()[]{}";
+
+    private final EnumMap<Request.HttpMethod, Table<T>> tables = new EnumMap<>( Request.HttpMethod.class );
+    private int count;
+
+    /**
+     * @param path literal path or mapping in the {@link WsMethod#path()} syntax
+     */
+    void add( T target, Request.HttpMethod[] methods, String path ) {
+        final Route<T> route = isLiteral( path )
+            ? new Route<>( count++, target, null )
+            : new Route<>( count++, target, WsServices.compile( path ) );
+
+        for( Request.HttpMethod method : methods ) {
+            final Table<T> table = tables.computeIfAbsent( method, m -> new Table<>() );
+
+            if( route.pattern == null ) table.exact.putIfAbsent( path, route );
+            else {
+                final String segment = firstSegment( path );
+                if( segment != null && isLiteral( segment ) )
+                    table.prefixed.computeIfAbsent( segment, s -> new ArrayList<>() ).add( route );
+                else table.any.add( route );
+            }
+        }
+    }
+
+    /**
+     * @return matching route or null. {@link Match#path} is null for literal routes.
+     */
+    Match<T> find( Request.HttpMethod method, String requestLine ) {
+        final Table<T> table = tables.get( method );
+        if( table == null ) return null;
+
+        final Route<T> exact = table.exact.get( requestLine );
+        Match<T> match = exact != null ? new Match<>( exact, null ) : null;
+
+        final String segment = firstSegment( requestLine );
+        if( segment != null ) match = find( table.prefixed.get( segment ), requestLine, match );
+
+        return find( table.any, requestLine, match );
+    }
+
+    private static <T> Match<T> find( List<Route<T>> routes, String requestLine, Match<T> match ) {
+        if( routes == null ) return match;
+
+        for( int i = 0; i < routes.size(); i++ ) {
+            final Route<T> route = routes.get( i );
+            if( match != null && match.route.index < route.index ) return match;
+
+            final Matcher matcher = route.pattern.matcher( requestLine );
+            if( matcher.matches() ) return new Match<>( route, matcher );
+        }
+
+        return match;
+    }
+
+    private static String firstSegment( String path ) {
+        if( path.isEmpty() || path.charAt( 0 ) != '/' ) return null;
+
+        final int end = path.indexOf( '/', 1 );
+        return end < 0 ? path.substring( 1 ) : path.substring( 1, end );
+    }
+
+    private static boolean isLiteral( String path ) {
+        for( int i = 0; i < path.length(); i++ )
+            if( META.indexOf( path.charAt( i ) ) >= 0 ) return false;
+
+        return true;
+    }
+
+    private static final class Route<T> {
+        final int index;
+        final T target;
+        final Pattern pattern;
+
+        Route( int index, T target, Pattern pattern ) {
+            this.index = index;
+            this.target = target;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final class Table<T> {
+        final HashMap<String, Route<T>> exact = new HashMap<>();
+        final HashMap<String, List<Route<T>>> prefixed = new HashMap<>();
+        final List<Route<T>> any = new ArrayList<>();
+    }
+
+    static final class Match<T> {
+        private final Route<T> route;
+        final Matcher path;
+
+        private Match( Route<T> route, Matcher path ) {
+            this.route = route;
+            this.path = path;
+        }
+
+        T target() {
+            return route.target;
+        }
+    }
+}
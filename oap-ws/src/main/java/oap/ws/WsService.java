@@ -23,7 +23,7 @@
  */
 package oap.ws;
 
-import oap.http.Handler;
+import oap.http.AsyncHandler;
 import oap.http.HttpResponse;
 import oap.http.Request;
 import oap.http.Response;
@@ -35,7 +35,6 @@ import oap.reflect.Coercions;
 import oap.reflect.Reflect;
 import oap.reflect.ReflectException;
 import oap.reflect.Reflection;
-import oap.util.Optionals;
 import oap.util.Result;
 import oap.util.Stream;
 import oap.util.Strings;
@@ -49,13 +48,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
 
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -64,7 +64,10 @@ import static oap.http.HttpResponse.NOT_FOUND;
 import static oap.http.HttpResponse.NO_CONTENT;
 import static org.apache.http.entity.ContentType.APPLICATION_JSON;
 
-public class WsService implements Handler {
+/**
+ * Methods returning a {@link CompletionStage} are responded when it completes, see {@link AsyncHandler}.
+ */
+public class WsService implements AsyncHandler {
     private final Object impl;
     private final Logger logger;
     private final boolean sessionAware;
@@ -74,7 +77,7 @@ public class WsService implements Handler {
     private final Coercions coercions = Coercions.basic()
         .with( r -> true, ( r, value ) -> Binder.hocon.unmarshal( r.underlying,
             value instanceof String ? ( String ) value : new String( ( byte[] ) value, UTF_8 ) ) );
-    private Map<String, Pattern> compiledPaths = new HashMap<>();
+    private final WsRoutes<Route> routes = new WsRoutes<>();
     private String cookieId;
 
     public WsService( Object impl, boolean sessionAware,
@@ -82,12 +85,19 @@ public class WsService implements Handler {
         this.impl = impl;
         this.logger = LoggerFactory.getLogger( impl.getClass() );
         this.reflection = Reflect.reflect( impl.getClass() );
-        this.reflection.methods.forEach( m -> m.findAnnotation( WsMethod.class )
-            .ifPresent( a -> compiledPaths.put( a.path(), WsServices.compile( a.path() ) ) )
-        );
         this.sessionAware = sessionAware;
         this.sessionManager = sessionManager;
         this.interceptors = interceptors;
+
+        for( Reflection.Method method : reflection.methods ) {
+            final Optional<WsMethod> wsMethod = method.findAnnotation( WsMethod.class );
+            if( wsMethod.isPresent() ) {
+                final WsMethod a = wsMethod.get();
+                routes.add( new Route( method, wsMethod ), a.method(),
+                    Strings.isUndefined( a.path() ) ? "/" + method.name() : a.path() );
+            } else if( method.isPublic() )
+                routes.add( new Route( method, wsMethod ), Request.HttpMethod.values(), "/" + method.name() );
+        }
     }
 
     private List<Object> convert( Reflection type, List<String> values ) {
@@ -116,6 +126,8 @@ public class WsService implements Handler {
             wsError( response, e.getCause() );
         else if( e instanceof WrappingRuntimeException && e.getCause() != null )
             wsError( response, e.getCause() );
+        else if( e instanceof CompletionException && e.getCause() != null )
+            wsError( response, e.getCause() );
         else if( e instanceof InvocationTargetException )
             wsError( response, ( ( InvocationTargetException ) e ).getTargetException() );
         else if( e instanceof WsClientException ) {
@@ -132,56 +144,50 @@ public class WsService implements Handler {
         }
     }
 
-    private boolean methodMatches( String requestLine, Request.HttpMethod httpMethod, Reflection.Method m ) {
-        return m.findAnnotation( WsMethod.class )
-            .map( a -> oap.util.Arrays.contains( httpMethod, a.method() ) && (
-                    ( Strings.isUndefined( a.path() ) && Objects.equals( requestLine, "/" + m.name() ) )
-                        || compiledPaths.get( a.path() ).matcher( requestLine ).find()
-                )
-            ).orElse( m.isPublic() && Objects.equals( requestLine, "/" + m.name() ) );
-    }
-
     @Override
-    public void handle( Request request, Response response ) {
+    public CompletableFuture<Void> handleAsync( Request request, Response response ) {
+        CompletableFuture<Void> done;
         try {
-            Optionals.fork( reflection.method(
-                method -> methodMatches( request.requestLine, request.httpMethod, method ) ) )
-                .ifAbsent( () -> response.respond( NOT_FOUND ) )
-                .ifPresent(
-                    method -> {
-                        Name name = Metrics
-                            .name( "rest_timer" )
-                            .tag( "service", impl.getClass().getSimpleName() )
-                            .tag( "method", method.name() );
-
-                        if( !sessionAware ) {
-                            handleInternal( request, response, method, name, false );
-                        } else {
-                            final Optional<String> internalSession = request.cookie( "SID" );
-                            if( internalSession.isPresent() &&
-                                sessionManager.getSessionById( internalSession.get() ) != null ) {
-
-                                cookieId = internalSession.get();
-                                logger.debug( "Valid SID [{}] found in cookie", cookieId );
-
-                                handleInternal( request, response, method, name, false );
-                            } else {
-                                cookieId = UUID.randomUUID().toString();
-
-                                logger.debug( "Creating new session with SID [{}]", cookieId );
-                                sessionManager.put( cookieId, new Session() );
-
-                                handleInternal( request, response, method, name, true );
-                            }
-                        }
-                    } );
+            final WsRoutes.Match<Route> match = routes.find( request.httpMethod, request.requestLine );
+
+            if( match == null ) {
+                response.respond( NOT_FOUND );
+                done = CompletableFuture.completedFuture( null );
+            } else if( !sessionAware ) {
+                done = handleInternal( request, response, match, false );
+            } else {
+                final Optional<String> internalSession = request.cookie( "SID" );
+                if( internalSession.isPresent() &&
+                    sessionManager.getSessionById( internalSession.get() ) != null ) {
+
+                    cookieId = internalSession.get();
+                    logger.debug( "Valid SID [{}] found in cookie", cookieId );
+
+                    done = handleInternal( request, response, match, false );
+                } else {
+                    cookieId = UUID.randomUUID().toString();
+
+                    logger.debug( "Creating new session with SID [{}]", cookieId );
+                    sessionManager.put( cookieId, new Session() );
+
+                    done = handleInternal( request, response, match, true );
+                }
+            }
         } catch( Throwable e ) {
-            wsError( response, e );
+            done = new CompletableFuture<>();
+            done.completeExceptionally( e );
         }
+
+        return done.exceptionally( e -> {
+            wsError( response, e );
+            return null;
+        } );
     }
 
-    private void handleInternal( Request request, Response response, Reflection.Method method,
-                                 Name name, boolean setCookie ) {
+    private CompletableFuture<Void> handleInternal( Request request, Response response, WsRoutes.Match<Route> match,
+                                                    boolean setCookie ) {
+        final Route route = match.target();
+        final Reflection.Method method = route.method;
         final Session sessionById = sessionManager.getSessionById( cookieId );
 
         logger.trace( "Internal session status: [{}] with content [{}]", cookieId, sessionById );
@@ -191,108 +197,118 @@ public class WsService implements Handler {
 
         if( interceptorResponse != null ) {
             response.respond( interceptorResponse );
-        } else {
-            Metrics.measureTimer( name, () -> {
-                Optional<WsMethod> wsMethod = method.findAnnotation( WsMethod.class );
-                Object[] paramValues = new Object[method.parameters.size()];
-                ValidationErrors paramValidation = ValidationErrors.empty();
-                List<Reflection.Parameter> parameters = method.parameters;
-                for( int i = 0; i < parameters.size(); i++ ) {
-                    Reflection.Parameter parameter = parameters.get( i );
-                    Object value = parameter.findAnnotation( WsParam.class )
-                        .<Object>map( wsParam -> {
-                            switch( wsParam.from() ) {
-                                case REQUEST:
-                                    return request;
-                                case SESSION:
-                                    return parameter.type().isOptional() ?
-                                        sessionById.get( parameter.name() ) :
-                                        sessionById.get( parameter.name() ).orElse( null );
-                                case HEADER:
-                                    return convert( parameter.name(), parameter.type(),
-                                        request.header( parameter.name() ) );
-                                case PATH:
-                                    return wsMethod.map( wsm -> convert( parameter.name(), parameter.type(),
-                                        WsServices.pathParam( wsm.path(), request.requestLine,
-                                            parameter.name() ) ) )
-                                        .orElseThrow( () -> new WsException(
-                                            "path parameter " + parameter.name() + " without " +
-                                                WsMethod.class.getName() + " annotation" ) );
-                                case BODY:
-                                    return parameter.type().assignableFrom( byte[].class ) ?
-                                        ( parameter.type().isOptional() ? request.readBody() :
-                                            request.readBody()
-                                                .orElseThrow( () -> new WsClientException(
-                                                    "no body for " + parameter.name() ) )
-                                        ) :
-                                        convert( parameter.name(), parameter.type(), request.readBody() );
-                                default:
-                                    return parameter.type().assignableTo( List.class ) ?
-                                        convert( parameter.type(),
-                                            request.parameters( parameter.name() ) ) :
-                                        convert( parameter.name(), parameter.type(),
-                                            request.parameter( parameter.name() ) );
-
-                            }
-                        } )
-                        .orElseGet( () -> parameter.type().assignableTo( List.class ) ?
-                            convert( parameter.type(), request.parameters( parameter.name() ) ) :
-                            convert( parameter.name(), parameter.type(),
-                                request.parameter( parameter.name() ) )
-                        );
-
-                    paramValidation.merge( Validators.forParameter( parameter, impl ).validate( value ) );
-                    paramValues[i] = value;
-                }
+            return CompletableFuture.completedFuture( null );
+        }
 
-                paramValidation.throwIfInvalid();
+        final long start = System.nanoTime();
+        final CompletableFuture<Void> done;
+        try {
+            final Validators.Validator[] validators = route.validators();
+            Object[] paramValues = new Object[route.parameters.length];
+            ValidationErrors paramValidation = ValidationErrors.empty();
+            for( int i = 0; i < paramValues.length; i++ ) {
+                Object value = route.parameters[i].read( request, sessionById, match.path );
+
+                paramValidation.merge( validators[i].validate( value ) );
+                paramValues[i] = value;
+            }
+
+            paramValidation.throwIfInvalid();
 
-                Validators.forMethod( method, impl )
-                    .validate( paramValues )
-                    .throwIfInvalid();
+            validators[paramValues.length]
+                .validate( paramValues )
+                .throwIfInvalid();
 
-                Object result = method.invoke( impl, paramValues );
+            Object result = method.invoke( impl, paramValues );
 
-                Boolean isRaw = wsMethod.map( WsMethod::raw ).orElse( false );
-                ContentType produces =
-                    wsMethod.map( wsm -> ContentType.create( wsm.produces() )
-                        .withCharset( UTF_8 ) )
-                        .orElse( APPLICATION_JSON );
+            final boolean isRaw = route.raw;
+            final ContentType produces = route.produces;
 
-                final String cookie = setCookie ?
-                    new HttpResponse.CookieBuilder()
-                        .withSID( cookieId )
-                        .withPath( sessionManager.cookiePath )
-                        .withExpires( DateTime.now().plusMinutes( sessionManager.cookieExpiration ) )
-                        .withDomain( sessionManager.cookieDomain )
-                        .build()
-                    : null;
+            final String cookie = setCookie ?
+                new HttpResponse.CookieBuilder()
+                    .withSID( cookieId )
+                    .withPath( sessionManager.cookiePath )
+                    .withExpires( DateTime.now().plusMinutes( sessionManager.cookieExpiration ) )
+                    .withDomain( sessionManager.cookieDomain )
+                    .build()
+                : null;
 
+            if( result instanceof CompletionStage<?> )
+                done = ( ( CompletionStage<?> ) result ).toCompletableFuture().thenAccept( value -> {
+                    if( value == null ) response.respond( NO_CONTENT );
+                    else respond( response, value, isRaw, produces, cookie );
+                } );
+            else {
                 if( method.isVoid() ) response.respond( NO_CONTENT );
-                else if( result instanceof HttpResponse )
-                    response.respond( ( ( HttpResponse ) result ).withCookie( cookie ) );
-                else if( result instanceof Optional<?> ) {
-                    response.respond(
-                        ( ( Optional<?> ) result )
-                            .map( r -> HttpResponse.ok( r, isRaw, produces ).withCookie( cookie ) )
-                            .orElseGet( () -> NOT_FOUND )
-                    );
-                } else if( result instanceof Result<?, ?> ) {
-                    final Result<HttpResponse, HttpResponse> resp = ( ( Result<?, ?> ) result )
-                        .mapSuccess( r -> HttpResponse.ok( r, isRaw, produces ).withCookie( cookie ) )
-                        .mapFailure( r -> HttpResponse.status( HTTP_INTERNAL_ERROR, "", r ).withCookie( cookie ) );
-
-                    response.respond( resp.isSuccess() ? ( ( Result<?, ?> ) result )
-                        .mapSuccess( r -> HttpResponse.ok( r, isRaw, produces ).withCookie( cookie ) ).successValue
-                        : ( ( Result<?, ?> ) result )
-                            .mapFailure( r -> HttpResponse.status( HTTP_INTERNAL_ERROR, "", r ).withCookie( cookie ) )
-                            .failureValue );
-
-                } else if( result instanceof Stream<?> ) {
-                    response.respond( HttpResponse.stream( ( Stream<?> ) result, isRaw, produces ).withCookie( cookie ) );
-                } else response.respond( HttpResponse.ok( result, isRaw, produces ).withCookie( cookie ) );
-            } );
+                else respond( response, result, isRaw, produces, cookie );
+                done = CompletableFuture.completedFuture( null );
+            }
+        } catch( RuntimeException e ) {
+            Metrics.measureTimer( route.name, System.nanoTime() - start, TimeUnit.NANOSECONDS );
+            throw e;
         }
+
+        return done.whenComplete( ( v, e ) ->
+            Metrics.measureTimer( route.name, System.nanoTime() - start, TimeUnit.NANOSECONDS ) );
+    }
+
+    private ParameterReader reader( Reflection.Parameter parameter, Optional<WsMethod> wsMethod ) {
+        final String name = parameter.name();
+        final Reflection type = parameter.type();
+        final WsParam.From from = parameter.findAnnotation( WsParam.class )
+            .map( WsParam::from )
+            .orElse( WsParam.From.QUERY );
+
+        switch( from ) {
+            case REQUEST:
+                return ( request, session, path ) -> request;
+            case SESSION:
+                return type.isOptional() ?
+                    ( request, session, path ) -> session.get( name ) :
+                    ( request, session, path ) -> session.get( name ).orElse( null );
+            case HEADER:
+                return ( request, session, path ) -> convert( name, type, request.header( name ) );
+            case PATH:
+                if( !wsMethod.isPresent() ) return ( request, session, path ) -> {
+                    throw new WsException( "path parameter " + name + " without " +
+                        WsMethod.class.getName() + " annotation" );
+                };
+                final int group = WsServices.pathGroup( wsMethod.get().path(), name );
+                return ( request, session, path ) -> convert( name, type,
+                    path != null ? WsServices.pathParam( path, group ) : Optional.empty() );
+            case BODY:
+                if( !type.assignableFrom( byte[].class ) )
+                    return ( request, session, path ) -> convert( name, type, request.readBody() );
+                return type.isOptional() ?
+                    ( request, session, path ) -> request.readBody() :
+                    ( request, session, path ) -> request.readBody()
+                        .orElseThrow( () -> new WsClientException( "no body for " + name ) );
+            default:
+                return type.assignableTo( List.class ) ?
+                    ( request, session, path ) -> convert( type, request.parameters( name ) ) :
+                    ( request, session, path ) -> convert( name, type, request.parameter( name ) );
+        }
+    }
+
+    private void respond( Response response, Object result, Boolean isRaw, ContentType produces, String cookie ) {
+        if( result instanceof HttpResponse )
+            response.respond( ( ( HttpResponse ) result ).withCookie( cookie ) );
+        else if( result instanceof Optional<?> ) {
+            response.respond(
+                ( ( Optional<?> ) result )
+                    .map( r -> HttpResponse.ok( r, isRaw, produces ).withCookie( cookie ) )
+                    .orElseGet( () -> NOT_FOUND )
+            );
+        } else if( result instanceof Result<?, ?> ) {
+            response.respond( ( ( Result<?, ?> ) result ).isSuccess() ? ( ( Result<?, ?> ) result )
+                .mapSuccess( r -> HttpResponse.ok( r, isRaw, produces ).withCookie( cookie ) ).successValue
+                : ( ( Result<?, ?> ) result )
+                    .mapFailure( r -> HttpResponse.status( HTTP_INTERNAL_ERROR, "", r ).withCookie( cookie ) )
+                    .failureValue );
+
+        } else if( result instanceof Stream<?> ) {
+            response.respond( HttpResponse.stream( ( Stream<?> ) result, isRaw, produces ).withCookie( cookie ) );
+        } else response.respond( HttpResponse.ok( result, isRaw, produces ).withCookie( cookie ) );
     }
 
     private HttpResponse runInterceptors( Request request, Session session, Reflection.Method method ) {
@@ -311,4 +327,52 @@ public class WsService implements Handler {
     public String toString() {
         return impl.getClass().getName();
     }
+
+    @FunctionalInterface
+    private interface ParameterReader {
+        Object read( Request request, Session session, Matcher path );
+    }
+
+    /**
+     * Everything dispatch needs about a method, resolved once when the service is bound.
+     */
+    private final class Route {
+        final Reflection.Method method;
+        final Name name;
+        final boolean raw;
+        final ContentType produces;
+        final ParameterReader[] parameters;
+        private volatile Validators.Validator[] validators;
+
+        Route( Reflection.Method method, Optional<WsMethod> wsMethod ) {
+            this.method = method;
+            this.name = Metrics
+                .name( "rest_timer" )
+                .tag( "service", impl.getClass().getSimpleName() )
+                .tag( "method", method.name() );
+            this.raw = wsMethod.map( WsMethod::raw ).orElse( false );
+            this.produces = wsMethod.map( wsm -> ContentType.create( wsm.produces() ).withCharset( UTF_8 ) )
+                .orElse( APPLICATION_JSON );
+
+            this.parameters = new ParameterReader[method.parameters.size()];
+            for( int i = 0; i < parameters.length; i++ )
+                parameters[i] = reader( method.parameters.get( i ), wsMethod );
+        }
+
+        /**
+         * Parameter validators followed by the method one. Resolved on first call, so a misconfigured
+         * validator fails the request rather than the binding.
+         */
+        Validators.Validator[] validators() {
+            Validators.Validator[] result = validators;
+            if( result == null ) {
+                result = new Validators.Validator[parameters.length + 1];
+                for( int i = 0; i < parameters.length; i++ )
+                    result[i] = Validators.forParameter( method.parameters.get( i ), impl );
+                result[parameters.length] = Validators.forMethod( method, impl );
+                validators = result;
+            }
+            return result;
+        }
+    }
 }
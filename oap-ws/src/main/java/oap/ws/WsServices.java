@@ -24,8 +24,6 @@
 
 package oap.ws;
 
-import oap.util.Stream;
-
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -44,18 +42,27 @@ final class WsServices {
         return rxParamPattern.matcher( mapping ).replaceAll( "{$1}" );
     }
 
-    public static Optional<String> pathParam( String mapping, String path, String name ) {
+    /**
+     * @return index of the named parameter in the mapping or -1, the value is in group index + 1
+     */
+    static int pathGroup( String mapping, String name ) {
         Matcher matcher = namedParamPattern.matcher( filter( mapping ) );
-        return Stream.of( matcher::find, matcher::group )
-            .zipWithIndex()
-            .filter( p -> p._1.equals( "/{" + name + "}" ) )
-            .map( p -> p._2 )
-            .findFirst()
-            .flatMap( group -> {
-                Matcher matcher1 = compile( mapping ).matcher( path );
-                return matcher1.matches() && group <= matcher1.groupCount() ?
-                    Optional.of( matcher1.group( group + 1 ) ) :
-                    Optional.<String>empty();
-            } );
+        for( int group = 0; matcher.find(); group++ )
+            if( matcher.group().equals( "/{" + name + "}" ) ) return group;
+        return -1;
+    }
+
+    static Optional<String> pathParam( Matcher matcher, int group ) {
+        return group >= 0 && group < matcher.groupCount() ?
+            Optional.of( matcher.group( group + 1 ) ) :
+            Optional.<String>empty();
+    }
+
+    public static Optional<String> pathParam( String mapping, String path, String name ) {
+        int group = pathGroup( mapping, name );
+        if( group < 0 ) return Optional.empty();
+
+        Matcher matcher = compile( mapping ).matcher( path );
+        return matcher.matches() ? pathParam( matcher, group ) : Optional.<String>empty();
     }
 }
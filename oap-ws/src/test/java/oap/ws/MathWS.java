@@ -29,6 +29,7 @@ import oap.http.Request;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static oap.ws.WsParam.From.BODY;
 import static oap.ws.WsParam.From.REQUEST;
@@ -85,6 +86,20 @@ class MathWS {
         return bytes;
     }
 
+    public CompletableFuture<Integer> sumAsync( int a, int b ) {
+        return CompletableFuture.supplyAsync( () -> a + b );
+    }
+
+    public CompletableFuture<Void> voidAsync() {
+        return CompletableFuture.completedFuture( null );
+    }
+
+    public CompletableFuture<Integer> xAsync() {
+        return CompletableFuture.supplyAsync( () -> {
+            throw new RuntimeException( "failed" );
+        } );
+    }
+
     public static class Bean {
         public int i;
         public String s;
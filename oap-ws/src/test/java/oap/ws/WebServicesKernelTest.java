@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.ws;
+
+import oap.application.Application;
+import oap.application.Kernel;
+import oap.application.Module;
+import oap.http.Protocol;
+import oap.http.cors.GenericCorsPolicy;
+import oap.http.nio.NioServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static oap.http.testng.HttpAsserts.assertGet;
+import static oap.http.testng.HttpAsserts.reset;
+import static oap.testng.Asserts.pathOfTestResource;
+import static org.apache.http.entity.ContentType.APPLICATION_JSON;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebServicesKernelTest {
+    @AfterMethod
+    public void afterMethod() {
+        reset();
+    }
+
+    @Test
+    public void nioProfile() {
+        final Kernel kernel = new Kernel( Module.CONFIGURATION.urlsFromClassPath() );
+        try {
+            kernel.start( pathOfTestResource( getClass(), "application.conf" ) );
+
+            assertThat( Application.<Object>service( "oap-http-nio-server" ) ).isInstanceOf( NioServer.class );
+            assertThat( Application.<Object>service( "oap-ws-webservices" ) ).isInstanceOf( WebServices.class );
+            final WebServices ws = Application.service( "oap-ws-nio-webservices" );
+            ws.bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, Application.service( "session-manager" ),
+                Collections.emptyList(), Protocol.HTTP );
+
+            assertGet( "http://localhost:8881/x/v/math/id?a=aaa" )
+                .responded( 200, "OK", APPLICATION_JSON, "\"aaa\"" );
+        } finally {
+            kernel.stop();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws;
+
+import oap.http.AsyncHandler;
+import oap.http.HttpResponse;
+import oap.http.Protocol;
+import oap.http.cors.GenericCorsPolicy;
+import oap.http.nio.NioServer;
+import oap.testng.Env;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
+import static oap.http.testng.HttpAsserts.assertGet;
+import static oap.http.testng.HttpAsserts.assertPost;
+import static oap.http.testng.HttpAsserts.reset;
+import static org.apache.http.entity.ContentType.APPLICATION_JSON;
+import static org.apache.http.entity.ContentType.APPLICATION_OCTET_STREAM;
+import static org.apache.http.entity.ContentType.TEXT_PLAIN;
+
+public class WebServicesNioTest {
+    private static final SessionManager SESSION_MANAGER = new SessionManager( 10, null, "/" );
+    private NioServer server;
+
+    @BeforeClass
+    public void startServer() {
+        server = new NioServer( Env.port(), 4 );
+        WebServices ws = new WebServices( server, SESSION_MANAGER, GenericCorsPolicy.DEFAULT );
+        ws.bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, SESSION_MANAGER,
+            Collections.emptyList(), Protocol.HTTP );
+        server.bind( "x/h", GenericCorsPolicy.DEFAULT,
+            ( AsyncHandler ) ( request, response ) -> CompletableFuture.runAsync(
+                () -> response.respond( HttpResponse.NO_CONTENT ) ), Protocol.HTTP );
+        server.start();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop();
+        reset();
+    }
+
+    @Test
+    public void invocations() {
+        assertGet( HTTP_PREFIX + "/x/v/math/id?a=aaa" )
+            .responded( 200, "OK", APPLICATION_JSON, "\"aaa\"" );
+        assertGet( HTTP_PREFIX + "/x/v/math/req" )
+            .responded( 200, "OK", APPLICATION_JSON, "\"" + HTTP_PREFIX + "/x/v/math\"" );
+        assertPost( HTTP_PREFIX + "/x/v/math/json", "{\"i\":1,\"s\":\"sss\"}", APPLICATION_OCTET_STREAM )
+            .responded( 200, "OK", APPLICATION_JSON, "{\"i\":1,\"s\":\"sss\"}" );
+        assertGet( HTTP_PREFIX + "/x/v/math/x?i=1&s=2" )
+            .responded( 500, "failed", TEXT_PLAIN.withCharset( StandardCharsets.UTF_8 ), "failed" );
+        assertGet( HTTP_PREFIX + "/x/v/math/unknown" ).hasCode( 404 );
+    }
+
+    @Test
+    public void async() {
+        assertGet( HTTP_PREFIX + "/x/v/math/sumAsync?a=1&b=2" )
+            .responded( 200, "OK", APPLICATION_JSON, "3" );
+        assertGet( HTTP_PREFIX + "/x/v/math/voidAsync" ).hasCode( 204 );
+        assertGet( HTTP_PREFIX + "/x/v/math/xAsync" )
+            .responded( 500, "failed", TEXT_PLAIN.withCharset( StandardCharsets.UTF_8 ), "failed" );
+        assertGet( HTTP_PREFIX + "/x/h/" ).hasCode( 204 )
+            .containsHeader( "Access-Control-Allow-Origin", "*" );
+    }
+}
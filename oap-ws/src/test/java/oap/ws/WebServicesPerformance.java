@@ -24,6 +24,7 @@
 package oap.ws;
 
 import oap.concurrent.SynchronizedThread;
+import oap.io.Closeables;
 import oap.http.cors.GenericCorsPolicy;
 import oap.http.PlainHttpListener;
 import oap.http.Protocol;
@@ -35,7 +36,11 @@ import oap.testng.Env;
 import org.apache.http.entity.ContentType;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
 
@@ -74,7 +79,6 @@ public class WebServicesPerformance extends AbstractPerformance {
             ws.bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, SESSION_MANAGER,
                 Collections.emptyList(), Protocol.HTTP );
             server.start();
-            Thread.sleep( 3000 ); // ??? TODO: fix me
 
             HttpAsserts.reset();
             benchmark( "NioServer.invocations", samples, experiments, 5000, ( number ) -> {
@@ -91,5 +95,75 @@ public class WebServicesPerformance extends AbstractPerformance {
             server.stop();
         }
     }
-}
 
+    @Test
+    public void nio_async() {
+        NioServer server = new NioServer( Env.port() );
+        try {
+            WebServices ws = new WebServices( server, SESSION_MANAGER, GenericCorsPolicy.DEFAULT );
+            ws.bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, SESSION_MANAGER,
+                Collections.emptyList(), Protocol.HTTP );
+            server.start();
+
+            HttpAsserts.reset();
+            benchmark( "NioServer.async-invocations", samples, experiments, 5000,
+                number -> HttpAsserts.assertGet( HTTP_PREFIX + "/x/v/math/sumAsync?a=1&b=2" )
+                    .responded( 200, "OK", ContentType.APPLICATION_JSON, "3" ) );
+
+            HttpAsserts.reset();
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Idle keep-alive connections hold a worker each on the blocking server, so it is given more workers
+     * than connections, the non-blocking one serves the same load with its default pool.
+     */
+    @Test
+    public void idle_connections() throws IOException {
+        final int connections = 2000;
+
+        Server blocking = new Server( connections + 100 );
+        SynchronizedThread listener = new SynchronizedThread( new PlainHttpListener( blocking, Env.port() ) );
+        listener.start();
+        try {
+            new WebServices( blocking, SESSION_MANAGER, GenericCorsPolicy.DEFAULT )
+                .bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, SESSION_MANAGER,
+                    Collections.emptyList(), Protocol.HTTP );
+            idle( connections, "Server.invocations-idle-" + connections );
+        } finally {
+            listener.stop();
+            blocking.stop();
+        }
+
+        NioServer nio = new NioServer( Env.port() );
+        try {
+            new WebServices( nio, SESSION_MANAGER, GenericCorsPolicy.DEFAULT )
+                .bind( "x/v/math", GenericCorsPolicy.DEFAULT, new MathWS(), false, SESSION_MANAGER,
+                    Collections.emptyList(), Protocol.HTTP );
+            nio.start();
+            idle( connections, "NioServer.invocations-idle-" + connections );
+        } finally {
+            nio.stop();
+        }
+    }
+
+    private void idle( int connections, String name ) throws IOException {
+        final List<Socket> sockets = new ArrayList<>();
+        try {
+            final int threads = Thread.activeCount();
+            for( int i = 0; i < connections; i++ ) sockets.add( new Socket( "localhost", Env.port() ) );
+            HttpAsserts.assertGet( HTTP_PREFIX + "/x/v/math/id?a=aaa" ).hasCode( 200 );
+            System.out.println( name + ": threads +" + ( Thread.activeCount() - threads ) );
+
+            HttpAsserts.reset();
+            benchmark( name, samples, experiments, 100,
+                number -> HttpAsserts.assertGet( HTTP_PREFIX + "/x/v/math/id?a=aaa" )
+                    .responded( 200, "OK", ContentType.APPLICATION_JSON, "\"aaa\"" ) );
+            HttpAsserts.reset();
+        } finally {
+            sockets.forEach( Closeables::close );
+        }
+    }
+}
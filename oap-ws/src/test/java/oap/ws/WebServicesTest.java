@@ -87,6 +87,12 @@ public class WebServicesTest extends AbstractWebServicesTest {
             .responded( 200, "OK", APPLICATION_JSON, "{\"i\":1,\"s\":\"sss\"}" );
         assertGet( HTTP_PREFIX + "/x/v/math/code?code=204" )
             .hasCode( 204 );
+        assertGet( HTTP_PREFIX + "/x/v/math/sumAsync?a=1&b=2" )
+            .responded( 200, "OK", APPLICATION_JSON, "3" );
+        assertGet( HTTP_PREFIX + "/x/v/math/voidAsync" )
+            .hasCode( 204 );
+        assertGet( HTTP_PREFIX + "/x/v/math/xAsync" )
+            .responded( 500, "failed", TEXT_PLAIN.withCharset( StandardCharsets.UTF_8 ), "failed" );
         assertEquals(
             Metrics.snapshot( Metrics.name( "rest_timer" )
                 .tag( "service", MathWS.class.getSimpleName() )
@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws;
+
+import oap.http.Request;
+import oap.testng.AbstractTest;
+import org.testng.annotations.Test;
+
+import static oap.http.Request.HttpMethod.GET;
+import static oap.http.Request.HttpMethod.POST;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WsRoutesTest extends AbstractTest {
+    @Test
+    public void find() {
+        final WsRoutes<String> routes = new WsRoutes<>();
+        routes.add( "y", new Request.HttpMethod[] { GET }, "/y/{year:(\\d{4})}/{month}" );
+        routes.add( "literal", new Request.HttpMethod[] { GET, POST }, "/y/2009/April" );
+        routes.add( "any", new Request.HttpMethod[] { GET }, "/{name}" );
+        routes.add( "post", new Request.HttpMethod[] { POST }, "/post" );
+
+        assertThat( routes.find( GET, "/y/2009/April" ).target() ).isEqualTo( "y" );
+        assertThat( routes.find( GET, "/y/2009/April" ).path.group( 1 ) ).isEqualTo( "2009" );
+        assertThat( routes.find( POST, "/y/2009/April" ).target() ).isEqualTo( "literal" );
+        assertThat( routes.find( POST, "/y/2009/April" ).path ).isNull();
+        assertThat( routes.find( GET, "/post" ).target() ).isEqualTo( "any" );
+        assertThat( routes.find( POST, "/post" ).target() ).isEqualTo( "post" );
+        assertThat( routes.find( GET, "/y/20/April" ) ).isNull();
+        assertThat( routes.find( POST, "/unknown" ) ).isNull();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws;
+
+import oap.http.Context;
+import oap.http.Request;
+import oap.http.Response;
+import oap.http.cors.RequestCors;
+import oap.testng.AbstractPerformance;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.Collections;
+
+import static oap.http.Request.HttpMethod.GET;
+import static oap.ws.WsParam.From.PATH;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Dispatch cost of {@link WsService} alone, without the http stack, for a service with many methods.
+ */
+@Test( enabled = false )
+public class WsServicePerformance extends AbstractPerformance {
+    private static final int SAMPLES = 1000000;
+    private static final int EXPERIMENTS = 5;
+    private static final RequestCors CORS = new RequestCors( RequestCors.NO_ORIGIN, "", false, false );
+
+    @Test
+    public void dispatch() throws Exception {
+        final WsService service = new WsService( new RoutesWS(), false,
+            new SessionManager( 10, null, "/" ), Collections.emptyList() );
+        final Context context = new Context( "/x", InetAddress.getLoopbackAddress(), "HTTP" );
+
+        for( String uri : new String[] { "/x/m0?a=1", "/x/m47?a=1", "/x/p15/1", "/x/unknown" } ) {
+            final Request request = new Request( new BasicHttpRequest( "GET", uri, HttpVersion.HTTP_1_1 ), context );
+            final BasicHttpResponse response = new BasicHttpResponse( HttpVersion.HTTP_1_1, 200, "OK" );
+
+            service.handleAsync( request, new Response( response, CORS ) ).join();
+            assertThat( response.getStatusLine().getStatusCode() ).isIn( 200, 404 );
+
+            benchmark( "ws.dispatch" + uri.replace( '/', '-' ).replace( '?', '-' ), SAMPLES, EXPERIMENTS,
+                i -> service.handleAsync( request, new Response( response, CORS ) ) );
+        }
+    }
+
+    public static class RoutesWS {
+        public int m0( int a ) {
+            return a + 0;
+        }
+
+        public int m1( int a ) {
+            return a + 1;
+        }
+
+        public int m2( int a ) {
+            return a + 2;
+        }
+
+        public int m3( int a ) {
+            return a + 3;
+        }
+
+        public int m4( int a ) {
+            return a + 4;
+        }
+
+        public int m5( int a ) {
+            return a + 5;
+        }
+
+        public int m6( int a ) {
+            return a + 6;
+        }
+
+        public int m7( int a ) {
+            return a + 7;
+        }
+
+        public int m8( int a ) {
+            return a + 8;
+        }
+
+        public int m9( int a ) {
+            return a + 9;
+        }
+
+        public int m10( int a ) {
+            return a + 10;
+        }
+
+        public int m11( int a ) {
+            return a + 11;
+        }
+
+        public int m12( int a ) {
+            return a + 12;
+        }
+
+        public int m13( int a ) {
+            return a + 13;
+        }
+
+        public int m14( int a ) {
+            return a + 14;
+        }
+
+        public int m15( int a ) {
+            return a + 15;
+        }
+
+        public int m16( int a ) {
+            return a + 16;
+        }
+
+        public int m17( int a ) {
+            return a + 17;
+        }
+
+        public int m18( int a ) {
+            return a + 18;
+        }
+
+        public int m19( int a ) {
+            return a + 19;
+        }
+
+        public int m20( int a ) {
+            return a + 20;
+        }
+
+        public int m21( int a ) {
+            return a + 21;
+        }
+
+        public int m22( int a ) {
+            return a + 22;
+        }
+
+        public int m23( int a ) {
+            return a + 23;
+        }
+
+        public int m24( int a ) {
+            return a + 24;
+        }
+
+        public int m25( int a ) {
+            return a + 25;
+        }
+
+        public int m26( int a ) {
+            return a + 26;
+        }
+
+        public int m27( int a ) {
+            return a + 27;
+        }
+
+        public int m28( int a ) {
+            return a + 28;
+        }
+
+        public int m29( int a ) {
+            return a + 29;
+        }
+
+        public int m30( int a ) {
+            return a + 30;
+        }
+
+        public int m31( int a ) {
+            return a + 31;
+        }
+
+        public int m32( int a ) {
+            return a + 32;
+        }
+
+        public int m33( int a ) {
+            return a + 33;
+        }
+
+        public int m34( int a ) {
+            return a + 34;
+        }
+
+        public int m35( int a ) {
+            return a + 35;
+        }
+
+        public int m36( int a ) {
+            return a + 36;
+        }
+
+        public int m37( int a ) {
+            return a + 37;
+        }
+
+        public int m38( int a ) {
+            return a + 38;
+        }
+
+        public int m39( int a ) {
+            return a + 39;
+        }
+
+        public int m40( int a ) {
+            return a + 40;
+        }
+
+        public int m41( int a ) {
+            return a + 41;
+        }
+
+        public int m42( int a ) {
+            return a + 42;
+        }
+
+        public int m43( int a ) {
+            return a + 43;
+        }
+
+        public int m44( int a ) {
+            return a + 44;
+        }
+
+        public int m45( int a ) {
+            return a + 45;
+        }
+
+        public int m46( int a ) {
+            return a + 46;
+        }
+
+        public int m47( int a ) {
+            return a + 47;
+        }
+
+        @WsMethod( method = GET, path = "/p0/{a}" )
+        public int p0( @WsParam( from = PATH ) int a ) {
+            return a + 0;
+        }
+
+        @WsMethod( method = GET, path = "/p1/{a}" )
+        public int p1( @WsParam( from = PATH ) int a ) {
+            return a + 1;
+        }
+
+        @WsMethod( method = GET, path = "/p2/{a}" )
+        public int p2( @WsParam( from = PATH ) int a ) {
+            return a + 2;
+        }
+
+        @WsMethod( method = GET, path = "/p3/{a}" )
+        public int p3( @WsParam( from = PATH ) int a ) {
+            return a + 3;
+        }
+
+        @WsMethod( method = GET, path = "/p4/{a}" )
+        public int p4( @WsParam( from = PATH ) int a ) {
+            return a + 4;
+        }
+
+        @WsMethod( method = GET, path = "/p5/{a}" )
+        public int p5( @WsParam( from = PATH ) int a ) {
+            return a + 5;
+        }
+
+        @WsMethod( method = GET, path = "/p6/{a}" )
+        public int p6( @WsParam( from = PATH ) int a ) {
+            return a + 6;
+        }
+
+        @WsMethod( method = GET, path = "/p7/{a}" )
+        public int p7( @WsParam( from = PATH ) int a ) {
+            return a + 7;
+        }
+
+        @WsMethod( method = GET, path = "/p8/{a}" )
+        public int p8( @WsParam( from = PATH ) int a ) {
+            return a + 8;
+        }
+
+        @WsMethod( method = GET, path = "/p9/{a}" )
+        public int p9( @WsParam( from = PATH ) int a ) {
+            return a + 9;
+        }
+
+        @WsMethod( method = GET, path = "/p10/{a}" )
+        public int p10( @WsParam( from = PATH ) int a ) {
+            return a + 10;
+        }
+
+        @WsMethod( method = GET, path = "/p11/{a}" )
+        public int p11( @WsParam( from = PATH ) int a ) {
+            return a + 11;
+        }
+
+        @WsMethod( method = GET, path = "/p12/{a}" )
+        public int p12( @WsParam( from = PATH ) int a ) {
+            return a + 12;
+        }
+
+        @WsMethod( method = GET, path = "/p13/{a}" )
+        public int p13( @WsParam( from = PATH ) int a ) {
+            return a + 13;
+        }
+
+        @WsMethod( method = GET, path = "/p14/{a}" )
+        public int p14( @WsParam( from = PATH ) int a ) {
+            return a + 14;
+        }
+
+        @WsMethod( method = GET, path = "/p15/{a}" )
+        public int p15( @WsParam( from = PATH ) int a ) {
+            return a + 15;
+        }
+    }
+}